@@ -0,0 +1,131 @@
+package statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each calculation of the final statistics over a synthetic CSV, written with its time
+ * index by CsvStatsWriter as a run would. Each calculation reads the whole file, so one call is
+ * timed at a time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class CsvStatsReaderBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int rows;
+
+    private File dir;
+    private CsvStatsReader reader;
+    private long start;
+    private long end;
+    private Map<String, Integer> maxByPath;
+    private Map<String, Integer> p99ByPath;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("csv-reader-bench").toFile();
+        String csvPath = new File(dir, "requests.csv").getPath();
+        BlockingQueue<SingleRequestStatistics[]> queue = new LinkedBlockingQueue<>();
+        CsvStatsWriter writer = new CsvStatsWriter(csvPath, queue);
+        writer.initCsvFile();
+        Thread loop = writer.startWriteLoop();
+
+        start = System.currentTimeMillis();
+        int chunkSize = StatsWriteBenchmark.CHUNK_SIZE;
+        for (long first = 0; first < rows; first += chunkSize) {
+            int count = (int) Math.min(chunkSize, rows - first);
+            queue.put(StatsWriteBenchmark.syntheticStats(start, first, count));
+        }
+        queue.put(new SingleRequestStatistics[0]);
+        loop.join();
+        // One request was started per millisecond
+        end = start + rows;
+
+        reader = new CsvStatsReader(csvPath);
+        maxByPath = reader.calculateMaxLatencies();
+        p99ByPath = reader.calculateP99Latencies(maxByPath);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public Map<String, Double> meanLatencies() throws IOException {
+        return reader.calculateMeanLatencies();
+    }
+
+    @Benchmark
+    public Map<String, Integer> maxLatencies() throws IOException {
+        return reader.calculateMaxLatencies();
+    }
+
+    @Benchmark
+    public Map<String, Integer> medianLatencies() throws IOException {
+        return reader.calculateMedianLatencies(maxByPath);
+    }
+
+    @Benchmark
+    public Map<String, Integer> p99Latencies() throws IOException {
+        return reader.calculateP99Latencies(maxByPath);
+    }
+
+    @Benchmark
+    public RunSummary runSummary() throws IOException {
+        return reader.calculateRunSummary();
+    }
+
+    @Benchmark
+    public RunSummary partitionSummary() throws IOException {
+        return reader.calculatePartitionSummary();
+    }
+
+    @Benchmark
+    public HotKeyAnalysis hotKeys() throws IOException {
+        return reader.calculateHotKeys(p99ByPath, start);
+    }
+
+    @Benchmark
+    public long[] numRequestsByMin() throws IOException {
+        return reader.calculateNumRequestsByMin(start, end);
+    }
+
+    /**
+     * Queries a window of a tenth of the run from its middle, so both edges cut index buckets.
+     */
+    @Benchmark
+    public Map<String, LatencyHistogram> queryTimeWindow() throws IOException {
+        long middle = start + rows / 2;
+        return reader.queryTimeWindow(middle - rows / 20 + 1, middle + rows / 20 + 1, null);
+    }
+}
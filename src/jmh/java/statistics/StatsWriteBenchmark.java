@@ -0,0 +1,193 @@
+package statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client's cost of keeping each request's statistics: recording them, handing them to
+ * the writer thread, and writing them to the CSV and its time index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsWriteBenchmark {
+
+    // Same as a runner's chunk size
+    static final int CHUNK_SIZE = 1000;
+    private static final int CHUNKS_PER_WRITE = 100;
+
+    /**
+     * Statistics for a spread of requests, as a runner would record them, one per millisecond.
+     *
+     * @param start the start time of the first request
+     * @param first the index of the first request, so that consecutive calls continue the spread
+     * @param count the number of requests
+     * @return the statistics
+     */
+    static SingleRequestStatistics[] syntheticStats(long start, long first, int count) {
+        SingleRequestStatistics[] stats = new SingleRequestStatistics[count];
+        for (int j = 0; j < count; j++) {
+            long i = first + j;
+            int latency = (int) (i * 7919 % 97);
+            int skierId = (int) (1 + i * 31 % 20000);
+            stats[j] = i % 10 < 7
+                    ? new SingleRequestStatistics("POST", "/skiers/liftrides", start + i,
+                    5 + latency, 201, 2, skierId, (int) (1 + i % 40), (int) (91 + i % 270),
+                    "Silver Mountain", 1, 120, 0)
+                    : new SingleRequestStatistics("GET",
+                    "/skiers/{resortID}/days/{dayID}/skiers/{skierID}", start + i, 8 + latency,
+                    200, 2, skierId, SingleRequestStatistics.NO_KEY, SingleRequestStatistics.NO_KEY,
+                    "Silver Mountain", 1, 0, 64);
+        }
+        return stats;
+    }
+
+    /**
+     * A runner's buffer of stats, as filled by PhaseRunner.appendStats().
+     */
+    @State(Scope.Thread)
+    public static class RecordState {
+        SingleRequestStatistics[] buffer = new SingleRequestStatistics[CHUNK_SIZE];
+        int index;
+        long start = System.currentTimeMillis();
+    }
+
+    /**
+     * Stats to turn into CSV lines.
+     */
+    @State(Scope.Thread)
+    public static class CsvLineState {
+        CsvStatsWriter writer = new CsvStatsWriter("csv-line-bench.csv", null);
+        SingleRequestStatistics[] chunk = syntheticStats(System.currentTimeMillis(), 0, CHUNK_SIZE);
+    }
+
+    /**
+     * A newly opened CSV writer with stats to write.
+     */
+    @State(Scope.Thread)
+    public static class WriterState {
+        File dir;
+        CsvStatsWriter writer;
+        SingleRequestStatistics[] chunk;
+        BlockingQueue<SingleRequestStatistics[]> queue = new LinkedBlockingQueue<>();
+
+        @Setup(Level.Trial)
+        public void setUpTrial() throws IOException {
+            dir = Files.createTempDirectory("stats-write-bench").toFile();
+            chunk = syntheticStats(System.currentTimeMillis(), 0, CHUNK_SIZE);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUpInvocation() {
+            writer = new CsvStatsWriter(new File(dir, "requests.csv").getPath(), queue);
+            writer.initCsvFile();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * The run's statistics, with the queue runners hand their chunks to.
+     */
+    @State(Scope.Group)
+    public static class HandoffState {
+        BulkRequestStatistics stats;
+        BlockingQueue<SingleRequestStatistics[]> queue;
+        SingleRequestStatistics[] chunk;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            // The CSV is never opened, only the queue is used
+            stats = new BulkRequestStatistics("handoff-bench");
+            queue = stats.getWriteQueue();
+            chunk = syntheticStats(System.currentTimeMillis(), 0, CHUNK_SIZE);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            queue.clear();
+        }
+    }
+
+    @Benchmark
+    public SingleRequestStatistics recordRequest(RecordState state) {
+        SingleRequestStatistics stats = new SingleRequestStatistics("POST", "/skiers/liftrides",
+                state.start, 12, 201, 2, 4711, 17, 120, "Silver Mountain", 1, 120, 0);
+        state.buffer[state.index] = stats;
+        state.index++;
+        if (state.index == state.buffer.length) {
+            state.index = 0;
+        }
+        return stats;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public int buildCsvLine(CsvLineState state) {
+        int length = 0;
+        for (SingleRequestStatistics stats : state.chunk) {
+            length += state.writer.buildCsvLine(stats).length();
+        }
+        return length;
+    }
+
+    /**
+     * Writes a batch of chunks through the write loop, from the first take to the closed file, per
+     * request.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE * CHUNKS_PER_WRITE)
+    public void writeLoop(WriterState state) throws InterruptedException {
+        Thread loop = state.writer.startWriteLoop();
+        for (int i = 0; i < CHUNKS_PER_WRITE; i++) {
+            state.queue.put(state.chunk);
+        }
+        state.queue.put(new SingleRequestStatistics[0]);
+        loop.join();
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public void handoffPush(HandoffState state) {
+        state.stats.pushDataToWriter(state.chunk);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public SingleRequestStatistics[] handoffTake(HandoffState state) {
+        // Polls rather than takes, so the writer side never blocks past the end of an iteration
+        return state.queue.poll();
+    }
+}
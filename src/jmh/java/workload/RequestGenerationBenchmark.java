@@ -0,0 +1,107 @@
+package workload;
+
+import io.swagger.client.model.LiftRide;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client's cost of generating a request before it is sent: drawing its keys, building
+ * its descriptor and filling in the LiftRide of a POST, with the RequestGenerator runners use and a
+ * peak phase runner's ranges.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestGenerationBenchmark {
+
+    // Ranges of a peak phase runner with the example arguments: 20000 skiers over 256 runners, 40
+    // lifts, minutes 91 to 360, and three resorts and days so that those are drawn too
+    private static final int NUM_SKIERS_PER_RUNNER = 78;
+    private static final int NUM_LIFTS = 40;
+    private static final int FIRST_TIME = 91;
+    private static final int LAST_TIME = 360;
+    private static final String[] RESORTS = {"Silver Mountain", "Whistler", "Revelstoke"};
+    private static final Integer[] DAYS = {1, 2, 3};
+
+    @Param({"uniform", "zipf", "hotspot", "sequential"})
+    public String distribution;
+
+    private SplittableRandom rand;
+    private KeyDistribution skierIds;
+    private KeyDistribution times;
+    private KeyDistribution lifts;
+    private RequestGenerator generator;
+    private Endpoint postLiftRide;
+    private Endpoint getDayVertical;
+    private LiftRide liftRide;
+    private long runStart;
+
+    @Setup
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty("skierDistribution", distribution);
+        props.setProperty("liftDistribution", distribution);
+        props.setProperty("timeDistribution", distribution);
+        Map<String, Endpoint> endpoints = Endpoint.fromProperties(props);
+
+        rand = new SplittableRandom(42);
+        skierIds = DistributionSpec.fromProperties(props, "skier").create(1, NUM_SKIERS_PER_RUNNER);
+        lifts = DistributionSpec.fromProperties(props, "lift").create(1, NUM_LIFTS);
+        times = DistributionSpec.fromProperties(props, "time").create(FIRST_TIME, LAST_TIME);
+        generator = new RequestGenerator(rand, 2, 0, lifts,
+                new WeightedChoice<>(new ArrayList<>(Arrays.asList(RESORTS)), null),
+                new WeightedChoice<>(new ArrayList<>(Arrays.asList(DAYS)), null));
+        generator.setSkierIds(skierIds);
+        generator.setTimes(times);
+        postLiftRide = endpoints.get(Endpoint.POST_LIFT_RIDE);
+        getDayVertical = endpoints.get(Endpoint.GET_DAY_VERTICAL);
+        liftRide = new LiftRide();
+        runStart = System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public int nextSkierId() {
+        return skierIds.next(rand);
+    }
+
+    @Benchmark
+    public int nextTime() {
+        return times.next(rand);
+    }
+
+    @Benchmark
+    public int nextLift() {
+        return lifts.next(rand);
+    }
+
+    @Benchmark
+    public RequestDescriptor newGetRequest() {
+        return generator.next(getDayVertical, System.currentTimeMillis() - runStart);
+    }
+
+    @Benchmark
+    public LiftRide newPostRequest() {
+        RequestDescriptor request =
+                generator.next(postLiftRide, System.currentTimeMillis() - runStart);
+        RequestGenerator.fillLiftRide(liftRide, request);
+        return liftRide;
+    }
+}
@@ -1,7 +1,24 @@
+import faultproxy.FaultSpec;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.SplittableRandom;
+import statistics.BulkRequestStatistics;
+import workload.DistributionSpec;
+import workload.Endpoint;
+import workload.HostBalancer;
+import workload.RequestMix;
+import workload.RequestPolicy;
+import workload.RequestThrottle;
+import workload.WeightedChoice;
 
 /**
  * Basic class to store command line arguments. Once created, an instance
@@ -11,25 +28,168 @@ public class Arguments {
 
     final private int maxThreads;
     final private int numSkiers;
+    final private int firstSkierId;
     final private int numSkiLifts;
-    final private int skiDay;
+    final private List<Integer> skiDays;
     final private int dayLengthMinutes = 420; // stored here because potentially customizable in future
-    final private String resort;
-    final private String hostAddress;
+    final private List<String> resorts;
+    final private List<String> hostAddresses;
     final private String csvFilename;
+    final private boolean excludeWarmup;
+    final private boolean soakMode;
+    final private int checkpointIntervalSecs;
+    final private double csvSampleRate;
+    final private DistributionSpec skierDistribution;
+    final private DistributionSpec liftDistribution;
+    final private DistributionSpec timeDistribution;
+    final private boolean sharedKeyRange;
+    final private long seed;
+    final private String traceFilename;
+    final private Map<String, Endpoint> endpoints;
+    final private Map<String, Endpoint> endpointsByKey = new HashMap<>();
+    final private RequestMix[] requestMixes;
+    final private List<WeightedChoice<String>> resortChoices;
+    final private List<WeightedChoice<Integer>> dayChoices;
+    final private double maxRequestsPerSec;
+    final private Map<String, Double> maxRequestsPerSecByKey;
+    final private int rateLimitBurst;
+    final private int[] phaseDurationSecs;
+    final private int[] phaseTimeoutSecs;
+    final private int preWarmRounds;
+    final private HostBalancer.Policy loadBalancing;
+    final private int hostEjectFailures;
+    final private int hostEjectSecs;
+    final private RequestPolicy requestPolicy;
+    final private String ceilingFilename;
+    final private double ceilingWarningPct;
+    final private int monitorIntervalSecs;
+    final private double visibilitySampleRate;
+    final private int visibilityPollMs;
+    final private int visibilityTimeoutMs;
+    final private int batchSize;
+    final private int batchWaitMs;
+    final private String batchPath;
+    final private String sloFilename;
+    final private FaultSpec faultSpec;
 
     /**
      * Private constructor for use with factory methods.
      */
-    private Arguments(int maxThreads, int numSkiers, int numSkiLifts, int skiDay,
-                      String resort, String hostAddress, String csvFilename) {
+    private Arguments(int maxThreads, int numSkiers, int firstSkierId, int numSkiLifts,
+                      List<Integer> skiDays,
+                      List<String> resorts, List<String> hostAddresses, String csvFilename,
+                      boolean excludeWarmup, boolean soakMode, int checkpointIntervalSecs,
+                      double csvSampleRate, DistributionSpec skierDistribution,
+                      DistributionSpec liftDistribution, DistributionSpec timeDistribution,
+                      boolean sharedKeyRange, long seed, String traceFilename,
+                      Map<String, Endpoint> endpoints, RequestMix[] requestMixes,
+                      List<WeightedChoice<String>> resortChoices,
+                      List<WeightedChoice<Integer>> dayChoices, double maxRequestsPerSec,
+                      Map<String, Double> maxRequestsPerSecByKey, int rateLimitBurst,
+                      int[] phaseDurationSecs, int[] phaseTimeoutSecs, int preWarmRounds,
+                      HostBalancer.Policy loadBalancing, int hostEjectFailures,
+                      int hostEjectSecs, RequestPolicy requestPolicy, String ceilingFilename,
+                      double ceilingWarningPct, int monitorIntervalSecs,
+                      double visibilitySampleRate, int visibilityPollMs,
+                      int visibilityTimeoutMs, int batchSize, int batchWaitMs,
+                      String batchPath, String sloFilename, FaultSpec faultSpec) {
         this.maxThreads = maxThreads;
         this.numSkiers = numSkiers;
+        this.firstSkierId = firstSkierId;
         this.numSkiLifts = numSkiLifts;
-        this.skiDay = skiDay;
-        this.resort = resort;
-        this.hostAddress = hostAddress;
+        this.skiDays = skiDays;
+        this.resorts = resorts;
+        this.hostAddresses = hostAddresses;
         this.csvFilename = csvFilename;
+        this.excludeWarmup = excludeWarmup;
+        this.soakMode = soakMode;
+        this.checkpointIntervalSecs = checkpointIntervalSecs;
+        this.csvSampleRate = csvSampleRate;
+        this.skierDistribution = skierDistribution;
+        this.liftDistribution = liftDistribution;
+        this.timeDistribution = timeDistribution;
+        this.sharedKeyRange = sharedKeyRange;
+        this.seed = seed;
+        this.traceFilename = traceFilename;
+        this.endpoints = endpoints;
+        this.requestMixes = requestMixes;
+        this.resortChoices = resortChoices;
+        this.dayChoices = dayChoices;
+        this.maxRequestsPerSec = maxRequestsPerSec;
+        this.maxRequestsPerSecByKey = maxRequestsPerSecByKey;
+        this.rateLimitBurst = rateLimitBurst;
+        this.phaseDurationSecs = phaseDurationSecs;
+        this.phaseTimeoutSecs = phaseTimeoutSecs;
+        this.preWarmRounds = preWarmRounds;
+        this.loadBalancing = loadBalancing;
+        this.hostEjectFailures = hostEjectFailures;
+        this.hostEjectSecs = hostEjectSecs;
+        this.requestPolicy = requestPolicy;
+        this.ceilingFilename = ceilingFilename;
+        this.ceilingWarningPct = ceilingWarningPct;
+        this.monitorIntervalSecs = monitorIntervalSecs;
+        this.visibilitySampleRate = visibilitySampleRate;
+        this.visibilityPollMs = visibilityPollMs;
+        this.visibilityTimeoutMs = visibilityTimeoutMs;
+        this.batchSize = batchSize;
+        this.batchWaitMs = batchWaitMs;
+        this.batchPath = batchPath;
+        this.sloFilename = sloFilename;
+        this.faultSpec = faultSpec;
+        for (Endpoint endpoint : endpoints.values()) {
+            endpointsByKey.put(endpoint.getKey(), endpoint);
+        }
+    }
+
+    /**
+     * Private copy constructor, taking every argument from another instance but the host
+     * addresses.
+     */
+    private Arguments(Arguments source, List<String> hostAddresses) {
+        this.maxThreads = source.maxThreads;
+        this.numSkiers = source.numSkiers;
+        this.firstSkierId = source.firstSkierId;
+        this.numSkiLifts = source.numSkiLifts;
+        this.skiDays = source.skiDays;
+        this.resorts = source.resorts;
+        this.hostAddresses = hostAddresses;
+        this.csvFilename = source.csvFilename;
+        this.excludeWarmup = source.excludeWarmup;
+        this.soakMode = source.soakMode;
+        this.checkpointIntervalSecs = source.checkpointIntervalSecs;
+        this.csvSampleRate = source.csvSampleRate;
+        this.skierDistribution = source.skierDistribution;
+        this.liftDistribution = source.liftDistribution;
+        this.timeDistribution = source.timeDistribution;
+        this.sharedKeyRange = source.sharedKeyRange;
+        this.seed = source.seed;
+        this.traceFilename = source.traceFilename;
+        this.endpoints = source.endpoints;
+        this.requestMixes = source.requestMixes;
+        this.resortChoices = source.resortChoices;
+        this.dayChoices = source.dayChoices;
+        this.maxRequestsPerSec = source.maxRequestsPerSec;
+        this.maxRequestsPerSecByKey = source.maxRequestsPerSecByKey;
+        this.rateLimitBurst = source.rateLimitBurst;
+        this.phaseDurationSecs = source.phaseDurationSecs;
+        this.phaseTimeoutSecs = source.phaseTimeoutSecs;
+        this.preWarmRounds = source.preWarmRounds;
+        this.loadBalancing = source.loadBalancing;
+        this.hostEjectFailures = source.hostEjectFailures;
+        this.hostEjectSecs = source.hostEjectSecs;
+        this.requestPolicy = source.requestPolicy;
+        this.ceilingFilename = source.ceilingFilename;
+        this.ceilingWarningPct = source.ceilingWarningPct;
+        this.monitorIntervalSecs = source.monitorIntervalSecs;
+        this.visibilitySampleRate = source.visibilitySampleRate;
+        this.visibilityPollMs = source.visibilityPollMs;
+        this.visibilityTimeoutMs = source.visibilityTimeoutMs;
+        this.batchSize = source.batchSize;
+        this.batchWaitMs = source.batchWaitMs;
+        this.batchPath = source.batchPath;
+        this.sloFilename = source.sloFilename;
+        this.faultSpec = source.faultSpec;
+        this.endpointsByKey.putAll(source.endpointsByKey);
     }
 
     /**
@@ -37,11 +197,80 @@ public class Arguments {
      * Available properties:
      *   - maxThreads (min:4)
      *   - numSkiers (default: 50000, min: 1, max: 50000)
+     *   - firstSkierId (default: 1, min: 1): the lowest skier ID requested, so that clients sharing
+     *     a server can be given separate skiers. The highest is firstSkierId + numSkiers - 1, at
+     *     most 50000.
      *   - numSkiLifts (default: 40, min: 5, max:60)
-     *   - skiDay (default: 1, min: 1, max: 366)
-     *   - resort: String
-     *   - hostAddress: String
+     *   - skiDay (default: 1, min: 1, max: 366): a day, or a comma separated list of days and
+     *     ranges such as "1-5,10"
+     *   - resort: String, or a comma separated list of resorts
+     *   - resortWeights, dayWeights (default: equal): comma separated relative weights, one per
+     *     resort or day, for how often each one is requested
+     *   - phase(N).resortWeights, phase(N).dayWeights: override the weights for phase N
+     *   - hostAddress: String, or a comma separated list of server hosts to spread requests over
+     *   - loadBalancing (default: roundRobin): how a host is picked for each request, one of
+     *     roundRobin, leastOutstanding or powerOfTwo, see HostBalancer
+     *   - hostEjectFailures (default: 5, min: 0): consecutive failed requests after which a host is
+     *     left out for a while, 0 to never leave a host out
+     *   - hostEjectSecs (default: 30, min: 1): how long a failing host is left out
      *   - csvFilename: String
+     *   - excludeWarmup (default: false): leave phase 1 out of the headline statistics
+     *   - soakMode (default: false): keep only streaming summaries, for long runs
+     *   - checkpointIntervalSecs (default: 60, min: 1): soak mode checkpoint interval
+     *   - csvSampleRate (default: 1, min: 0, max: 1): fraction of requests written to the CSV in
+     *     soak mode
+     *   - skierDistribution, liftDistribution, timeDistribution (default: uniform): how keys are
+     *     drawn, one of uniform, zipf, hotspot or sequential. Each is tuned with the matching
+     *     (prefix)ZipfExponent, (prefix)HotKeyFraction and (prefix)HotTrafficFraction properties,
+     *     see DistributionSpec.
+     *   - keyRangeMode (default: partitioned): partitioned gives each thread its own slice of the
+     *     skier IDs, shared lets every thread draw from all of them
+     *   - seed (default: random): workload seed, a given seed always gives each thread the same
+     *     sequence of requests
+     *   - traceFilename: String, records every request to this file for replay
+     *   - endpoints: further API endpoints that requests can be sent to, see Endpoint
+     *   - requestMix: weighted endpoints for all phases, e.g. "postLiftRide:70,getDayVertical:20,
+     *     getResortVertical:10". Each request picks its endpoint from the mix. Without a mix, runners
+     *     send all their POSTs and then their GETs, as in the assignment.
+     *   - phase(N).requestMix: overrides requestMix for phase N
+     *   - maxRequestsPerSec (default: 0, no limit): caps the requests sent by all threads together
+     *   - maxRequestsPerSec.(endpoint): caps the requests sent to one endpoint, by name
+     *   - rateLimitBurst (default: 1, min: 1): requests that can be sent at once after the client
+     *     falls behind its limit, e.g. while waiting on slow responses
+     *   - phaseDurationSecs (default: 0, off): runs each phase for this long instead of for a fixed
+     *     number of requests, with threads repeating their requests until time is up
+     *   - phaseTimeoutSecs (default: 0, off): ends a phase after this long even if its threads have
+     *     not sent all their requests
+     *   - phase(N).durationSecs, phase(N).timeoutSecs: override the above for phase N. A phase can
+     *     have a duration or a timeout, not both. Requests still in flight when a phase ends are
+     *     cancelled and reported as timed out; requests never sent are reported as abandoned.
+     *   - preWarmRounds (default: 0, off): before the run is timed, every thread sends this many
+     *     requests to each endpoint, so that connections are open and the client code is compiled
+     *     when measuring starts. Pre-warm POSTs are written to the server like any other.
+     *   - maxRetries, retryBaseDelayMs, retryMaxDelayMs, retryBudget, retryPosts,
+     *     requestDeadlineMs, hedgeGets, hedgeDelayMs, hedgePercentile: how requests are retried,
+     *     timed out and hedged, see RequestPolicy
+     *   - ceilingFilename (default: client-ceiling.properties): the client's own ceiling, written by
+     *     calibrate mode. If the file exists, runs are checked against it.
+     *   - ceilingWarningPct (default: 10, min: 0, max: 100): warn when a run's throughput is within
+     *     this many percent of the client's ceiling for its thread count
+     *   - monitorIntervalSecs (default: 1, min: 0): how often the client's own JVM is sampled for
+     *     GC pauses, CPU, allocation, threads and heap, 0 to not sample it
+     *   - visibilitySampleRate (default: 0, off, min: 0, max: 1): fraction of lift ride POSTs
+     *     checked for when they show up in their skier's day vertical, see VisibilityProbe
+     *   - visibilityPollMs (default: 10, min: 1): how often a checked lift ride's vertical is polled
+     *   - visibilityTimeoutMs (default: 10000, min: 1): how long a checked lift ride is polled for
+     *     before it is reported as never visible
+     *   - batchSize (default: 1, off, min: 1, max: 1000): lift rides each runner sends together, as
+     *     one POST of a JSON array to batchPath
+     *   - batchWaitMs (default: 0, no limit, min: 0): the longest a lift ride waits for its batch
+     *     to fill. Runners send one request at a time, so this is checked whenever a runner sends.
+     *   - batchPath (default: /skiers/liftrides/batch): the bulk upload path, after hostAddress
+     *   - sloFilename: String, objectives the run is checked against when it ends, see SloCheck.
+     *     The client exits with code 3 if any is missed.
+     *   - faultProxy, faultAcceptDelayMs, faultLatencyMs, faultBandwidthKBps, faultResetRate,
+     *     faultStallRate, faultStallMs, faultSchedule: relays requests through a local proxy in
+     *     front of each host, injecting faults, see FaultSpec
      * maxThreads, resortId and hostAddr are required.
      * @param fileName Path to the properties file
      * @return an Arguments instance with the specified properties
@@ -71,31 +300,105 @@ public class Arguments {
     }
 
     /**
-     * Helper method to validate property file values and create an Arguments instance.
+     * Helper method to validate property file values and create an Arguments instance. Also used
+     * by calibrate mode, which overrides some of the properties read from the file.
      * @param props a Properties object obtained by parsing a properties file
      * @return an Arguments instance with the given properties
      * @throws IllegalArgumentException if given invalid properties
      */
-    private static Arguments fromProperties(Properties props) throws IllegalArgumentException {
+    static Arguments fromProperties(Properties props) throws IllegalArgumentException {
         if (props == null) {
             throw new IllegalArgumentException("no arguments given");
         }
 
         // Final value vars
-        int maxThreads, numSkiers, numSkiLifts, skiDay;
-        String resort, hostAddress, csvFilename;
+        int maxThreads, numSkiers, firstSkierId, numSkiLifts;
+        List<Integer> skiDays;
+        List<String> resorts = new ArrayList<>();
+        String resort, hostAddress, csvFilename, traceFilename, ceilingFilename, sloFilename;
+        boolean excludeWarmup, soakMode;
+        int checkpointIntervalSecs;
+        double csvSampleRate;
+        DistributionSpec skierDistribution, liftDistribution, timeDistribution;
+        boolean sharedKeyRange;
+        long seed;
+        double maxRequestsPerSec;
+        Map<String, Double> maxRequestsPerSecByKey = new LinkedHashMap<>();
+        int rateLimitBurst;
+        int[] phaseDurationSecs, phaseTimeoutSecs;
+        int preWarmRounds;
+        List<String> hostAddresses = new ArrayList<>();
+        HostBalancer.Policy loadBalancing;
+        int hostEjectFailures, hostEjectSecs;
+        double ceilingWarningPct;
+        int monitorIntervalSecs;
+        double visibilitySampleRate;
+        int visibilityPollMs, visibilityTimeoutMs;
+        int batchSize, batchWaitMs;
+        String batchPath;
 
         // Defaults and property names
         String skiersDefault = "50000";
+        String firstSkierIdDefault = "1";
         String liftsDefault = "40";
         String dayDefault = "1";
+        String excludeWarmupDefault = "false";
+        String soakModeDefault = "false";
+        String checkpointIntervalDefault = "60";
+        String csvSampleRateDefault = "1";
+        String keyRangeModeDefault = "partitioned";
+        String maxRequestsPerSecDefault = "0";
+        String rateLimitBurstDefault = "1";
+        String phaseBoundDefault = "0";
+        String preWarmRoundsDefault = "0";
+        String loadBalancingDefault = "roundRobin";
+        String hostEjectFailuresDefault = "5";
+        String hostEjectSecsDefault = "30";
+        String ceilingFilenameDefault = "client-ceiling.properties";
+        String ceilingWarningPctDefault = "10";
+        String monitorIntervalDefault = "1";
+        String visibilitySampleRateDefault = "0";
+        String visibilityPollDefault = "10";
+        String visibilityTimeoutDefault = "10000";
+        String batchSizeDefault = "1";
+        String batchWaitDefault = "0";
+        String batchPathDefault = "/skiers/liftrides/batch";
         String resortName = "resort";
         String hostAddressName = "hostAddress";
         String csvFilenameName = "csvFilename";
         String threadsName = "maxThreads";
         String skiersName = "numSkiers";
+        String firstSkierIdName = "firstSkierId";
         String liftsName = "numSkiLifts";
         String dayName = "skiDay";
+        String excludeWarmupName = "excludeWarmup";
+        String soakModeName = "soakMode";
+        String checkpointIntervalName = "checkpointIntervalSecs";
+        String csvSampleRateName = "csvSampleRate";
+        String keyRangeModeName = "keyRangeMode";
+        String seedName = "seed";
+        String traceFilenameName = "traceFilename";
+        String requestMixName = "requestMix";
+        String resortWeightsName = "resortWeights";
+        String dayWeightsName = "dayWeights";
+        String maxRequestsPerSecName = "maxRequestsPerSec";
+        String rateLimitBurstName = "rateLimitBurst";
+        String phaseDurationName = "phaseDurationSecs";
+        String phaseTimeoutName = "phaseTimeoutSecs";
+        String preWarmRoundsName = "preWarmRounds";
+        String loadBalancingName = "loadBalancing";
+        String hostEjectFailuresName = "hostEjectFailures";
+        String hostEjectSecsName = "hostEjectSecs";
+        String ceilingFilenameName = "ceilingFilename";
+        String ceilingWarningPctName = "ceilingWarningPct";
+        String monitorIntervalName = "monitorIntervalSecs";
+        String visibilitySampleRateName = "visibilitySampleRate";
+        String visibilityPollName = "visibilityPollMs";
+        String visibilityTimeoutName = "visibilityTimeoutMs";
+        String batchSizeName = "batchSize";
+        String batchWaitName = "batchWaitMs";
+        String batchPathName = "batchPath";
+        String sloFilenameName = "sloFilename";
 
         // Check required fields are given
         resort = props.getProperty(resortName);
@@ -104,9 +407,69 @@ public class Arguments {
         if (resort == null || hostAddress == null || maxThreadsRaw == null) {
             throw new IllegalArgumentException("properties file missing required fields");
         }
+        for (String name : resort.split(",")) {
+            if (!name.trim().isEmpty()) {
+                resorts.add(name.trim());
+            }
+        }
+        if (resorts.isEmpty()) {
+            throw new IllegalArgumentException("resort must name at least one resort");
+        }
+        for (String address : hostAddress.split(",")) {
+            if (!address.trim().isEmpty()) {
+                hostAddresses.add(address.trim());
+            }
+        }
+        if (hostAddresses.isEmpty()) {
+            throw new IllegalArgumentException("hostAddress must name at least one host");
+        }
+        loadBalancing = HostBalancer.Policy.parse(
+                props.getProperty(loadBalancingName, loadBalancingDefault));
 
-        // Get non-required csv filename
+        // Get non-required csv, trace and SLO filenames
         csvFilename = props.getProperty(csvFilenameName);
+        traceFilename = props.getProperty(traceFilenameName);
+        sloFilename = props.getProperty(sloFilenameName);
+        ceilingFilename = props.getProperty(ceilingFilenameName, ceilingFilenameDefault).trim();
+        batchPath = props.getProperty(batchPathName, batchPathDefault).trim();
+
+        // Get non-required boolean fields
+        excludeWarmup = parseBoolean(
+                props.getProperty(excludeWarmupName, excludeWarmupDefault), excludeWarmupName);
+        soakMode = parseBoolean(props.getProperty(soakModeName, soakModeDefault), soakModeName);
+
+        // Get non-required endpoints and request mixes
+        Map<String, Endpoint> endpoints = Endpoint.fromProperties(props);
+        RequestMix[] requestMixes = new RequestMix[BulkRequestStatistics.NUM_PHASES + 1];
+        String defaultMix = props.getProperty(requestMixName);
+        for (int phase = 1; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            String phaseMixName = "phase" + phase + "." + requestMixName;
+            String phaseMix = props.getProperty(phaseMixName);
+            if (phaseMix != null) {
+                requestMixes[phase] = RequestMix.parse(phaseMix, phaseMixName, endpoints);
+            } else if (defaultMix != null) {
+                requestMixes[phase] = RequestMix.parse(defaultMix, requestMixName, endpoints);
+            }
+        }
+
+        // Get non-required retry, deadline and hedging policy
+        RequestPolicy requestPolicy = RequestPolicy.fromProperties(props);
+
+        // Get non-required faults to inject
+        FaultSpec faultSpec = FaultSpec.fromProperties(props);
+
+        // Get non-required key distributions
+        skierDistribution = DistributionSpec.fromProperties(props, "skier");
+        liftDistribution = DistributionSpec.fromProperties(props, "lift");
+        timeDistribution = DistributionSpec.fromProperties(props, "time");
+        String keyRangeMode = props.getProperty(keyRangeModeName, keyRangeModeDefault).trim();
+        if (keyRangeMode.equalsIgnoreCase("shared")) {
+            sharedKeyRange = true;
+        } else if (keyRangeMode.equalsIgnoreCase("partitioned")) {
+            sharedKeyRange = false;
+        } else {
+            throw new IllegalArgumentException(keyRangeModeName + " must be partitioned or shared");
+        }
 
         // Get and convert numerical fields
         try {
@@ -114,12 +477,65 @@ public class Arguments {
             numSkiers = Integer.parseInt(
                     props.getProperty(skiersName, skiersDefault)
             );
+            firstSkierId = Integer.parseInt(
+                    props.getProperty(firstSkierIdName, firstSkierIdDefault)
+            );
             numSkiLifts = Integer.parseInt(
                     props.getProperty(liftsName, liftsDefault)
             );
-            skiDay = Integer.parseInt(
-                    props.getProperty(dayName, dayDefault)
+            skiDays = parseDays(props.getProperty(dayName, dayDefault));
+            checkpointIntervalSecs = Integer.parseInt(
+                    props.getProperty(checkpointIntervalName, checkpointIntervalDefault)
+            );
+            csvSampleRate = Double.parseDouble(
+                    props.getProperty(csvSampleRateName, csvSampleRateDefault)
+            );
+            // Unseeded runs still get a seed, so they can be repeated from the report
+            String seedRaw = props.getProperty(seedName);
+            seed = seedRaw == null ? new SplittableRandom().nextLong() : Long.parseLong(seedRaw.trim());
+            maxRequestsPerSec = Double.parseDouble(
+                    props.getProperty(maxRequestsPerSecName, maxRequestsPerSecDefault)
             );
+            rateLimitBurst = Integer.parseInt(
+                    props.getProperty(rateLimitBurstName, rateLimitBurstDefault)
+            );
+            for (Endpoint endpoint : endpoints.values()) {
+                String limit = props.getProperty(maxRequestsPerSecName + "." + endpoint.getName());
+                if (limit != null) {
+                    maxRequestsPerSecByKey.put(endpoint.getKey(), Double.parseDouble(limit.trim()));
+                }
+            }
+            phaseDurationSecs = parsePhaseInts(props, phaseDurationName, "durationSecs",
+                    phaseBoundDefault);
+            phaseTimeoutSecs = parsePhaseInts(props, phaseTimeoutName, "timeoutSecs",
+                    phaseBoundDefault);
+            preWarmRounds = Integer.parseInt(
+                    props.getProperty(preWarmRoundsName, preWarmRoundsDefault)
+            );
+            hostEjectFailures = Integer.parseInt(
+                    props.getProperty(hostEjectFailuresName, hostEjectFailuresDefault)
+            );
+            hostEjectSecs = Integer.parseInt(
+                    props.getProperty(hostEjectSecsName, hostEjectSecsDefault)
+            );
+            ceilingWarningPct = Double.parseDouble(
+                    props.getProperty(ceilingWarningPctName, ceilingWarningPctDefault)
+            );
+            monitorIntervalSecs = Integer.parseInt(
+                    props.getProperty(monitorIntervalName, monitorIntervalDefault)
+            );
+            visibilitySampleRate = Double.parseDouble(
+                    props.getProperty(visibilitySampleRateName, visibilitySampleRateDefault)
+            );
+            visibilityPollMs = Integer.parseInt(
+                    props.getProperty(visibilityPollName, visibilityPollDefault)
+            );
+            visibilityTimeoutMs = Integer.parseInt(
+                    props.getProperty(visibilityTimeoutName, visibilityTimeoutDefault)
+            );
+            batchSize = Integer.parseInt(props.getProperty(batchSizeName, batchSizeDefault).trim());
+            batchWaitMs = Integer.parseInt(
+                    props.getProperty(batchWaitName, batchWaitDefault).trim());
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException(
                     "could not parse properties file - malformed numerical data");
@@ -129,14 +545,39 @@ public class Arguments {
         // Check separately for better error messages
         boolean threadsCondition = (maxThreads >= 4);
         // Upper limit can only change if more skiers are added to the database
-        boolean skiersCondition = (numSkiers > 0 && numSkiers <= 50000);
+        boolean skiersCondition = (numSkiers > 0 && firstSkierId >= 1
+                && firstSkierId + numSkiers - 1 <= 50000);
         boolean liftsCondition = (numSkiLifts >= 5 && numSkiLifts <= 60);
-        boolean dayCondition = (skiDay >= 1 && skiDay <= 366);
+        boolean dayCondition = !skiDays.isEmpty();
+        for (int skiDay : skiDays) {
+            dayCondition = dayCondition && (skiDay >= 1 && skiDay <= 366);
+        }
+        boolean checkpointCondition = (checkpointIntervalSecs >= 1);
+        boolean sampleRateCondition = (csvSampleRate >= 0 && csvSampleRate <= 1);
+        boolean rateLimitCondition = (maxRequestsPerSec >= 0 && rateLimitBurst >= 1);
+        for (double limit : maxRequestsPerSecByKey.values()) {
+            rateLimitCondition = rateLimitCondition && limit > 0;
+        }
+        boolean preWarmCondition = (preWarmRounds >= 0);
+        boolean hostEjectCondition = (hostEjectFailures >= 0 && hostEjectSecs >= 1);
+        boolean ceilingCondition = (ceilingWarningPct >= 0 && ceilingWarningPct <= 100);
+        boolean monitorCondition = (monitorIntervalSecs >= 0);
+        boolean batchCondition = (batchSize >= 1 && batchSize <= 1000 && batchWaitMs >= 0
+                && batchPath.startsWith("/"));
+        boolean visibilityCondition = (visibilitySampleRate >= 0 && visibilitySampleRate <= 1
+                && visibilityPollMs >= 1 && visibilityTimeoutMs >= 1);
+        boolean phaseBoundCondition = true;
+        for (int phase = 1; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            phaseBoundCondition = phaseBoundCondition
+                    && phaseDurationSecs[phase] >= 0 && phaseTimeoutSecs[phase] >= 0
+                    && (phaseDurationSecs[phase] == 0 || phaseTimeoutSecs[phase] == 0);
+        }
         if (!threadsCondition) {
             throw new IllegalArgumentException("maxThreads must be greater than 4");
         }
         if (!skiersCondition) {
-            throw new IllegalArgumentException("numSkiers cannot be negative");
+            throw new IllegalArgumentException("numSkiers must be positive, and skier IDs from "
+                    + "firstSkierId on at most 50000");
         }
         if (!liftsCondition) {
             throw new IllegalArgumentException("numSkiLifts must be between 5 and 60, inclusive");
@@ -144,9 +585,170 @@ public class Arguments {
         if (!dayCondition) {
             throw new IllegalArgumentException("skiDay must be between 1 and 366, inclusive");
         }
+        if (!checkpointCondition) {
+            throw new IllegalArgumentException("checkpointIntervalSecs must be at least 1");
+        }
+        if (!sampleRateCondition) {
+            throw new IllegalArgumentException("csvSampleRate must be between 0 and 1, inclusive");
+        }
+        if (!rateLimitCondition) {
+            throw new IllegalArgumentException("request rate limits must be positive and "
+                    + rateLimitBurstName + " at least 1");
+        }
+        if (!hostEjectCondition) {
+            throw new IllegalArgumentException("hostEjectFailures cannot be negative and "
+                    + "hostEjectSecs must be at least 1");
+        }
+        if (!ceilingCondition) {
+            throw new IllegalArgumentException(
+                    "ceilingWarningPct must be between 0 and 100, inclusive");
+        }
+        if (!monitorCondition) {
+            throw new IllegalArgumentException("monitorIntervalSecs cannot be negative");
+        }
+        if (!batchCondition) {
+            throw new IllegalArgumentException("batchSize must be between 1 and 1000, inclusive, "
+                    + "batchWaitMs cannot be negative and batchPath must start with /");
+        }
+        if (!visibilityCondition) {
+            throw new IllegalArgumentException("visibilitySampleRate must be between 0 and 1, "
+                    + "inclusive, and visibilityPollMs and visibilityTimeoutMs at least 1");
+        }
+        if (!preWarmCondition) {
+            throw new IllegalArgumentException("preWarmRounds cannot be negative");
+        }
+        if (!phaseBoundCondition) {
+            throw new IllegalArgumentException("phase durations and timeouts cannot be negative, "
+                    + "and a phase cannot have both");
+        }
+
+        // Weights can only be checked against validated resorts and days
+        List<WeightedChoice<String>> resortChoices = parseChoices(props, resorts, resortWeightsName);
+        List<WeightedChoice<Integer>> dayChoices = parseChoices(props, skiDays, dayWeightsName);
 
         // Finally we can create an Arguments instance
-        return new Arguments(maxThreads, numSkiers, numSkiLifts, skiDay, resort, hostAddress, csvFilename);
+        return new Arguments(maxThreads, numSkiers, firstSkierId, numSkiLifts, skiDays, resorts,
+                hostAddresses, csvFilename, excludeWarmup, soakMode, checkpointIntervalSecs,
+                csvSampleRate, skierDistribution, liftDistribution, timeDistribution, sharedKeyRange,
+                seed,
+                traceFilename, endpoints, requestMixes, resortChoices, dayChoices, maxRequestsPerSec,
+                maxRequestsPerSecByKey, rateLimitBurst, phaseDurationSecs, phaseTimeoutSecs,
+                preWarmRounds, loadBalancing, hostEjectFailures, hostEjectSecs, requestPolicy,
+                ceilingFilename, ceilingWarningPct, monitorIntervalSecs, visibilitySampleRate,
+                visibilityPollMs, visibilityTimeoutMs, batchSize, batchWaitMs, batchPath,
+                sloFilename, faultSpec);
+    }
+
+    /**
+     * Copies these arguments with other host addresses, e.g. to send requests through proxies.
+     *
+     * @param addresses the host addresses, in the same order as the ones they replace
+     * @return the copy
+     */
+    Arguments withHostAddresses(List<String> addresses) {
+        return new Arguments(this, addresses);
+    }
+
+    /**
+     * Reads an integer for each phase, from the phase's own property if given and the shared one
+     * otherwise. Index 0 is unused.
+     *
+     * @param props      the properties
+     * @param name       the shared property name
+     * @param phaseName  the phase property name, after "phase(N)."
+     * @param defaultRaw the default if neither is given
+     * @return the value for each phase
+     * @throws NumberFormatException if any value is malformed
+     */
+    private static int[] parsePhaseInts(Properties props, String name, String phaseName,
+                                        String defaultRaw) throws NumberFormatException {
+        int[] values = new int[BulkRequestStatistics.NUM_PHASES + 1];
+        String shared = props.getProperty(name, defaultRaw);
+        for (int phase = 1; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            String raw = props.getProperty("phase" + phase + "." + phaseName, shared);
+            values[phase] = Integer.parseInt(raw.trim());
+        }
+        return values;
+    }
+
+    /**
+     * Parses a comma separated list of days and inclusive day ranges, e.g. "1-5,10".
+     *
+     * @param raw the raw property value
+     * @return the days, in the order given
+     * @throws NumberFormatException    if any day is malformed
+     * @throws IllegalArgumentException if any range has more than two bounds, or is reversed
+     */
+    private static List<Integer> parseDays(String raw) throws IllegalArgumentException {
+        List<Integer> days = new ArrayList<>();
+        for (String part : raw.split(",")) {
+            String[] range = part.trim().split("\\s*-\\s*", -1);
+            if (range.length > 2) {
+                throw new IllegalArgumentException("skiDay range " + part.trim()
+                        + " must have at most two bounds");
+            }
+            int low = Integer.parseInt(range[0]);
+            int high = range.length > 1 ? Integer.parseInt(range[1]) : low;
+            if (low > high) {
+                throw new IllegalArgumentException("skiDay range " + part.trim()
+                        + " must not start after it ends");
+            }
+            for (int day = low; day <= high && days.size() <= 366; day++) {
+                days.add(day);
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Builds the weighted choice of values for each phase, from the phase's weights property if
+     * given and the shared one otherwise. Index 0 holds the shared choice.
+     *
+     * @param props       the properties
+     * @param values      the values to choose from
+     * @param weightsName the shared weights property name
+     * @return one choice per phase, indexed by phase number
+     * @throws IllegalArgumentException if any weights are invalid
+     */
+    private static <T> List<WeightedChoice<T>> parseChoices(Properties props, List<T> values,
+                                                           String weightsName)
+            throws IllegalArgumentException {
+        List<WeightedChoice<T>> choices = new ArrayList<>();
+        for (int phase = 0; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            String name = "phase" + phase + "." + weightsName;
+            String raw = phase == 0 ? null : props.getProperty(name);
+            if (raw == null) {
+                name = weightsName;
+                raw = props.getProperty(name);
+            }
+            double[] weights = raw == null ? null : WeightedChoice.parseWeights(raw, name);
+            try {
+                choices.add(new WeightedChoice<>(values, weights));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + " needs " + values.size()
+                        + " non-negative weights with a positive sum");
+            }
+        }
+        return choices;
+    }
+
+    /**
+     * Strictly parses a boolean property, so that typos are not silently read as false.
+     *
+     * @param raw  the raw property value
+     * @param name the property name, for error messages
+     * @return the parsed value
+     * @throws IllegalArgumentException if the value is not "true" or "false"
+     */
+    private static boolean parseBoolean(String raw, String name) throws IllegalArgumentException {
+        String value = raw.trim();
+        if (value.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException(name + " must be true or false");
     }
 
     public int getMaxThreads() {
@@ -157,40 +759,285 @@ public class Arguments {
         return numSkiers;
     }
 
+    public int getFirstSkierId() {
+        return firstSkierId;
+    }
+
+    public int getLastSkierId() {
+        return firstSkierId + numSkiers - 1;
+    }
+
     public int getNumSkiLifts() {
         return numSkiLifts;
     }
 
-    public int getSkiDay() {
-        return skiDay;
+    public List<Integer> getSkiDays() {
+        return skiDays;
     }
 
     public int getDayLengthMinutes() {
         return dayLengthMinutes;
     }
 
-    public String getResort() {
-        return resort;
+    public List<String> getResorts() {
+        return resorts;
+    }
+
+    /**
+     * Gives the weighted choice of resorts for a phase.
+     *
+     * @param phase the phase, or 0 for the shared weights
+     * @return the choice
+     */
+    public WeightedChoice<String> getResortChoice(int phase) {
+        return resortChoices.get(phase >= 0 && phase < resortChoices.size() ? phase : 0);
     }
 
+    /**
+     * Gives the weighted choice of days for a phase.
+     *
+     * @param phase the phase, or 0 for the shared weights
+     * @return the choice
+     */
+    public WeightedChoice<Integer> getDayChoice(int phase) {
+        return dayChoices.get(phase >= 0 && phase < dayChoices.size() ? phase : 0);
+    }
+
+    /**
+     * Gives the first host address, the only one unless requests are balanced over several hosts.
+     *
+     * @return the host address
+     */
     public String getHostAddress() {
-        return hostAddress;
+        return hostAddresses.get(0);
+    }
+
+    public List<String> getHostAddresses() {
+        return hostAddresses;
     }
 
     public String getCsvFilename() {
         return this.csvFilename;
     }
 
+    public boolean isExcludeWarmup() {
+        return excludeWarmup;
+    }
+
+    public boolean isSoakMode() {
+        return soakMode;
+    }
+
+    public int getCheckpointIntervalSecs() {
+        return checkpointIntervalSecs;
+    }
+
+    public double getCsvSampleRate() {
+        return csvSampleRate;
+    }
+
+    public DistributionSpec getSkierDistribution() {
+        return skierDistribution;
+    }
+
+    public DistributionSpec getLiftDistribution() {
+        return liftDistribution;
+    }
+
+    public DistributionSpec getTimeDistribution() {
+        return timeDistribution;
+    }
+
+    public boolean isSharedKeyRange() {
+        return sharedKeyRange;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getTraceFilename() {
+        return traceFilename;
+    }
+
+    public Endpoint getEndpoint(String name) {
+        return endpoints.get(name);
+    }
+
+    public Collection<Endpoint> getEndpoints() {
+        return endpoints.values();
+    }
+
+    /**
+     * Finds an endpoint by the key its requests are reported under.
+     *
+     * @param key the method and path, e.g. "GET /skiers/{skierID}/vertical"
+     * @return the endpoint, or null if there is none
+     */
+    public Endpoint findEndpoint(String key) {
+        return endpointsByKey.get(key);
+    }
+
+    /**
+     * Gives the request mix of a phase.
+     *
+     * @param phase the phase
+     * @return the mix, or null if the phase has none
+     */
+    public RequestMix getRequestMix(int phase) {
+        return phase >= 0 && phase < requestMixes.length ? requestMixes[phase] : null;
+    }
+
+    /**
+     * Gives how long a phase runs for, if it is bounded by time rather than by request count.
+     *
+     * @param phase the phase
+     * @return the duration in seconds, or 0 if the phase runs a fixed number of requests
+     */
+    public int getPhaseDurationSecs(int phase) {
+        return phase >= 0 && phase < phaseDurationSecs.length ? phaseDurationSecs[phase] : 0;
+    }
+
+    /**
+     * Gives how long a phase can take to send its requests before it is ended.
+     *
+     * @param phase the phase
+     * @return the timeout in seconds, or 0 for none
+     */
+    public int getPhaseTimeoutSecs(int phase) {
+        return phase >= 0 && phase < phaseTimeoutSecs.length ? phaseTimeoutSecs[phase] : 0;
+    }
+
+    public int getPreWarmRounds() {
+        return preWarmRounds;
+    }
+
+    /**
+     * Gives how requests are retried, timed out and hedged.
+     *
+     * @return the policy, or null if requests are sent once with the client's default timeouts
+     */
+    public RequestPolicy getRequestPolicy() {
+        return requestPolicy;
+    }
+
+    public String getCeilingFilename() {
+        return ceilingFilename;
+    }
+
+    public double getCeilingWarningPct() {
+        return ceilingWarningPct;
+    }
+
+    public int getMonitorIntervalSecs() {
+        return monitorIntervalSecs;
+    }
+
+    public double getVisibilitySampleRate() {
+        return visibilitySampleRate;
+    }
+
+    public int getVisibilityPollMs() {
+        return visibilityPollMs;
+    }
+
+    public int getVisibilityTimeoutMs() {
+        return visibilityTimeoutMs;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getBatchWaitMs() {
+        return batchWaitMs;
+    }
+
+    public String getBatchPath() {
+        return batchPath;
+    }
+
+    public String getSloFilename() {
+        return sloFilename;
+    }
+
+    /**
+     * Gives the faults to inject through a local proxy.
+     *
+     * @return the faults, or null if requests go straight to the hosts
+     */
+    public FaultSpec getFaultSpec() {
+        return faultSpec;
+    }
+
+    /**
+     * Creates a balancer over the host addresses, to be shared by every runner.
+     *
+     * @return the balancer, or null if there is only one host
+     */
+    public HostBalancer newHostBalancer() {
+        if (hostAddresses.size() == 1) {
+            return null;
+        }
+        return new HostBalancer(hostAddresses, loadBalancing, hostEjectFailures, hostEjectSecs);
+    }
+
+    /**
+     * Creates a throttle for the configured request rate limits, to be shared by every runner.
+     *
+     * @return the throttle, or null if no limits are configured
+     */
+    public RequestThrottle newRequestThrottle() {
+        if (maxRequestsPerSec == 0 && maxRequestsPerSecByKey.isEmpty()) {
+            return null;
+        }
+        return new RequestThrottle(maxRequestsPerSec, maxRequestsPerSecByKey, rateLimitBurst);
+    }
+
     @Override
     public String toString() {
         return "Arguments{" +
                 "maxThreads=" + maxThreads +
                 ", numSkiers=" + numSkiers +
+                ", firstSkierId=" + firstSkierId +
                 ", numSkiLifts=" + numSkiLifts +
-                ", skiDay=" + skiDay +
+                ", skiDays=" + skiDays +
                 ", dayLengthMinutes=" + dayLengthMinutes +
-                ", resort='" + resort + '\'' +
-                ", hostAddress='" + hostAddress + '\'' +
+                ", resorts=" + resorts +
+                ", hostAddresses=" + hostAddresses +
+                ", loadBalancing=" + loadBalancing +
+                ", hostEjectFailures=" + hostEjectFailures +
+                ", hostEjectSecs=" + hostEjectSecs +
+                ", requestPolicy=" + requestPolicy +
+                ", excludeWarmup=" + excludeWarmup +
+                ", soakMode=" + soakMode +
+                ", checkpointIntervalSecs=" + checkpointIntervalSecs +
+                ", csvSampleRate=" + csvSampleRate +
+                ", skierDistribution=" + skierDistribution +
+                ", liftDistribution=" + liftDistribution +
+                ", timeDistribution=" + timeDistribution +
+                ", sharedKeyRange=" + sharedKeyRange +
+                ", seed=" + seed +
+                ", traceFilename='" + traceFilename + '\'' +
+                ", endpoints=" + endpoints.keySet() +
+                ", requestMixes=" + Arrays.toString(requestMixes) +
+                ", resortChoices=" + resortChoices +
+                ", dayChoices=" + dayChoices +
+                ", maxRequestsPerSec=" + maxRequestsPerSec +
+                ", maxRequestsPerSecByKey=" + maxRequestsPerSecByKey +
+                ", rateLimitBurst=" + rateLimitBurst +
+                ", phaseDurationSecs=" + Arrays.toString(phaseDurationSecs) +
+                ", phaseTimeoutSecs=" + Arrays.toString(phaseTimeoutSecs) +
+                ", preWarmRounds=" + preWarmRounds +
+                ", monitorIntervalSecs=" + monitorIntervalSecs +
+                ", visibilitySampleRate=" + visibilitySampleRate +
+                ", visibilityPollMs=" + visibilityPollMs +
+                ", visibilityTimeoutMs=" + visibilityTimeoutMs +
+                ", batchSize=" + batchSize +
+                ", batchWaitMs=" + batchWaitMs +
+                ", batchPath='" + batchPath + '\'' +
+                ", sloFilename='" + sloFilename + '\'' +
+                ", faultSpec=" + faultSpec +
                 '}';
     }
 }
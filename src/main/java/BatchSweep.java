@@ -0,0 +1,234 @@
+import com.squareup.okhttp.ConnectionPool;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import statistics.BulkRequestStatistics;
+import statistics.LatencyHistogram;
+
+/**
+ * Finds the batch size the server ingests lift rides fastest at, by running the peak phase's lift
+ * rides against it once per batch size and comparing the rides per second.
+ * <p>
+ * A batch size of 1 sends the rides one per request to the lift ride path, as a baseline. Larger
+ * sizes send them to batchPath.
+ * <p>
+ * Usage: batchsweep [propertiesFile]
+ * <p>
+ * The client's properties file (default: arguments.properties) is used for the server and the
+ * workload, and may also hold:
+ *   - batchSweepSizes (default: 1,5,10,25,50,100): comma separated batch sizes to run, each
+ *     between 1 and 1000
+ *   - batchSweepSecs (default: 30, min: 1): how long each size runs
+ * The results are printed and written to (csvFilename)-batch-sweep.csv. A size with bad requests
+ * measured failures rather than ingestion, so nothing is written and no best size is named if any
+ * size has them.
+ */
+public class BatchSweep {
+
+    public static final int EXIT_ERROR = 1;
+    private static final Logger logger = LogManager.getLogger(BatchSweep.class);
+
+    private Properties props;
+    private Arguments arguments;
+    private List<Integer> batchSizes = new ArrayList<>();
+    private int stepSecs;
+    private PeakPhaseSteps steps;
+    // One row per batch size: rides/sec, batch mean and p99, ride mean and p99, bad requests
+    private List<double[]> results = new ArrayList<>();
+    private List<String> failedSizes = new ArrayList<>();
+
+    /**
+     * Constructor for a BatchSweep.
+     *
+     * @param props the client's properties
+     * @throws IllegalArgumentException if any client or sweep properties are invalid
+     */
+    public BatchSweep(Properties props) throws IllegalArgumentException {
+        this.props = props;
+        this.arguments = Arguments.fromProperties(props);
+        try {
+            stepSecs = Integer.parseInt(props.getProperty("batchSweepSecs", "30").trim());
+            for (String raw : props.getProperty("batchSweepSizes", "1,5,10,25,50,100").split(",")) {
+                batchSizes.add(Integer.parseInt(raw.trim()));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "could not parse batch sweep properties - malformed numerical data");
+        }
+        for (int size : batchSizes) {
+            if (size < 1 || size > 1000) {
+                throw new IllegalArgumentException(
+                        "batchSweepSizes must each be between 1 and 1000, inclusive");
+            }
+        }
+        if (stepSecs < 1) {
+            throw new IllegalArgumentException("batchSweepSecs must be at least 1");
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 1) {
+            System.out.println("Usage: batchsweep [propertiesFile]");
+            System.exit(EXIT_ERROR);
+        }
+        String propsFile = args.length == 1 ? args[0] : "arguments.properties";
+
+        BatchSweep sweep = null;
+        try {
+            Properties props = new Properties();
+            try (FileInputStream fis = new FileInputStream(propsFile)) {
+                props.load(fis);
+            }
+            sweep = new BatchSweep(props);
+        } catch (IOException e) {
+            System.out.println("Problem reading properties file: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid property found: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+
+        try {
+            sweep.sweep();
+        } catch (IOException e) {
+            System.err.println("Problem sweeping batch sizes: " + e.getMessage());
+            logger.error("Problem sweeping batch sizes: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+        infoLogAndPrint("\nBatch Sweep\n" + sweep);
+
+        String outPath = (sweep.arguments.getCsvFilename() == null
+                ? "results" : sweep.arguments.getCsvFilename()) + "-batch-sweep.csv";
+        try {
+            sweep.writeToFile(outPath);
+            infoLogAndPrint("Saved to " + outPath);
+        } catch (IOException e) {
+            System.err.println("Problem saving batch sweep: " + e.getMessage());
+            logger.error("Problem saving batch sweep: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+    }
+
+    /**
+     * Runs every batch size against the server.
+     *
+     * @throws IOException          if the step CSVs cannot be set up or read, or any size had bad
+     *                              requests
+     * @throws InterruptedException if interrupted while a step runs
+     */
+    public void sweep() throws IOException, InterruptedException {
+        steps = new PeakPhaseSteps("batch-sweep");
+        try {
+            for (int size : batchSizes) {
+                infoLogAndPrint("Sending lift rides in batches of " + size + " for " + stepSecs
+                        + " seconds...");
+                runStep(size);
+            }
+        } finally {
+            steps.deleteWorkDir();
+        }
+        if (!failedSizes.isEmpty()) {
+            throw new IOException("bad requests in batches of " + String.join(", ", failedSizes)
+                    + ", so the sweep would measure failures rather than ingestion");
+        }
+    }
+
+    /**
+     * Runs the peak phase's lift rides, without its GETs, for a while in batches of a size.
+     */
+    private void runStep(int size) throws IOException, InterruptedException {
+        Properties stepProps = PeakPhaseSteps.stepProperties(props, stepSecs);
+        stepProps.setProperty("batchSize", String.valueOf(size));
+        // Without a mix, runners send their lift rides and then no GETs
+        stepProps.remove("requestMix");
+        stepProps.remove("phase" + PeakPhaseSteps.PEAK_PHASE + ".requestMix");
+        Arguments stepArgs = Arguments.fromProperties(stepProps);
+
+        String name = "batch-" + size;
+        BulkRequestStatistics stats = steps.run(name, stepArgs, 0,
+                new ConnectionPool(stepArgs.getMaxThreads(), BsdsApiClient.connectionKeepAliveMs),
+                stepArgs.newHostBalancer());
+
+        double ridesPerSec;
+        LatencyHistogram batchLatencies;
+        LatencyHistogram rideLatencies;
+        if (size > 1) {
+            ridesPerSec = stats.getPhaseRidesPerSec(PeakPhaseSteps.PEAK_PHASE);
+            batchLatencies = stats.getBatchLatencies();
+            rideLatencies = stats.getRideLatencies();
+        } else {
+            // Unbatched, each request is a batch of one
+            ridesPerSec = stats.getPhaseThroughputPerSec(PeakPhaseSteps.PEAK_PHASE);
+            batchLatencies = steps.readLatencies(name);
+            rideLatencies = batchLatencies;
+        }
+        long badRequests = stats.getTotalBadRequests().get();
+        results.add(new double[]{size, ridesPerSec, batchLatencies.getMean(),
+                batchLatencies.getValueAtPercentile(99), rideLatencies.getMean(),
+                rideLatencies.getValueAtPercentile(99), badRequests});
+        infoLogAndPrint(String.format("\t%.2f rides/second, mean batch latency %.2f ms, "
+                        + "%d bad requests", ridesPerSec, batchLatencies.getMean(), badRequests));
+        if (badRequests > 0) {
+            failedSizes.add(String.valueOf(size));
+        }
+    }
+
+    /**
+     * Writes the results as CSV, one row per batch size, overwriting any old file.
+     *
+     * @param outFilePath the output file path
+     * @throws IOException if the file cannot be written
+     */
+    public void writeToFile(String outFilePath) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new File(outFilePath), "UTF-8")) {
+            writer.println("BatchSize,RidesPerSec,MeanBatchLatency(ms),P99BatchLatency(ms),"
+                    + "MeanRideLatency(ms),P99RideLatency(ms),BadRequests");
+            for (double[] row : results) {
+                writer.println((int) row[0] + "," + round(row[1]) + "," + round(row[2]) + ","
+                        + (long) row[3] + "," + round(row[4]) + "," + (long) row[5] + ","
+                        + (long) row[6]);
+            }
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Provides a table of the results, and the best batch size, as a string.
+     *
+     * @return the results
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%10s %14s %18s %18s %18s %18s %8s\n", "Batch Size",
+                "Rides/sec", "Mean Batch (ms)", "p99 Batch (ms)", "Mean Ride (ms)",
+                "p99 Ride (ms)", "Bad"));
+        double[] best = null;
+        for (double[] row : results) {
+            builder.append(String.format("%10d %14.2f %18.2f %18.0f %18.2f %18.0f %8.0f\n",
+                    (int) row[0], row[1], row[2], row[3], row[4], row[5], row[6]));
+            if (best == null || row[1] > best[1]) {
+                best = row;
+            }
+        }
+        if (best != null) {
+            builder.append(String.format("Best: batches of %d at %.2f rides/sec\n", (int) best[0],
+                    best[1]));
+        }
+        return builder.toString();
+    }
+
+    private static void infoLogAndPrint(String msg) {
+        logger.info(msg);
+        System.out.println(msg);
+    }
+}
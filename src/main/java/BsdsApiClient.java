@@ -1,17 +1,92 @@
+import com.squareup.okhttp.ConnectionPool;
+import faultproxy.FaultProxy;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import statistics.BulkRequestStatistics;
+import statistics.ClientCeiling;
 import statistics.SingleRequestStatistics;
+import statistics.SloCheck;
+import stubserver.StubServer;
+import workload.HostBalancer;
+import workload.RequestThrottle;
+import workload.TraceRecorder;
 
 public class BsdsApiClient {
 
     private static final Logger logger = LogManager.getLogger(BsdsApiClient.class);
-    private static final int numPostsStd = 1000;
-    private static final int numGetsPerPathStd = 5;
+    static final int numPostsStd = 1000;
+    static final int numGetsPerPathStd = 5;
+    static final long connectionKeepAliveMs = 5 * 60 * 1000;
+    // Exit code for a run that missed a service level objective
+    static final int EXIT_SLO_MISSED = 3;
+    // Starts each phase as soon as its trigger is reached
+    static final PhaseGate LOCAL_GATE = (phase, trigger) -> trigger.await();
 
     public static void main(String[] args) throws InterruptedException {
+        // Offline modes work on earlier results and do not send any requests
+        if (args.length > 0 && args[0].equals("compare")) {
+            CompareRuns.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("query")) {
+            QueryWindow.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Stub mode stands in for the server, to test the client against known latencies
+        if (args.length > 0 && args[0].equals("stub")) {
+            StubServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Calibrate mode measures the client's own ceiling against a stub server
+        if (args.length > 0 && args[0].equals("calibrate")) {
+            Calibration.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Coordinated runs split one scenario over several worker JVMs
+        if (args.length > 0 && args[0].equals("coordinate")) {
+            Coordinator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("worker")) {
+            Worker.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Batch sweep mode finds the batch size the server ingests lift rides fastest at
+        if (args.length > 0 && args[0].equals("batchsweep")) {
+            BatchSweep.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // Replay mode sends the requests of a recorded trace instead of generating them
+        String replayTrace = null;
+        double replaySpeed = 1;
+        if (args.length > 0 && args[0].equals("replay")) {
+            if (args.length < 2 || args.length > 3) {
+                System.out.println("Usage: replay <trace file> [speed multiplier, or max]");
+                System.exit(1);
+            }
+            replayTrace = args[1];
+            try {
+                replaySpeed = args.length == 3 ? TraceReplayer.parseSpeed(args[2]) : 1;
+            } catch (IllegalArgumentException e) {
+                System.out.println("Invalid replay speed: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
         infoLogAndPrint("Starting client...");
 
         // Get arguments from properties file
@@ -27,15 +102,298 @@ public class BsdsApiClient {
             System.exit(1);
         }
         final Arguments arguments = propertyArgs;
+        SloCheck sloCheck = loadSloCheck(arguments);
+
+        BulkRequestStatistics stats = runClient(arguments, replayTrace, replaySpeed, LOCAL_GATE);
+        infoLogAndPrint(stats.toString());
+
+        String ceilingWarning = stats.getCeilingWarning();
+        if (ceilingWarning != null) {
+            logger.warn(ceilingWarning);
+            System.err.println(ceilingWarning);
+        }
+
+        finishRun(stats, sloCheck);
+    }
+
+    /**
+     * Starts a fault injecting proxy in front of each host, if the arguments ask for faults. Exits
+     * the program if a proxy cannot be started.
+     *
+     * @param arguments arguments provided to the client
+     * @return the proxies, in the order of the host addresses, or none
+     */
+    private static List<FaultProxy> startFaultProxies(Arguments arguments) {
+        List<FaultProxy> proxies = new ArrayList<>();
+        if (arguments.getFaultSpec() == null) {
+            return proxies;
+        }
+        try {
+            for (String address : arguments.getHostAddresses()) {
+                FaultProxy proxy = new FaultProxy(arguments.getFaultSpec(), address);
+                proxy.start();
+                proxies.add(proxy);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Problem starting the fault proxy: " + e.getMessage());
+            logger.error("Problem starting the fault proxy: " + e.getMessage());
+            System.exit(1);
+        }
+        return proxies;
+    }
+
+    /**
+     * Reads the run's service level objectives, if it has any, so that a malformed file stops the
+     * client before the run rather than after it. Exits the program if the file cannot be used.
+     *
+     * @param arguments arguments provided to the client
+     * @return the objectives, or null if there are none
+     */
+    static SloCheck loadSloCheck(Arguments arguments) {
+        if (arguments.getSloFilename() == null) {
+            return null;
+        }
+        try {
+            return SloCheck.fromFile(arguments.getSloFilename());
+        } catch (IOException e) {
+            System.out.println("Problem reading SLO file: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid SLO found: " + e.getMessage());
+        }
+        System.exit(1);
+        return null;
+    }
 
-        final BulkRequestStatistics stats = new BulkRequestStatistics(arguments.getCsvFilename());
+    /**
+     * Checks the finished run against its objectives, if it has any, and writes the JSON summary
+     * with their results. Exits the program with EXIT_SLO_MISSED if any objective was missed.
+     *
+     * @param stats    the run's statistics, after performFinalCalcs
+     * @param sloCheck the objectives, or null if there are none
+     */
+    static void finishRun(BulkRequestStatistics stats, SloCheck sloCheck) {
+        Map<String, Object> extra = new LinkedHashMap<>();
+        if (sloCheck != null) {
+            sloCheck.check(stats.toSummaryMap());
+            infoLogAndPrint(sloCheck.toString());
+            Map<String, Object> slo = new LinkedHashMap<>();
+            slo.put("met", sloCheck.isMet());
+            slo.put("objectives", sloCheck.toSummaryList());
+            extra.put("slo", slo);
+        }
+        try {
+            infoLogAndPrint("Summary written to " + stats.writeJsonSummary(extra));
+        } catch (IOException e) {
+            System.err.println("Problem writing the JSON summary: " + e.getMessage());
+            logger.error("Problem writing the JSON summary: " + e.getMessage());
+        }
+        if (sloCheck != null && !sloCheck.isMet()) {
+            System.exit(EXIT_SLO_MISSED);
+        }
+    }
+
+    /**
+     * Runs the client: sends every phase's requests, or a trace's, and calculates the final
+     * statistics.
+     *
+     * @param arguments   arguments provided to the client
+     * @param replayTrace the trace to replay, or null to generate requests
+     * @param replaySpeed the replay speed
+     * @param gate        decides when each phase starts
+     * @return the statistics, ready to be reported
+     * @throws InterruptedException if interrupted while waiting for a phase or the CSV writer
+     */
+    static BulkRequestStatistics runClient(
+            Arguments arguments,
+            String replayTrace,
+            double replaySpeed,
+            PhaseGate gate) throws InterruptedException {
+        // Requests go through a fault injecting proxy in front of each host, if asked to
+        List<FaultProxy> faultProxies = startFaultProxies(arguments);
+        if (!faultProxies.isEmpty()) {
+            List<String> proxyAddresses = new ArrayList<>();
+            for (FaultProxy proxy : faultProxies) {
+                proxyAddresses.add(proxy.getAddress());
+                infoLogAndPrint("Injecting faults into requests to " + proxy);
+            }
+            arguments = arguments.withHostAddresses(proxyAddresses);
+        }
+
+        BulkRequestStatistics stats = new BulkRequestStatistics(
+                arguments.getCsvFilename(), arguments.isExcludeWarmup());
+        if (replayTrace == null) {
+            stats.setWorkloadSeed(arguments.getSeed());
+        }
+        if (arguments.isSoakMode()) {
+            stats.enableSoakMode(arguments.getCheckpointIntervalSecs(), arguments.getCsvSampleRate());
+        }
+        if (arguments.getMonitorIntervalSecs() > 0) {
+            stats.enableClientMonitor(arguments.getMonitorIntervalSecs());
+        }
+
+        // All runners share one pool, big enough to keep every thread's connection open between
+        // phases and after pre-warming
+        ConnectionPool connectionPool = new ConnectionPool(
+                arguments.getMaxThreads(), connectionKeepAliveMs);
+        // All runners share one balancer, so it sees every request in flight
+        HostBalancer balancer = arguments.newHostBalancer();
+        if (balancer != null) {
+            stats.setHostBalancing(balancer.toString());
+            infoLogAndPrint("Balancing requests " + balancer);
+        }
+        if (arguments.getRequestPolicy() != null) {
+            stats.setRequestPolicy(arguments.getRequestPolicy().toString());
+        }
+        if (arguments.getBatchSize() > 1 && replayTrace == null) {
+            stats.setBatching(describeBatching(arguments));
+        }
+        loadClientCeiling(arguments, stats);
+        if (arguments.getPreWarmRounds() > 0) {
+            preWarm(arguments, stats, connectionPool, balancer);
+        }
 
         Thread writerLoop = stats.startStatsToCsvListener();
 
         // Track total execution time
         // Timing setup of first phase because all others will be included
+        gate.awaitPhaseStart(1, new CountDownLatch(0));
         stats.startWallTimer();
 
+        // Record the generated requests if asked to
+        TraceRecorder recorder = null;
+        if (arguments.getTraceFilename() != null && replayTrace == null) {
+            recorder = new TraceRecorder(arguments.getTraceFilename());
+            try {
+                recorder.start(stats.getWallStart());
+            } catch (IOException e) {
+                System.err.println("Problem creating trace file, not recording: " + e.getMessage());
+                logger.error("Problem creating trace file: " + e.getMessage());
+                recorder = null;
+            }
+        }
+
+        // All runners share one throttle, so the limits hold for the client as a whole
+        RequestThrottle throttle = arguments.newRequestThrottle();
+        if (throttle != null) {
+            stats.setRateLimit(throttle.toString());
+            infoLogAndPrint("Limiting requests to " + throttle);
+        }
+
+        if (replayTrace != null) {
+            infoLogAndPrint("Replaying " + replayTrace + " at speed " + replaySpeed + "...");
+            try {
+                new TraceReplayer(
+                        replayTrace, replaySpeed, arguments, stats, throttle, connectionPool, balancer)
+                        .replay();
+            } catch (IOException e) {
+                System.err.println("Problem replaying trace: " + e.getMessage());
+                logger.error("Problem replaying trace: " + e.getMessage());
+            }
+        } else {
+            // Lift rides are only checked for visibility in generated phases
+            VisibilityProbe probe = arguments.getVisibilitySampleRate() > 0
+                    ? new VisibilityProbe(arguments, connectionPool) : null;
+            runPhases(
+                    arguments, stats, recorder, throttle, connectionPool, balancer, probe, gate);
+            if (probe != null) {
+                infoLogAndPrint("Waiting for lift rides to become visible...");
+                probe.finish();
+                stats.setVisibility(probe.toString(), probe.getLags(), probe.getNumSampled(),
+                        probe.getNumNeverVisible());
+            }
+        }
+        stats.stopWallTimer();
+        if (!faultProxies.isEmpty()) {
+            Map<String, Map<String, Long>> faultCounts = new LinkedHashMap<>();
+            for (FaultProxy proxy : faultProxies) {
+                proxy.stop();
+                faultCounts.put(proxy.getUpstreamAddress(), proxy.getCounts());
+            }
+            stats.setFaultInjection(arguments.getFaultSpec().toString(), faultCounts);
+        }
+        if (balancer != null) {
+            Map<String, Integer> ejections = new LinkedHashMap<>();
+            for (int i = 0; i < balancer.getNumHosts(); i++) {
+                ejections.put(balancer.getAddress(i), balancer.getNumEjections(i));
+            }
+            stats.setHostEjections(ejections);
+        }
+        if (recorder != null) {
+            recorder.finish();
+            infoLogAndPrint("Recorded " + recorder.getNumRequests() + " requests to "
+                    + recorder.getFilePath());
+        }
+
+        infoLogAndPrint("All phases complete");
+        System.out.println();  // newline for terminal user readability
+
+        // Ensure final stats get written to CSV
+        stats.pushDataToWriter(new SingleRequestStatistics[]{});  // empty signals stop
+        writerLoop.join();
+
+        // Final stats
+        System.out.println("Calculating...\n");
+        stats.performFinalCalcs();
+        return stats;
+    }
+
+    /**
+     * Describes how lift rides are batched, for the report.
+     *
+     * @param arguments arguments provided to the client
+     * @return the description
+     */
+    static String describeBatching(Arguments arguments) {
+        return "up to " + arguments.getBatchSize() + " lift rides to " + arguments.getBatchPath()
+                + (arguments.getBatchWaitMs() > 0
+                ? ", waiting at most " + arguments.getBatchWaitMs() + " ms" : "");
+    }
+
+    /**
+     * Loads the client's ceiling, if calibrate mode has written one, so that the run is checked
+     * against it. A ceiling that cannot be read is skipped.
+     *
+     * @param arguments arguments provided to the client
+     * @param stats     object to check the run with
+     */
+    private static void loadClientCeiling(Arguments arguments, BulkRequestStatistics stats) {
+        if (!new File(arguments.getCeilingFilename()).exists()) {
+            return;
+        }
+        try {
+            ClientCeiling ceiling = ClientCeiling.readFromFile(arguments.getCeilingFilename());
+            stats.setClientCeiling(ceiling, arguments.getMaxThreads(),
+                    arguments.getCeilingWarningPct());
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Problem reading client ceiling, not checking against it: "
+                    + e.getMessage());
+            logger.error("Problem reading client ceiling: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the three generated phases, each starting once 10% of the previous phase's threads have
+     * finished, and waits for all of them to complete.
+     *
+     * @param arguments arguments provided to the client
+     * @param stats     object to collect statistics from
+     * @param recorder  records every request if not null
+     * @param throttle  rate limits every request if not null
+     * @param pool      connection pool shared by every runner
+     * @param balancer  balances every request over the hosts if not null
+     * @param probe     checks lift rides for visibility if not null
+     * @param gate      starts phases two and three once their triggers are reached
+     * @throws InterruptedException if interrupted while waiting for a phase
+     */
+    private static void runPhases(
+            Arguments arguments,
+            BulkRequestStatistics stats,
+            TraceRecorder recorder,
+            RequestThrottle throttle,
+            ConnectionPool pool,
+            HostBalancer balancer,
+            VisibilityProbe probe,
+            PhaseGate gate) throws InterruptedException {
         /*
          * =====================================================================
          * Phase one of the client process. Warmup. Phase specifications at
@@ -55,6 +413,7 @@ public class BsdsApiClient {
             int startTime = 1;
             int endTime = 90;
             executePhase(
+                    1,
                     arguments,
                     numThreadsP1,
                     startTime,
@@ -62,14 +421,19 @@ public class BsdsApiClient {
                     numPostsStd,
                     numGetsPerPathStd,
                     phase2Latch,
-                    stats
+                    stats,
+                    recorder,
+                    throttle,
+                    pool,
+                    balancer,
+                    probe
             );
         };
         Thread phase1 = new Thread(run1);
 
         infoLogAndPrint("Starting phase 1...");
         phase1.start();
-        phase2Latch.await();
+        gate.awaitPhaseStart(2, phase2Latch);
 
 
         /*
@@ -86,9 +450,10 @@ public class BsdsApiClient {
 
         // Create phase 2
         Runnable run2 = () -> {
-            int startTime = 91;
-            int endTime = 360;
+            int startTime = PeakPhaseSteps.PEAK_START_TIME;
+            int endTime = PeakPhaseSteps.PEAK_END_TIME;
             executePhase(
+                    2,
                     arguments,
                     numThreadsP2,
                     startTime,
@@ -96,14 +461,19 @@ public class BsdsApiClient {
                     numPostsStd,
                     numGetsPerPathStd,
                     phase3Latch,
-                    stats
+                    stats,
+                    recorder,
+                    throttle,
+                    pool,
+                    balancer,
+                    probe
             );
         };
         Thread phase2 = new Thread(run2);
 
         infoLogAndPrint("Starting phase 2...");
         phase2.start();
-        phase3Latch.await();
+        gate.awaitPhaseStart(3, phase3Latch);
 
         /*
          * =====================================================================
@@ -121,6 +491,7 @@ public class BsdsApiClient {
             int endTime = 420;
             int numGetRequestsPerPathPerThread = numGetsPerPathStd * 2;
             executePhase(
+                    3,
                     arguments,
                     numThreadsP3,
                     startTime,
@@ -128,7 +499,12 @@ public class BsdsApiClient {
                     numPostsStd,
                     numGetRequestsPerPathPerThread,
                     new CountDownLatch(0),
-                    stats
+                    stats,
+                    recorder,
+                    throttle,
+                    pool,
+                    balancer,
+                    probe
             );
         };
         Thread phase3 = new Thread(run3);
@@ -140,25 +516,46 @@ public class BsdsApiClient {
         phase1.join();
         phase2.join();
         phase3.join();
-        stats.stopWallTimer();
-
-        infoLogAndPrint("All phases complete");
-        System.out.println();  // newline for terminal user readability
-
-        // Ensure final stats get written to CSV
-        stats.pushDataToWriter(new SingleRequestStatistics[]{});  // empty signals stop
-        writerLoop.join();
-
-        // Final stats
-        System.out.println("Calculating...\n");
-        stats.performFinalCalcs();
-        infoLogAndPrint(stats.toString());
+    }
 
+    /**
+     * Warms up the client before the run is timed. One thread per maxThreads opens a pooled
+     * connection and sends a few rounds of requests to every endpoint, which also gets the request
+     * and serialization code compiled. Nothing sent here is recorded.
+     *
+     * @param arguments arguments provided to the client
+     * @param stats     object to report the pre-warm time to
+     * @param pool      connection pool shared by every runner
+     * @param balancer  balances every request over the hosts if not null, every host is warmed
+     * @throws InterruptedException if interrupted while waiting for the pre-warm threads
+     */
+    private static void preWarm(
+            Arguments arguments,
+            BulkRequestStatistics stats,
+            ConnectionPool pool,
+            HostBalancer balancer) throws InterruptedException {
+        int numThreads = arguments.getMaxThreads();
+        infoLogAndPrint("Pre-warming " + numThreads + " connections...");
+        long preWarmStart = System.currentTimeMillis();
+        CountDownLatch completionLatch = new CountDownLatch(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            PhaseRunner runner = PhaseRunner.forPreWarm(
+                    i, arguments.getPreWarmRounds(), arguments, completionLatch, stats);
+            runner.setConnectionPool(pool);
+            if (balancer != null) {
+                runner.setHostBalancer(balancer);
+            }
+            new Thread(runner).start();
+        }
+        completionLatch.await();
+        stats.setPreWarmMillis(System.currentTimeMillis() - preWarmStart);
+        infoLogAndPrint("Pre-warm complete, " + pool.getConnectionCount() + " connections open");
     }
 
     /**
      * Executes one phase of the client process.
      *
+     * @param phase                    the phase number (1-indexed), used to tag request statistics
      * @param arguments                arguments provided to the client
      * @param numThreads               number of threads to create
      * @param startTime                start of time range for this phase
@@ -168,8 +565,14 @@ public class BsdsApiClient {
      * @param nextPhaseLatch           a CountDownLatch to determine when the next phase can start
      *                                 (null or set to 0 if there is no next phase)
      * @param stats                    object to collect statistics from
+     * @param recorder                 records every request if not null
+     * @param throttle                 rate limits every request if not null
+     * @param pool                     connection pool shared by every runner
+     * @param balancer                 balances every request over the hosts if not null
+     * @param probe                    checks lift rides for visibility if not null
      */
-    private static void executePhase(
+    static void executePhase(
+            int phase,
             Arguments arguments,
             int numThreads,
             int startTime,
@@ -177,23 +580,38 @@ public class BsdsApiClient {
             int numPostRequestsPerThread,
             int numGetRequestsPerThread,
             CountDownLatch nextPhaseLatch,
-            BulkRequestStatistics stats) {
+            BulkRequestStatistics stats,
+            TraceRecorder recorder,
+            RequestThrottle throttle,
+            ConnectionPool pool,
+            HostBalancer balancer,
+            VisibilityProbe probe) {
         // Set-up vars given in spec
         int skiersPerThread = arguments.getNumSkiers() / numThreads;
 
+        // A phase bounded by time ends at its duration or timeout, whichever is set
+        int durationSecs = arguments.getPhaseDurationSecs(phase);
+        int boundSecs = Math.max(durationSecs, arguments.getPhaseTimeoutSecs(phase));
+
         // Start threads
+        stats.startPhaseTimer(phase);
+        long boundMillis = (long) boundSecs * BulkRequestStatistics.MILLISECS_PER_SEC;
+        long deadline = boundSecs > 0 ? System.currentTimeMillis() + boundMillis : 0;
+        List<PhaseRunner> runners = new ArrayList<>();
         CountDownLatch completionLatch = new CountDownLatch(numThreads);
-        int skierIdStart = 1;
-        int skierIdEnd = skiersPerThread;
+        int skierIdStart = arguments.getFirstSkierId();
+        int skierIdEnd = skierIdStart + skiersPerThread - 1;
 
         for (int i = 0; i < numThreads; i++) {
             // Ensure last thread does not have too many skiers
             if (i == numThreads - 1) {
-                skierIdEnd = arguments.getNumSkiers();
+                skierIdEnd = arguments.getLastSkierId();
             }
 
             // Create and start thread
             PhaseRunner runner = new PhaseRunner(
+                    phase,
+                    i,
                     numPostRequestsPerThread,
                     numGetRequestsPerThread,
                     arguments,
@@ -201,9 +619,33 @@ public class BsdsApiClient {
                     stats,
                     nextPhaseLatch
             );
+            runner.setConnectionPool(pool);
+            if (balancer != null) {
+                runner.setHostBalancer(balancer);
+            }
             // Probably a poor design choice here, will fix given the time
-            runner.setSkierIdRange(skierIdStart, skierIdEnd);
+            if (arguments.isSharedKeyRange()) {
+                runner.setSkierIdRange(arguments.getFirstSkierId(), arguments.getLastSkierId());
+            } else {
+                runner.setSkierIdRange(skierIdStart, skierIdEnd);
+            }
             runner.setTimeRange(startTime, endTime);
+            if (recorder != null) {
+                runner.setTraceRecorder(recorder);
+            }
+            if (throttle != null) {
+                runner.setRequestThrottle(throttle);
+            }
+            if (probe != null) {
+                runner.setVisibilityProbe(probe);
+            }
+            if (arguments.getBatchSize() > 1) {
+                runner.setBatching(arguments.getBatchSize(), arguments.getBatchWaitMs());
+            }
+            if (deadline > 0) {
+                runner.setDeadline(deadline, durationSecs > 0);
+            }
+            runners.add(runner);
             new Thread(runner).start();
 
             // Calculate skier range for next thread
@@ -211,18 +653,22 @@ public class BsdsApiClient {
             skierIdEnd = skierIdEnd + skiersPerThread;
         }
 
-        // Wait for threads to complete
+        // Wait for threads to complete, cutting off requests still in flight at the deadline
+        // Runners report their own request counts, since a deadline can end them early
         try {
+            if (deadline > 0 && !completionLatch.await(
+                    deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS)) {
+                infoLogAndPrint("Phase " + phase + " time is up, cancelling requests in flight...");
+                for (PhaseRunner runner : runners) {
+                    runner.cancel();
+                }
+            }
             completionLatch.await();
         } catch (InterruptedException e) {
             System.err.println("An issue occurred executing threads: " + e.getMessage());
             e.printStackTrace();
         }
-
-        // Calculate total requests completed
-        // Done here for performance reasons (no waiting for adds on each thread)
-        int numPhaseRequests = (numPostRequestsPerThread + (numGetRequestsPerThread * 2)) * numThreads;
-        stats.getTotalRequests().getAndAdd(numPhaseRequests);
+        stats.stopPhaseTimer(phase);
     }
 
     /**
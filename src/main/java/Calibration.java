@@ -0,0 +1,234 @@
+import com.squareup.okhttp.ConnectionPool;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import statistics.BulkRequestStatistics;
+import statistics.ClientCeiling;
+import statistics.LatencyHistogram;
+import stubserver.StubServer;
+
+/**
+ * Measures the most requests the client can send, by running the peak phase against a local stub
+ * server that answers at once. Anything that limits the client here limits it against the real
+ * server too, so a run that comes close to this ceiling says more about the client than the server.
+ * <p>
+ * Each step runs the peak phase for a fixed time with a number of threads and a connection engine:
+ *   - pooled: connections are kept open and reused, as in a run
+ *   - unpooled: every request opens a new connection
+ * The throughput and latencies of every step are printed and saved to ceilingFilename, which runs
+ * are checked against. A step with bad requests measured failures rather than the client, so no
+ * ceiling is saved if any step has them.
+ * <p>
+ * Usage: calibrate [propertiesFile]
+ * <p>
+ * The client's properties file (default: arguments.properties) is used for the workload, and may
+ * also hold:
+ *   - calibrationThreads (default: 4, 8, 16... up to maxThreads, and maxThreads): comma separated
+ *     thread counts to calibrate, each at least 4
+ *   - calibrationSecs (default: 10, min: 1): how long each step runs
+ *   - calibrationEngines (default: pooled,unpooled): the engines to calibrate
+ */
+public class Calibration {
+
+    public static final int EXIT_ERROR = 1;
+    private static final Logger logger = LogManager.getLogger(Calibration.class);
+    // Runs once before the steps, untimed, so the first step is not measured on a cold JVM
+    private static final int WARMUP_SECS = 5;
+
+    private Properties props;
+    private List<Integer> threadCounts = new ArrayList<>();
+    private List<String> engines = new ArrayList<>();
+    private int stepSecs;
+    private PeakPhaseSteps steps;
+    private String hostAddress;
+    private List<String> failedSteps = new ArrayList<>();
+
+    /**
+     * Constructor for a Calibration.
+     *
+     * @param props the client's properties
+     * @throws IllegalArgumentException if any calibration properties are invalid
+     */
+    public Calibration(Properties props) throws IllegalArgumentException {
+        this.props = props;
+        int maxThreads;
+        try {
+            maxThreads = Integer.parseInt(props.getProperty("maxThreads", "4").trim());
+            stepSecs = Integer.parseInt(props.getProperty("calibrationSecs", "10").trim());
+            String threadsRaw = props.getProperty("calibrationThreads");
+            if (threadsRaw != null) {
+                for (String raw : threadsRaw.split(",")) {
+                    threadCounts.add(Integer.parseInt(raw.trim()));
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "could not parse calibration properties - malformed numerical data");
+        }
+        if (threadCounts.isEmpty()) {
+            TreeSet<Integer> defaults = new TreeSet<>();
+            for (int threads = 4; threads < maxThreads; threads *= 2) {
+                defaults.add(threads);
+            }
+            defaults.add(maxThreads);
+            threadCounts.addAll(defaults);
+        }
+        for (int threads : threadCounts) {
+            if (threads < 4) {
+                throw new IllegalArgumentException("calibrationThreads must each be at least 4");
+            }
+        }
+        if (stepSecs < 1) {
+            throw new IllegalArgumentException("calibrationSecs must be at least 1");
+        }
+
+        String enginesRaw = props.getProperty("calibrationEngines",
+                ClientCeiling.POOLED + "," + ClientCeiling.UNPOOLED);
+        for (String raw : enginesRaw.split(",")) {
+            String engine = raw.trim();
+            if (!engine.equals(ClientCeiling.POOLED) && !engine.equals(ClientCeiling.UNPOOLED)) {
+                throw new IllegalArgumentException("calibrationEngines must be pooled, unpooled, "
+                        + "or both");
+            }
+            engines.add(engine);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length > 1) {
+            System.out.println("Usage: calibrate [propertiesFile]");
+            System.exit(EXIT_ERROR);
+        }
+        String propsFile = args.length == 1 ? args[0] : "arguments.properties";
+
+        Calibration calibration = null;
+        Arguments arguments = null;
+        try {
+            Properties props = new Properties();
+            try (FileInputStream fis = new FileInputStream(propsFile)) {
+                props.load(fis);
+            }
+            calibration = new Calibration(props);
+            arguments = Arguments.fromProperties(props);
+        } catch (IOException e) {
+            System.out.println("Problem reading properties file: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid property found: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+
+        ClientCeiling ceiling = null;
+        try {
+            ceiling = calibration.calibrate();
+        } catch (IOException e) {
+            System.err.println("Problem calibrating the client: " + e.getMessage());
+            logger.error("Problem calibrating the client: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+        infoLogAndPrint("\nClient Ceiling\n" + ceiling);
+
+        try {
+            ceiling.writeToFile(arguments.getCeilingFilename());
+            infoLogAndPrint("Saved to " + arguments.getCeilingFilename());
+        } catch (IOException e) {
+            System.err.println("Problem saving client ceiling: " + e.getMessage());
+            logger.error("Problem saving client ceiling: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+    }
+
+    /**
+     * Starts a stub server and runs every step against it.
+     *
+     * @return the ceiling measured
+     * @throws IOException          if the stub server or the step CSVs cannot be set up, or any
+     *                              step had bad requests
+     * @throws InterruptedException if interrupted while a step runs
+     */
+    public ClientCeiling calibrate() throws IOException, InterruptedException {
+        int mostThreads = 0;
+        for (int threads : threadCounts) {
+            mostThreads = Math.max(mostThreads, threads);
+        }
+        Properties stubProps = new Properties();
+        stubProps.setProperty("port", "0");
+        stubProps.setProperty("threads", String.valueOf(mostThreads));
+        stubProps.setProperty("latency", "fixed");
+        stubProps.setProperty("latencyMs", "0");
+        StubServer stub = new StubServer(stubProps);
+        stub.start();
+        hostAddress = "http://localhost:" + stub.getPort() + "/calibration";
+        steps = new PeakPhaseSteps("calibration");
+
+        ClientCeiling ceiling = new ClientCeiling();
+        try {
+            infoLogAndPrint("Warming up for " + WARMUP_SECS + " seconds...");
+            runStep(ClientCeiling.POOLED, mostThreads, WARMUP_SECS, null);
+            for (String engine : engines) {
+                for (int threads : threadCounts) {
+                    infoLogAndPrint("Calibrating " + engine + " with " + threads + " threads for "
+                            + stepSecs + " seconds...");
+                    runStep(engine, threads, stepSecs, ceiling);
+                }
+            }
+        } finally {
+            stub.stop();
+            steps.deleteWorkDir();
+        }
+        if (!failedSteps.isEmpty()) {
+            throw new IOException("bad requests in " + String.join(", ", failedSteps)
+                    + ", so the ceiling would measure failures rather than the client");
+        }
+        return ceiling;
+    }
+
+    /**
+     * Runs the peak phase for a while, recording its throughput and latencies.
+     *
+     * @param engine  the connection engine
+     * @param threads the number of threads
+     * @param secs    how long to run
+     * @param ceiling records the step if not null
+     * @throws IOException          if the step's CSV cannot be read
+     * @throws InterruptedException if interrupted while waiting for the CSV writer
+     */
+    private void runStep(String engine, int threads, int secs, ClientCeiling ceiling)
+            throws IOException, InterruptedException {
+        Properties stepProps = PeakPhaseSteps.stepProperties(props, secs);
+        stepProps.setProperty("hostAddress", hostAddress);
+        stepProps.setProperty("maxThreads", String.valueOf(threads));
+        Arguments stepArgs = Arguments.fromProperties(stepProps);
+
+        // A pool that keeps no idle connections closes each one as soon as its response is read
+        ConnectionPool pool = engine.equals(ClientCeiling.POOLED)
+                ? new ConnectionPool(threads, BsdsApiClient.connectionKeepAliveMs)
+                : new ConnectionPool(0, BsdsApiClient.connectionKeepAliveMs);
+        String name = engine + "-" + threads;
+        BulkRequestStatistics stats = steps.run(name, stepArgs, BsdsApiClient.numGetsPerPathStd,
+                pool, null);
+
+        if (ceiling == null) {
+            return;
+        }
+        LatencyHistogram latencies = steps.readLatencies(name);
+        double throughput = stats.getPhaseThroughputPerSec(PeakPhaseSteps.PEAK_PHASE);
+        ceiling.record(engine, threads, throughput, latencies);
+        long badRequests = stats.getTotalBadRequests().get();
+        infoLogAndPrint(String.format("\t%.2f requests/second, mean latency %.2f ms, "
+                        + "%d bad requests", throughput, latencies.getMean(), badRequests));
+        if (badRequests > 0) {
+            failedSteps.add(engine + " with " + threads + " threads");
+        }
+    }
+
+    private static void infoLogAndPrint(String msg) {
+        logger.info(msg);
+        System.out.println(msg);
+    }
+}
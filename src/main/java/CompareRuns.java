@@ -0,0 +1,102 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import statistics.CsvStatsReader;
+import statistics.RunComparator;
+import statistics.RunSummary;
+
+/**
+ * Offline comparison of two client runs. Each run can be given as its request CSV or as the
+ * histogram summary written next to it, so CSVs from older runs can be compared too.
+ * <p>
+ * Usage: compare baseline candidate [budgetPropertiesFile]
+ * <p>
+ * The optional budget file holds the maximum regression allowed, in percent:
+ *   - maxRegressionPct: default for every metric
+ *   - maxRegressionPct.(metric): overrides the default, for throughput, mean, p50, p90, p95, p99
+ *     and p99.9
+ * A metric regresses when it is worse than its budget and its confidence interval excludes zero.
+ * A path of the baseline run missing from the candidate run always fails the comparison.
+ */
+public class CompareRuns {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_ERROR = 1;
+    public static final int EXIT_REGRESSION = 2;
+    private static final long RESAMPLE_SEED = 6650;
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: compare <baseline> <candidate> [budgetPropertiesFile]");
+            System.exit(EXIT_ERROR);
+        }
+
+        RunComparator comparator = null;
+        try {
+            RunSummary baseline = loadSummary(args[0]);
+            RunSummary candidate = loadSummary(args[1]);
+            Map<String, Double> budget = args.length == 3
+                    ? loadBudget(args[2])
+                    : new HashMap<String, Double>();
+            comparator = new RunComparator(baseline, candidate, budget, RESAMPLE_SEED);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not load comparison input: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+
+        comparator.compare();
+        System.out.println(comparator);
+        System.exit(comparator.hasRegression() ? EXIT_REGRESSION : EXIT_OK);
+    }
+
+    /**
+     * Loads a run summary from either a summary file or a request CSV.
+     *
+     * @param filePath path to the file
+     * @return the run summary
+     * @throws IOException if the file cannot be read
+     */
+    private static RunSummary loadSummary(String filePath) throws IOException {
+        if (RunSummary.isSummaryFile(filePath)) {
+            return RunSummary.readFromFile(filePath);
+        }
+        return new CsvStatsReader(filePath).calculateRunSummary();
+    }
+
+    /**
+     * Reads the regression budget for each metric from a properties file.
+     *
+     * @param fileName path to the properties file
+     * @return the budget in percent for each metric that has one
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if a budget is not a non-negative number
+     */
+    private static Map<String, Double> loadBudget(String fileName)
+            throws IOException, IllegalArgumentException {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(fileName)) {
+            props.load(fis);
+        }
+
+        String defaultName = "maxRegressionPct";
+        Map<String, Double> budget = new HashMap<>();
+        for (String metric : RunComparator.METRICS) {
+            String raw = props.getProperty(defaultName + "." + metric, props.getProperty(defaultName));
+            if (raw == null) {
+                continue;
+            }
+            try {
+                double pct = Double.parseDouble(raw);
+                if (pct < 0) {
+                    throw new IllegalArgumentException("regression budget cannot be negative");
+                }
+                budget.put(metric, pct);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("malformed regression budget for " + metric);
+            }
+        }
+        return budget;
+    }
+}
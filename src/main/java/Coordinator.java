@@ -0,0 +1,347 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import statistics.BulkRequestStatistics;
+import statistics.SloCheck;
+import statistics.StreamingSummary;
+
+/**
+ * Runs one scenario over several worker JVMs, for loads one client cannot send on its own. The
+ * skiers and threads of every phase are split between the workers, each worker starts a phase only
+ * once every worker has reached its trigger, and the workers' counters and histograms are merged
+ * into one report. That covers every section but the client JVM samples, which only mean something
+ * per JVM: each worker writes its own, and the report says where.
+ * <p>
+ * Usage: coordinate (numWorkers) [port]
+ *   - without a port, the workers are started as local processes, logging to
+ *     (csvFilename)-worker(n).log
+ *   - with a port, the coordinator listens on it for workers started on other hosts with:
+ *     worker (coordinator host):(port)
+ * <p>
+ * The scenario is read from arguments.properties, and the merged run is checked against its
+ * sloFilename, if any. Each worker gets a copy, with:
+ *   - maxThreads and numSkiers: its share, the remainder going to the first workers
+ *   - maxRequestsPerSec and maxRequestsPerSec.(endpoint): its share, in proportion to its threads,
+ *     so that the workers together keep to the scenario's limits
+ *   - firstSkierId: the start of its share of the skiers
+ *   - seed: derived from the scenario's seed, so the run can be repeated
+ *   - soakMode: true, as only the streaming summaries can be merged
+ *   - csvFilename and traceFilename: suffixed with -worker(n)
+ * <p>
+ * Workers talk to the coordinator over a socket:
+ *   - coordinator: CONFIG, then the worker's properties
+ *   - worker: TRIGGER (phase), once the phase's trigger is reached
+ *   - coordinator: START (phase), once every worker has sent its TRIGGER
+ *   - worker: RESULT, then its counters and its checkpoint files
+ */
+public class Coordinator {
+
+    public static final int EXIT_ERROR = 1;
+    static final String CONFIG = "CONFIG";
+    static final String TRIGGER = "TRIGGER";
+    static final String START = "START";
+    static final String RESULT = "RESULT";
+    static final String[] CHECKPOINT_SUFFIXES = {"", ".headline", ".phases", ".partitions"};
+    private static final Logger logger = LogManager.getLogger(Coordinator.class);
+    // Spreads the workers' seeds, as SplittableRandom does its splits
+    private static final long SEED_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int MIN_THREADS_PER_WORKER = 4;
+    // The shared request rate limit, and the prefix of the per endpoint ones
+    private static final String RATE_LIMIT_NAME = "maxRequestsPerSec";
+    // How often a wait for workers to connect checks that the local workers are still running
+    private static final int ACCEPT_POLL_MS = 1000;
+
+    private Properties props;
+    private Arguments arguments;
+    private int numWorkers;
+    private String csvBase;
+    private List<Socket> sockets = new ArrayList<>();
+    private List<DataInputStream> inputs = new ArrayList<>();
+    private List<DataOutputStream> outputs = new ArrayList<>();
+
+    /**
+     * Constructor for a Coordinator.
+     *
+     * @param props      the scenario's properties
+     * @param numWorkers the number of workers to split it between
+     * @throws IllegalArgumentException if the properties are invalid, or cannot be split
+     */
+    public Coordinator(Properties props, int numWorkers) throws IllegalArgumentException {
+        this.props = props;
+        this.arguments = Arguments.fromProperties(props);
+        this.numWorkers = numWorkers;
+        if (numWorkers < 1) {
+            throw new IllegalArgumentException("numWorkers must be positive");
+        }
+        if (arguments.getMaxThreads() / numWorkers < MIN_THREADS_PER_WORKER) {
+            throw new IllegalArgumentException("maxThreads must be at least "
+                    + MIN_THREADS_PER_WORKER + " per worker");
+        }
+        if (arguments.getNumSkiers() < numWorkers) {
+            throw new IllegalArgumentException("numSkiers must be at least one per worker");
+        }
+        this.csvBase = arguments.getCsvFilename() == null ? "results" : arguments.getCsvFilename();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: coordinate <numWorkers> [port]");
+            System.exit(EXIT_ERROR);
+        }
+
+        Coordinator coordinator = null;
+        Integer port = null;
+        try {
+            int numWorkers = Integer.parseInt(args[0]);
+            port = args.length == 2 ? Integer.parseInt(args[1]) : null;
+            Properties props = new Properties();
+            try (FileInputStream fis = new FileInputStream("arguments.properties")) {
+                props.load(fis);
+            }
+            coordinator = new Coordinator(props, numWorkers);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: coordinate <numWorkers> [port]");
+            System.exit(EXIT_ERROR);
+        } catch (IOException e) {
+            System.out.println("Problem reading properties file, please try again: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid property found: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+
+        SloCheck sloCheck = BsdsApiClient.loadSloCheck(coordinator.arguments);
+        try {
+            BulkRequestStatistics stats = coordinator.coordinate(port);
+            infoLogAndPrint(stats.toString());
+            BsdsApiClient.finishRun(stats, sloCheck);
+        } catch (IOException e) {
+            System.err.println("Problem coordinating the workers: " + e.getMessage());
+            logger.error("Problem coordinating the workers: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+    }
+
+    /**
+     * Runs the scenario over the workers and merges their results.
+     *
+     * @param port the port to wait for workers on, or null to start local workers
+     * @return the merged statistics, ready to be reported
+     * @throws IOException          if a worker cannot be started or reached, exits before it
+     *                              connects, or fails
+     * @throws InterruptedException if interrupted while merging the results
+     */
+    public BulkRequestStatistics coordinate(Integer port) throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(port == null ? 0 : port)) {
+            if (port == null) {
+                for (int worker = 0; worker < numWorkers; worker++) {
+                    processes.add(launchLocalWorker(worker, server.getLocalPort()));
+                }
+            }
+            infoLogAndPrint("Waiting for " + numWorkers + " workers on port "
+                    + server.getLocalPort() + "...");
+            server.setSoTimeout(ACCEPT_POLL_MS);
+            for (int worker = 0; worker < numWorkers; worker++) {
+                Socket socket = accept(server, processes);
+                sockets.add(socket);
+                inputs.add(new DataInputStream(socket.getInputStream()));
+                outputs.add(new DataOutputStream(socket.getOutputStream()));
+                sendConfig(worker);
+            }
+            infoLogAndPrint("All workers connected");
+
+            for (int phase = 1; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+                synchronizePhase(phase);
+            }
+            return collectResults();
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Starts a worker in a new JVM on this host, with this JVM's class path.
+     */
+    private Process launchLocalWorker(int worker, int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp",
+                System.getProperty("java.class.path"), BsdsApiClient.class.getName(), "worker",
+                "localhost:" + port);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(new File(csvBase + "-worker" + worker + ".log"));
+        return builder.start();
+    }
+
+    /**
+     * Waits for the next worker to connect. Local workers that exit first, e.g. on a bad property,
+     * would never connect, so they end the wait with a pointer to their log.
+     */
+    private Socket accept(ServerSocket server, List<Process> processes) throws IOException {
+        while (true) {
+            try {
+                return server.accept();
+            } catch (SocketTimeoutException e) {
+                for (int worker = 0; worker < processes.size(); worker++) {
+                    Process process = processes.get(worker);
+                    if (!process.isAlive()) {
+                        throw new IOException("worker " + worker + " exited with code "
+                                + process.exitValue() + " while waiting for workers, see "
+                                + csvBase + "-worker" + worker + ".log");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a worker its share of the scenario.
+     */
+    private void sendConfig(int worker) throws IOException {
+        int threads = share(arguments.getMaxThreads(), worker);
+        int skiers = share(arguments.getNumSkiers(), worker);
+        int firstSkierId = arguments.getFirstSkierId();
+        for (int earlier = 0; earlier < worker; earlier++) {
+            firstSkierId += share(arguments.getNumSkiers(), earlier);
+        }
+
+        Properties workerProps = new Properties();
+        workerProps.putAll(props);
+        workerProps.setProperty("maxThreads", String.valueOf(threads));
+        workerProps.setProperty("numSkiers", String.valueOf(skiers));
+        workerProps.setProperty("firstSkierId", String.valueOf(firstSkierId));
+        for (String name : props.stringPropertyNames()) {
+            // 0 stays 0, no limit
+            if (name.equals(RATE_LIMIT_NAME) || name.startsWith(RATE_LIMIT_NAME + ".")) {
+                double limit = Double.parseDouble(props.getProperty(name).trim());
+                workerProps.setProperty(name,
+                        String.valueOf(limit * threads / arguments.getMaxThreads()));
+            }
+        }
+        workerProps.setProperty("seed", String.valueOf(arguments.getSeed() + worker * SEED_GAMMA));
+        workerProps.setProperty("soakMode", "true");
+        workerProps.setProperty("csvFilename", csvBase + "-worker" + worker);
+        if (arguments.getTraceFilename() != null) {
+            workerProps.setProperty("traceFilename",
+                    arguments.getTraceFilename() + "-worker" + worker);
+        }
+        StringWriter config = new StringWriter();
+        workerProps.store(config, "Worker " + worker + " of " + numWorkers);
+
+        DataOutputStream out = outputs.get(worker);
+        out.writeUTF(CONFIG);
+        writeBlob(out, config.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        logger.info("Worker " + worker + ": " + threads + " threads, skiers " + firstSkierId + " to "
+                + (firstSkierId + skiers - 1));
+    }
+
+    /**
+     * Waits for every worker to reach a phase's trigger, then starts the phase on all of them.
+     */
+    private void synchronizePhase(int phase) throws IOException {
+        // Every worker must arrive, so the order they are waited on in does not matter
+        for (int worker = 0; worker < numWorkers; worker++) {
+            expect(worker, TRIGGER + " " + phase);
+        }
+        for (DataOutputStream out : outputs) {
+            out.writeUTF(START + " " + phase);
+            out.flush();
+        }
+        infoLogAndPrint("Started phase " + phase + " on all workers");
+    }
+
+    /**
+     * Receives every worker's counters and checkpoint, and merges them.
+     */
+    private BulkRequestStatistics collectResults() throws IOException, InterruptedException {
+        BulkRequestStatistics stats = new BulkRequestStatistics(csvBase,
+                arguments.isExcludeWarmup());
+        stats.setWorkloadSeed(arguments.getSeed());
+        stats.enableSoakMode(arguments.getCheckpointIntervalSecs(), arguments.getCsvSampleRate());
+        if (arguments.getMonitorIntervalSecs() > 0) {
+            stats.setMergeNote("Client JVM samples are not merged, see " + csvBase
+                    + "-worker(n)-client-monitor.csv for each worker's");
+        }
+
+        File workDir = Files.createTempDirectory("coordinator").toFile();
+        try {
+            for (int worker = 0; worker < numWorkers; worker++) {
+                expect(worker, RESULT);
+                DataInputStream in = inputs.get(worker);
+                String counters = new String(readBlob(in), StandardCharsets.UTF_8);
+                String checkpoint = new File(workDir, "worker" + worker).getPath();
+                for (String suffix : CHECKPOINT_SUFFIXES) {
+                    Files.write(Paths.get(checkpoint + suffix), readBlob(in));
+                }
+                stats.mergeCounters(counters);
+                stats.mergeStreamingSummary(StreamingSummary.readCheckpoint(checkpoint));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("malformed worker results");
+        } finally {
+            File[] files = workDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            workDir.delete();
+        }
+        stats.performFinalCalcs();
+        return stats;
+    }
+
+    /**
+     * A worker's share of a total, the remainder going to the first workers.
+     */
+    private int share(int total, int worker) {
+        return total / numWorkers + (worker < total % numWorkers ? 1 : 0);
+    }
+
+    private void expect(int worker, String expected) throws IOException {
+        String message = inputs.get(worker).readUTF();
+        if (!message.equals(expected)) {
+            throw new IOException("worker " + worker + " sent " + message + ", expected "
+                    + expected);
+        }
+    }
+
+    /**
+     * Writes a length prefixed block of bytes, as writeUTF is limited to 64KB.
+     */
+    static void writeBlob(DataOutputStream out, byte[] blob) throws IOException {
+        out.writeInt(blob.length);
+        out.write(blob);
+    }
+
+    static byte[] readBlob(DataInputStream in) throws IOException {
+        byte[] blob = new byte[in.readInt()];
+        in.readFully(blob);
+        return blob;
+    }
+
+    private static void infoLogAndPrint(String msg) {
+        logger.info(msg);
+        System.out.println(msg);
+    }
+}
@@ -0,0 +1,109 @@
+import com.squareup.okhttp.ConnectionPool;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import statistics.BulkRequestStatistics;
+import statistics.CsvStatsReader;
+import statistics.LatencyHistogram;
+import statistics.RunSummary;
+import statistics.SingleRequestStatistics;
+import workload.HostBalancer;
+
+/**
+ * Runs the peak phase on its own for a fixed time, once per step, each step writing its requests
+ * to its own CSV in a temporary directory. Used by the modes that measure something by comparing
+ * short runs of the peak phase, such as calibrate and batch sweep modes.
+ */
+class PeakPhaseSteps {
+
+    static final int PEAK_PHASE = BulkRequestStatistics.WARMUP_PHASE + 1;
+    static final int PEAK_START_TIME = 91;
+    static final int PEAK_END_TIME = 360;
+
+    private File workDir;
+
+    /**
+     * Creates the temporary directory for the step CSVs.
+     *
+     * @param prefix the directory name prefix
+     * @throws IOException if the directory cannot be created
+     */
+    PeakPhaseSteps(String prefix) throws IOException {
+        this.workDir = Files.createTempDirectory(prefix).toFile();
+    }
+
+    /**
+     * Copies the client's properties, running the peak phase for a fixed time.
+     *
+     * @param props the client's properties
+     * @param secs  how long the peak phase runs
+     * @return the step's properties, which may be changed further
+     */
+    static Properties stepProperties(Properties props, int secs) {
+        Properties stepProps = new Properties();
+        stepProps.putAll(props);
+        stepProps.setProperty("phase" + PEAK_PHASE + ".durationSecs", String.valueOf(secs));
+        stepProps.setProperty("phase" + PEAK_PHASE + ".timeoutSecs", "0");
+        return stepProps;
+    }
+
+    /**
+     * Runs the peak phase with maxThreads threads, and waits for its requests to be written.
+     *
+     * @param name                    the step's name, unique among the steps
+     * @param stepArgs                the step's arguments
+     * @param numGetRequestsPerThread number of GET requests to make per thread
+     * @param pool                    connection pool shared by every runner
+     * @param balancer                balances every request over the hosts if not null
+     * @return the step's statistics
+     * @throws InterruptedException if interrupted while waiting for the CSV writer
+     */
+    BulkRequestStatistics run(String name, Arguments stepArgs, int numGetRequestsPerThread,
+                              ConnectionPool pool, HostBalancer balancer)
+            throws InterruptedException {
+        BulkRequestStatistics stats = new BulkRequestStatistics(getCsvBase(name));
+        Thread writerLoop = stats.startStatsToCsvListener();
+        stats.startWallTimer();
+        BsdsApiClient.executePhase(PEAK_PHASE, stepArgs, stepArgs.getMaxThreads(),
+                PEAK_START_TIME, PEAK_END_TIME, BsdsApiClient.numPostsStd,
+                numGetRequestsPerThread, null, stats, null, null, pool, balancer, null);
+        stats.stopWallTimer();
+        stats.pushDataToWriter(new SingleRequestStatistics[]{});  // empty signals stop
+        writerLoop.join();
+        return stats;
+    }
+
+    /**
+     * Reads the latencies of every request of a step, whatever its path.
+     *
+     * @param name the step's name
+     * @return the latencies
+     * @throws IOException if the step's CSV cannot be read
+     */
+    LatencyHistogram readLatencies(String name) throws IOException {
+        RunSummary summary = new CsvStatsReader(getCsvBase(name) + ".csv").calculateRunSummary();
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (String key : summary.getKeys()) {
+            latencies.merge(summary.getHistogram(key));
+        }
+        return latencies;
+    }
+
+    /**
+     * Deletes the step CSVs and their directory.
+     */
+    void deleteWorkDir() {
+        File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        workDir.delete();
+    }
+
+    private String getCsvBase(String name) {
+        return new File(workDir, name).getPath();
+    }
+}
@@ -0,0 +1,17 @@
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Decides when a phase starts. A client on its own starts each phase as soon as its trigger is
+ * reached; a worker of a coordinated run also waits for every other worker to reach it.
+ */
+public interface PhaseGate {
+
+    /**
+     * Waits until a phase may start.
+     *
+     * @param phase   the phase, from 1
+     * @param trigger counts down to the phase's trigger: for phase 1 it is already reached
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void awaitPhaseStart(int phase, CountDownLatch trigger) throws InterruptedException;
+}
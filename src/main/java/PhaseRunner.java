@@ -1,42 +1,188 @@
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+import io.swagger.client.ApiClient;
 import io.swagger.client.ApiException;
 import io.swagger.client.ApiResponse;
+import io.swagger.client.api.ResortsApi;
 import io.swagger.client.api.SkiersApi;
 import io.swagger.client.model.LiftRide;
 import io.swagger.client.model.SkierVertical;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import statistics.AttemptStatistics;
 import statistics.BulkRequestStatistics;
+import statistics.LatencyHistogram;
 import statistics.SingleRequestStatistics;
+import workload.Endpoint;
+import workload.HostBalancer;
+import workload.RequestDescriptor;
+import workload.RequestGenerator;
+import workload.RequestMix;
+import workload.RequestPolicy;
+import workload.RequestThrottle;
+import workload.TraceRecorder;
 
 /**
  * PhaseRunner uses the client SDK to call the server API in an automated way.
  * <p>
  * Source of truth for how phases are run is found here: https://gortonator.github.io/bsds-6650/assignments-2020/Assignment-1
+ * <p>
+ * A runner either generates its requests, or replays requests handed to it from a trace.
  */
 public class PhaseRunner implements Runnable {
 
     // Limited logging performed here due to high execution volume
     private static final Logger logger = LogManager.getLogger(PhaseRunner.class);
+    // Stats are handed to the writer in chunks so long runs never buffer more than this per runner
+    private static final int MAX_BUFFERED_STATS = 1000;
+    // Trace chunks are also handed over once they span this long, so a slow runner's requests are
+    // not written, and replayed, behind many later chunks of faster runners
+    private static final long MAX_TRACE_CHUNK_MS = 1000;
+    // An adaptive hedge delay needs this many first attempts, and is refreshed this often
+    private static final int MIN_HEDGE_SAMPLES = 100;
+    private static final int HEDGE_DELAY_REFRESH = 100;
+    private static final MediaType JSON_TYPE = MediaType.parse("application/json; charset=utf-8");
 
-
-    private SkiersApi skiersApiInstance;
+    // API callers by host index, as in the host balancer, all over this runner's own HTTP client.
+    // A request's host is picked by picking its callers, so no base path changes under a request
+    private OkHttpClient httpClient;
+    private SkiersApi[] skiersApis;
+    private ResortsApi[] resortsApis;
     private Arguments args;
     private CountDownLatch completionLatch;
     private CountDownLatch nextPhaseLatch;
     private BulkRequestStatistics stats;
-    private ThreadLocalRandom rand;
+    private SplittableRandom rand;
     private SingleRequestStatistics[] singleRequestStatisticsArray;
     private int singleStatsCurrIndex;
+    private int phase;
+    private int runnerIndex;
     private int numPosts;
     private int numGets;
-    private int skierIdLow;
-    private int skierIdHigh;
-    private int timeLow;
-    private int timeHigh;
+    private RequestMix requestMix;
+    private RequestGenerator generator;
+    private LiftRide liftRide = new LiftRide();
+    private long runStart;
+    private int numSent;
+    private int numTimedOut;
+    // Requests not sent because no permit was given before the phase ended
+    private int numAbandoned;
+    private int preWarmRounds;
+
+    // End of the phase, if it is bounded by time
+    private long deadline;
+    private boolean untilDeadline;
+    private volatile boolean cancelled;
+    private final BooleanSupplier isCancelled = () -> cancelled;
+    // Sockets of this runner's requests in flight, several while a GET is hedged, and the one each
+    // thread is sending on
+    private final Set<Socket> inFlightSockets = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Socket> threadSocket = new ThreadLocal<>();
+    // The hedged attempt each hedge thread is making, so that it can be aborted at the deadline
+    private final ThreadLocal<HedgeAttempt> threadHedgeAttempt = new ThreadLocal<>();
+
+    // {sent, received} body bytes of the call each thread is making, counted by the connection
+    // interceptor, so a call's bytes are its own even while hedged attempts run on other threads
+    private final ThreadLocal<long[]> threadBytes = ThreadLocal.withInitial(() -> new long[2]);
+    // {sent, received} body bytes of the attempt that answered the request being sent, reused
+    private final long[] requestBytes = new long[2];
+    // {sent, received} of the primary and the hedge of the GET being hedged, written by attempts
+    // still of hedgeSeq's request, so one that lost an earlier request cannot overwrite them
+    private final long[][] hedgeAttemptBytes = new long[2][2];
+    private int hedgeSeq;
+
+    // Recording, if enabled
+    private TraceRecorder recorder;
+    private RequestDescriptor[] traceBuffer;
+    private int traceCurrIndex;
+
+    // Rate limiting, if enabled, with the time spent waiting for permits in microseconds by path
+    private RequestThrottle throttle;
+    private Map<String, LatencyHistogram> permitWaits;
+
+    // Host balancing, if there are several hosts, with results by host address
+    private HostBalancer balancer;
+    private Map<String, LatencyHistogram> hostLatencies;
+    private Map<String, Integer> hostBadRequests;
+
+    // Checks when sampled lift rides become visible
+    private VisibilityProbe visibilityProbe;
+
+    // Lift rides waiting to be sent together, with the times they were queued
+    private int batchSize;
+    private int batchWaitMs;
+    private List<LiftRide> batch;
+    private long[] batchQueuedAt;
+    private int numBatches;
+    private int numBatchedRides;
+    private LatencyHistogram batchLatencies;
+    private LatencyHistogram rideLatencies;
+
+    // Retries, deadlines and hedging, if enabled
+    private RequestPolicy policy;
+    private RequestPolicy.RetryBudget retryBudget;
+    private AttemptStatistics attemptStats;
+    private ExecutorService hedgeExecutor;
+    private Map<String, long[]> hedgeDelays;
+
+    // Replay source, if replaying
+    private BlockingQueue<RequestDescriptor> replaySource;
+    private long replayStart;
+    private double replaySpeed;
+
+    /**
+     * Thrown when a request's deadline passes. It is never retried, and is counted once, by
+     * executeWithPolicy.
+     */
+    private static class DeadlineExceededException extends ApiException {
+        DeadlineExceededException() {
+            super(0, "request deadline exceeded");
+        }
+    }
+
+    /**
+     * One attempt of a hedged GET, which can be aborted by closing the socket it is sent on. An
+     * attempt aborted before it has a socket fails as soon as it gets one.
+     */
+    private static class HedgeAttempt {
+        private volatile Socket socket;
+        private volatile boolean aborted;
+
+        void abort() {
+            aborted = true;
+            closeSocket(socket);
+        }
+    }
 
     /**
      * Basic constructor for a PhaseRunner.
@@ -44,9 +190,13 @@ public class PhaseRunner implements Runnable {
      * To aid in readability, set skier and time ranges in helper methods, setSkierIdRange and
      * setTimeRange. These fields will be null if not set.
      *
+     * @param phase       the phase this runner belongs to, recorded with every request
+     * @param runnerIndex the index of this runner within its phase, used to seed its workload
      * @throws IllegalArgumentException if args is null or either numPosts or numGets is negative
      */
     public PhaseRunner(
+            int phase,
+            int runnerIndex,
             int numPosts,
             int numGets,
             Arguments args,
@@ -58,31 +208,138 @@ public class PhaseRunner implements Runnable {
             throw new IllegalArgumentException(
                     "invalid arguments - args cannot be null, posts and gets cannot be negative");
         }
+        this.phase = phase;
+        this.runnerIndex = runnerIndex;
         this.numPosts = numPosts;
         this.numGets = numGets;
         this.args = args;
         this.completionLatch = completionLatch;
         this.nextPhaseLatch = nextPhaseLatch;
         this.stats = stats;
+        this.runStart = stats.getWallStart();
 
         // Prevent null pointer errors if no next phase is given
         if (nextPhaseLatch == null) {
             this.nextPhaseLatch = new CountDownLatch(0);
         }
 
-        // Set up api caller instance
-        this.skiersApiInstance = new SkiersApi();
-        this.skiersApiInstance.getApiClient().setBasePath(this.args.getHostAddress());
+        // Set up api caller instances, over an HTTP client of its own, so that its interceptor and
+        // timeouts only apply to its own requests. Connections are shared through the pool
+        this.httpClient = new OkHttpClient();
+        this.httpClient.networkInterceptors().add(this::trackConnection);
+        List<String> hostAddresses = args.getHostAddresses();
+        this.skiersApis = new SkiersApi[hostAddresses.size()];
+        this.resortsApis = new ResortsApi[hostAddresses.size()];
+        for (int host = 0; host < hostAddresses.size(); host++) {
+            ApiClient apiClient = new ApiClient();
+            apiClient.setHttpClient(httpClient);
+            apiClient.setBasePath(hostAddresses.get(host));
+            this.skiersApis[host] = new SkiersApi(apiClient);
+            this.resortsApis[host] = new ResortsApi(apiClient);
+        }
+        this.requestMix = args.getRequestMix(phase);
+        this.policy = args.getRequestPolicy();
+        if (policy != null) {
+            this.retryBudget = policy.getRetryBudget();
+            this.attemptStats = new AttemptStatistics();
+            this.hedgeDelays = new HashMap<>();
+        }
 
-        // Thread-safe random number generator for generating API calls
-        this.rand = ThreadLocalRandom.current();
+        // Random number generator for generating API calls, only ever used by this runner's thread
+        this.rand = new SplittableRandom(runnerSeed(args.getSeed(), phase, runnerIndex));
+        // Lift IDs are 1-indexed
+        this.generator = new RequestGenerator(rand, phase, runnerIndex,
+                args.getLiftDistribution().create(1, args.getNumSkiLifts()),
+                args.getResortChoice(phase), args.getDayChoice(phase));
 
-        // Initialize array for all requests
-        this.singleRequestStatisticsArray = new SingleRequestStatistics[this.numPosts + (this.numGets
-                * 2)];  // 2x for Gets because there are two Get paths
+        // Initialize array for requests, up to one chunk
+        // 2x for Gets because there are two Get paths
+        int numRequests = this.numPosts + (this.numGets * 2);
+        this.singleRequestStatisticsArray = new SingleRequestStatistics[
+                Math.min(numRequests, MAX_BUFFERED_STATS)];
         this.singleStatsCurrIndex = 0;
     }
 
+    /**
+     * Creates a runner that sends the requests put on a queue instead of generating its own, until it
+     * takes a runner end descriptor. Each request is held back until its send offset, divided by the
+     * speed, has passed since the replay started.
+     *
+     * @param phase           the phase this runner belongs to
+     * @param runnerIndex     the index of this runner within its phase
+     * @param args            arguments provided to the client
+     * @param completionLatch counted down when the runner finishes
+     * @param stats           object to collect statistics from
+     * @param source          the queue requests are taken from
+     * @param replayStart     the unix time the replay started
+     * @param speed           the replay speed, 1 for the original pacing, infinity for no pacing
+     * @return the runner
+     * @throws IllegalArgumentException if any argument is null or the speed is not positive
+     */
+    public static PhaseRunner forReplay(
+            int phase,
+            int runnerIndex,
+            Arguments args,
+            CountDownLatch completionLatch,
+            BulkRequestStatistics stats,
+            BlockingQueue<RequestDescriptor> source,
+            long replayStart,
+            double speed)
+            throws IllegalArgumentException {
+        if (source == null || !(speed > 0)) {
+            throw new IllegalArgumentException(
+                    "invalid arguments - source cannot be null, speed must be positive");
+        }
+        PhaseRunner runner = new PhaseRunner(
+                phase, runnerIndex, 0, 0, args, completionLatch, stats, null);
+        runner.singleRequestStatisticsArray = new SingleRequestStatistics[MAX_BUFFERED_STATS];
+        runner.replaySource = source;
+        runner.replayStart = replayStart;
+        runner.replaySpeed = speed;
+        return runner;
+    }
+
+    /**
+     * Creates a runner that warms up the client before the run is timed: it sends a number of
+     * rounds of requests, one to each endpoint per round, without recording them anywhere.
+     *
+     * @param runnerIndex     the index of this runner, used to seed its requests
+     * @param rounds          the number of rounds
+     * @param args            arguments provided to the client
+     * @param completionLatch counted down when the runner finishes
+     * @param stats           object to collect statistics from, unused while pre-warming
+     * @return the runner
+     * @throws IllegalArgumentException if any argument is null or rounds is not positive
+     */
+    public static PhaseRunner forPreWarm(
+            int runnerIndex,
+            int rounds,
+            Arguments args,
+            CountDownLatch completionLatch,
+            BulkRequestStatistics stats)
+            throws IllegalArgumentException {
+        if (rounds <= 0) {
+            throw new IllegalArgumentException("invalid arguments - rounds must be positive");
+        }
+        // Phase 0 seeds differ from every real phase's, so seeded runs are unaffected
+        PhaseRunner runner = new PhaseRunner(0, runnerIndex, 0, 0, args, completionLatch, stats, null);
+        runner.setSkierIdRange(args.getFirstSkierId(), args.getLastSkierId());
+        runner.setTimeRange(1, args.getDayLengthMinutes());
+        runner.preWarmRounds = rounds;
+        return runner;
+    }
+
+    /**
+     * Checks whether a runner can send a request, e.g. before replaying it.
+     *
+     * @param args    arguments provided to the client, with any configured endpoints
+     * @param request the request
+     * @return true if the request's endpoint is known
+     */
+    public static boolean isSupported(Arguments args, RequestDescriptor request) {
+        return args.findEndpoint(request.getEndpointKey()) != null;
+    }
+
     /**
      * Sets the skier ID range (inclusive) for this runner.
      *
@@ -98,8 +355,7 @@ public class PhaseRunner implements Runnable {
         if (low > high) {
             throw new IllegalArgumentException("low bound cannot be greater than high bound");
         }
-        this.skierIdLow = low;
-        this.skierIdHigh = high;
+        generator.setSkierIds(args.getSkierDistribution().create(low, high));
     }
 
     /**
@@ -117,15 +373,174 @@ public class PhaseRunner implements Runnable {
         if (low > high) {
             throw new IllegalArgumentException("low bound cannot be greater than high bound");
         }
-        this.timeLow = low;
-        this.timeHigh = high;
+        generator.setTimes(args.getTimeDistribution().create(low, high));
+    }
+
+    /**
+     * Sends this runner's requests over connections from a pool shared with other runners, so that
+     * connections opened earlier, e.g. while pre-warming, are reused.
+     *
+     * @param pool the connection pool
+     */
+    public void setConnectionPool(ConnectionPool pool) {
+        this.httpClient.setConnectionPool(pool);
+    }
+
+    /**
+     * Sends each request to a host picked by a balancer shared by all runners, instead of to the
+     * first host address.
+     *
+     * @param balancer the host balancer
+     */
+    public void setHostBalancer(HostBalancer balancer) {
+        this.balancer = balancer;
+        this.hostLatencies = new HashMap<>();
+        this.hostBadRequests = new HashMap<>();
+    }
+
+    /**
+     * Records every request this runner sends to a trace.
+     *
+     * @param recorder the trace recorder
+     */
+    public void setTraceRecorder(TraceRecorder recorder) {
+        this.recorder = recorder;
+        this.traceBuffer = new RequestDescriptor[MAX_BUFFERED_STATS];
+    }
+
+    /**
+     * Checks when a sample of this runner's lift rides show up in their skier's day vertical.
+     *
+     * @param probe the probe, shared by all runners
+     */
+    public void setVisibilityProbe(VisibilityProbe probe) {
+        this.visibilityProbe = probe;
+    }
+
+    /**
+     * Sends this runner's lift rides in batches, as one POST to the batch path each, instead of one
+     * request per ride. Other requests are sent as usual.
+     *
+     * @param batchSize the most lift rides in a batch, at least 2
+     * @param waitMs    the longest a lift ride waits for its batch to fill, 0 for no limit
+     */
+    public void setBatching(int batchSize, int waitMs) {
+        this.batchSize = batchSize;
+        this.batchWaitMs = waitMs;
+        this.batch = new ArrayList<>(batchSize);
+        this.batchQueuedAt = new long[batchSize];
+        this.batchLatencies = new LatencyHistogram();
+        this.rideLatencies = new LatencyHistogram();
+    }
+
+    /**
+     * Waits for a permit from a throttle shared by all runners before sending each request. The wait
+     * happens before a request is timed, so it is reported apart from the request latency.
+     *
+     * @param throttle the throttle
+     */
+    public void setRequestThrottle(RequestThrottle throttle) {
+        this.throttle = throttle;
+        this.permitWaits = new HashMap<>();
+    }
+
+    /**
+     * Bounds this runner by time. At the deadline it stops sending, and the phase cancels whatever
+     * request is still in flight.
+     *
+     * @param deadline      the unix time the phase ends
+     * @param untilDeadline true to keep repeating the runner's requests until the deadline, false to
+     *                      send them once and stop early if the deadline comes first
+     */
+    public void setDeadline(long deadline, boolean untilDeadline) {
+        this.deadline = deadline;
+        this.untilDeadline = untilDeadline;
+    }
+
+    /**
+     * Stops the runner: no more requests are sent, and the ones in flight, if any, are aborted by
+     * closing their connections. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Socket socket : inFlightSockets) {
+            closeSocket(socket);
+        }
+    }
+
+    private static void closeSocket(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do, the request fails either way
+        }
     }
 
     @Override
     public void run() {
-        performPosts();
-        performGets();
-        stats.pushDataToWriter(singleRequestStatisticsArray);
+        if (preWarmRounds > 0) {
+            performPreWarm();
+            completionLatch.countDown();
+            return;
+        }
+        if (replaySource != null) {
+            performReplay();
+        } else if (requestMix != null) {
+            performMix();
+        } else {
+            do {
+                performPosts();
+                performGets();
+            } while (untilDeadline && hasTime());
+        }
+        // Rides still waiting when time is up are left unsent, like any other request
+        if (batch != null && !batch.isEmpty() && hasTime()) {
+            sendBatch();
+        }
+
+        if (hedgeExecutor != null) {
+            // Hedges that lost still record their latencies
+            hedgeExecutor.shutdown();
+            try {
+                hedgeExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                logger.error("Interrupted waiting for hedged requests: " + e.getMessage());
+            }
+        }
+        if (attemptStats != null) {
+            stats.addAttemptStatistics(attemptStats);
+        }
+        if (batch != null) {
+            stats.addBatchResults(phase, numBatches, numBatchedRides, batchLatencies,
+                    rideLatencies);
+        }
+
+        // Partial counts are reported too, so a phase cut short by its deadline adds up
+        stats.addPhaseRequests(phase, numSent);
+        stats.addTimedOutRequests(phase, numTimedOut);
+        if (replaySource == null && !untilDeadline) {
+            // A sent batch stands for all of its rides. Requests refused a permit are among the
+            // ones not sent
+            int numSentRides = numSent - numBatches + numBatchedRides;
+            stats.addAbandonedRequests(
+                    phase, numPosts + (numGets * 2) - numSentRides - numTimedOut);
+        } else if (numAbandoned > 0) {
+            stats.addAbandonedRequests(phase, numAbandoned);
+        }
+        flushStats();
+        if (throttle != null) {
+            stats.addPermitWaits(permitWaits);
+        }
+        if (balancer != null) {
+            stats.addHostResults(hostLatencies, hostBadRequests);
+        }
+        if (recorder != null) {
+            appendTrace(RequestDescriptor.runnerEnd(phase, runnerIndex, sendOffset()));
+            flushTrace();
+        }
         nextPhaseLatch.countDown();
         completionLatch.countDown();
     }
@@ -134,44 +549,10 @@ public class PhaseRunner implements Runnable {
      * Runs the POST requests required against the server.
      */
     private void performPosts() {
-        String reqType = "POST";
-        String path = "/skiers/liftrides";
-
-        // Set up reusable parts of a lift ride
-        LiftRide liftRide = new LiftRide();
-        liftRide.setResortID(args.getResort());
-        liftRide.setDayID(
-                String.valueOf(args.getSkiDay())
-        );
-
-        for (int i = 0; i < numPosts; i++) {
-            // Set up random variables for skier, lift and time
-            liftRide.setSkierID(nextSkierId());
-            liftRide.setTime(nextTime());
-            liftRide.setLiftID(nextLift());
-
-            // Attempt request
-            long reqStart = System.currentTimeMillis();
-            try {
-                // Get response info and time it. Write stats to array.
-                ApiResponse<Void> resp = skiersApiInstance.writeNewLiftRideWithHttpInfo(liftRide);
-                long reqEnd = System.currentTimeMillis();
-                long latency = reqEnd - reqStart;
-                appendStats(
-                        new SingleRequestStatistics(reqType, path, reqStart, latency, resp.getStatusCode()));
-
-                // Includes 4XX/5XX responses
-            } catch (ApiException e) {
-                // Get stats
-                long reqEnd = System.currentTimeMillis();
-                long latency = reqEnd - reqStart;
-                appendStats(new SingleRequestStatistics(reqType, path, reqStart, latency, e.getCode()));
-                stats.getTotalBadRequests().getAndIncrement();
-
-                // Notify of error
-                System.err.println("API error: " + e.getMessage());
-                logger.error("API error: " + e.getMessage() + "\n"
-                        + Arrays.toString(e.getStackTrace()));
+        Endpoint endpoint = args.getEndpoint(Endpoint.POST_LIFT_RIDE);
+        for (int i = 0; i < numPosts && hasTime(); i++) {
+            if (!sendNew(endpoint)) {
+                break;
             }
         }
     }
@@ -185,70 +566,718 @@ public class PhaseRunner implements Runnable {
     }
 
     private void performGetsVertByDayAndResort() {
-        String reqType = "GET";
-        String path = "/skiers/{resortID}/days/{dayID}/skiers/{skierID}";
+        Endpoint endpoint = args.getEndpoint(Endpoint.GET_DAY_VERTICAL);
+        for (int i = 0; i < numGets && hasTime(); i++) {
+            if (!sendNew(endpoint)) {
+                break;
+            }
+        }
+    }
 
-        for (int i = 0; i < numGets; i++) {
-            long reqStart = System.currentTimeMillis();
-            try {
-                // Get response info and time it. Write stats to array.
-                ApiResponse<SkierVertical> resp = skiersApiInstance.getSkierDayVerticalWithHttpInfo(
-                        args.getResort(),
-                        String.valueOf(args.getSkiDay()),
-                        nextSkierId()
-                );
-                long reqEnd = System.currentTimeMillis();
-                long latency = reqEnd - reqStart;
-                appendStats(
-                        new SingleRequestStatistics(reqType, path, reqStart, latency, resp.getStatusCode()));
-
-                // Includes 4XX/5XX responses
-            } catch (ApiException e) {
-                // Record stats
-                long reqEnd = System.currentTimeMillis();
-                long latency = reqEnd - reqStart;
-                appendStats(new SingleRequestStatistics(reqType, path, reqStart, latency, e.getCode()));
-                stats.getTotalBadRequests().getAndIncrement();
+    private void performGetsVertByResort() {
+        Endpoint endpoint = args.getEndpoint(Endpoint.GET_RESORT_VERTICAL);
+        for (int i = 0; i < numGets && hasTime(); i++) {
+            if (!sendNew(endpoint)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Runs as many requests as the POSTs and GETs together, or as many as fit before the deadline,
+     * picking each one's endpoint from the phase's request mix so that reads and writes are
+     * interleaved.
+     */
+    private void performMix() {
+        int numRequests = numPosts + (numGets * 2);
+        for (int i = 0; (untilDeadline || i < numRequests) && hasTime(); i++) {
+            if (!sendNew(requestMix.next(rand))) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Creates a generated request and sends it, if it gets a permit in time.
+     *
+     * @param endpoint the endpoint to call
+     * @return false if no permit was given, and the phase's requests should stop
+     */
+    private boolean sendNew(Endpoint endpoint) {
+        RequestDescriptor request = newRequest(endpoint);
+        if (request == null) {
+            return false;
+        }
+        send(request);
+        return true;
+    }
+
+    /**
+     * Sends the pre-warm rounds, to every host if there are several. Failures are only counted,
+     * since the responses are thrown away.
+     */
+    private void performPreWarm() {
+        int numFailed = 0;
+        int numHosts = balancer == null ? 1 : balancer.getNumHosts();
+        for (int round = 0; round < preWarmRounds; round++) {
+            for (int host = 0; host < numHosts; host++) {
+                for (Endpoint endpoint : args.getEndpoints()) {
+                    RequestDescriptor request = newRequest(endpoint);
+                    if (request == null) {
+                        continue;
+                    }
+                    try {
+                        execute(request, host);
+                    } catch (ApiException e) {
+                        numFailed++;
+                    }
+                }
+            }
+        }
+        if (numFailed > 0) {
+            logger.warn("Pre-warm runner " + runnerIndex + ": " + numFailed + " requests failed");
+        }
+    }
+
+    /**
+     * Sends requests taken from the replay source at their scaled send offsets, until a runner end
+     * descriptor is taken. The phase's timer spans from the first replayed send, as the trace is
+     * read ahead of the sends, to the last runner's end.
+     */
+    private void performReplay() {
+        boolean started = false;
+        try {
+            RequestDescriptor request = replaySource.take();
+            while (!request.isRunnerEnd()) {
+                long sendAt = replayStart + (long) (request.getSendOffset() / replaySpeed);
+                long wait = sendAt - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+                if (!started) {
+                    stats.markPhaseStarted(phase);
+                    started = true;
+                }
+                // The rest of the runner's requests are still taken, so the reader is not held
+                if (acquirePermit(request.getEndpointKey())) {
+                    send(request);
+                }
+                request = replaySource.take();
+            }
+        } catch (InterruptedException e) {
+            System.err.println("Replay runner interrupted: " + e.getMessage());
+            logger.error("Replay runner interrupted: " + e.getMessage());
+        }
+        if (started) {
+            stats.stopPhaseTimer(phase);
+        }
+    }
+
+    /**
+     * Creates a generated request, to be sent right away, once any permit has been given.
+     *
+     * @return the request, or null if no permit was given before the phase ended
+     */
+    private RequestDescriptor newRequest(Endpoint endpoint) {
+        // Before the send offset is taken, so a recorded trace has the actual send times
+        if (!acquirePermit(endpoint.getKey())) {
+            return null;
+        }
+        return generator.next(endpoint, sendOffset());
+    }
+
+    /**
+     * Waits for a permit to send a request, if rate limiting is enabled, and records the wait. No
+     * permit is given if it would only be due after the phase's deadline, or the runner is
+     * cancelled while waiting; the request is then counted as abandoned, as it never left.
+     *
+     * @param endpointKey the "method path" key of the request
+     * @return true if the request may be sent
+     */
+    private boolean acquirePermit(String endpointKey) {
+        if (throttle == null) {
+            return true;
+        }
+        long waitNanos = throttle.acquire(endpointKey, deadline, isCancelled);
+        if (waitNanos < 0 || !hasTime()) {
+            numAbandoned++;
+            return false;
+        }
+        LatencyHistogram histogram = permitWaits.get(endpointKey);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            permitWaits.put(endpointKey, histogram);
+        }
+        histogram.record(waitNanos / 1000);
+        return true;
+    }
+
+    /**
+     * Sends one request, times it and stores its stats. Errors, including 4XX/5XX responses, are
+     * counted as bad requests rather than stopping the runner. A request aborted by cancel() is
+     * only counted as timed out, since its latency was cut short.
+     *
+     * @param request the request to send
+     */
+    private void send(RequestDescriptor request) {
+        if (recorder != null) {
+            appendTrace(request);
+        }
+        if (batch != null) {
+            if (isLiftRide(request)) {
+                queueForBatch(request);
+                return;
+            }
+            if (isBatchDue()) {
+                sendBatch();
+            }
+        }
+        int host = balancer == null ? 0 : balancer.acquire();
+        String verticalBefore = null;
+        if (visibilityProbe != null && isLiftRide(request) && visibilityProbe.shouldSample()) {
+            verticalBefore = readVerticalBefore(request, host);
+        }
+
+        long[] bytes = requestBytes;
+        bytes[0] = 0;
+        bytes[1] = 0;
+        long reqStart = System.currentTimeMillis();
+        int responseCode;
+        boolean failed = false;
+        try {
+            // Get response info and time it
+            responseCode = policy == null
+                    ? executeCountingBytes(request, host, bytes)
+                    : executeWithPolicy(request, host, bytes);
+        } catch (ApiException e) {
+            failed = true;
+            responseCode = e.getCode();
+            if (!cancelled) {
+                stats.recordBadRequest(phase);
 
                 // Notify of error
                 System.err.println("API error: " + e.getCode() + " " + e.getResponseBody());
                 logger.error("API error: " + e.getCode() + " " + e.getResponseBody() + "\n"
                         + Arrays.toString(e.getStackTrace()));
             }
+        } finally {
+            // The response has been read, so the connection is back in the pool
+            releaseSocket();
+        }
+        long reqEnd = System.currentTimeMillis();
+        long latency = reqEnd - reqStart;
+        if (failed && cancelled) {
+            if (balancer != null) {
+                balancer.release(host, latency, false);
+            }
+            numTimedOut++;
+            return;
+        }
+        if (balancer != null) {
+            // No response code means the connection failed
+            balancer.release(host, latency, failed && (responseCode == 0 || responseCode >= 500));
+            recordHostResult(balancer.getAddress(host), latency, failed);
+        }
+        if (verticalBefore != null && !failed) {
+            visibilityProbe.watch(skiersApis[host].getApiClient().getBasePath(),
+                    request.getResort(), request.getDay(), request.getSkierId(), verticalBefore,
+                    reqEnd);
         }
+        numSent++;
+        appendStats(new SingleRequestStatistics(
+                request.getMethod(), request.getPath(), reqStart, latency, responseCode, phase,
+                request.getSkierId(), request.getLiftId(), request.getTime(), request.getResort(),
+                request.getDay(), bytes[0], bytes[1]));
     }
 
-    private void performGetsVertByResort() {
-        String reqType = "GET";
-        String path = "/skiers/{skierID}/vertical";
+    /**
+     * Adds a lift ride to the batch, and sends the batch if it is full or has waited long enough.
+     *
+     * @param request the lift ride
+     */
+    private void queueForBatch(RequestDescriptor request) {
+        LiftRide ride = new LiftRide();
+        RequestGenerator.fillLiftRide(ride, request);
+        batchQueuedAt[batch.size()] = System.currentTimeMillis();
+        batch.add(ride);
+        if (batch.size() == batchSize || isBatchDue()) {
+            sendBatch();
+        }
+    }
 
-        for (int i = 0; i < numGets; i++) {
-            long reqStart = System.currentTimeMillis();
-            try {
-                // Get response info and time it. Write stats to array.
-                ApiResponse<SkierVertical> resp = skiersApiInstance.getSkierResortTotalsWithHttpInfo(
-                        nextSkierId(),
-                        Collections.singletonList(args.getResort())
+    private boolean isBatchDue() {
+        return !batch.isEmpty() && batchWaitMs > 0
+                && System.currentTimeMillis() - batchQueuedAt[0] >= batchWaitMs;
+    }
+
+    /**
+     * Sends the batch as one POST of a JSON array of lift rides, and records it as one request.
+     * Each ride's latency is also recorded, from when it was queued to when its batch was
+     * acknowledged. The batch path is not part of the generated client, so it is called with the
+     * client's own HTTP client and JSON serializer, over the same connections.
+     */
+    private void sendBatch() {
+        int host = balancer == null ? 0 : balancer.acquire();
+        ApiClient client = skiersApis[host].getApiClient();
+        Request httpRequest = new Request.Builder()
+                .url(client.getBasePath() + args.getBatchPath())
+                .post(RequestBody.create(JSON_TYPE, client.getJSON().serialize(batch)))
+                .build();
+
+        long[] bytes = threadBytes.get();
+        bytes[0] = 0;
+        bytes[1] = 0;
+        long reqStart = System.currentTimeMillis();
+        int responseCode = 0;
+        boolean failed;
+        try {
+            Response response = httpClient.newCall(httpRequest).execute();
+            responseCode = response.code();
+            response.body().close();
+            failed = !response.isSuccessful();
+        } catch (IOException e) {
+            failed = true;
+        } finally {
+            releaseSocket();
+        }
+        long reqEnd = System.currentTimeMillis();
+        long latency = reqEnd - reqStart;
+        int numRides = batch.size();
+        if (failed && cancelled) {
+            if (balancer != null) {
+                balancer.release(host, latency, false);
+            }
+            numTimedOut += numRides;
+            batch.clear();
+            return;
+        }
+        if (failed) {
+            stats.recordBadRequest(phase);
+            System.err.println("API error: " + responseCode + " for a batch of " + numRides
+                    + " lift rides");
+            logger.error("API error: " + responseCode + " for a batch of " + numRides
+                    + " lift rides");
+        }
+        if (balancer != null) {
+            balancer.release(host, latency, failed && (responseCode == 0 || responseCode >= 500));
+            recordHostResult(balancer.getAddress(host), latency, failed);
+        }
+        numSent++;
+        numBatches++;
+        numBatchedRides += numRides;
+        batchLatencies.record(latency);
+        if (!failed) {
+            for (int i = 0; i < numRides; i++) {
+                rideLatencies.record(reqEnd - batchQueuedAt[i]);
+            }
+        }
+        appendStats(new SingleRequestStatistics("POST", args.getBatchPath(), reqStart, latency,
+                responseCode, phase, SingleRequestStatistics.NO_KEY, SingleRequestStatistics.NO_KEY,
+                SingleRequestStatistics.NO_KEY, SingleRequestStatistics.NO_RESORT,
+                SingleRequestStatistics.NO_KEY, bytes[0], bytes[1]));
+        batch.clear();
+    }
+
+    private boolean isLiftRide(RequestDescriptor request) {
+        return args.findEndpoint(request.getEndpointKey()).getName()
+                .equals(Endpoint.POST_LIFT_RIDE);
+    }
+
+    /**
+     * Reads the day vertical a lift ride will change, before it is sent. The read is not counted as
+     * a request.
+     *
+     * @param request the lift ride
+     * @param host    the index of the host the ride will be sent to
+     * @return the vertical, or null if it cannot be read and the ride is not checked
+     */
+    private String readVerticalBefore(RequestDescriptor request, int host) {
+        try {
+            return VisibilityProbe.readVertical(skiersApis[host], request.getResort(),
+                    request.getDay(), request.getSkierId());
+        } catch (ApiException e) {
+            logger.warn("Could not read vertical before lift ride, not checking it: "
+                    + e.getCode());
+            return null;
+        } finally {
+            releaseSocket();
+        }
+    }
+
+    /**
+     * Calls the API for one request under the request policy: the request is retried while it
+     * fails in a retryable way and the retry budget and deadline allow, and GETs may be hedged.
+     *
+     * @param request the request
+     * @param host    the index of the host to send it to
+     * @param bytes   set to the {sent, received} body bytes of the attempt that answered, so
+     *                retried attempts and hedges that lost are not counted
+     * @return the response status code
+     * @throws ApiException if the last attempt fails, or the deadline passes
+     */
+    private int executeWithPolicy(RequestDescriptor request, int host, long[] bytes)
+            throws ApiException {
+        long start = System.currentTimeMillis();
+        long deadlineMs = policy.getDeadlineMs();
+        long deadline = deadlineMs > 0 ? start + deadlineMs : Long.MAX_VALUE;
+        boolean hedge = policy.isHedgeGets() && request.getMethod().equals("GET");
+        retryBudget.deposit();
+        try {
+            for (int retry = 0; ; retry++) {
+                try {
+                    if (hedge) {
+                        return executeHedged(request, host, retry == 0, deadline, bytes);
+                    }
+                    limitTimeouts(deadline);
+                    return executeAttempt(request, host, retry == 0, bytes);
+                } catch (DeadlineExceededException e) {
+                    attemptStats.recordDeadlineExceeded();
+                    throw e;
+                } catch (ApiException e) {
+                    if (cancelled || retry >= policy.getMaxRetries()
+                            || !policy.isRetryable(request.getMethod(), e.getCode())) {
+                        throw e;
+                    }
+                    long backoff = policy.backoffMillis(retry);
+                    if (System.currentTimeMillis() + backoff >= deadline) {
+                        attemptStats.recordDeadlineExceeded();
+                        throw e;
+                    }
+                    if (!retryBudget.tryWithdraw()) {
+                        attemptStats.recordRetryDenied();
+                        throw e;
+                    }
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException interrupted) {
+                        throw e;
+                    }
+                    attemptStats.recordRetry();
+                }
+            }
+        } finally {
+            long latency = System.currentTimeMillis() - start;
+            attemptStats.recordRequest(request.getEndpointKey(), latency);
+        }
+    }
+
+    /**
+     * Limits the socket timeouts of the next call to the time left before a request's deadline,
+     * so that no attempt, whether the first, a retry or a hedge, can outlive it. OkHttp copies the
+     * timeouts into each call as it is made, so calls already in flight keep theirs. A primary
+     * attempt whose call is only made once its hedge is submitted gets the hedge's shorter
+     * timeouts, which still end by the deadline.
+     *
+     * @param deadline the unix time the request must be answered by, Long.MAX_VALUE for none
+     * @throws DeadlineExceededException if no time is left
+     */
+    private void limitTimeouts(long deadline) throws DeadlineExceededException {
+        if (deadline == Long.MAX_VALUE) {
+            return;
+        }
+        long timeLeft = deadline - System.currentTimeMillis();
+        if (timeLeft <= 0) {
+            throw new DeadlineExceededException();
+        }
+        httpClient.setConnectTimeout(timeLeft, TimeUnit.MILLISECONDS);
+        httpClient.setReadTimeout(timeLeft, TimeUnit.MILLISECONDS);
+        httpClient.setWriteTimeout(timeLeft, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a GET and, if it has not been answered after the hedge delay, a second copy of it. The
+     * first successful response wins; the other attempt is left to finish in the background. At
+     * the deadline, both are aborted.
+     *
+     * @param request  the request
+     * @param host     the index of the host to send both attempts to
+     * @param first    true if this is the request's first attempt rather than a retry
+     * @param deadline the unix time the request must be answered by
+     * @param bytes    set to the {sent, received} body bytes of the attempt that answered
+     * @return the response status code
+     * @throws ApiException if both attempts fail, or the deadline passes
+     */
+    private int executeHedged(RequestDescriptor request, int host, boolean first, long deadline,
+                              long[] bytes) throws ApiException {
+        if (hedgeExecutor == null) {
+            hedgeExecutor = Executors.newCachedThreadPool();
+        }
+        ExecutorCompletionService<Integer> attempts =
+                new ExecutorCompletionService<>(hedgeExecutor);
+        // Each attempt counts its own bytes on its own thread, as the one that lost may still be
+        // running
+        int seq;
+        synchronized (hedgeAttemptBytes) {
+            seq = ++hedgeSeq;
+        }
+        HedgeAttempt[] handles = new HedgeAttempt[]{new HedgeAttempt(), new HedgeAttempt()};
+        limitTimeouts(deadline);
+        Future<Integer> primary = attempts.submit(
+                () -> executeHedgeAttempt(request, host, first, seq, 0, handles[0]));
+        long delay = hedgeDelay(request.getEndpointKey());
+        long hedgeAt = delay < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + delay;
+        int numPending = 1;
+        boolean hedged = false;
+        ApiException failure = null;
+        try {
+            while (numPending > 0) {
+                long waitUntil = hedged ? deadline : Math.min(hedgeAt, deadline);
+                long wait = waitUntil - System.currentTimeMillis();
+                Future<Integer> done = waitUntil == Long.MAX_VALUE
+                        ? attempts.take()
+                        : attempts.poll(wait, TimeUnit.MILLISECONDS);
+                if (done == null) {
+                    if (System.currentTimeMillis() >= deadline) {
+                        handles[0].abort();
+                        handles[1].abort();
+                        throw new DeadlineExceededException();
+                    }
+                    limitTimeouts(deadline);
+                    attempts.submit(
+                            () -> executeHedgeAttempt(request, host, false, seq, 1, handles[1]));
+                    attemptStats.recordHedge();
+                    hedged = true;
+                    numPending++;
+                    continue;
+                }
+                numPending--;
+                synchronized (hedgeAttemptBytes) {
+                    System.arraycopy(hedgeAttemptBytes[done == primary ? 0 : 1], 0, bytes, 0, 2);
+                }
+                try {
+                    int responseCode = done.get();
+                    if (done != primary) {
+                        attemptStats.recordHedgeWon();
+                    }
+                    return responseCode;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof ApiException
+                            ? (ApiException) e.getCause() : new ApiException(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new ApiException(e);
+        }
+        throw failure;
+    }
+
+    /**
+     * Makes one attempt of a hedged GET on a hedge thread, counting its bytes in that thread's
+     * count and then noting them for the runner, unless another request is being hedged by then.
+     *
+     * @param request the request
+     * @param host    the index of the host to send it to
+     * @param first   true if this is the request's first attempt
+     * @param seq     the hedgeSeq of the request
+     * @param slot    0 for the primary attempt, 1 for the hedge
+     * @param handle  aborts the attempt at the deadline
+     * @return the response status code
+     * @throws ApiException if the call fails or the response is not successful
+     */
+    private int executeHedgeAttempt(RequestDescriptor request, int host, boolean first, int seq,
+                                    int slot, HedgeAttempt handle) throws ApiException {
+        long[] counted = threadBytes.get();
+        threadHedgeAttempt.set(handle);
+        try {
+            return executeAttempt(request, host, first, counted);
+        } finally {
+            threadHedgeAttempt.remove();
+            synchronized (hedgeAttemptBytes) {
+                if (seq == hedgeSeq) {
+                    System.arraycopy(counted, 0, hedgeAttemptBytes[slot], 0, 2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls the API once, counting the attempt and timing it if it is the request's first.
+     *
+     * @param request the request
+     * @param host    the index of the host to send it to
+     * @param first   true if this is the request's first attempt
+     * @param bytes   set to the {sent, received} body bytes of the attempt
+     * @return the response status code
+     * @throws ApiException if the call fails or the response is not successful
+     */
+    private int executeAttempt(RequestDescriptor request, int host, boolean first, long[] bytes)
+            throws ApiException {
+        attemptStats.recordAttempt();
+        long attemptStart = System.currentTimeMillis();
+        try {
+            return executeCountingBytes(request, host, bytes);
+        } finally {
+            // Hedged attempts run on their own threads, each noting its own socket
+            releaseSocket();
+            if (first) {
+                attemptStats.recordFirstAttempt(
+                        request.getEndpointKey(), System.currentTimeMillis() - attemptStart);
+            }
+        }
+    }
+
+    /**
+     * Gives how long to wait before hedging a request to a path: the configured delay, or the
+     * hedge percentile of this runner's first attempts, refreshed every so often.
+     *
+     * @param endpointKey the "method path" key
+     * @return the delay in milliseconds, or -1 to not hedge yet
+     */
+    private long hedgeDelay(String endpointKey) {
+        if (policy.getHedgeDelayMs() > 0) {
+            return policy.getHedgeDelayMs();
+        }
+        // {requests since refresh, delay}
+        long[] cached = hedgeDelays.get(endpointKey);
+        if (cached == null || ++cached[0] >= HEDGE_DELAY_REFRESH) {
+            long delay = attemptStats.getFirstAttemptPercentile(
+                    endpointKey, policy.getHedgePercentile(), MIN_HEDGE_SAMPLES);
+            cached = new long[]{0, delay};
+            hedgeDelays.put(endpointKey, cached);
+        }
+        return cached[1];
+    }
+
+    /**
+     * Calls the API for one request, counting the body bytes of only this call on this thread.
+     *
+     * @param request the request
+     * @param host    the index of the host to send it to
+     * @param bytes   set to the {sent, received} body bytes of the call, even if it fails
+     * @return the response status code
+     * @throws ApiException if the call fails or the response is not successful
+     */
+    private int executeCountingBytes(RequestDescriptor request, int host, long[] bytes)
+            throws ApiException {
+        long[] counted = threadBytes.get();
+        counted[0] = 0;
+        counted[1] = 0;
+        try {
+            return execute(request, host);
+        } finally {
+            bytes[0] = counted[0];
+            bytes[1] = counted[1];
+        }
+    }
+
+    /**
+     * Calls the API for one request.
+     *
+     * @param request the request
+     * @param host    the index of the host to send it to
+     * @return the response status code
+     * @throws ApiException if the call fails or the response is not successful
+     */
+    private int execute(RequestDescriptor request, int host) throws ApiException {
+        Endpoint endpoint = args.findEndpoint(request.getEndpointKey());
+        SkiersApi skiersApi = skiersApis[host];
+        switch (endpoint.getName()) {
+            case Endpoint.POST_LIFT_RIDE:
+                RequestGenerator.fillLiftRide(liftRide, request);
+                ApiResponse<Void> postResp = skiersApi.writeNewLiftRideWithHttpInfo(liftRide);
+                return postResp.getStatusCode();
+            case Endpoint.GET_DAY_VERTICAL:
+                ApiResponse<SkierVertical> dayResp = skiersApi.getSkierDayVerticalWithHttpInfo(
+                        request.getResort(),
+                        String.valueOf(request.getDay()),
+                        String.valueOf(request.getSkierId())
+                );
+                return dayResp.getStatusCode();
+            case Endpoint.GET_RESORT_VERTICAL:
+                ApiResponse<SkierVertical> resortResp = skiersApi.getSkierResortTotalsWithHttpInfo(
+                        String.valueOf(request.getSkierId()),
+                        Collections.singletonList(request.getResort())
                 );
-                long reqEnd = System.currentTimeMillis();
-                long latency = reqEnd - reqStart;
-                appendStats(
-                        new SingleRequestStatistics(reqType, path, reqStart, latency, resp.getStatusCode()));
-
-                // Includes 4XX/5XX responses
-            } catch (ApiException e) {
-                // Record stats
-                long reqEnd = System.currentTimeMillis();
-                long latency = reqEnd - reqStart;
-                appendStats(new SingleRequestStatistics(reqType, path, reqStart, latency, e.getCode()));
-                stats.getTotalBadRequests().getAndIncrement();
+                return resortResp.getStatusCode();
+            default:
+                return endpoint.invoke(skiersApi, resortsApis[host], request);
+        }
+    }
 
-                // Notify of error
-                System.err.println("API error: " + e.getCode() + " " + e.getResponseBody());
-                logger.error("API error: " + e.getCode() + " " + e.getResponseBody() + "\n"
-                        + Arrays.toString(e.getStackTrace()));
+    /**
+     * Network interceptor of this runner's own client, noting the socket each request is sent on,
+     * so that cancel() can abort it, and adding the bytes of each request and response body to
+     * the calling thread's count. The call runs on the thread that made it, so only that call is
+     * counted.
+     * Sizes come from the bodies' known lengths, so nothing is buffered or wrapped, except for a
+     * response without a Content-Length (chunked), whose body is wrapped to count the bytes as the
+     * caller reads them. The caller reads it on the same thread, before the call returns.
+     *
+     * @param chain the interceptor chain
+     * @return the response
+     * @throws IOException if the request fails, or the runner was cancelled before it was sent
+     */
+    private Response trackConnection(Interceptor.Chain chain) throws IOException {
+        Socket socket = chain.connection().getSocket();
+        threadSocket.set(socket);
+        inFlightSockets.add(socket);
+        // cancel() may have run before the socket was noted
+        if (cancelled) {
+            releaseSocket();
+            throw new IOException("runner cancelled");
+        }
+        HedgeAttempt hedgeAttempt = threadHedgeAttempt.get();
+        if (hedgeAttempt != null) {
+            hedgeAttempt.socket = socket;
+            // As above, the attempt may have been aborted before its socket was noted
+            if (hedgeAttempt.aborted) {
+                releaseSocket();
+                throw new IOException("hedged attempt aborted at the request deadline");
             }
         }
+        Request request = chain.request();
+        Response response = chain.proceed(request);
+        long[] bytes = threadBytes.get();
+        if (request.body() != null) {
+            bytes[0] += Math.max(request.body().contentLength(), 0);
+        }
+        ResponseBody body = response.body();
+        long length = body.contentLength();
+        if (length >= 0) {
+            bytes[1] += length;
+            return response;
+        }
+        BufferedSource counted = Okio.buffer(new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    bytes[1] += read;
+                }
+                return read;
+            }
+        });
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), length, counted))
+                .build();
+    }
+
+    /**
+     * Forgets the socket the calling thread's request was sent on, once its response has been read
+     * and the connection is back in the pool.
+     */
+    private void releaseSocket() {
+        Socket socket = threadSocket.get();
+        if (socket != null) {
+            inFlightSockets.remove(socket);
+            threadSocket.remove();
+        }
+    }
+
+    private void recordHostResult(String address, long latency, boolean failed) {
+        LatencyHistogram histogram = hostLatencies.get(address);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            hostLatencies.put(address, histogram);
+        }
+        histogram.record(latency);
+        if (failed) {
+            hostBadRequests.merge(address, 1, Integer::sum);
+        }
+    }
+
+    private boolean hasTime() {
+        return !cancelled && (deadline == 0 || System.currentTimeMillis() < deadline);
     }
 
     /**
@@ -259,18 +1288,67 @@ public class PhaseRunner implements Runnable {
     private void appendStats(SingleRequestStatistics stats) {
         singleRequestStatisticsArray[singleStatsCurrIndex] = stats;
         singleStatsCurrIndex++;
+        if (singleStatsCurrIndex == singleRequestStatisticsArray.length) {
+            flushStats();
+        }
     }
 
-    private String nextSkierId() {
-        return String.valueOf(rand.nextInt(skierIdLow, skierIdHigh + 1));
+    /**
+     * Hands the buffered stats to the writer and starts a new chunk. Empty chunks are never sent,
+     * because an empty array tells the writer to stop.
+     */
+    private void flushStats() {
+        if (singleStatsCurrIndex == 0) {
+            return;
+        }
+        stats.pushDataToWriter(Arrays.copyOf(singleRequestStatisticsArray, singleStatsCurrIndex));
+        singleStatsCurrIndex = 0;
+    }
+
+    /**
+     * Buffers a request for the trace recorder, handing over a chunk when the buffer is full or the
+     * buffered requests were sent MAX_TRACE_CHUNK_MS or more before this one.
+     *
+     * @param request the request to record
+     */
+    private void appendTrace(RequestDescriptor request) {
+        if (traceCurrIndex > 0
+                && request.getSendOffset() - traceBuffer[0].getSendOffset() >= MAX_TRACE_CHUNK_MS) {
+            flushTrace();
+        }
+        traceBuffer[traceCurrIndex] = request;
+        traceCurrIndex++;
+        if (traceCurrIndex == traceBuffer.length) {
+            flushTrace();
+        }
     }
 
-    private String nextTime() {
-        return String.valueOf(rand.nextInt(timeLow, timeHigh + 1));
+    /**
+     * Hands the buffered requests to the trace recorder. Empty chunks are never sent.
+     */
+    private void flushTrace() {
+        if (traceCurrIndex == 0) {
+            return;
+        }
+        recorder.push(Arrays.copyOf(traceBuffer, traceCurrIndex));
+        traceCurrIndex = 0;
     }
 
-    private String nextLift() {
-        // Values are increased by 1 in order to line up with 1-indexed lift IDs
-        return String.valueOf(rand.nextInt(1, args.getNumSkiLifts() + 1));
+    private long sendOffset() {
+        return System.currentTimeMillis() - runStart;
+    }
+
+    /**
+     * Derives a runner's seed from the run seed, so that each runner has its own request stream and
+     * the same seed, phase and index always give the same stream.
+     *
+     * @param seed        the run seed
+     * @param phase       the runner's phase
+     * @param runnerIndex the runner's index within its phase
+     * @return the runner's seed
+     */
+    static long runnerSeed(long seed, int phase, int runnerIndex) {
+        // Unique for every phase and index, SplittableRandom mixes the bits
+        return seed ^ (((long) phase << 32) | (runnerIndex & 0xFFFFFFFFL));
     }
 }
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.util.Map;
+import statistics.BulkRequestStatistics;
+import statistics.CsvStatsReader;
+import statistics.LatencyHistogram;
+
+/**
+ * Offline query of the statistics for a time window of a run, using the time index written next to
+ * the request CSV. Times are seconds since the start of the second the first request was sent in,
+ * so windows of whole seconds line up with the index and never need the CSV to be re-read.
+ * <p>
+ * Usage: query csvFile fromSecs toSecs ["METHOD path"]
+ */
+public class QueryWindow {
+
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("Usage: query <csvFile> <fromSecs> <toSecs> [\"METHOD path\"]");
+            System.exit(CompareRuns.EXIT_ERROR);
+        }
+
+        try {
+            double fromSecs = Double.parseDouble(args[1]);
+            double toSecs = Double.parseDouble(args[2]);
+            String pathKey = args.length == 4 ? args[3] : null;
+            if (fromSecs >= toSecs) {
+                throw new IllegalArgumentException("window start must be before its end");
+            }
+
+            long queryStart = System.currentTimeMillis();
+            CsvStatsReader reader = new CsvStatsReader(args[0]);
+            long runStart = reader.getIndexedRunStart();
+            if (runStart == Long.MAX_VALUE) {
+                throw new IllegalArgumentException("the time index has no requests");
+            }
+            runStart -= runStart % BulkRequestStatistics.MILLISECS_PER_SEC;
+            long from = runStart + (long) (fromSecs * BulkRequestStatistics.MILLISECS_PER_SEC);
+            long to = runStart + (long) (toSecs * BulkRequestStatistics.MILLISECS_PER_SEC);
+            Map<String, LatencyHistogram> result = reader.queryTimeWindow(from, to, pathKey);
+            long queryTime = System.currentTimeMillis() - queryStart;
+
+            System.out.println(windowToString(result, toSecs - fromSecs));
+            System.out.println("Query time: " + queryTime + " ms");
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not query time window: " + e.getMessage());
+            System.exit(CompareRuns.EXIT_ERROR);
+        }
+    }
+
+    /**
+     * Formats the statistics for each path in the window.
+     *
+     * @param result     path -> histogram of requests in the window
+     * @param windowSecs length of the window in seconds
+     * @return the formatted statistics
+     */
+    private static String windowToString(Map<String, LatencyHistogram> result, double windowSecs) {
+        if (result.isEmpty()) {
+            return "No requests started in this window";
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, LatencyHistogram> entry : result.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append(String.format("Statistics for %s:\n"
+                            + "\tRequests: %d\n"
+                            + "\tThroughput: %.2f requests/second\n"
+                            + "\tMean: %.2f\n"
+                            + "\tMedian: %d\n"
+                            + "\t99th Percentile: %d\n"
+                            + "\tMax: %d\n"
+                    , entry.getKey()
+                    , histogram.getCount()
+                    , histogram.getCount() / windowSecs
+                    , histogram.getMean()
+                    , histogram.getValueAtPercentile(50)
+                    , histogram.getValueAtPercentile(99)
+                    , histogram.getMax()
+            ));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,154 @@
+import com.squareup.okhttp.ConnectionPool;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import statistics.BulkRequestStatistics;
+import workload.HostBalancer;
+import workload.RequestDescriptor;
+import workload.RequestThrottle;
+import workload.TraceReader;
+
+/**
+ * Replays a recorded trace against the server. The trace is streamed: each request is handed to a
+ * PhaseRunner standing in for the runner that originally sent it, through a small bounded queue, so
+ * memory use does not grow with the size of the trace. Runners are started the first time one of
+ * their requests is read, and stop at their runner end record.
+ */
+public class TraceReplayer {
+
+    private static final Logger logger = LogManager.getLogger(TraceReplayer.class);
+    // Runners' chunks are interleaved in a trace, each spanning at most a second of sends, so a
+    // queue holds a few chunks' worth of requests. A full queue holds up the reader and so every
+    // runner, but the requests held up are due at most about a second before the queued ones
+    private static final int QUEUE_CAPACITY = 4096;
+
+    private String tracePath;
+    private double speed;
+    private Arguments arguments;
+    private BulkRequestStatistics stats;
+    private RequestThrottle throttle;
+    private ConnectionPool pool;
+    private HostBalancer balancer;
+
+    /**
+     * Constructor for a TraceReplayer.
+     *
+     * @param tracePath path of the trace to replay
+     * @param speed     the replay speed, 1 for the original pacing, infinity for no pacing
+     * @param arguments arguments provided to the client, for the host address
+     * @param stats     object to collect statistics from
+     * @param throttle  rate limits the replayed requests if not null
+     * @param pool      connection pool shared by every runner
+     * @param balancer  balances the replayed requests over the hosts if not null
+     */
+    public TraceReplayer(String tracePath, double speed, Arguments arguments,
+                         BulkRequestStatistics stats, RequestThrottle throttle,
+                         ConnectionPool pool, HostBalancer balancer) {
+        this.tracePath = tracePath;
+        this.speed = speed;
+        this.arguments = arguments;
+        this.stats = stats;
+        this.throttle = throttle;
+        this.pool = pool;
+        this.balancer = balancer;
+    }
+
+    /**
+     * Parses a replay speed: a positive multiplier such as "2" or "10", or "max" for no pacing.
+     *
+     * @param raw the raw speed
+     * @return the speed
+     * @throws IllegalArgumentException if the speed is not valid
+     */
+    public static double parseSpeed(String raw) throws IllegalArgumentException {
+        if (raw.equalsIgnoreCase("max")) {
+            return Double.POSITIVE_INFINITY;
+        }
+        try {
+            double speed = Double.parseDouble(raw);
+            if (speed > 0) {
+                return speed;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("replay speed must be a positive number or max");
+    }
+
+    /**
+     * Replays the whole trace and waits for every runner to finish.
+     *
+     * @throws IOException          if the trace cannot be read
+     * @throws InterruptedException if interrupted while dispatching or waiting
+     */
+    public void replay() throws IOException, InterruptedException {
+        Map<Long, BlockingQueue<RequestDescriptor>> queues = new HashMap<>();
+        Set<Long> finishedRunners = new HashSet<>();
+        List<CountDownLatch> completionLatches = new ArrayList<>();
+        long numSkipped = 0;
+        long replayStart = System.currentTimeMillis();
+
+        try (TraceReader reader = new TraceReader(tracePath)) {
+            RequestDescriptor request = reader.next();
+            while (request != null) {
+                int phase = request.getPhase();
+                if (phase < 0 || phase > BulkRequestStatistics.NUM_PHASES) {
+                    phase = 0;  // reported as the unknown phase
+                }
+                long runnerKey = ((long) phase << 32) | (request.getRunnerIndex() & 0xFFFFFFFFL);
+
+                if (!request.isRunnerEnd() && !PhaseRunner.isSupported(arguments, request)) {
+                    numSkipped++;
+                } else if (!finishedRunners.contains(runnerKey)) {
+                    BlockingQueue<RequestDescriptor> queue = queues.get(runnerKey);
+                    if (queue == null) {
+                        queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                        queues.put(runnerKey, queue);
+                        CountDownLatch completionLatch = new CountDownLatch(1);
+                        completionLatches.add(completionLatch);
+                        PhaseRunner runner = PhaseRunner.forReplay(phase, request.getRunnerIndex(),
+                                arguments, completionLatch, stats, queue, replayStart, speed);
+                        runner.setConnectionPool(pool);
+                        if (balancer != null) {
+                            runner.setHostBalancer(balancer);
+                        }
+                        if (throttle != null) {
+                            runner.setRequestThrottle(throttle);
+                        }
+                        new Thread(runner).start();
+                    }
+                    queue.put(request);
+                    if (request.isRunnerEnd()) {
+                        queues.remove(runnerKey);
+                        finishedRunners.add(runnerKey);
+                    }
+                }
+                request = reader.next();
+            }
+        } finally {
+            // Stop runners whose end was never recorded, e.g. from a truncated trace
+            for (Map.Entry<Long, BlockingQueue<RequestDescriptor>> entry : queues.entrySet()) {
+                entry.getValue().put(RequestDescriptor.runnerEnd(
+                        (int) (entry.getKey() >>> 32), (int) (long) entry.getKey(), 0));
+            }
+            for (CountDownLatch completionLatch : completionLatches) {
+                completionLatch.await();
+            }
+        }
+
+        if (numSkipped > 0) {
+            String msg = "Skipped " + numSkipped + " requests to unsupported endpoints";
+            logger.warn(msg);
+            System.err.println(msg);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import com.squareup.okhttp.ConnectionPool;
+import io.swagger.client.ApiClient;
+import io.swagger.client.ApiException;
+import io.swagger.client.api.SkiersApi;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import statistics.LatencyHistogram;
+
+/**
+ * Measures how long a lift ride takes to show up after its POST is acknowledged, for a server that
+ * writes lift rides asynchronously. Runners read the skier's day vertical before a sampled POST,
+ * and once the POST succeeds hand it over here: the vertical is polled until its response differs
+ * from the one read before, and the time from the acknowledgement to that response is recorded.
+ * <p>
+ * The lag is measured at the response that first shows the change, so it is an upper bound, at
+ * most one poll interval and one GET late. Another writer to the same skier and day would show up
+ * as a change too, so lags are only exact with a partitioned key range.
+ */
+public class VisibilityProbe {
+
+    // No lift rides for the skier and day yet
+    static final String NOT_FOUND = "not found";
+    private static final int NUM_POLL_THREADS = 4;
+
+    private final double sampleRate;
+    private final long pollMs;
+    private final long timeoutMs;
+    private final ScheduledExecutorService poller;
+    private final ThreadLocal<SkiersApi> apis;
+    private final LatencyHistogram lags = new LatencyHistogram();
+    private long numSampled;
+    private long numNeverVisible;
+    private int numPending;
+
+    /**
+     * Constructor for a VisibilityProbe.
+     *
+     * @param args arguments provided to the client
+     * @param pool connection pool shared with the runners
+     */
+    public VisibilityProbe(Arguments args, ConnectionPool pool) {
+        this.sampleRate = args.getVisibilitySampleRate();
+        this.pollMs = args.getVisibilityPollMs();
+        this.timeoutMs = args.getVisibilityTimeoutMs();
+        this.poller = Executors.newScheduledThreadPool(NUM_POLL_THREADS, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Each poll thread has its own API client, and so its own HTTP client, so that changing
+        // its base path to the host it polls and its pool leaves the runners' clients alone
+        this.apis = ThreadLocal.withInitial(() -> {
+            SkiersApi api = new SkiersApi(new ApiClient());
+            api.getApiClient().getHttpClient().setConnectionPool(pool);
+            return api;
+        });
+    }
+
+    /**
+     * Decides whether to check a POST. Draws from its own random numbers, so a seeded workload is
+     * the same with or without sampling.
+     *
+     * @return true to check it
+     */
+    public boolean shouldSample() {
+        return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * Reads a skier's day vertical, as it will be compared while polling.
+     *
+     * @param api     the API to read with, set to the host to read from
+     * @param resort  the resort
+     * @param day     the day
+     * @param skierId the skier
+     * @return the response body, or NOT_FOUND if the skier has no lift rides that day
+     * @throws ApiException if the read fails any other way
+     */
+    static String readVertical(SkiersApi api, String resort, int day, int skierId)
+            throws ApiException {
+        try {
+            return String.valueOf(api.getSkierDayVerticalWithHttpInfo(
+                    resort, String.valueOf(day), String.valueOf(skierId)).getData());
+        } catch (ApiException e) {
+            if (e.getCode() == 404) {
+                return NOT_FOUND;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts polling for an acknowledged POST's lift ride.
+     *
+     * @param basePath the host the POST was sent to
+     * @param resort   the resort
+     * @param day      the day
+     * @param skierId  the skier
+     * @param before   the vertical read before the POST
+     * @param ackTime  the unix time the POST was acknowledged
+     */
+    public void watch(String basePath, String resort, int day, int skierId, String before,
+                      long ackTime) {
+        synchronized (this) {
+            numSampled++;
+            numPending++;
+        }
+        Runnable poll = new Runnable() {
+            @Override
+            public void run() {
+                boolean visible = false;
+                boolean pollAgain = false;
+                try {
+                    SkiersApi api = apis.get();
+                    api.getApiClient().setBasePath(basePath);
+                    String now;
+                    try {
+                        now = readVertical(api, resort, day, skierId);
+                    } catch (ApiException e) {
+                        // A failed poll shows nothing either way
+                        now = before;
+                    }
+                    visible = !now.equals(before);
+                    if (!visible && System.currentTimeMillis() - ackTime < timeoutMs) {
+                        poller.schedule(this, pollMs, TimeUnit.MILLISECONDS);
+                        pollAgain = true;
+                    }
+                } finally {
+                    // Settled exactly once, even if the poll broke, so finish() never waits on it
+                    if (!pollAgain) {
+                        finish(System.currentTimeMillis() - ackTime, visible);
+                    }
+                }
+            }
+        };
+        poller.schedule(poll, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void finish(long lag, boolean visible) {
+        if (visible) {
+            lags.record(lag);
+        } else {
+            numNeverVisible++;
+        }
+        numPending--;
+        notifyAll();
+    }
+
+    /**
+     * Waits for every lift ride being polled to show up or time out, then stops polling.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void finish() throws InterruptedException {
+        while (numPending > 0) {
+            wait();
+        }
+        poller.shutdownNow();
+    }
+
+    public synchronized LatencyHistogram getLags() {
+        return lags;
+    }
+
+    public synchronized long getNumSampled() {
+        return numSampled;
+    }
+
+    public synchronized long getNumNeverVisible() {
+        return numNeverVisible;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%% of lift rides, polled every %d ms for up to %d ms",
+                sampleRate * 100, pollMs, timeoutMs);
+    }
+}
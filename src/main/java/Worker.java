@@ -0,0 +1,122 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import statistics.BulkRequestStatistics;
+
+/**
+ * Runs a share of a coordinated scenario, as told by the Coordinator, and sends it the results.
+ * <p>
+ * Usage: worker (coordinator host):(port)
+ */
+public class Worker implements PhaseGate {
+
+    public static final int EXIT_ERROR = 1;
+    private static final Logger logger = LogManager.getLogger(Worker.class);
+
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    /**
+     * Constructor for a Worker.
+     *
+     * @param socket the connection to the coordinator
+     * @throws IOException if the connection's streams cannot be opened
+     */
+    public Worker(Socket socket) throws IOException {
+        this.in = new DataInputStream(socket.getInputStream());
+        this.out = new DataOutputStream(socket.getOutputStream());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int sep = args.length == 1 ? args[0].lastIndexOf(':') : -1;
+        if (sep < 0) {
+            System.out.println("Usage: worker <coordinator host>:<port>");
+            System.exit(EXIT_ERROR);
+        }
+
+        try (Socket socket = new Socket(args[0].substring(0, sep),
+                Integer.parseInt(args[0].substring(sep + 1)))) {
+            new Worker(socket).run();
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: worker <coordinator host>:<port>");
+            System.exit(EXIT_ERROR);
+        } catch (IOException e) {
+            System.err.println("Problem talking to the coordinator: " + e.getMessage());
+            logger.error("Problem talking to the coordinator: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid property from the coordinator: " + e.getMessage());
+            logger.error("Invalid property from the coordinator: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+    }
+
+    /**
+     * Receives the worker's share of the scenario, runs it, and sends back the results.
+     *
+     * @throws IOException          if the coordinator cannot be reached, or the checkpoint read
+     * @throws InterruptedException if interrupted while running
+     */
+    public void run() throws IOException, InterruptedException {
+        expect(Coordinator.CONFIG);
+        Properties props = new Properties();
+        props.load(new StringReader(
+                new String(Coordinator.readBlob(in), StandardCharsets.UTF_8)));
+        Arguments arguments = Arguments.fromProperties(props);
+        infoLogAndPrint("Worker running skiers " + arguments.getFirstSkierId() + " to "
+                + arguments.getLastSkierId() + " with " + arguments.getMaxThreads() + " threads");
+
+        BulkRequestStatistics stats = BsdsApiClient.runClient(arguments, null, 1, this);
+        infoLogAndPrint(stats.toString());
+
+        out.writeUTF(Coordinator.RESULT);
+        Coordinator.writeBlob(out, stats.countersToString().getBytes(StandardCharsets.UTF_8));
+        String checkpoint = arguments.getCsvFilename() + "-checkpoint.csv";
+        for (String suffix : Coordinator.CHECKPOINT_SUFFIXES) {
+            Coordinator.writeBlob(out, Files.readAllBytes(Paths.get(checkpoint + suffix)));
+        }
+        out.flush();
+    }
+
+    /**
+     * Reports the phase's trigger to the coordinator, and waits for it to start the phase on every
+     * worker. The phase starts as the message arrives, so workers start within a network round
+     * trip of each other.
+     */
+    @Override
+    public void awaitPhaseStart(int phase, CountDownLatch trigger) throws InterruptedException {
+        trigger.await();
+        try {
+            out.writeUTF(Coordinator.TRIGGER + " " + phase);
+            out.flush();
+            expect(Coordinator.START + " " + phase);
+        } catch (IOException e) {
+            // The run cannot go on without the coordinator
+            logger.error("Lost the coordinator: " + e.getMessage());
+            System.err.println("Lost the coordinator: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+        logger.info("Coordinator started phase " + phase);
+    }
+
+    private void expect(String expected) throws IOException {
+        String message = in.readUTF();
+        if (!message.equals(expected)) {
+            throw new IOException("coordinator sent " + message + ", expected " + expected);
+        }
+    }
+
+    private static void infoLogAndPrint(String msg) {
+        logger.info(msg);
+        System.out.println(msg);
+    }
+}
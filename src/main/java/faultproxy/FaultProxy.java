@@ -0,0 +1,331 @@
+package faultproxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A local TCP proxy in front of one server, injecting the faults of a FaultSpec, to check how the
+ * client reports a degraded server without a real network fault. The client is pointed at the
+ * proxy's address in place of the server's.
+ * <p>
+ * Each connection is relayed by two threads, one per direction. Bytes are relayed as they arrive,
+ * so the proxy adds little of its own latency when no fault applies. Requests are not rewritten,
+ * so they carry the proxy's address as their Host header.
+ */
+public class FaultProxy {
+
+    private static final Logger logger = LogManager.getLogger(FaultProxy.class);
+    private static final int BUFFER_BYTES = 8192;
+    // Bandwidth limits are paced in slices of this many milliseconds' worth of bytes
+    private static final int PACING_MS = 50;
+
+    private final FaultSpec spec;
+    private final String upstreamAddress;
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final URI upstreamUri;
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong numConnections = new AtomicLong();
+    private final AtomicLong numResponses = new AtomicLong();
+    private final AtomicLong numDelayedConnections = new AtomicLong();
+    private final AtomicLong numResets = new AtomicLong();
+    private final AtomicLong numStalls = new AtomicLong();
+    private ServerSocket server;
+    private long startTime;
+
+    /**
+     * Constructor for a FaultProxy.
+     *
+     * @param spec            the faults to inject
+     * @param upstreamAddress the server's base address, e.g. http://host:8080/app/
+     * @throws IllegalArgumentException if the address is not a plain HTTP address
+     */
+    public FaultProxy(FaultSpec spec, String upstreamAddress) throws IllegalArgumentException {
+        this.spec = spec;
+        this.upstreamAddress = upstreamAddress;
+        try {
+            this.upstreamUri = new URI(upstreamAddress);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("malformed host address " + upstreamAddress);
+        }
+        // TLS would be relayed fine, but the certificate would not match the proxy's address
+        if (!"http".equalsIgnoreCase(upstreamUri.getScheme()) || upstreamUri.getHost() == null) {
+            throw new IllegalArgumentException(
+                    "the fault proxy can only be used with http host addresses");
+        }
+        this.upstreamHost = upstreamUri.getHost();
+        this.upstreamPort = upstreamUri.getPort() < 0 ? 80 : upstreamUri.getPort();
+    }
+
+    /**
+     * Starts accepting connections on a free local port, in a daemon thread.
+     *
+     * @throws IOException if no port can be bound
+     */
+    public void start() throws IOException {
+        server = new ServerSocket(0, 0, InetAddress.getLoopbackAddress());
+        startTime = System.currentTimeMillis();
+        Thread acceptor = new Thread(this::acceptLoop, "fault-proxy-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Fault proxy on port " + getPort() + " in front of " + upstreamAddress);
+    }
+
+    /**
+     * Stops accepting connections and closes the ones open.
+     */
+    public void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.warn("Problem closing the fault proxy: " + e.getMessage());
+        }
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Gives the address the client should use in place of the server's: the same path and query,
+     * on the proxy.
+     *
+     * @return the proxy's address
+     */
+    public String getAddress() {
+        String address = "http://localhost:" + getPort();
+        if (upstreamUri.getRawPath() != null) {
+            address += upstreamUri.getRawPath();
+        }
+        if (upstreamUri.getRawQuery() != null) {
+            address += "?" + upstreamUri.getRawQuery();
+        }
+        return address;
+    }
+
+    public String getUpstreamAddress() {
+        return upstreamAddress;
+    }
+
+    /**
+     * Gives the number of connections, responses and each fault injected so far.
+     *
+     * @return the counts by name
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put("connections", numConnections.get());
+        counts.put("delayedConnections", numDelayedConnections.get());
+        counts.put("responses", numResponses.get());
+        counts.put("stalledResponses", numStalls.get());
+        counts.put("resetResponses", numResets.get());
+        return counts;
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            Socket client;
+            try {
+                client = server.accept();
+            } catch (IOException e) {
+                return;  // Closed by stop()
+            }
+            numConnections.incrementAndGet();
+            Thread relay = new Thread(() -> relay(client));
+            relay.setDaemon(true);
+            relay.start();
+        }
+    }
+
+    /**
+     * Connects a client's connection to the server and relays it until either side closes it,
+     * sending responses from this thread and requests from a second one.
+     */
+    private void relay(Socket client) {
+        sockets.add(client);
+        Socket upstream = null;
+        try {
+            if (isActive() && spec.getAcceptDelayMs() > 0) {
+                numDelayedConnections.incrementAndGet();
+                Thread.sleep(spec.getAcceptDelayMs());
+            }
+            upstream = new Socket(upstreamHost, upstreamPort);
+            sockets.add(upstream);
+            client.setTcpNoDelay(true);
+            upstream.setTcpNoDelay(true);
+            Connection connection = new Connection(client, upstream);
+            Thread requests = new Thread(connection::relayRequests);
+            requests.setDaemon(true);
+            requests.start();
+            connection.relayResponses();
+        } catch (IOException | InterruptedException e) {
+            // The connection ends, as it would with the server
+        } finally {
+            closeQuietly(client);
+            if (upstream != null) {
+                closeQuietly(upstream);
+            }
+        }
+    }
+
+    private boolean isActive() {
+        return spec.isActive(System.currentTimeMillis() - startTime);
+    }
+
+    private void closeQuietly(Socket socket) {
+        sockets.remove(socket);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * One relayed connection.
+     */
+    private class Connection {
+
+        private final Socket client;
+        private final Socket upstream;
+        // Set when the client sends, so the server's next bytes start a response
+        private volatile boolean awaitingResponse;
+
+        private Connection(Socket client, Socket upstream) {
+            this.client = client;
+            this.upstream = upstream;
+        }
+
+        /**
+         * Relays the client's bytes to the server. Closing either socket ends both directions.
+         */
+        private void relayRequests() {
+            try {
+                InputStream in = client.getInputStream();
+                OutputStream out = upstream.getOutputStream();
+                Pacer pacer = new Pacer();
+                byte[] buffer = new byte[BUFFER_BYTES];
+                int read = in.read(buffer);
+                while (read >= 0) {
+                    awaitingResponse = true;
+                    pacer.write(out, buffer, 0, read);
+                    read = in.read(buffer);
+                }
+            } catch (IOException | InterruptedException e) {
+                // The connection ends
+            } finally {
+                closeQuietly(client);
+                closeQuietly(upstream);
+            }
+        }
+
+        /**
+         * Relays the server's bytes to the client, injecting faults at the start of each
+         * response.
+         */
+        private void relayResponses() throws IOException, InterruptedException {
+            InputStream in = upstream.getInputStream();
+            OutputStream out = client.getOutputStream();
+            Pacer pacer = new Pacer();
+            byte[] buffer = new byte[BUFFER_BYTES];
+            int read = in.read(buffer);
+            while (read >= 0) {
+                if (awaitingResponse) {
+                    awaitingResponse = false;
+                    numResponses.incrementAndGet();
+                    if (isActive() && !startResponse(out, buffer, read)) {
+                        return;
+                    }
+                }
+                pacer.write(out, buffer, 0, read);
+                read = in.read(buffer);
+            }
+        }
+
+        /**
+         * Delays, stalls or resets a response, given its first bytes.
+         *
+         * @return false if the connection was reset
+         */
+        private boolean startResponse(OutputStream out, byte[] buffer, int length)
+                throws IOException, InterruptedException {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (spec.getStallRate() > 0 && random.nextDouble() < spec.getStallRate()) {
+                numStalls.incrementAndGet();
+                Thread.sleep(spec.getStallMs());
+            }
+            if (spec.getLatencyMs() > 0) {
+                Thread.sleep(spec.getLatencyMs());
+            }
+            if (spec.getResetRate() > 0 && random.nextDouble() < spec.getResetRate()) {
+                numResets.incrementAndGet();
+                // Half a response, then a RST rather than a clean close
+                out.write(buffer, 0, length / 2);
+                out.flush();
+                client.setSoLinger(true, 0);
+                client.close();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Writes bytes no faster than the bandwidth limit while faults are injected.
+     */
+    private class Pacer {
+
+        private long windowStart = -1;
+        private long windowBytes;
+
+        private void write(OutputStream out, byte[] buffer, int offset, int length)
+                throws IOException, InterruptedException {
+            if (spec.getBandwidthKBps() == 0 || !isActive()) {
+                windowStart = -1;
+                out.write(buffer, offset, length);
+                out.flush();
+                return;
+            }
+            long bytesPerSec = spec.getBandwidthKBps() * 1000L;
+            int slice = (int) Math.max(1, bytesPerSec * PACING_MS / 1000);
+            if (windowStart < 0) {
+                windowStart = System.currentTimeMillis();
+                windowBytes = 0;
+            }
+            for (int sent = 0; sent < length; sent += slice) {
+                int size = Math.min(slice, length - sent);
+                out.write(buffer, offset + sent, size);
+                out.flush();
+                windowBytes += size;
+                long due = windowStart + windowBytes * 1000 / bytesPerSec;
+                long wait = due - System.currentTimeMillis();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return upstreamAddress + " via " + getAddress();
+    }
+}
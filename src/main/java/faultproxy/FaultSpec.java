@@ -0,0 +1,182 @@
+package faultproxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The faults a FaultProxy injects, and when. Once created, an instance is immutable.
+ * <p>
+ * Faults are decided per connection or per response. The proxy relays bytes rather than parsing
+ * HTTP, so a response starts with the first bytes the server sends after the client last sent
+ * some, which holds for clients that send one request at a time on a connection.
+ */
+public class FaultSpec {
+
+    private static final long MILLISECS_PER_SEC = 1000;
+
+    private final long acceptDelayMs;
+    private final long latencyMs;
+    private final int bandwidthKBps;
+    private final double resetRate;
+    private final double stallRate;
+    private final long stallMs;
+    // Windows of seconds since the proxy started, {from, to} with to exclusive, when faults apply
+    private final List<long[]> schedule;
+
+    private FaultSpec(long acceptDelayMs, long latencyMs, int bandwidthKBps, double resetRate,
+                      double stallRate, long stallMs, List<long[]> schedule) {
+        this.acceptDelayMs = acceptDelayMs;
+        this.latencyMs = latencyMs;
+        this.bandwidthKBps = bandwidthKBps;
+        this.resetRate = resetRate;
+        this.stallRate = stallRate;
+        this.stallMs = stallMs;
+        this.schedule = schedule;
+    }
+
+    /**
+     * Reads the faults to inject from properties.
+     * Available properties:
+     *   - faultProxy (default: false): relay requests through a local proxy injecting the faults
+     *     below. Without it, the other properties are ignored.
+     *   - faultAcceptDelayMs (default: 0, min: 0): delay before a new connection is relayed, as if
+     *     the server were slow to accept it. It shows up in the latency of the connection's first
+     *     request.
+     *   - faultLatencyMs (default: 0, min: 0): delay added before each response
+     *   - faultBandwidthKBps (default: 0, no limit, min: 0): limit on each connection, in each
+     *     direction, in kilobytes per second
+     *   - faultResetRate (default: 0, min: 0, max: 1): fraction of responses cut off partway
+     *     through by resetting the connection
+     *   - faultStallRate (default: 0, min: 0, max: 1): fraction of responses held for faultStallMs
+     *   - faultStallMs (default: 5000, min: 1): how long a stalled response is held
+     *   - faultSchedule (default: always): comma separated windows of seconds since the proxy
+     *     started, e.g. "30-60,120-180", when faults are injected. Outside them, traffic is
+     *     relayed untouched.
+     *
+     * @param props the properties
+     * @return the faults, or null if the proxy is off
+     * @throws IllegalArgumentException if any properties are invalid
+     */
+    public static FaultSpec fromProperties(Properties props) throws IllegalArgumentException {
+        String enabled = props.getProperty("faultProxy", "false").trim();
+        if (!enabled.equalsIgnoreCase("true") && !enabled.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("faultProxy must be true or false");
+        }
+        if (enabled.equalsIgnoreCase("false")) {
+            return null;
+        }
+
+        long acceptDelayMs, latencyMs, stallMs;
+        int bandwidthKBps;
+        double resetRate, stallRate;
+        List<long[]> schedule = new ArrayList<>();
+        try {
+            acceptDelayMs = Long.parseLong(props.getProperty("faultAcceptDelayMs", "0").trim());
+            latencyMs = Long.parseLong(props.getProperty("faultLatencyMs", "0").trim());
+            bandwidthKBps = Integer.parseInt(props.getProperty("faultBandwidthKBps", "0").trim());
+            resetRate = Double.parseDouble(props.getProperty("faultResetRate", "0"));
+            stallRate = Double.parseDouble(props.getProperty("faultStallRate", "0"));
+            stallMs = Long.parseLong(props.getProperty("faultStallMs", "5000").trim());
+            String rawSchedule = props.getProperty("faultSchedule", "").trim();
+            for (String window : rawSchedule.split(",")) {
+                if (window.trim().isEmpty()) {
+                    continue;
+                }
+                String[] bounds = window.trim().split("-");
+                if (bounds.length != 2) {
+                    throw new IllegalArgumentException(
+                            "faultSchedule windows must be given as from-to seconds");
+                }
+                long from = Long.parseLong(bounds[0].trim());
+                long to = Long.parseLong(bounds[1].trim());
+                if (from < 0 || to <= from) {
+                    throw new IllegalArgumentException(
+                            "faultSchedule windows must end after they start, from 0 seconds");
+                }
+                schedule.add(new long[]{from, to});
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "could not parse fault properties - malformed numerical data");
+        }
+
+        if (acceptDelayMs < 0 || latencyMs < 0 || bandwidthKBps < 0) {
+            throw new IllegalArgumentException(
+                    "faultAcceptDelayMs, faultLatencyMs and faultBandwidthKBps cannot be negative");
+        }
+        if (resetRate < 0 || resetRate > 1 || stallRate < 0 || stallRate > 1) {
+            throw new IllegalArgumentException(
+                    "faultResetRate and faultStallRate must be between 0 and 1, inclusive");
+        }
+        if (stallMs < 1) {
+            throw new IllegalArgumentException("faultStallMs must be at least 1");
+        }
+        return new FaultSpec(acceptDelayMs, latencyMs, bandwidthKBps, resetRate, stallRate, stallMs,
+                schedule);
+    }
+
+    /**
+     * Whether faults are injected at a point in the run.
+     *
+     * @param elapsedMs milliseconds since the proxy started
+     * @return true if faults are injected
+     */
+    public boolean isActive(long elapsedMs) {
+        if (schedule.isEmpty()) {
+            return true;
+        }
+        long second = elapsedMs / MILLISECS_PER_SEC;
+        for (long[] window : schedule) {
+            if (second >= window[0] && second < window[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getAcceptDelayMs() {
+        return acceptDelayMs;
+    }
+
+    public long getLatencyMs() {
+        return latencyMs;
+    }
+
+    public int getBandwidthKBps() {
+        return bandwidthKBps;
+    }
+
+    public double getResetRate() {
+        return resetRate;
+    }
+
+    public double getStallRate() {
+        return stallRate;
+    }
+
+    public long getStallMs() {
+        return stallMs;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("accept delay %d ms, latency %d ms, ", acceptDelayMs,
+                latencyMs));
+        builder.append(bandwidthKBps == 0 ? "no bandwidth limit"
+                : "bandwidth " + bandwidthKBps + " KB/s");
+        builder.append(String.format(", %s%% reset, %s%% stalled for %d ms", resetRate * 100,
+                stallRate * 100, stallMs));
+        if (schedule.isEmpty()) {
+            builder.append(", always");
+        } else {
+            builder.append(", during seconds");
+            for (int i = 0; i < schedule.size(); i++) {
+                builder.append(i == 0 ? " " : ", ")
+                        .append(schedule.get(i)[0]).append('-').append(schedule.get(i)[1]);
+            }
+        }
+        return builder.toString();
+    }
+}
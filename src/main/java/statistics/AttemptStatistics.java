@@ -0,0 +1,243 @@
+package statistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts the attempts behind requests sent with retries, deadlines or hedging, and keeps each
+ * path's first attempt latencies apart from its end to end latencies, so the effect of a policy
+ * can be seen. Each runner fills its own instance, which is merged into the run's when the runner
+ * finishes. Methods are synchronized because a runner's hedged attempts finish on other threads.
+ */
+public class AttemptStatistics {
+
+    private Map<String, LatencyHistogram> firstAttemptByPath = new TreeMap<>();
+    private Map<String, LatencyHistogram> endToEndByPath = new TreeMap<>();
+    private long numRequests;
+    private long numAttempts;
+    private long numRetries;
+    private long numRetriesDenied;
+    private long numHedges;
+    private long numHedgesWon;
+    private long numDeadlinesExceeded;
+
+    /**
+     * Records the latency of a request's first attempt.
+     *
+     * @param path    the "method path" key of the request
+     * @param latency the latency in milliseconds
+     */
+    public synchronized void recordFirstAttempt(String path, long latency) {
+        histogram(firstAttemptByPath, path).record(latency);
+    }
+
+    /**
+     * Records a finished request with its latency over all attempts.
+     *
+     * @param path    the "method path" key of the request
+     * @param latency the latency in milliseconds
+     */
+    public synchronized void recordRequest(String path, long latency) {
+        numRequests++;
+        histogram(endToEndByPath, path).record(latency);
+    }
+
+    public synchronized void recordAttempt() {
+        numAttempts++;
+    }
+
+    public synchronized void recordRetry() {
+        numRetries++;
+    }
+
+    public synchronized void recordRetryDenied() {
+        numRetriesDenied++;
+    }
+
+    public synchronized void recordHedge() {
+        numHedges++;
+    }
+
+    public synchronized void recordHedgeWon() {
+        numHedgesWon++;
+    }
+
+    public synchronized void recordDeadlineExceeded() {
+        numDeadlinesExceeded++;
+    }
+
+    /**
+     * Gives a percentile of a path's first attempt latencies so far.
+     *
+     * @param path       the "method path" key
+     * @param percentile the percentile, between 0 and 100
+     * @param minSamples the fewest samples the percentile is trusted from
+     * @return the latency in milliseconds, or -1 if there are fewer samples than minSamples
+     */
+    public synchronized long getFirstAttemptPercentile(String path, double percentile,
+                                                       long minSamples) {
+        LatencyHistogram histogram = firstAttemptByPath.get(path);
+        if (histogram == null || histogram.getCount() < minSamples) {
+            return -1;
+        }
+        return histogram.getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Adds everything recorded by another instance to this one.
+     *
+     * @param other the statistics to merge in
+     */
+    public synchronized void merge(AttemptStatistics other) {
+        synchronized (other) {
+            for (Map.Entry<String, LatencyHistogram> entry : other.firstAttemptByPath.entrySet()) {
+                histogram(firstAttemptByPath, entry.getKey()).merge(entry.getValue());
+            }
+            for (Map.Entry<String, LatencyHistogram> entry : other.endToEndByPath.entrySet()) {
+                histogram(endToEndByPath, entry.getKey()).merge(entry.getValue());
+            }
+            numRequests += other.numRequests;
+            numAttempts += other.numAttempts;
+            numRetries += other.numRetries;
+            numRetriesDenied += other.numRetriesDenied;
+            numHedges += other.numHedges;
+            numHedgesWon += other.numHedgesWon;
+            numDeadlinesExceeded += other.numDeadlinesExceeded;
+        }
+    }
+
+    /**
+     * Provides the counts and latencies as lines of CSV, so that another client can merge them:
+     *   - attempts,(requests),(attempts),(retries),(retries denied),(hedges),(hedges won),
+     *     (deadlines exceeded)
+     *   - attemptpath,(path),(first attempt histogram),(end to end histogram), for each path
+     *
+     * @return the counts and latencies
+     */
+    public synchronized String countersToString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("attempts,").append(numRequests)
+                .append(',').append(numAttempts)
+                .append(',').append(numRetries)
+                .append(',').append(numRetriesDenied)
+                .append(',').append(numHedges)
+                .append(',').append(numHedgesWon)
+                .append(',').append(numDeadlinesExceeded).append('\n');
+        for (Map.Entry<String, LatencyHistogram> entry : endToEndByPath.entrySet()) {
+            builder.append("attemptpath,").append(entry.getKey())
+                    .append(',').append(histogram(firstAttemptByPath, entry.getKey())
+                            .toCompactString())
+                    .append(',').append(entry.getValue().toCompactString()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Merges one line of another client's counts, from countersToString().
+     *
+     * @param fields the line's fields
+     * @throws NumberFormatException if the line is malformed
+     */
+    public synchronized void mergeCounter(String[] fields) throws NumberFormatException {
+        if (fields[0].equals("attempts")) {
+            numRequests += Long.parseLong(fields[1]);
+            numAttempts += Long.parseLong(fields[2]);
+            numRetries += Long.parseLong(fields[3]);
+            numRetriesDenied += Long.parseLong(fields[4]);
+            numHedges += Long.parseLong(fields[5]);
+            numHedgesWon += Long.parseLong(fields[6]);
+            numDeadlinesExceeded += Long.parseLong(fields[7]);
+        } else {
+            histogram(firstAttemptByPath, fields[1])
+                    .merge(LatencyHistogram.fromCompactString(fields[2]));
+            histogram(endToEndByPath, fields[1])
+                    .merge(LatencyHistogram.fromCompactString(fields[3]));
+        }
+    }
+
+    private static LatencyHistogram histogram(Map<String, LatencyHistogram> byPath, String path) {
+        LatencyHistogram histogram = byPath.get(path);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            byPath.put(path, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Provides the attempt counts, the load amplification of each policy, and first attempt and end
+     * to end latencies for each path as a string.
+     *
+     * @return the statistics
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Requests: %d\n"
+                        + "Attempts: %d (amplification %.3fx)\n"
+                        + "Retries: %d (%.3f per request), %d denied by the retry budget\n"
+                        + "Hedges: %d (%.3f per request), %d answered first\n"
+                        + "Deadlines Exceeded: %d\n"
+                , numRequests
+                , numAttempts
+                , perRequest(numAttempts)
+                , numRetries
+                , perRequest(numRetries)
+                , numRetriesDenied
+                , numHedges
+                , perRequest(numHedges)
+                , numHedgesWon
+                , numDeadlinesExceeded
+        ));
+        for (Map.Entry<String, LatencyHistogram> entry : endToEndByPath.entrySet()) {
+            LatencyHistogram first = histogram(firstAttemptByPath, entry.getKey());
+            LatencyHistogram endToEnd = entry.getValue();
+            builder.append("Latencies (ms) for ").append(entry.getKey()).append(":\n");
+            builder.append(String.format("\tFirst Attempt: mean %.2f, median %d, "
+                            + "99th percentile %d, max %d\n"
+                    , first.getMean()
+                    , first.getValueAtPercentile(50)
+                    , first.getValueAtPercentile(99)
+                    , first.getMax()
+            ));
+            builder.append(String.format("\tEnd to End: mean %.2f, median %d, "
+                            + "99th percentile %d, max %d\n"
+                    , endToEnd.getMean()
+                    , endToEnd.getValueAtPercentile(50)
+                    , endToEnd.getValueAtPercentile(99)
+                    , endToEnd.getMax()
+            ));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides the counters and each path's latencies as a map, for the JSON summary.
+     *
+     * @return the statistics
+     */
+    synchronized Map<String, Object> toSummaryMap() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", numRequests);
+        summary.put("attempts", numAttempts);
+        summary.put("retries", numRetries);
+        summary.put("retriesDenied", numRetriesDenied);
+        summary.put("hedges", numHedges);
+        summary.put("hedgesWon", numHedgesWon);
+        summary.put("deadlinesExceeded", numDeadlinesExceeded);
+        Map<String, Object> paths = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : endToEndByPath.entrySet()) {
+            Map<String, Object> path = new LinkedHashMap<>();
+            path.put("firstAttempt", histogram(firstAttemptByPath, entry.getKey()).toSummaryMap());
+            path.put("endToEnd", entry.getValue().toSummaryMap());
+            paths.put(entry.getKey(), path);
+        }
+        summary.put("paths", paths);
+        return summary;
+    }
+
+    private double perRequest(long count) {
+        return numRequests == 0 ? 0 : (double) count / numRequests;
+    }
+}
@@ -1,10 +1,17 @@
 package statistics;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,41 +23,373 @@ import org.apache.logging.log4j.Logger;
 public class BulkRequestStatistics {
 
     public static final int MILLISECS_PER_SEC = 1000;
+    public static final int NUM_PHASES = 3;
+    public static final int WARMUP_PHASE = 1;
+    private static final String[] PHASE_NAMES = {"Unknown", "Warmup", "Peak", "Cooldown"};
+    private static final int MAX_REPORTED_PARTITIONS = 20;
+    // Stands for the headline paths where a phase's paths are expected
+    private static final int HEADLINE_PATHS = -1;
     private static final Logger logger = LogManager.getLogger(BulkRequestStatistics.class);
 
     private AtomicInteger totalRequests = new AtomicInteger();
     private AtomicInteger totalBadRequests = new AtomicInteger();
     private BlockingQueue<SingleRequestStatistics[]> writeQueue = new LinkedBlockingQueue<>();
 
-    private Map<String, Double> avgLatencyByPath;
-    private Map<String, Integer> maxLatencyByPath;
-    private Map<String, Integer> medianLatencyByPath;
-    private Map<String, Integer> p99LatencyByPath;
+    private AtomicInteger[] requestsByPhase = newPhaseCounters();
+    private AtomicInteger[] badRequestsByPhase = newPhaseCounters();
+    private AtomicInteger[] timedOutByPhase = newPhaseCounters();
+    private AtomicInteger[] abandonedByPhase = newPhaseCounters();
+    private long[] phaseStart = new long[NUM_PHASES + 1];
+    private long[] phaseStop = new long[NUM_PHASES + 1];
+    private boolean excludeWarmup;
+    private Long workloadSeed;
+    private Long preWarmMillis;
+    private String rateLimit;
+    private Map<String, LatencyHistogram> permitWaitsByPath = new TreeMap<>();
+    private String hostBalancing;
+    private Map<String, LatencyHistogram> latenciesByHost = new TreeMap<>();
+    private Map<String, Integer> badRequestsByHost = new TreeMap<>();
+    private Map<String, Integer> ejectionsByHost = new TreeMap<>();
+    private String requestPolicy;
+    private AttemptStatistics attempts = new AttemptStatistics();
+    private ClientCeiling ceiling;
+    private int ceilingThreads;
+    private double ceilingWarningPct;
+
+    private LatencySummary headlineLatencies = new LatencySummary();
+    private LatencySummary phaseLatencies = new LatencySummary();
+    private HotKeyAnalysis hotKeys;
+    private RunSummary partitions;
     private long[] numRequestsByMin;
     private long wallStart;
     private long wallStop;
 
     private String filePath;
     private CsvStatsReader reader;
+    private CsvStatsReader headlineReader;
+    private CsvStatsReader phaseReader;
     private CsvStatsWriter writer;
+    private StreamingSummary streamingSummary;
+    private ScheduledExecutorService checkpointer;
+    private int checkpointIntervalSecs;
+    private ClientMonitor clientMonitor;
+    private ByteCounts byteCounts;
+    private String visibility;
+    private LatencyHistogram visibilityLags;
+    private long numVisibilitySampled;
+    private long numNeverVisible;
+    private String batching;
+    private String faults;
+    private Map<String, Map<String, Long>> faultCountsByHost;
+    private String mergeNote;
+    private long[] batchesByPhase = new long[NUM_PHASES + 1];
+    private long[] ridesByPhase = new long[NUM_PHASES + 1];
+    private LatencyHistogram batchLatencies = new LatencyHistogram();
+    private LatencyHistogram rideLatencies = new LatencyHistogram();
 
     public BulkRequestStatistics(String filePathStr) {
+        this(filePathStr, false);
+    }
+
+    /**
+     * Creates a statistics object that can leave the warmup phase out of the headline numbers.
+     * Per-phase statistics are always reported.
+     *
+     * @param filePathStr   base path of the CSV output, without an extension
+     * @param excludeWarmup if true, warmup phase requests are excluded from the headline numbers
+     */
+    public BulkRequestStatistics(String filePathStr, boolean excludeWarmup) {
         this.filePath = filePathStr;
+        this.excludeWarmup = excludeWarmup;
         filePathStr = filePathStr + ".csv";
         this.reader = new CsvStatsReader(filePathStr);
+        this.headlineReader = excludeWarmup
+                ? new CsvStatsReader(filePathStr, false, WARMUP_PHASE)
+                : this.reader;
+        this.phaseReader = new CsvStatsReader(filePathStr, true, CsvStatsReader.NO_EXCLUDED_PHASE);
         this.writer = new CsvStatsWriter(filePathStr, writeQueue);
+        this.byteCounts = new ByteCounts(excludeWarmup);
+        this.writer.setByteCounts(byteCounts);
+    }
+
+    /**
+     * Switches to soak mode: every request is added to memory-bounded streaming summaries, which are
+     * checkpointed to disk periodically and used for the final statistics, while only a sample of
+     * requests is written to the CSV. Must be called before the CSV listener is started.
+     *
+     * @param checkpointIntervalSecs seconds between checkpoints
+     * @param csvSampleRate          fraction of requests written to the CSV, 0 for none
+     */
+    public void enableSoakMode(int checkpointIntervalSecs, double csvSampleRate) {
+        this.streamingSummary = new StreamingSummary(excludeWarmup);
+        this.checkpointIntervalSecs = checkpointIntervalSecs;
+        this.writer.setStreamingSummary(streamingSummary, csvSampleRate);
+    }
+
+    /**
+     * Samples the client's own JVM during the run, to tell the client pausing or running out of CPU
+     * apart from the server slowing down. Must be called before the CSV listener is started.
+     *
+     * @param intervalSecs seconds between samples
+     */
+    public void enableClientMonitor(int intervalSecs) {
+        this.clientMonitor = new ClientMonitor(intervalSecs);
+        this.writer.setClientMonitor(clientMonitor);
+    }
+
+    /**
+     * Sets the workload seed, so that it is printed with the report and the run can be repeated.
+     *
+     * @param seed the seed the requests were generated from
+     */
+    public void setWorkloadSeed(long seed) {
+        this.workloadSeed = seed;
+    }
+
+    /**
+     * Sets how long pre-warming took before the run was timed, so that it is printed with the report.
+     *
+     * @param preWarmMillis the pre-warm time in milliseconds
+     */
+    public void setPreWarmMillis(long preWarmMillis) {
+        this.preWarmMillis = preWarmMillis;
+    }
+
+    /**
+     * Sets a description of the request rate limits, printed with the time spent waiting for them.
+     *
+     * @param rateLimit the rate limits
+     */
+    public void setRateLimit(String rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Adds a runner's time spent waiting for rate limit permits. Called once per runner, when it
+     * finishes.
+     *
+     * @param waitsByPath "method path" -> waits in microseconds
+     */
+    public synchronized void addPermitWaits(Map<String, LatencyHistogram> waitsByPath) {
+        for (Map.Entry<String, LatencyHistogram> entry : waitsByPath.entrySet()) {
+            LatencyHistogram total = permitWaitsByPath.get(entry.getKey());
+            if (total == null) {
+                total = new LatencyHistogram();
+                permitWaitsByPath.put(entry.getKey(), total);
+            }
+            total.merge(entry.getValue());
+        }
+    }
+
+    /**
+     * Sets a description of how requests are balanced over hosts, printed with the per host results.
+     *
+     * @param hostBalancing the balancing policy and hosts
+     */
+    public void setHostBalancing(String hostBalancing) {
+        this.hostBalancing = hostBalancing;
+    }
+
+    /**
+     * Adds a runner's results for each host it sent requests to. Called once per runner, when it
+     * finishes.
+     *
+     * @param latencies   host address -> request latencies
+     * @param badRequests host address -> number of bad requests
+     */
+    public synchronized void addHostResults(Map<String, LatencyHistogram> latencies,
+                                            Map<String, Integer> badRequests) {
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram total = latenciesByHost.get(entry.getKey());
+            if (total == null) {
+                total = new LatencyHistogram();
+                latenciesByHost.put(entry.getKey(), total);
+            }
+            total.merge(entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : badRequests.entrySet()) {
+            badRequestsByHost.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+    /**
+     * Sets how many times each host was left out for failing, once the run is over.
+     *
+     * @param ejections host address -> number of times ejected
+     */
+    public synchronized void setHostEjections(Map<String, Integer> ejections) {
+        this.ejectionsByHost.putAll(ejections);
+    }
+
+    /**
+     * Sets a description of the retry, deadline and hedging policy, printed with the attempt counts.
+     *
+     * @param requestPolicy the policy
+     */
+    public void setRequestPolicy(String requestPolicy) {
+        this.requestPolicy = requestPolicy;
+    }
+
+    /**
+     * Sets the client's own ceiling, so the peak phase's throughput can be checked against it.
+     *
+     * @param ceiling    the ceiling, from calibrate mode
+     * @param numThreads the peak phase's thread count
+     * @param warningPct how close to the ceiling, in percent, the peak phase is warned about
+     */
+    public void setClientCeiling(ClientCeiling ceiling, int numThreads, double warningPct) {
+        this.ceiling = ceiling;
+        this.ceilingThreads = numThreads;
+        this.ceilingWarningPct = warningPct;
+    }
+
+    /**
+     * Checks whether the peak phase came close to the client's own ceiling. Only works after the
+     * peak phase has finished.
+     *
+     * @return a warning, or null if the phase was clear of the ceiling, or there is no ceiling
+     */
+    public String getCeilingWarning() {
+        int peak = WARMUP_PHASE + 1;
+        if (ceiling == null || phaseStop[peak] <= phaseStart[peak]) {
+            return null;
+        }
+        return ceiling.check(getPhaseThroughputPerSec(peak), ceilingThreads, ceilingWarningPct);
+    }
+
+    /**
+     * Sets the faults injected in front of each host, to be read against the errors and latencies
+     * the run reported.
+     *
+     * @param faults       a description of the faults
+     * @param countsByHost for each host address, its proxy's connections, responses and faults
+     */
+    public synchronized void setFaultInjection(String faults,
+                                               Map<String, Map<String, Long>> countsByHost) {
+        this.faults = faults;
+        this.faultCountsByHost = countsByHost;
+    }
+
+    /**
+     * Sets how long sampled lift rides took to become visible after their POST was acknowledged.
+     *
+     * @param visibility      a description of the sampling
+     * @param lags            lags in milliseconds of the rides that became visible
+     * @param numSampled      the number of rides checked
+     * @param numNeverVisible the number of rides that were not visible before the timeout
+     */
+    public void setVisibility(String visibility, LatencyHistogram lags, long numSampled,
+                              long numNeverVisible) {
+        this.visibility = visibility;
+        this.visibilityLags = lags;
+        this.numVisibilitySampled = numSampled;
+        this.numNeverVisible = numNeverVisible;
+    }
+
+    /**
+     * Sets a description of how lift rides are batched, printed with the batch results.
+     *
+     * @param batching the batch size, path and wait
+     */
+    public void setBatching(String batching) {
+        this.batching = batching;
+    }
+
+    /**
+     * Adds a runner's batches of lift rides. Called once per runner, when it finishes.
+     *
+     * @param phase          the runner's phase
+     * @param numBatches     the number of batches sent
+     * @param numRides       the number of lift rides in them
+     * @param batchLatencies the latency of each batch
+     * @param rideLatencies  the latency of each acknowledged ride, from being queued
+     */
+    public synchronized void addBatchResults(int phase, int numBatches, int numRides,
+                                             LatencyHistogram batchLatencies,
+                                             LatencyHistogram rideLatencies) {
+        this.batchesByPhase[phase] += numBatches;
+        this.ridesByPhase[phase] += numRides;
+        // Latencies are only kept for the headline phases
+        if (!(excludeWarmup && phase == WARMUP_PHASE)) {
+            this.batchLatencies.merge(batchLatencies);
+            this.rideLatencies.merge(rideLatencies);
+        }
+    }
+
+    /**
+     * Gives the lift rides sent per second during a phase, counting every ride in a batch.
+     *
+     * @param phase the phase
+     * @return rides per second
+     */
+    public synchronized double getPhaseRidesPerSec(int phase) {
+        return ridesByPhase[phase] / getPhaseWallTimeSecs(phase);
+    }
+
+    public synchronized LatencyHistogram getBatchLatencies() {
+        return batchLatencies;
+    }
+
+    public synchronized LatencyHistogram getRideLatencies() {
+        return rideLatencies;
+    }
+
+    /**
+     * Adds a runner's attempt counts and latencies. Called once per runner, when it finishes.
+     *
+     * @param runnerAttempts the runner's statistics
+     */
+    public void addAttemptStatistics(AttemptStatistics runnerAttempts) {
+        attempts.merge(runnerAttempts);
     }
 
     /**
      * Opens a CSV file for writing and starts a listener waiting for data from each request thread.
+     * In soak mode, also starts periodic checkpoints, and starts sampling the client's JVM if
+     * enabled.
      *
      * @return the listener thread handle
      */
     public Thread startStatsToCsvListener() {
         writer.initCsvFile();
+        if (streamingSummary != null) {
+            startCheckpoints();
+        }
+        if (clientMonitor != null) {
+            clientMonitor.start();
+        }
         return writer.startWriteLoop();
     }
 
+    /**
+     * Starts writing a checkpoint of the streaming summaries every checkpoint interval, in a daemon
+     * thread. Each checkpoint also prints the last minute's numbers as live progress.
+     */
+    private void startCheckpoints() {
+        checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleAtFixedRate(() -> {
+            writeCheckpoint();
+            String live = streamingSummary.lastMinuteToString(System.currentTimeMillis());
+            logger.info(live);
+            System.out.println(live);
+        }, checkpointIntervalSecs, checkpointIntervalSecs, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the streaming summaries to the checkpoint file.
+     */
+    private void writeCheckpoint() {
+        try {
+            streamingSummary.writeCheckpoint(this.filePath + "-checkpoint.csv");
+        } catch (IOException e) {
+            handleError(e);
+        }
+    }
+
     /**
      * Alias for putting data into the blocking queue.
      *
@@ -64,6 +403,247 @@ public class BulkRequestStatistics {
         }
     }
 
+    /**
+     * Provides the run's counters and timers, and the histograms of its optional sections in their
+     * compact form, as lines of CSV, so that another client can merge them:
+     *   - wall,(start),(stop)
+     *   - prewarm,(milliseconds), if the run was pre-warmed
+     *   - phase,(phase),(requests),(bad),(timed out),(abandoned),(start),(stop), for each phase
+     *   - bytes, pathbytes and phasepathbytes lines, from ByteCounts.countersToString()
+     *   - describe,(section),(description), for each optional section that is on. The description
+     *     is the rest of the line
+     *   - permitwait,(path),(histogram), for each path, if rate limited
+     *   - host,(address),(bad),(ejections),(histogram), for each host, if balanced
+     *   - attempts and attemptpath lines, from AttemptStatistics.countersToString(), with a policy
+     *   - batch,(phase),(batches),(rides), for each phase, and
+     *     batchlatency,(batch histogram),(ride histogram), if lift rides were batched
+     *   - visibility,(sampled),(never visible),(histogram), if lift rides were checked
+     *   - fault,(host),(count name),(count), for each host and count, if faults were injected
+     *
+     * @return the counters
+     */
+    public synchronized String countersToString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("wall,").append(wallStart).append(',').append(wallStop).append('\n');
+        if (preWarmMillis != null) {
+            builder.append("prewarm,").append(preWarmMillis).append('\n');
+        }
+        for (int phase = 0; phase <= NUM_PHASES; phase++) {
+            builder.append("phase,").append(phase)
+                    .append(',').append(requestsByPhase[phase].get())
+                    .append(',').append(badRequestsByPhase[phase].get())
+                    .append(',').append(timedOutByPhase[phase].get())
+                    .append(',').append(abandonedByPhase[phase].get())
+                    .append(',').append(phaseStart[phase])
+                    .append(',').append(phaseStop[phase]).append('\n');
+        }
+        builder.append(byteCounts.countersToString());
+
+        appendDescription(builder, "rateLimit", rateLimit);
+        appendDescription(builder, "hostBalancing", hostBalancing);
+        appendDescription(builder, "requestPolicy", requestPolicy);
+        appendDescription(builder, "batching", batching);
+        appendDescription(builder, "visibility", visibility);
+        appendDescription(builder, "faults", faults);
+        for (Map.Entry<String, LatencyHistogram> entry : permitWaitsByPath.entrySet()) {
+            builder.append("permitwait,").append(entry.getKey())
+                    .append(',').append(entry.getValue().toCompactString()).append('\n');
+        }
+        for (Map.Entry<String, Integer> entry : ejectionsByHost.entrySet()) {
+            LatencyHistogram latencies = latenciesByHost.get(entry.getKey());
+            builder.append("host,").append(entry.getKey())
+                    .append(',').append(badRequestsByHost.getOrDefault(entry.getKey(), 0))
+                    .append(',').append(entry.getValue())
+                    .append(',').append((latencies == null ? new LatencyHistogram() : latencies)
+                            .toCompactString()).append('\n');
+        }
+        if (requestPolicy != null) {
+            builder.append(attempts.countersToString());
+        }
+        if (batching != null) {
+            for (int phase = 0; phase <= NUM_PHASES; phase++) {
+                builder.append("batch,").append(phase)
+                        .append(',').append(batchesByPhase[phase])
+                        .append(',').append(ridesByPhase[phase]).append('\n');
+            }
+            builder.append("batchlatency,").append(batchLatencies.toCompactString())
+                    .append(',').append(rideLatencies.toCompactString()).append('\n');
+        }
+        if (visibility != null) {
+            builder.append("visibility,").append(numVisibilitySampled)
+                    .append(',').append(numNeverVisible)
+                    .append(',').append(visibilityLags.toCompactString()).append('\n');
+        }
+        if (faultCountsByHost != null) {
+            for (Map.Entry<String, Map<String, Long>> host : faultCountsByHost.entrySet()) {
+                for (Map.Entry<String, Long> count : host.getValue().entrySet()) {
+                    builder.append("fault,").append(host.getKey())
+                            .append(',').append(count.getKey())
+                            .append(',').append(count.getValue()).append('\n');
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendDescription(StringBuilder builder, String section,
+                                          String description) {
+        if (description != null) {
+            builder.append("describe,").append(section).append(',').append(description)
+                    .append('\n');
+        }
+    }
+
+    /**
+     * Merges another client's counters and timers, from countersToString(), into this run. Counts
+     * and histograms are added, each timer spans from the earliest start to the latest stop, and
+     * each section keeps the first description merged.
+     *
+     * @param counters the other client's counters
+     * @throws NumberFormatException if the counters are malformed
+     */
+    public synchronized void mergeCounters(String counters) throws NumberFormatException {
+        for (String line : counters.split("\n")) {
+            String[] fields = line.split(",");
+            switch (fields[0]) {
+                case "wall":
+                    wallStart = earliest(wallStart, Long.parseLong(fields[1]));
+                    wallStop = Math.max(wallStop, Long.parseLong(fields[2]));
+                    break;
+                case "prewarm":
+                    long millis = Long.parseLong(fields[1]);
+                    preWarmMillis = preWarmMillis == null ? millis : Math.max(preWarmMillis, millis);
+                    break;
+                case "phase":
+                    int phase = Integer.parseInt(fields[1]);
+                    int requests = Integer.parseInt(fields[2]);
+                    int bad = Integer.parseInt(fields[3]);
+                    totalRequests.getAndAdd(requests);
+                    totalBadRequests.getAndAdd(bad);
+                    requestsByPhase[phase].getAndAdd(requests);
+                    badRequestsByPhase[phase].getAndAdd(bad);
+                    timedOutByPhase[phase].getAndAdd(Integer.parseInt(fields[4]));
+                    abandonedByPhase[phase].getAndAdd(Integer.parseInt(fields[5]));
+                    phaseStart[phase] = earliest(phaseStart[phase], Long.parseLong(fields[6]));
+                    phaseStop[phase] = Math.max(phaseStop[phase], Long.parseLong(fields[7]));
+                    break;
+                case "bytes":
+                case "pathbytes":
+                case "phasepathbytes":
+                    byteCounts.mergeCounter(fields);
+                    break;
+                case "describe":
+                    mergeDescription(fields[1], line.split(",", 3)[2]);
+                    break;
+                case "permitwait":
+                    mergeHistogram(permitWaitsByPath, fields[1],
+                            LatencyHistogram.fromCompactString(fields[2]));
+                    break;
+                case "host":
+                    badRequestsByHost.merge(fields[1], Integer.parseInt(fields[2]), Integer::sum);
+                    ejectionsByHost.merge(fields[1], Integer.parseInt(fields[3]), Integer::sum);
+                    mergeHistogram(latenciesByHost, fields[1],
+                            LatencyHistogram.fromCompactString(fields[4]));
+                    break;
+                case "attempts":
+                case "attemptpath":
+                    attempts.mergeCounter(fields);
+                    break;
+                case "batch":
+                    batchesByPhase[Integer.parseInt(fields[1])] += Long.parseLong(fields[2]);
+                    ridesByPhase[Integer.parseInt(fields[1])] += Long.parseLong(fields[3]);
+                    break;
+                case "batchlatency":
+                    batchLatencies.merge(LatencyHistogram.fromCompactString(fields[1]));
+                    rideLatencies.merge(LatencyHistogram.fromCompactString(fields[2]));
+                    break;
+                case "visibility":
+                    numVisibilitySampled += Long.parseLong(fields[1]);
+                    numNeverVisible += Long.parseLong(fields[2]);
+                    if (visibilityLags == null) {
+                        visibilityLags = new LatencyHistogram();
+                    }
+                    visibilityLags.merge(LatencyHistogram.fromCompactString(fields[3]));
+                    break;
+                case "fault":
+                    if (faultCountsByHost == null) {
+                        faultCountsByHost = new TreeMap<>();
+                    }
+                    faultCountsByHost.computeIfAbsent(fields[1], host -> new LinkedHashMap<>())
+                            .merge(fields[2], Long.parseLong(fields[3]), Long::sum);
+                    break;
+                default:
+                    // Blank or unknown lines are skipped
+            }
+        }
+    }
+
+    private void mergeDescription(String section, String description) {
+        switch (section) {
+            case "rateLimit":
+                rateLimit = rateLimit == null ? description : rateLimit;
+                break;
+            case "hostBalancing":
+                hostBalancing = hostBalancing == null ? description : hostBalancing;
+                break;
+            case "requestPolicy":
+                requestPolicy = requestPolicy == null ? description : requestPolicy;
+                break;
+            case "batching":
+                batching = batching == null ? description : batching;
+                break;
+            case "visibility":
+                visibility = visibility == null ? description : visibility;
+                break;
+            case "faults":
+                faults = faults == null ? description : faults;
+                break;
+            default:
+                // Unknown sections are skipped
+        }
+    }
+
+    private static void mergeHistogram(Map<String, LatencyHistogram> byKey, String key,
+                                       LatencyHistogram histogram) {
+        byKey.computeIfAbsent(key, k -> new LatencyHistogram()).merge(histogram);
+    }
+
+    /**
+     * Sets a note on how this run was merged from other clients' results, such as the sections
+     * that could not be merged. It is printed with the report and kept in the summary.
+     *
+     * @param mergeNote the note
+     */
+    public void setMergeNote(String mergeNote) {
+        this.mergeNote = mergeNote;
+    }
+
+    /**
+     * Merges another client's streaming summaries into this run's. Must be in soak mode.
+     *
+     * @param other the other client's summaries, e.g. read from its checkpoint
+     */
+    public void mergeStreamingSummary(StreamingSummary other) {
+        streamingSummary.merge(other);
+    }
+
+    // A timer of 0 was never started
+    private static long earliest(long current, long other) {
+        if (current == 0) {
+            return other;
+        }
+        return other == 0 ? current : Math.min(current, other);
+    }
+
+    /**
+     * Gives the queue the runners hand their stats to the writer through, to benchmark the handoff.
+     *
+     * @return the queue
+     */
+    BlockingQueue<SingleRequestStatistics[]> getWriteQueue() {
+        return writeQueue;
+    }
+
     /**
      * Calculates final statistics for the client run. This will only work after all phases of main
      * are complete.
@@ -71,30 +651,204 @@ public class BulkRequestStatistics {
      * @throws InterruptedException if threads are interrupted
      */
     public void performFinalCalcs() throws InterruptedException {
-        // Work that doesn't need a max latency value
-        Thread mean = launchMeanCalculation();
+        writeClientMonitor();
+        if (streamingSummary != null) {
+            performStreamingFinalCalcs();
+            return;
+        }
+
+        // Headline and per-phase numbers come from separate passes, so run them side by side
         Thread histData = launchNumRequestsByMin();
+        Thread summary = launchRunSummary();
+        Thread headline = launchLatencyCalculations(headlineReader, headlineLatencies);
+        Thread byPhase = launchLatencyCalculations(phaseReader, phaseLatencies);
+        Thread byPartition = launchPartitionSummary();
+
+        // Hot keys are judged against the headline tail latencies
+        headline.join();
+        Thread hotKeyAnalysis = launchHotKeyAnalysis();
+
+        // Let work finish
+        histData.join();
+        summary.join();
+        byPhase.join();
+        byPartition.join();
+        hotKeyAnalysis.join();
+
+        // Output the histogram data
+        String path = this.filePath + "-req-start-hist-data.csv";
+        this.writer.writeRequestStartData(path, this.numRequestsByMin);
+    }
+
+    /**
+     * Writes the client monitor's samples next to the CSV, if the monitor is enabled.
+     */
+    private void writeClientMonitor() {
+        if (clientMonitor == null) {
+            return;
+        }
+        try {
+            clientMonitor.writeToFile(this.filePath + "-client-monitor.csv");
+        } catch (IOException e) {
+            handleError(e);
+        }
+    }
+
+    /**
+     * Calculates final statistics from the streaming summaries in soak mode, without reading the CSV.
+     * The hot key analysis needs every request, so it is skipped.
+     */
+    private void performStreamingFinalCalcs() {
+        // Merged runs never start checkpoints of their own
+        if (checkpointer != null) {
+            checkpointer.shutdownNow();
+        }
+        writeCheckpoint();
+        streamingSummary.fillLatencySummary(headlineLatencies, false);
+        streamingSummary.fillLatencySummary(phaseLatencies, true);
+        this.numRequestsByMin = streamingSummary.getRequestsBySecond(this.wallStart, this.wallStop);
+        this.partitions = streamingSummary.getByPartition();
+
+        try {
+            streamingSummary.getHeadline().writeToFile(getSummaryFilePath(this.filePath));
+            partitions.writeToFile(getPartitionSummaryFilePath(this.filePath));
+        } catch (IOException e) {
+            handleError(e);
+        }
+        String path = this.filePath + "-req-start-hist-data.csv";
+        this.writer.writeRequestStartData(path, this.numRequestsByMin);
+    }
+
+    /**
+     * Launches a calculation of the histogram summary in a new thread and saves it next to the CSV,
+     * so that later runs can be compared against this one.
+     *
+     * @return the thread handle
+     */
+    private Thread launchRunSummary() {
+        // Set up work to be done
+        Runnable work = () -> {
+            try {
+                headlineReader.calculateRunSummary().writeToFile(getSummaryFilePath(this.filePath));
+            } catch (IOException | NumberFormatException e) {
+                handleError(e);
+            }
+        };
+        Thread thread = new Thread(work);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Launches a calculation of the per resort and day histograms in a new thread and saves them
+     * next to the CSV.
+     *
+     * @return the thread handle
+     */
+    private Thread launchPartitionSummary() {
+        // Set up work to be done
+        Runnable work = () -> {
+            try {
+                this.partitions = headlineReader.calculatePartitionSummary();
+                this.partitions.writeToFile(getPartitionSummaryFilePath(this.filePath));
+            } catch (IOException | NumberFormatException e) {
+                handleError(e);
+            }
+        };
+        Thread thread = new Thread(work);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Gives the path of the per resort and day histogram summary written for a run.
+     *
+     * @param filePathStr base path of the CSV output, without an extension
+     * @return the summary file path
+     */
+    public static String getPartitionSummaryFilePath(String filePathStr) {
+        return filePathStr + "-partition-summary.csv";
+    }
+
+    /**
+     * Gives the path of the histogram summary written for a run.
+     *
+     * @param filePathStr base path of the CSV output, without an extension
+     * @return the summary file path
+     */
+    public static String getSummaryFilePath(String filePathStr) {
+        return filePathStr + "-hist-summary.csv";
+    }
+
+    /**
+     * Launches the hot key analysis in a new thread and writes its skier heatmap next to the CSV.
+     * Requires the headline 99th percentile latencies.
+     *
+     * @return the thread handle
+     */
+    private Thread launchHotKeyAnalysis() {
+        // Set up work to be done
+        Runnable work = () -> {
+            try {
+                this.hotKeys = headlineReader.calculateHotKeys(
+                        headlineLatencies.p99LatencyByPath, this.wallStart);
+                this.hotKeys.writeHeatmap(this.filePath + "-skier-heatmap.csv");
+            } catch (IOException | NumberFormatException e) {
+                handleError(e);
+            }
+        };
+        Thread thread = new Thread(work);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Launches the full set of latency calculations for one reader in a new thread.
+     *
+     * @param reader  the reader to calculate from
+     * @param summary where the results are stored
+     * @return the thread handle
+     */
+    private Thread launchLatencyCalculations(CsvStatsReader reader, LatencySummary summary) {
+        Runnable work = () -> {
+            try {
+                calculateLatencies(reader, summary);
+            } catch (InterruptedException e) {
+                handleError(e);
+            }
+        };
+        Thread thread = new Thread(work);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Calculates mean, max, median and 99th percentile latencies for one reader.
+     *
+     * @param reader  the reader to calculate from
+     * @param summary where the results are stored
+     * @throws InterruptedException if threads are interrupted
+     */
+    private void calculateLatencies(CsvStatsReader reader, LatencySummary summary)
+            throws InterruptedException {
+        // Work that doesn't need a max latency value
+        Thread mean = launchMeanCalculation(reader, summary);
 
         // Max latency calculation
         try {
-            this.maxLatencyByPath = reader.calculateMaxLatencies();
+            summary.maxLatencyByPath = reader.calculateMaxLatencies();
         } catch (IOException | NumberFormatException e) {
             handleError(e);
         }
 
         // Work requiring a max latency (for counting array)
-        Thread median = launchMedianCalculation();
-        Thread p99 = launchP99Calculation();
+        Thread median = launchMedianCalculation(reader, summary);
+        Thread p99 = launchP99Calculation(reader, summary);
 
         // Let work finish
         mean.join();
-        histData.join();
         median.join();
         p99.join();
-
-        // Output the histogram data
-        String path = this.filePath + "-req-start-hist-data.csv";
-        this.writer.writeRequestStartData(path, this.numRequestsByMin);
     }
 
     /**
@@ -102,11 +856,11 @@ public class BulkRequestStatistics {
      *
      * @return the thread handle
      */
-    private Thread launchMeanCalculation() {
+    private Thread launchMeanCalculation(CsvStatsReader reader, LatencySummary summary) {
         // Set up work to be done
         Runnable work = () -> {
             try {
-                this.avgLatencyByPath = reader.calculateMeanLatencies();
+                summary.avgLatencyByPath = reader.calculateMeanLatencies();
             } catch (IOException | NumberFormatException e) {
                 handleError(e);
             }
@@ -121,11 +875,11 @@ public class BulkRequestStatistics {
      *
      * @return the thread handle
      */
-    private Thread launchMedianCalculation() {
+    private Thread launchMedianCalculation(CsvStatsReader reader, LatencySummary summary) {
         // Set up work to be done
         Runnable work = () -> {
             try {
-                this.medianLatencyByPath = reader.calculateMedianLatencies(this.maxLatencyByPath);
+                summary.medianLatencyByPath = reader.calculateMedianLatencies(summary.maxLatencyByPath);
             } catch (IOException | NumberFormatException e) {
                 handleError(e);
             }
@@ -140,11 +894,11 @@ public class BulkRequestStatistics {
      *
      * @return the thread handle
      */
-    private Thread launchP99Calculation() {
+    private Thread launchP99Calculation(CsvStatsReader reader, LatencySummary summary) {
         // Set up work to be done
         Runnable work = () -> {
             try {
-                this.p99LatencyByPath = reader.calculateP99Latencies(this.maxLatencyByPath);
+                summary.p99LatencyByPath = reader.calculateP99Latencies(summary.maxLatencyByPath);
             } catch (IOException | NumberFormatException e) {
                 handleError(e);
             }
@@ -184,16 +938,77 @@ public class BulkRequestStatistics {
         System.err.println(msg);
     }
 
+    /**
+     * Creates one counter per phase, indexed by phase number (index 0 is the unknown phase).
+     *
+     * @return the counters
+     */
+    private static AtomicInteger[] newPhaseCounters() {
+        AtomicInteger[] counters = new AtomicInteger[NUM_PHASES + 1];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new AtomicInteger();
+        }
+        return counters;
+    }
+
+    /**
+     * Gives a readable name for a phase number.
+     *
+     * @param phase the phase number
+     * @return the phase name
+     */
+    public static String getPhaseName(int phase) {
+        if (phase < 0 || phase >= PHASE_NAMES.length) {
+            return PHASE_NAMES[CsvStatsReader.UNKNOWN_PHASE];
+        }
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * Wall time covered by the headline numbers. When warmup is excluded, the headline window starts
+     * with the peak phase.
+     *
+     * @return the headline wall time in seconds
+     */
     public double getWallTimeSecs() {
-        return (double) (wallStop - wallStart) / MILLISECS_PER_SEC;
+        long start = excludeWarmup ? phaseStart[WARMUP_PHASE + 1] : wallStart;
+        return (double) (wallStop - start) / MILLISECS_PER_SEC;
     }
 
     public double getThroughputPerSec() {
-        return totalRequests.get() / getWallTimeSecs();
+        return getHeadlineRequests() / getWallTimeSecs();
     }
 
     public double getGoodThroughputPerSec() {
-        return (totalRequests.get() - totalBadRequests.get()) / getWallTimeSecs();
+        return (getHeadlineRequests() - getHeadlineBadRequests()) / getWallTimeSecs();
+    }
+
+    public double getPhaseWallTimeSecs(int phase) {
+        return (double) (phaseStop[phase] - phaseStart[phase]) / MILLISECS_PER_SEC;
+    }
+
+    public double getPhaseThroughputPerSec(int phase) {
+        return requestsByPhase[phase].get() / getPhaseWallTimeSecs(phase);
+    }
+
+    private int getHeadlineRequests() {
+        int excluded = excludeWarmup ? requestsByPhase[WARMUP_PHASE].get() : 0;
+        return totalRequests.get() - excluded;
+    }
+
+    private int getHeadlineBadRequests() {
+        int excluded = excludeWarmup ? badRequestsByPhase[WARMUP_PHASE].get() : 0;
+        return totalBadRequests.get() - excluded;
+    }
+
+    private int getHeadlineCount(AtomicInteger[] byPhase) {
+        int count = 0;
+        for (int phase = 0; phase <= NUM_PHASES; phase++) {
+            if (!(excludeWarmup && phase == WARMUP_PHASE)) {
+                count += byPhase[phase].get();
+            }
+        }
+        return count;
     }
 
     public void startWallTimer() {
@@ -202,62 +1017,705 @@ public class BulkRequestStatistics {
 
     public void stopWallTimer() {
         this.wallStop = System.currentTimeMillis();
+        if (clientMonitor != null) {
+            clientMonitor.stop();
+        }
+    }
+
+    public void startPhaseTimer(int phase) {
+        this.phaseStart[phase] = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts a phase's timer unless it has been started already. When several threads start it,
+     * e.g. replay runners as they send their first requests, the earliest start counts.
+     *
+     * @param phase the phase
+     */
+    public synchronized void markPhaseStarted(int phase) {
+        this.phaseStart[phase] = earliest(phaseStart[phase], System.currentTimeMillis());
+    }
+
+    /**
+     * Stops a phase's timer. When several threads stop it, e.g. replay runners as they finish, the
+     * latest stop counts.
+     *
+     * @param phase the phase
+     */
+    public synchronized void stopPhaseTimer(int phase) {
+        this.phaseStop[phase] = Math.max(phaseStop[phase], System.currentTimeMillis());
+    }
+
+    /**
+     * Adds completed requests to the total and to the given phase.
+     *
+     * @param phase       the phase the requests belong to
+     * @param numRequests the number of requests
+     */
+    public void addPhaseRequests(int phase, int numRequests) {
+        totalRequests.getAndAdd(numRequests);
+        requestsByPhase[phase].getAndAdd(numRequests);
+    }
+
+    /**
+     * Counts a failed request in the total and in the given phase.
+     *
+     * @param phase the phase the request belongs to
+     */
+    public void recordBadRequest(int phase) {
+        totalBadRequests.getAndIncrement();
+        badRequestsByPhase[phase].getAndIncrement();
+    }
+
+    /**
+     * Counts requests that were cancelled in flight because their phase ended.
+     *
+     * @param phase       the phase the requests belong to
+     * @param numRequests the number of requests
+     */
+    public void addTimedOutRequests(int phase, int numRequests) {
+        timedOutByPhase[phase].getAndAdd(numRequests);
+    }
+
+    /**
+     * Counts requests that were never sent because their phase ended first.
+     *
+     * @param phase       the phase the requests belong to
+     * @param numRequests the number of requests
+     */
+    public void addAbandonedRequests(int phase, int numRequests) {
+        abandonedByPhase[phase].getAndAdd(numRequests);
+    }
+
+    /**
+     * Provides the numbers of the report as nested maps, for the JSON summary and SLO checks. The
+     * headline numbers are at the top, and each phase's under "phases" by name. Latencies are in
+     * milliseconds and error rates in percent. Every section of toString() is here, with the same
+     * partitions and hot keys listed, and the client JVM samples summarized; their full data is
+     * left to their own files. Must be called after performFinalCalcs.
+     *
+     * @return the summary
+     */
+    public synchronized Map<String, Object> toSummaryMap() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("warmupExcluded", excludeWarmup);
+        if (workloadSeed != null) {
+            summary.put("workloadSeed", workloadSeed);
+        }
+        if (mergeNote != null) {
+            summary.put("mergeNote", mergeNote);
+        }
+        summary.put("totalRequests", getHeadlineRequests());
+        summary.put("badRequests", getHeadlineBadRequests());
+        summary.put("timedOutRequests", getHeadlineCount(timedOutByPhase));
+        summary.put("abandonedRequests", getHeadlineCount(abandonedByPhase));
+        summary.put("errorRatePct", errorRatePct(getHeadlineBadRequests(), getHeadlineRequests()));
+        summary.put("wallTimeSecs", getWallTimeSecs());
+        if (preWarmMillis != null) {
+            summary.put("preWarmSecs", (double) preWarmMillis / MILLISECS_PER_SEC);
+        }
+        summary.put("throughputPerSec", getThroughputPerSec());
+        summary.put("successThroughputPerSec", getGoodThroughputPerSec());
+        long sent = 0;
+        long received = 0;
+        for (int phase = 0; phase <= NUM_PHASES; phase++) {
+            if (!(excludeWarmup && phase == WARMUP_PHASE)) {
+                sent += byteCounts.getPhaseSent(phase);
+                received += byteCounts.getPhaseReceived(phase);
+            }
+        }
+        putBandwidth(summary, sent, received, getWallTimeSecs());
+        summary.put("paths", pathsToSummaryMap(headlineLatencies, "", HEADLINE_PATHS));
+
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (int phase = 1; phase <= NUM_PHASES; phase++) {
+            Map<String, Object> phaseSummary = new LinkedHashMap<>();
+            phaseSummary.put("phase", phase);
+            phaseSummary.put("requests", requestsByPhase[phase].get());
+            phaseSummary.put("badRequests", badRequestsByPhase[phase].get());
+            phaseSummary.put("timedOutRequests", timedOutByPhase[phase].get());
+            phaseSummary.put("abandonedRequests", abandonedByPhase[phase].get());
+            phaseSummary.put("errorRatePct",
+                    errorRatePct(badRequestsByPhase[phase].get(), requestsByPhase[phase].get()));
+            phaseSummary.put("wallTimeSecs", getPhaseWallTimeSecs(phase));
+            phaseSummary.put("throughputPerSec", getPhaseThroughputPerSec(phase));
+            putBandwidth(phaseSummary, byteCounts.getPhaseSent(phase),
+                    byteCounts.getPhaseReceived(phase), getPhaseWallTimeSecs(phase));
+            phaseSummary.put("paths", pathsToSummaryMap(phaseLatencies,
+                    CsvStatsReader.phaseKey(phase, ""), phase));
+            phases.put(getPhaseName(phase), phaseSummary);
+        }
+        summary.put("phases", phases);
+
+        if (hostBalancing != null) {
+            Map<String, Object> hosts = new TreeMap<>();
+            for (String host : ejectionsByHost.keySet()) {
+                LatencyHistogram histogram = latenciesByHost.get(host);
+                Map<String, Object> hostSummary = (histogram == null ? new LatencyHistogram()
+                        : histogram).toSummaryMap();
+                hostSummary.put("badRequests", badRequestsByHost.getOrDefault(host, 0));
+                hostSummary.put("ejections", ejectionsByHost.get(host));
+                hosts.put(host, hostSummary);
+            }
+            summary.put("hosts", hosts);
+        }
+        if (rateLimit != null) {
+            Map<String, Object> waits = new TreeMap<>();
+            for (Map.Entry<String, LatencyHistogram> entry : permitWaitsByPath.entrySet()) {
+                // Permit waits are recorded in microseconds
+                LatencyHistogram histogram = entry.getValue();
+                Map<String, Object> wait = new LinkedHashMap<>();
+                wait.put("totalSecs", histogram.getSum() / 1e6);
+                wait.put("meanMs", histogram.getMean() / 1000);
+                wait.put("p99Ms", histogram.getValueAtPercentile(99) / 1000.0);
+                wait.put("maxMs", histogram.getMax() / 1000.0);
+                waits.put(entry.getKey(), wait);
+            }
+            summary.put("permitWaits", waits);
+        }
+        if (requestPolicy != null) {
+            summary.put("attempts", attempts.toSummaryMap());
+        }
+        if (faults != null) {
+            Map<String, Object> injected = new LinkedHashMap<>();
+            injected.put("faults", faults);
+            injected.put("hosts", new TreeMap<>(faultCountsByHost));
+            summary.put("faultInjection", injected);
+        }
+        if (visibility != null) {
+            Map<String, Object> lags = visibilityLags.toSummaryMap();
+            lags.put("sampled", numVisibilitySampled);
+            lags.put("neverVisible", numNeverVisible);
+            summary.put("visibility", lags);
+        }
+        if (batching != null) {
+            long numBatches = 0;
+            long numRides = 0;
+            for (int phase = 0; phase <= NUM_PHASES; phase++) {
+                if (!(excludeWarmup && phase == WARMUP_PHASE)) {
+                    numBatches += batchesByPhase[phase];
+                    numRides += ridesByPhase[phase];
+                }
+            }
+            Map<String, Object> batches = new LinkedHashMap<>();
+            batches.put("batches", numBatches);
+            batches.put("rides", numRides);
+            double wallTimeSecs = getWallTimeSecs();
+            batches.put("ridesPerSec", wallTimeSecs > 0 ? numRides / wallTimeSecs : 0);
+            batches.put("batchLatency", batchLatencies.toSummaryMap());
+            batches.put("rideLatency", rideLatencies.toSummaryMap());
+            summary.put("batching", batches);
+        }
+        if (partitions != null && !partitions.getKeys().isEmpty()) {
+            List<String> keys = getReportedPartitions();
+            Map<String, Object> byPartition = new LinkedHashMap<>();
+            for (String key : keys.subList(0, Math.min(keys.size(), MAX_REPORTED_PARTITIONS))) {
+                byPartition.put(key, partitions.getHistogram(key).toSummaryMap());
+            }
+            summary.put("partitions", byPartition);
+            summary.put("unreportedPartitions", Math.max(keys.size() - MAX_REPORTED_PARTITIONS, 0));
+        }
+        if (hotKeys != null) {
+            summary.put("hotKeys", hotKeys.toSummaryMap());
+        }
+        if (clientMonitor != null) {
+            summary.put("clientMonitor", clientMonitor.toSummaryMap());
+        }
+        return summary;
+    }
+
+    /**
+     * Provides latencies for each path as maps, keyed by "method path".
+     *
+     * @param summary   the latencies
+     * @param keyPrefix only keys starting with this prefix are included, with the prefix removed
+     * @param phase     the phase whose paths these are, for their body bytes, or HEADLINE_PATHS
+     * @return the latencies and body bytes for each path
+     */
+    private Map<String, Object> pathsToSummaryMap(LatencySummary summary, String keyPrefix,
+                                                  int phase) {
+        Map<String, Object> paths = new TreeMap<>();
+        for (String key : summary.avgLatencyByPath.keySet()) {
+            if (!key.startsWith(keyPrefix)) {
+                continue;
+            }
+            Map<String, Object> path = new LinkedHashMap<>();
+            path.put("meanMs", summary.avgLatencyByPath.get(key));
+            path.put("medianMs", summary.medianLatencyByPath.get(key));
+            path.put("p99Ms", summary.p99LatencyByPath.get(key));
+            path.put("maxMs", summary.maxLatencyByPath.get(key));
+            String pathKey = key.substring(keyPrefix.length());
+            if (phase == HEADLINE_PATHS) {
+                long[] bytes = byteCounts.getPathCounts(pathKey);
+                putBandwidth(path, bytes[0], bytes[1], getWallTimeSecs());
+            } else {
+                long[] bytes = byteCounts.getPhasePathCounts(phase, pathKey);
+                putBandwidth(path, bytes[0], bytes[1], getPhaseWallTimeSecs(phase));
+            }
+            paths.put(pathKey, path);
+        }
+        return paths;
+    }
+
+    private static void putBandwidth(Map<String, Object> summary, long sent, long received,
+                                     double secs) {
+        summary.put("bytesSent", sent);
+        summary.put("bytesReceived", received);
+        // A phase that never ran has no time to divide by, and JSON has no infinity
+        summary.put("mbPerSecSent", secs > 0 ? sent / ByteCounts.BYTES_PER_MB / secs : 0);
+        summary.put("mbPerSecReceived", secs > 0 ? received / ByteCounts.BYTES_PER_MB / secs : 0);
+    }
+
+    private static double errorRatePct(int bad, int requests) {
+        return requests == 0 ? 0 : 100.0 * bad / requests;
+    }
+
+    /**
+     * Writes the summary from toSummaryMap to (csvFilename)-summary.json, with any other sections
+     * given, e.g. SLO results. Must be called after performFinalCalcs.
+     *
+     * @param extra further top level sections, by name
+     * @return the path written to
+     * @throws IOException if the file cannot be written
+     */
+    public String writeJsonSummary(Map<String, Object> extra) throws IOException {
+        Map<String, Object> summary = toSummaryMap();
+        summary.putAll(extra);
+        String path = this.filePath + "-summary.json";
+        SummaryJson.writeToFile(summary, path);
+        return path;
     }
 
     @Override
     public String toString() {
-        return String.format("Execution Statistics\n"
+        String scope = excludeWarmup ? " (warmup excluded)" : "";
+        return String.format("Execution Statistics%s\n"
                         + "--------------------\n"
                         + "Total Requests: %d\n"
                         + "Bad Requests: %d\n"
+                        + "%s"
                         + "Wall Time: %.2f seconds\n"
+                        + "%s"
                         + "Total Throughput: %.2f requests/second\n"
                         + "Success Throughput: %.2f requests/second\n"
-                , totalRequests.get()
-                , totalBadRequests.get()
+                        + "%s"
+                        + "%s"
+                        + "%s"
+                , scope
+                , getHeadlineRequests()
+                , getHeadlineBadRequests()
+                , unfinishedToString("", getHeadlineCount(timedOutByPhase),
+                        getHeadlineCount(abandonedByPhase))
                 , getWallTimeSecs()
+                , preWarmMillis == null ? "" : String.format(
+                        "Pre-warm Time: %.2f seconds (not included)\n",
+                        (double) preWarmMillis / MILLISECS_PER_SEC)
                 , getThroughputPerSec()
                 , getGoodThroughputPerSec()
+                , ceilingToString()
+                , workloadSeed == null ? "" : "Workload Seed: " + workloadSeed + "\n"
+                , mergeNote == null ? "" : mergeNote + "\n"
         )
-                + statsPerPathToString();
+                + statsPerPathToString(headlineLatencies, "")
+                + bandwidthToString()
+                + permitWaitsToString()
+                + statsPerHostToString()
+                + attemptsToString()
+                + faultsToString()
+                + visibilityToString()
+                + batchingToString()
+                + statsPerPhaseToString()
+                + statsPerPartitionToString()
+                + (hotKeys == null ? "" : hotKeys.toString())
+                + clientMonitorToString();
+    }
+
+    /**
+     * Provides the body bytes sent and received per second as a string, for the headline window, by
+     * path and by phase. Headers are not counted.
+     *
+     * @return the bandwidth
+     */
+    private String bandwidthToString() {
+        long sent = 0;
+        long received = 0;
+        for (int phase = 0; phase <= NUM_PHASES; phase++) {
+            if (!(excludeWarmup && phase == WARMUP_PHASE)) {
+                sent += byteCounts.getPhaseSent(phase);
+                received += byteCounts.getPhaseReceived(phase);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nBandwidth (request and response bodies)\n");
+        builder.append("---------\n");
+        builder.append("Total: ")
+                .append(ByteCounts.rateToString(sent, received, getWallTimeSecs())).append('\n');
+        builder.append(byteCounts.pathsToString(getWallTimeSecs()));
+        for (int phase = 1; phase <= NUM_PHASES; phase++) {
+            if (requestsByPhase[phase].get() > 0) {
+                builder.append(String.format("\t%s: %s\n", getPhaseName(phase),
+                        ByteCounts.rateToString(byteCounts.getPhaseSent(phase),
+                                byteCounts.getPhaseReceived(phase), getPhaseWallTimeSecs(phase))));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides the batch results as a string. Each batch is one request above, so these give the
+     * rides it stood for.
+     *
+     * @return the batch results, or an empty string if lift rides were not batched
+     */
+    private synchronized String batchingToString() {
+        if (batching == null) {
+            return "";
+        }
+        long numBatches = 0;
+        long numRides = 0;
+        for (int phase = 0; phase <= NUM_PHASES; phase++) {
+            if (!(excludeWarmup && phase == WARMUP_PHASE)) {
+                numBatches += batchesByPhase[phase];
+                numRides += ridesByPhase[phase];
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nBatched Lift Rides (" + batching + ")\n");
+        builder.append("------------------\n");
+        builder.append(String.format("Rides: %d in %d batches, mean %.1f per batch\n", numRides,
+                numBatches, numBatches == 0 ? 0 : (double) numRides / numBatches));
+        builder.append(String.format("Ride Throughput: %.2f rides/second\n",
+                numRides / getWallTimeSecs()));
+        builder.append(String.format("Batch Latency: mean %.2f ms, 99th percentile %d ms\n",
+                batchLatencies.getMean(), batchLatencies.getValueAtPercentile(99)));
+        builder.append(String.format("Ride Latency, queued to acknowledged: mean %.2f ms, "
+                        + "99th percentile %d ms\n",
+                rideLatencies.getMean(), rideLatencies.getValueAtPercentile(99)));
+        builder.append(String.format("Batch Latency per Ride: %.2f ms\n",
+                numRides == 0 ? 0 : batchLatencies.getSum() / (double) numRides));
+        for (int phase = 1; phase <= NUM_PHASES; phase++) {
+            if (batchesByPhase[phase] > 0) {
+                builder.append(String.format("\t%s: %.2f rides/second\n", getPhaseName(phase),
+                        getPhaseRidesPerSec(phase)));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides the time from acknowledging a lift ride to it showing up as a string. It is reported
+     * apart from the request latencies, as it includes the server's asynchronous write.
+     *
+     * @return the lags, or an empty string if lift rides were not checked
+     */
+    private String visibilityToString() {
+        if (visibility == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nRead-After-Write Visibility (" + visibility + ")\n");
+        builder.append("----------------------------\n");
+        builder.append(String.format("Checked: %d lift rides, %d never visible\n",
+                numVisibilitySampled, numNeverVisible));
+        if (visibilityLags.getCount() > 0) {
+            builder.append(String.format("Lag: mean %.2f ms, median %d ms, 90th percentile %d ms, "
+                            + "99th percentile %d ms, max %d ms\n"
+                    , visibilityLags.getMean()
+                    , visibilityLags.getValueAtPercentile(50)
+                    , visibilityLags.getValueAtPercentile(90)
+                    , visibilityLags.getValueAtPercentile(99)
+                    , visibilityLags.getMax()));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides the samples of the client's own JVM as a string.
+     *
+     * @return the samples, or an empty string if the client was not monitored
+     */
+    private String clientMonitorToString() {
+        if (clientMonitor == null) {
+            return "";
+        }
+        return "\nClient JVM\n"
+                + "----------\n"
+                + clientMonitor.toString();
+    }
+
+    /**
+     * Provides the client's ceiling for the peak phase's thread count, and a warning if the phase
+     * came close to it, as a string.
+     *
+     * @return the ceiling, or an empty string if there is none
+     */
+    private String ceilingToString() {
+        double requestsPerSec = ceiling == null
+                ? 0 : ceiling.getRequestsPerSec(ClientCeiling.POOLED, ceilingThreads);
+        if (requestsPerSec <= 0) {
+            return "";
+        }
+        String warning = getCeilingWarning();
+        return String.format("Client Ceiling: %.2f requests/second with %d threads\n%s",
+                requestsPerSec, ceilingThreads, warning == null ? "" : warning + "\n");
+    }
+
+    /**
+     * Provides the counts of requests left unfinished when a phase ended as a string. Only phases
+     * bounded by time leave requests unfinished, so nothing is given when there are none.
+     *
+     * @param indent    prefix for each line
+     * @param timedOut  requests cancelled in flight
+     * @param abandoned requests never sent
+     * @return the counts, or an empty string
+     */
+    private static String unfinishedToString(String indent, int timedOut, int abandoned) {
+        if (timedOut == 0 && abandoned == 0) {
+            return "";
+        }
+        return String.format("%sTimed Out Requests: %d\n%sAbandoned Requests: %d\n",
+                indent, timedOut, indent, abandoned);
+    }
+
+    /**
+     * Provides request counts and latencies for each host as a string, with how unevenly requests
+     * were spread. Covers every phase, including warmup.
+     *
+     * @return a string of statistics for each host, empty if requests went to a single host
+     */
+    private synchronized String statsPerHostToString() {
+        if (hostBalancing == null) {
+            return "";
+        }
+        long total = 0;
+        long busiest = 0;
+        long quietest = Long.MAX_VALUE;
+        for (String host : ejectionsByHost.keySet()) {
+            LatencyHistogram histogram = latenciesByHost.get(host);
+            long count = histogram == null ? 0 : histogram.getCount();
+            total += count;
+            busiest = Math.max(busiest, count);
+            quietest = Math.min(quietest, count);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nStatistics by Host (" + hostBalancing + ")\n");
+        builder.append("------------------\n");
+        for (String host : ejectionsByHost.keySet()) {
+            LatencyHistogram histogram = latenciesByHost.get(host);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+            }
+            builder.append(String.format("%s: %d requests (%.1f%%), %d bad, mean %.2f ms, "
+                            + "99th percentile %d ms, ejected %d times\n"
+                    , host
+                    , histogram.getCount()
+                    , total == 0 ? 0 : 100.0 * histogram.getCount() / total
+                    , badRequestsByHost.getOrDefault(host, 0)
+                    , histogram.getMean()
+                    , histogram.getValueAtPercentile(99)
+                    , ejectionsByHost.get(host)
+            ));
+        }
+        if (quietest > 0) {
+            builder.append(String.format(
+                    "Imbalance: the busiest host got %.2fx the requests of the quietest\n",
+                    (double) busiest / quietest));
+        } else if (busiest > 0) {
+            builder.append("Imbalance: at least one host got no requests\n");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides the attempts behind the requests as a string, when a retry, deadline or hedging
+     * policy was used. Covers every phase, including warmup.
+     *
+     * @return a string of attempt statistics, empty if there was no policy
+     */
+    private String attemptsToString() {
+        if (requestPolicy == null) {
+            return "";
+        }
+        return "\nRetries and Hedging (" + requestPolicy + ")\n"
+                + "-------------------\n"
+                + attempts.toString();
+    }
+
+    /**
+     * Provides the faults injected in front of each host as a string.
+     *
+     * @return the faults, or an empty string if none were injected
+     */
+    private synchronized String faultsToString() {
+        if (faults == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nInjected Faults (" + faults + ")\n");
+        builder.append("---------------\n");
+        for (Map.Entry<String, Map<String, Long>> entry : faultCountsByHost.entrySet()) {
+            Map<String, Long> counts = entry.getValue();
+            builder.append(String.format("%s: %d connections, %d delayed, %d responses, "
+                            + "%d stalled, %d reset\n"
+                    , entry.getKey()
+                    , counts.get("connections")
+                    , counts.get("delayedConnections")
+                    , counts.get("responses")
+                    , counts.get("stalledResponses")
+                    , counts.get("resetResponses")
+            ));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides the time spent waiting for rate limit permits as a string. These waits come before
+     * each request is timed, so they are not part of any latency above.
+     *
+     * @return a string of permit waits for each path, empty if rate limiting was off
+     */
+    private synchronized String permitWaitsToString() {
+        if (rateLimit == null) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nRate Limit Waits (" + rateLimit + ")\n");
+        builder.append("----------------\n");
+        for (Map.Entry<String, LatencyHistogram> entry : permitWaitsByPath.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append(String.format("%s: %.2f seconds total, mean %.3f ms, "
+                            + "99th percentile %.3f ms, max %.3f ms\n"
+                    , entry.getKey()
+                    , histogram.getSum() / 1e6
+                    , histogram.getMean() / 1000
+                    , histogram.getValueAtPercentile(99) / 1000.0
+                    , histogram.getMax() / 1000.0
+            ));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides counts, throughput and per path latencies for each phase as a string.
+     *
+     * @return a string of statistics for each phase
+     */
+    private String statsPerPhaseToString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nStatistics by Phase\n");
+        builder.append("-------------------\n");
+        for (int phase = 1; phase <= NUM_PHASES; phase++) {
+            builder.append(String.format("Phase %d (%s):\n"
+                            + "\tRequests: %d\n"
+                            + "\tBad Requests: %d\n"
+                            + "%s"
+                            + "\tWall Time: %.2f seconds\n"
+                            + "\tThroughput: %.2f requests/second\n"
+                    , phase
+                    , getPhaseName(phase)
+                    , requestsByPhase[phase].get()
+                    , badRequestsByPhase[phase].get()
+                    , unfinishedToString("\t", timedOutByPhase[phase].get(),
+                            abandonedByPhase[phase].get())
+                    , getPhaseWallTimeSecs(phase)
+                    , getPhaseThroughputPerSec(phase)
+            ));
+            builder.append(statsPerPathToString(phaseLatencies, CsvStatsReader.phaseKey(phase, "")));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Provides request counts and latencies for the busiest resort and day partitions as a string.
+     * Every partition is in the partition summary file.
+     *
+     * @return a string of statistics for each partition
+     */
+    private String statsPerPartitionToString() {
+        if (partitions == null || partitions.getKeys().isEmpty()) {
+            return "";
+        }
+        List<String> keys = getReportedPartitions();
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("\nStatistics by Resort and Day" + (excludeWarmup ? " (warmup excluded)" : "")
+                + "\n");
+        builder.append("----------------------------\n");
+        for (String key : keys.subList(0, Math.min(keys.size(), MAX_REPORTED_PARTITIONS))) {
+            String[] partition = CsvStatsReader.splitPartitionKey(key);
+            String day = partition[1].equals(String.valueOf(SingleRequestStatistics.NO_KEY))
+                    ? "any day" : "day " + partition[1];
+            String resort = partition[0].equals(SingleRequestStatistics.NO_RESORT)
+                    ? "Any resort" : partition[0];
+            LatencyHistogram histogram = partitions.getHistogram(key);
+            builder.append(String.format("%s, %s: %d requests, mean %.2f ms, 99th percentile %d ms\n"
+                    , resort
+                    , day
+                    , histogram.getCount()
+                    , histogram.getMean()
+                    , histogram.getValueAtPercentile(99)
+            ));
+        }
+        if (keys.size() > MAX_REPORTED_PARTITIONS) {
+            builder.append(String.format("(%d more in %s)\n", keys.size() - MAX_REPORTED_PARTITIONS,
+                    getPartitionSummaryFilePath(filePath)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Gives the partition keys, busiest first, as they are reported.
+     */
+    private List<String> getReportedPartitions() {
+        List<String> keys = new ArrayList<>(partitions.getKeys());
+        keys.sort((a, b) -> Long.compare(
+                partitions.getHistogram(b).getCount(), partitions.getHistogram(a).getCount()));
+        return keys;
     }
 
     /**
      * Provides statistics for each path as a string.
      *
+     * @param summary   the latencies to print
+     * @param keyPrefix only keys starting with this prefix are printed, with the prefix removed
      * @return a string of statistics for each path
      */
-    private String statsPerPathToString() {
+    private String statsPerPathToString(LatencySummary summary, String keyPrefix) {
         // Same keys for every map
-        Set<String> keys = this.avgLatencyByPath.keySet();
+        Set<String> keys = summary.avgLatencyByPath.keySet();
         StringBuilder builder = new StringBuilder();
         char newline = '\n';
         for (String key : keys) {
+            if (!key.startsWith(keyPrefix)) {
+                continue;
+            }
+
             // Section start
             builder.append("Latencies (ms) for ");
-            builder.append(key);
+            builder.append(key.substring(keyPrefix.length()));
             builder.append(":\n");
 
             // Mean
             builder.append("\tMean: ");
-            String mean = String.format("%.2f\n", this.avgLatencyByPath.get(key));
+            String mean = String.format("%.2f\n", summary.avgLatencyByPath.get(key));
             builder.append(mean);
 
             // Median
             builder.append("\tMedian: ");
-            int median = this.medianLatencyByPath.get(key);
+            int median = summary.medianLatencyByPath.get(key);
             builder.append(median);
             builder.append(newline);
 
             // P99
             builder.append("\t99th Percentile: ");
-            int p99 = this.p99LatencyByPath.get(key);
+            int p99 = summary.p99LatencyByPath.get(key);
             builder.append(p99);
             builder.append(newline);
 
             // Max
             builder.append("\tMax: ");
-            int max = this.maxLatencyByPath.get(key);
+            int max = summary.maxLatencyByPath.get(key);
             builder.append(max);
             builder.append(newline);
         }
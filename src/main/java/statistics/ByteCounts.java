@@ -0,0 +1,198 @@
+package statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts the body bytes sent and received, by path, by phase and by path within each phase, to tell
+ * a bandwidth or payload bound run from a request bound one. Fed by the CSV writer thread rather
+ * than the runners, so counting adds nothing to the requests; paths are looked up by method and then
+ * path, so no key is built per request.
+ */
+public class ByteCounts {
+
+    // The one MB of every report, bandwidth and heap alike, so their figures compare
+    public static final double BYTES_PER_MB = 1024 * 1024;
+
+    private boolean excludeWarmup;
+    // Method, then path, to {sent, received}
+    private Map<String, Map<String, long[]>> byPath = new TreeMap<>();
+    private long[] sentByPhase = new long[BulkRequestStatistics.NUM_PHASES + 1];
+    private long[] receivedByPhase = new long[BulkRequestStatistics.NUM_PHASES + 1];
+    // By phase, then as byPath, warmup included
+    private List<Map<String, Map<String, long[]>>> byPhasePath = new ArrayList<>();
+
+    /**
+     * Constructor for ByteCounts.
+     *
+     * @param excludeWarmup if true, warmup requests are left out of the per-path counts
+     */
+    public ByteCounts(boolean excludeWarmup) {
+        this.excludeWarmup = excludeWarmup;
+        for (int phase = 0; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            byPhasePath.add(new TreeMap<>());
+        }
+    }
+
+    /**
+     * Adds a chunk of requests to the counts.
+     *
+     * @param chunk the requests' statistics
+     */
+    public synchronized void recordAll(SingleRequestStatistics[] chunk) {
+        for (SingleRequestStatistics stats : chunk) {
+            sentByPhase[stats.getPhase()] += stats.getRequestBytes();
+            receivedByPhase[stats.getPhase()] += stats.getResponseBytes();
+            add(byPhasePath.get(stats.getPhase()), stats.getRequestType(), stats.getPath(),
+                    stats.getRequestBytes(), stats.getResponseBytes());
+            if (!excludeWarmup || stats.getPhase() != BulkRequestStatistics.WARMUP_PHASE) {
+                add(byPath, stats.getRequestType(), stats.getPath(), stats.getRequestBytes(),
+                        stats.getResponseBytes());
+            }
+        }
+    }
+
+    private static void add(Map<String, Map<String, long[]>> byMethod, String method, String path,
+                            long sent, long received) {
+        Map<String, long[]> paths = byMethod.get(method);
+        if (paths == null) {
+            paths = new TreeMap<>();
+            byMethod.put(method, paths);
+        }
+        long[] counts = paths.get(path);
+        if (counts == null) {
+            counts = new long[2];
+            paths.put(path, counts);
+        }
+        counts[0] += sent;
+        counts[1] += received;
+    }
+
+    /**
+     * Provides the counts as lines of CSV, so that another client can merge them:
+     *   - bytes,(phase),(sent),(received), for each phase
+     *   - pathbytes,(method),(path),(sent),(received), for each path
+     *   - phasepathbytes,(phase),(method),(path),(sent),(received), for each path of each phase
+     *
+     * @return the counts
+     */
+    public synchronized String countersToString() {
+        StringBuilder builder = new StringBuilder();
+        for (int phase = 0; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            builder.append("bytes,").append(phase)
+                    .append(',').append(sentByPhase[phase])
+                    .append(',').append(receivedByPhase[phase]).append('\n');
+        }
+        for (Map.Entry<String, Map<String, long[]>> method : byPath.entrySet()) {
+            for (Map.Entry<String, long[]> path : method.getValue().entrySet()) {
+                builder.append("pathbytes,").append(method.getKey())
+                        .append(',').append(path.getKey())
+                        .append(',').append(path.getValue()[0])
+                        .append(',').append(path.getValue()[1]).append('\n');
+            }
+        }
+        for (int phase = 0; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            for (Map.Entry<String, Map<String, long[]>> method : byPhasePath.get(phase).entrySet()) {
+                for (Map.Entry<String, long[]> path : method.getValue().entrySet()) {
+                    builder.append("phasepathbytes,").append(phase)
+                            .append(',').append(method.getKey())
+                            .append(',').append(path.getKey())
+                            .append(',').append(path.getValue()[0])
+                            .append(',').append(path.getValue()[1]).append('\n');
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Merges one line of another client's counts, from countersToString().
+     *
+     * @param fields the line's fields
+     * @throws NumberFormatException if the line is malformed
+     */
+    public synchronized void mergeCounter(String[] fields) throws NumberFormatException {
+        if (fields[0].equals("bytes")) {
+            int phase = Integer.parseInt(fields[1]);
+            sentByPhase[phase] += Long.parseLong(fields[2]);
+            receivedByPhase[phase] += Long.parseLong(fields[3]);
+        } else if (fields[0].equals("phasepathbytes")) {
+            add(byPhasePath.get(Integer.parseInt(fields[1])), fields[2], fields[3],
+                    Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+        } else {
+            add(byPath, fields[1], fields[2], Long.parseLong(fields[3]),
+                    Long.parseLong(fields[4]));
+        }
+    }
+
+    /**
+     * Gives a path's counts.
+     *
+     * @param key the "method path" key
+     * @return {sent, received}, zero if the path sent nothing
+     */
+    public synchronized long[] getPathCounts(String key) {
+        return getCounts(byPath, key);
+    }
+
+    /**
+     * Gives a path's counts within a phase.
+     *
+     * @param phase the phase
+     * @param key   the "method path" key
+     * @return {sent, received}, zero if the path sent nothing in the phase
+     */
+    public synchronized long[] getPhasePathCounts(int phase, String key) {
+        return getCounts(byPhasePath.get(phase), key);
+    }
+
+    private static long[] getCounts(Map<String, Map<String, long[]>> byMethod, String key) {
+        int sep = key.indexOf(' ');
+        Map<String, long[]> paths = sep < 0 ? null : byMethod.get(key.substring(0, sep));
+        long[] counts = paths == null ? null : paths.get(key.substring(sep + 1));
+        return counts == null ? new long[2] : counts.clone();
+    }
+
+    public synchronized long getPhaseSent(int phase) {
+        return sentByPhase[phase];
+    }
+
+    public synchronized long getPhaseReceived(int phase) {
+        return receivedByPhase[phase];
+    }
+
+    /**
+     * Provides the bandwidth of each path as a string.
+     *
+     * @param wallTimeSecs the wall time the per-path counts cover
+     * @return one line per path, or an empty string if nothing was sent
+     */
+    public synchronized String pathsToString(double wallTimeSecs) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Map<String, long[]>> method : byPath.entrySet()) {
+            for (Map.Entry<String, long[]> path : method.getValue().entrySet()) {
+                long[] counts = path.getValue();
+                builder.append(String.format("\t%s %s: %s\n", method.getKey(), path.getKey(),
+                        rateToString(counts[0], counts[1], wallTimeSecs)));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Formats sent and received byte counts over a time as MB/s, with the totals.
+     *
+     * @param sent     bytes sent
+     * @param received bytes received
+     * @param secs     the time they were sent over
+     * @return the rates
+     */
+    static String rateToString(long sent, long received, double secs) {
+        return String.format("%.3f MB/s sent, %.3f MB/s received (%.2f MB, %.2f MB)",
+                secs > 0 ? sent / BYTES_PER_MB / secs : 0,
+                secs > 0 ? received / BYTES_PER_MB / secs : 0,
+                sent / BYTES_PER_MB, received / BYTES_PER_MB);
+    }
+}
@@ -0,0 +1,192 @@
+package statistics;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * The most a client can send, measured by calibrating it against a server that does no work, for
+ * each thread count and connection engine it was calibrated with. A run sending close to this rate
+ * is limited by the client rather than the server.
+ * <p>
+ * Saved as a properties file, one line per measurement:
+ *   - (engine).(threads).requestsPerSec
+ *   - (engine).(threads).meanLatencyMs, (engine).(threads).p99LatencyMs: the latency the client
+ *     and loopback network add on their own
+ */
+public class ClientCeiling {
+
+    public static final String POOLED = "pooled";
+    public static final String UNPOOLED = "unpooled";
+    private static final String THROUGHPUT_SUFFIX = ".requestsPerSec";
+    private static final String MEAN_SUFFIX = ".meanLatencyMs";
+    private static final String P99_SUFFIX = ".p99LatencyMs";
+
+    // engine -> threads -> {requests per second, mean latency, p99 latency}
+    private Map<String, TreeMap<Integer, double[]>> measurements = new TreeMap<>();
+
+    /**
+     * Records one calibration step.
+     *
+     * @param engine         the connection engine, POOLED or UNPOOLED
+     * @param numThreads     the number of threads sending requests
+     * @param requestsPerSec the throughput reached
+     * @param latencies      the latencies of the step's requests
+     */
+    public void record(String engine, int numThreads, double requestsPerSec,
+                       LatencyHistogram latencies) {
+        byEngine(engine).put(numThreads, new double[]{requestsPerSec, latencies.getMean(),
+                latencies.getValueAtPercentile(99)});
+    }
+
+    /**
+     * Gives the ceiling for a thread count: the measurement at the nearest calibrated count, since
+     * throughput changes slowly between neighbouring counts.
+     *
+     * @param engine     the connection engine
+     * @param numThreads the number of threads
+     * @return requests per second, or 0 if the engine was not calibrated
+     */
+    public double getRequestsPerSec(String engine, int numThreads) {
+        TreeMap<Integer, double[]> byThreads = measurements.get(engine);
+        if (byThreads == null || byThreads.isEmpty()) {
+            return 0;
+        }
+        Map.Entry<Integer, double[]> below = byThreads.floorEntry(numThreads);
+        Map.Entry<Integer, double[]> above = byThreads.ceilingEntry(numThreads);
+        if (below == null) {
+            return above.getValue()[0];
+        }
+        if (above == null || numThreads - below.getKey() <= above.getKey() - numThreads) {
+            return below.getValue()[0];
+        }
+        return above.getValue()[0];
+    }
+
+    /**
+     * Gives the highest throughput of any calibration step.
+     *
+     * @return requests per second
+     */
+    public double getPeakRequestsPerSec() {
+        double peak = 0;
+        for (TreeMap<Integer, double[]> byThreads : measurements.values()) {
+            for (double[] measurement : byThreads.values()) {
+                peak = Math.max(peak, measurement[0]);
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Checks a run's throughput against the ceiling for its thread count.
+     *
+     * @param requestsPerSec the run's throughput
+     * @param numThreads     the run's thread count
+     * @param warningPct     how close to the ceiling, in percent, a run is warned about
+     * @return a warning, or null if the run is clear of the ceiling or there is no pooled ceiling
+     */
+    public String check(double requestsPerSec, int numThreads, double warningPct) {
+        // Runs always share a connection pool
+        double ceiling = getRequestsPerSec(POOLED, numThreads);
+        if (ceiling <= 0 || requestsPerSec < ceiling * (1 - warningPct / 100)) {
+            return null;
+        }
+        return String.format("WARNING: throughput of %.2f requests/sec is %.1f%% of this client's "
+                        + "ceiling of %.2f requests/sec with %d threads. The client, not the "
+                        + "server, may be the bottleneck."
+                , requestsPerSec, 100 * requestsPerSec / ceiling, ceiling, numThreads);
+    }
+
+    /**
+     * Writes the ceiling as a properties file, overwriting any old file.
+     *
+     * @param outFilePath the output file path
+     * @throws IOException if the file cannot be written
+     */
+    public void writeToFile(String outFilePath) throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String, TreeMap<Integer, double[]>> engine : measurements.entrySet()) {
+            for (Map.Entry<Integer, double[]> step : engine.getValue().entrySet()) {
+                String prefix = engine.getKey() + "." + step.getKey();
+                double[] measurement = step.getValue();
+                props.setProperty(prefix + THROUGHPUT_SUFFIX,
+                        String.valueOf(round(measurement[0])));
+                props.setProperty(prefix + MEAN_SUFFIX, String.valueOf(round(measurement[1])));
+                props.setProperty(prefix + P99_SUFFIX, String.valueOf((long) measurement[2]));
+            }
+        }
+        try (FileOutputStream fos = new FileOutputStream(outFilePath)) {
+            props.store(fos, "Client ceiling, measured against a zero latency stub server");
+        }
+    }
+
+    /**
+     * Reads a ceiling written by writeToFile.
+     *
+     * @param filePath the ceiling file path
+     * @return the ceiling
+     * @throws IOException           if the file cannot be read
+     * @throws NumberFormatException if the file is malformed
+     */
+    public static ClientCeiling readFromFile(String filePath)
+            throws IOException, NumberFormatException {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(filePath)) {
+            props.load(fis);
+        }
+        ClientCeiling ceiling = new ClientCeiling();
+        for (String name : props.stringPropertyNames()) {
+            if (!name.endsWith(THROUGHPUT_SUFFIX)) {
+                continue;
+            }
+            String prefix = name.substring(0, name.length() - THROUGHPUT_SUFFIX.length());
+            int sep = prefix.lastIndexOf('.');
+            String engine = prefix.substring(0, sep);
+            int numThreads = Integer.parseInt(prefix.substring(sep + 1));
+            ceiling.byEngine(engine).put(numThreads, new double[]{
+                    Double.parseDouble(props.getProperty(name)),
+                    Double.parseDouble(props.getProperty(prefix + MEAN_SUFFIX, "0")),
+                    Double.parseDouble(props.getProperty(prefix + P99_SUFFIX, "0"))});
+        }
+        return ceiling;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private TreeMap<Integer, double[]> byEngine(String engine) {
+        TreeMap<Integer, double[]> byThreads = measurements.get(engine);
+        if (byThreads == null) {
+            byThreads = new TreeMap<>();
+            measurements.put(engine, byThreads);
+        }
+        return byThreads;
+    }
+
+    /**
+     * Provides a table of every calibration step as a string.
+     *
+     * @return the ceiling
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-10s %8s %16s %18s %18s\n",
+                "Engine", "Threads", "Requests/sec", "Mean Latency (ms)", "p99 Latency (ms)"));
+        for (Map.Entry<String, TreeMap<Integer, double[]>> engine : measurements.entrySet()) {
+            for (Map.Entry<Integer, double[]> step : engine.getValue().entrySet()) {
+                double[] measurement = step.getValue();
+                builder.append(String.format("%-10s %8d %16.2f %18.2f %18.0f\n",
+                        engine.getKey(), step.getKey(), measurement[0], measurement[1],
+                        measurement[2]));
+            }
+        }
+        builder.append(String.format("Peak: %.2f requests/sec\n", getPeakRequestsPerSec()));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,430 @@
+package statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the client's own JVM during a run, so that a latency spike can be told apart from the
+ * client pausing or running out of CPU. Every interval it records:
+ *   - GC: the time spent in and the number of collections. Collectors that run alongside the
+ *     application count their concurrent time too, so this is an upper bound on pauses.
+ *   - CPU: the process's CPU time, as a percentage of all cores
+ *   - allocation: bytes allocated by live threads, per second. A thread that ended during the
+ *     interval is missed, so this is a lower bound.
+ *   - threads: live threads
+ *   - heap: used and max heap, after the interval
+ * <p>
+ * The latencies of the requests started in each interval are recorded next to the samples. An
+ * interval is flagged as client bound when the client was under pressure (GC for at least
+ * GC_BOUND_PCT of it, CPU of at least CPU_BOUND_PCT, or heap of at least HEAP_BOUND_PCT) while its
+ * mean latency was at least SLOW_FACTOR times the run's.
+ */
+public class ClientMonitor {
+
+    static final double GC_BOUND_PCT = 10;
+    static final double CPU_BOUND_PCT = 90;
+    static final double HEAP_BOUND_PCT = 90;
+    static final double SLOW_FACTOR = 1.5;
+    private static final int MAX_REPORTED_INTERVALS = 20;
+
+    private final long intervalMillis;
+    private final List<Sample> samples = new ArrayList<>();
+    private final Map<Long, Long> allocatedByThread = new HashMap<>();
+    private final List<GarbageCollectorMXBean> collectors =
+            ManagementFactory.getGarbageCollectorMXBeans();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final int numProcessors = Runtime.getRuntime().availableProcessors();
+    private ScheduledExecutorService sampler;
+    private long start;
+    private long lastGcMillis;
+    private long lastGcCount;
+    private long lastCpuNanos;
+    private long lastSampleNanos;
+
+    // Per interval, by request start time: requests, summed and max latency
+    private long[] requests = new long[0];
+    private long[] latencySums = new long[0];
+    private long[] latencyMaxes = new long[0];
+
+    /**
+     * A sample of the JVM, covering one interval.
+     */
+    private static class Sample {
+        // Time that actually passed since the last sample, as a sample can run late
+        double elapsedMillis;
+        long gcMillis;
+        long gcCount;
+        double cpuPct;
+        double allocatedMbPerSec;
+        int liveThreads;
+        double heapUsedMb;
+        double heapMaxMb;
+    }
+
+    /**
+     * Constructor for a ClientMonitor.
+     *
+     * @param intervalSecs seconds between samples
+     */
+    public ClientMonitor(int intervalSecs) {
+        this.intervalMillis = intervalSecs * BulkRequestStatistics.MILLISECS_PER_SEC;
+    }
+
+    /**
+     * Starts sampling every interval, in a daemon thread.
+     */
+    public void start() {
+        start = System.currentTimeMillis();
+        lastGcMillis = totalGcMillis();
+        lastGcCount = totalGcCount();
+        lastCpuNanos = processCpuNanos();
+        allocatedSince();
+        lastSampleNanos = System.nanoTime();
+
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling. The interval in progress is not sampled, as it is only partly over.
+     */
+    public void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+    }
+
+    /**
+     * Records the latencies of a chunk of requests against the intervals they started in. Called by
+     * the CSV writer thread.
+     *
+     * @param chunk the requests
+     */
+    public synchronized void recordAll(SingleRequestStatistics[] chunk) {
+        for (SingleRequestStatistics stats : chunk) {
+            long interval = (stats.getStartTime() - start) / intervalMillis;
+            if (interval < 0) {
+                continue;
+            }
+            ensureIntervals((int) interval + 1);
+            requests[(int) interval]++;
+            latencySums[(int) interval] += stats.getLatency();
+            latencyMaxes[(int) interval] = Math.max(latencyMaxes[(int) interval],
+                    stats.getLatency());
+        }
+    }
+
+    /**
+     * Takes one sample, of the interval since the last. Rates are over the time that actually
+     * passed, as a sample delayed by a pause, and the ones run to catch up, cover more or less than
+     * one interval.
+     */
+    private void sample() {
+        Sample sample = new Sample();
+        long sampleNanos = System.nanoTime();
+        sample.elapsedMillis = Math.max(sampleNanos - lastSampleNanos, 1) / 1e6;
+        long gcMillis = totalGcMillis();
+        long gcCount = totalGcCount();
+        long cpuNanos = processCpuNanos();
+        sample.gcMillis = gcMillis - lastGcMillis;
+        sample.gcCount = gcCount - lastGcCount;
+        sample.cpuPct = cpuNanos < 0 ? 0
+                : 100.0 * (cpuNanos - lastCpuNanos) / (sample.elapsedMillis * 1e6 * numProcessors);
+        sample.allocatedMbPerSec = allocatedSince() / ByteCounts.BYTES_PER_MB
+                / (sample.elapsedMillis / BulkRequestStatistics.MILLISECS_PER_SEC);
+        sample.liveThreads = threads.getThreadCount();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        sample.heapUsedMb = heap.getUsed() / ByteCounts.BYTES_PER_MB;
+        sample.heapMaxMb = heap.getMax() / ByteCounts.BYTES_PER_MB;
+        lastGcMillis = gcMillis;
+        lastGcCount = gcCount;
+        lastCpuNanos = cpuNanos;
+        lastSampleNanos = sampleNanos;
+
+        synchronized (this) {
+            samples.add(sample);
+        }
+    }
+
+    private long totalGcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(collector.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    private long totalGcCount() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += Math.max(collector.getCollectionCount(), 0);
+        }
+        return total;
+    }
+
+    /**
+     * Gives the process's CPU time, where the JVM provides it.
+     *
+     * @return nanoseconds, or -1 if not provided
+     */
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    /**
+     * Gives the bytes live threads have allocated since the last call, where the JVM provides it.
+     *
+     * @return bytes, or 0 if not provided
+     */
+    private long allocatedSince() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported()
+                || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return 0;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] allocated = allocations.getThreadAllocatedBytes(ids);
+        Map<Long, Long> lastByThread = new HashMap<>(allocatedByThread);
+        allocatedByThread.clear();
+        long total = 0;
+        for (int i = 0; i < ids.length; i++) {
+            // Ended threads give -1
+            if (allocated[i] < 0) {
+                continue;
+            }
+            Long last = lastByThread.get(ids[i]);
+            total += allocated[i] - (last == null ? 0 : last);
+            allocatedByThread.put(ids[i], allocated[i]);
+        }
+        return total;
+    }
+
+    private void ensureIntervals(int numIntervals) {
+        if (numIntervals <= requests.length) {
+            return;
+        }
+        int length = Math.max(numIntervals, requests.length * 2);
+        requests = Arrays.copyOf(requests, length);
+        latencySums = Arrays.copyOf(latencySums, length);
+        latencyMaxes = Arrays.copyOf(latencyMaxes, length);
+    }
+
+    private double getMeanLatency(int interval) {
+        if (interval >= requests.length || requests[interval] == 0) {
+            return 0;
+        }
+        return (double) latencySums[interval] / requests[interval];
+    }
+
+    private double getRunMeanLatency() {
+        long count = 0;
+        long sum = 0;
+        for (int i = 0; i < requests.length; i++) {
+            count += requests[i];
+            sum += latencySums[i];
+        }
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Gives why the client was under pressure during an interval.
+     *
+     * @return the reasons, or an empty string if it was not
+     */
+    private String pressureOf(Sample sample) {
+        List<String> reasons = new ArrayList<>();
+        if (100.0 * sample.gcMillis / sample.elapsedMillis >= GC_BOUND_PCT) {
+            reasons.add("GC " + sample.gcMillis + " ms");
+        }
+        if (sample.cpuPct >= CPU_BOUND_PCT) {
+            reasons.add(String.format("CPU %.0f%%", sample.cpuPct));
+        }
+        if (sample.heapMaxMb > 0 && 100 * sample.heapUsedMb / sample.heapMaxMb >= HEAP_BOUND_PCT) {
+            reasons.add(String.format("heap %.0f of %.0f MB", sample.heapUsedMb, sample.heapMaxMb));
+        }
+        return String.join(", ", reasons);
+    }
+
+    /**
+     * Checks whether the client was the likely bottleneck during an interval.
+     */
+    private boolean isClientBound(int interval, double runMeanLatency) {
+        Sample sample = samples.get(interval);
+        return !pressureOf(sample).isEmpty()
+                && getMeanLatency(interval) >= SLOW_FACTOR * runMeanLatency
+                && runMeanLatency > 0;
+    }
+
+    private List<Integer> getClientBoundIntervals(double runMeanLatency) {
+        List<Integer> bound = new ArrayList<>();
+        for (int i = 0; i < samples.size(); i++) {
+            if (isClientBound(i, runMeanLatency)) {
+                bound.add(i);
+            }
+        }
+        return bound;
+    }
+
+    private Sample sumSamples() {
+        Sample total = new Sample();
+        for (Sample sample : samples) {
+            total.gcMillis += sample.gcMillis;
+            total.gcCount += sample.gcCount;
+            total.cpuPct += sample.cpuPct;
+            total.allocatedMbPerSec += sample.allocatedMbPerSec;
+        }
+        return total;
+    }
+
+    private Sample peakSamples() {
+        Sample peak = new Sample();
+        for (Sample sample : samples) {
+            peak.gcMillis = Math.max(peak.gcMillis, sample.gcMillis);
+            peak.cpuPct = Math.max(peak.cpuPct, sample.cpuPct);
+            peak.allocatedMbPerSec = Math.max(peak.allocatedMbPerSec, sample.allocatedMbPerSec);
+            peak.liveThreads = Math.max(peak.liveThreads, sample.liveThreads);
+            peak.heapUsedMb = Math.max(peak.heapUsedMb, sample.heapUsedMb);
+        }
+        return peak;
+    }
+
+    /**
+     * Provides the numbers of toString() as a map, for the JSON summary. Client bound intervals are
+     * given by their start, in seconds into the run.
+     *
+     * @return the summary
+     */
+    synchronized Map<String, Object> toSummaryMap() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("samples", samples.size());
+        if (samples.isEmpty()) {
+            return summary;
+        }
+        Sample total = sumSamples();
+        Sample peak = peakSamples();
+        summary.put("gcMs", total.gcMillis);
+        summary.put("gcCount", total.gcCount);
+        summary.put("maxGcMsPerInterval", peak.gcMillis);
+        summary.put("meanCpuPct", total.cpuPct / samples.size());
+        summary.put("peakCpuPct", peak.cpuPct);
+        summary.put("cores", numProcessors);
+        summary.put("meanAllocationMbPerSec", total.allocatedMbPerSec / samples.size());
+        summary.put("peakAllocationMbPerSec", peak.allocatedMbPerSec);
+        summary.put("peakLiveThreads", peak.liveThreads);
+        summary.put("peakHeapUsedMb", peak.heapUsedMb);
+        summary.put("heapMaxMb", samples.get(samples.size() - 1).heapMaxMb);
+        List<Long> boundSecs = new ArrayList<>();
+        for (int interval : getClientBoundIntervals(getRunMeanLatency())) {
+            boundSecs.add(interval * intervalMillis / BulkRequestStatistics.MILLISECS_PER_SEC);
+        }
+        summary.put("clientBoundIntervalSecs", boundSecs);
+        return summary;
+    }
+
+    /**
+     * Writes every interval's sample and latencies to a CSV file, overwriting any old file.
+     *
+     * @param outFilePath the output file path
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void writeToFile(String outFilePath) throws IOException {
+        double runMeanLatency = getRunMeanLatency();
+        try (PrintWriter writer = new PrintWriter(new File(outFilePath), "UTF-8")) {
+            writer.println("IntervalStart(ms),GcTime(ms),GcCount,ProcessCpu(%),Allocation(MB/s),"
+                    + "LiveThreads,HeapUsed(MB),HeapMax(MB),Requests,MeanLatency(ms),"
+                    + "MaxLatency(ms),ClientBound");
+            for (int i = 0; i < samples.size(); i++) {
+                Sample sample = samples.get(i);
+                writer.println((start + i * intervalMillis)
+                        + "," + sample.gcMillis
+                        + "," + sample.gcCount
+                        + "," + round(sample.cpuPct)
+                        + "," + round(sample.allocatedMbPerSec)
+                        + "," + sample.liveThreads
+                        + "," + round(sample.heapUsedMb)
+                        + "," + round(sample.heapMaxMb)
+                        + "," + (i < requests.length ? requests[i] : 0)
+                        + "," + round(getMeanLatency(i))
+                        + "," + (i < latencyMaxes.length ? latencyMaxes[i] : 0)
+                        + "," + isClientBound(i, runMeanLatency));
+            }
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    /**
+     * Provides a summary of the samples, and the intervals where the client was the likely
+     * bottleneck, as a string.
+     *
+     * @return the summary
+     */
+    @Override
+    public synchronized String toString() {
+        if (samples.isEmpty()) {
+            return "No samples, the run was shorter than one interval\n";
+        }
+        Sample total = sumSamples();
+        Sample peak = peakSamples();
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("GC: %d ms in %d collections, at most %d ms per %d s "
+                        + "interval\n", total.gcMillis, total.gcCount, peak.gcMillis,
+                intervalMillis / BulkRequestStatistics.MILLISECS_PER_SEC));
+        builder.append(String.format("Process CPU: mean %.1f%%, peak %.1f%% of %d cores\n",
+                total.cpuPct / samples.size(), peak.cpuPct, numProcessors));
+        builder.append(String.format("Allocation: mean %.2f MB/s, peak %.2f MB/s\n",
+                total.allocatedMbPerSec / samples.size(), peak.allocatedMbPerSec));
+        builder.append(String.format("Live Threads: peak %d\n", peak.liveThreads));
+        builder.append(String.format("Heap Used: peak %.0f of %.0f MB\n", peak.heapUsedMb,
+                samples.get(samples.size() - 1).heapMaxMb));
+
+        double runMeanLatency = getRunMeanLatency();
+        List<Integer> bound = getClientBoundIntervals(runMeanLatency);
+        if (bound.isEmpty()) {
+            builder.append("Client Bound Intervals: none\n");
+            return builder.toString();
+        }
+        builder.append(String.format("Client Bound Intervals: %d of %d, where latency was at "
+                + "least %.1fx the mean of %.2f ms\n", bound.size(), samples.size(), SLOW_FACTOR,
+                runMeanLatency));
+        for (int i = 0; i < Math.min(bound.size(), MAX_REPORTED_INTERVALS); i++) {
+            int interval = bound.get(i);
+            builder.append(String.format("\t+%d s: mean latency %.2f ms, %s\n",
+                    interval * intervalMillis / BulkRequestStatistics.MILLISECS_PER_SEC,
+                    getMeanLatency(interval), pressureOf(samples.get(interval))));
+        }
+        if (bound.size() > MAX_REPORTED_INTERVALS) {
+            builder.append("\t... and " + (bound.size() - MAX_REPORTED_INTERVALS) + " more\n");
+        }
+        return builder.toString();
+    }
+}
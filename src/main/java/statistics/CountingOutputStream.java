@@ -0,0 +1,39 @@
+package statistics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through it, so a writer on top can learn its offset in the file by
+ * flushing rather than by encoding every line a second time.
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Gives the number of bytes written so far. Writers buffer, so flush them first.
+     *
+     * @return the byte count
+     */
+    long getCount() {
+        return count;
+    }
+}
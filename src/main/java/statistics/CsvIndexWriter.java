@@ -0,0 +1,220 @@
+package statistics;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Writes a sparse time index alongside the request CSV so that time windows of a large result file
+ * can be queried without scanning it.
+ * <p>
+ * The CSV is split into blocks of BLOCK_ROWS rows. For each block, the ".blocks" file holds one line
+ * with the block's byte range in the CSV, its start timestamp range and the byte range of its entries
+ * in the ".idx" file. Each entry is a latency histogram of one path's requests that started within
+ * one BUCKET_MS time bucket of the block. Lines of the blocks file are zero padded to the same
+ * length, so a block's line is found by seeking, and each is flushed after its entries, so the
+ * index of a crashed or still running run covers every block with a whole line.
+ * <p>
+ * Rows are written as requests finish rather than as they start, so a block's start timestamps can
+ * span far more than its neighbours': one slow request is enough. Queries therefore find blocks by
+ * time bucket rather than by a block's range: the ".buckets" file holds one line per time bucket,
+ * in time order, with the numbers of the blocks that have rows in it, so a query can binary search
+ * it. It is written when the CSV is closed; until then, queries fall back to the blocks' ranges.
+ * The ".start" file, written alongside it, holds the run's first request start timestamp, so
+ * queries relative to the run start need not read every block's line to find it.
+ */
+class CsvIndexWriter {
+
+    static final String BLOCKS_SUFFIX = ".blocks";
+    static final String INDEX_SUFFIX = ".idx";
+    static final String BUCKETS_SUFFIX = ".buckets";
+    static final String START_SUFFIX = ".start";
+    static final int BLOCK_ROWS = 8192;
+    static final long BUCKET_MS = 1000;
+    static final String SEP = ",";
+
+    // Columns of the blocks file, each as many digits as Long.MAX_VALUE and followed by a
+    // separator or the newline
+    static final int BLOCK_NUM_COLS = 7;
+    static final int BLOCK_COL_WIDTH = 19;
+    static final int BLOCK_LINE_BYTES = BLOCK_NUM_COLS * (BLOCK_COL_WIDTH + 1);
+
+    static final int BLOCK_COL_CSV_OFFSET = 0;
+    static final int BLOCK_COL_CSV_LENGTH = 1;
+    static final int BLOCK_COL_MIN_START = 3;
+    static final int BLOCK_COL_MAX_START = 4;
+    static final int BLOCK_COL_IDX_OFFSET = 5;
+    static final int BLOCK_COL_IDX_LENGTH = 6;
+
+    private String csvPathStr;
+    private PrintWriter blockWriter;
+    private PrintWriter entryWriter;
+    private CountingOutputStream entryBytes;
+    private int numBlocks;
+    // Time bucket -> numbers of the blocks with rows in it
+    private Map<Long, List<Integer>> bucketBlocks = new TreeMap<>();
+    private long runMinStart = Long.MAX_VALUE;
+
+    // Stores "bucket,method path" -> histogram for the current block. Sorted so entries are written
+    // in bucket order (timestamps have the same number of digits) and queries can stop early.
+    private Map<String, LatencyHistogram> blockHistograms = new TreeMap<>();
+    private Set<Long> blockBuckets = new TreeSet<>();
+    private long blockOffset;
+    private int blockRows;
+    private long blockMinStart;
+    private long blockMaxStart;
+
+    /**
+     * Creates the index files for a CSV, overwriting any old ones.
+     *
+     * @param csvPathStr     path of the CSV being indexed
+     * @param firstRowOffset byte offset of the CSV's first row, after its headers
+     * @throws IOException if the index files cannot be created
+     */
+    CsvIndexWriter(String csvPathStr, long firstRowOffset) throws IOException {
+        this.csvPathStr = csvPathStr;
+        this.blockOffset = firstRowOffset;
+        this.blockWriter = new PrintWriter(Files.newBufferedWriter(
+                Paths.get(csvPathStr + BLOCKS_SUFFIX), StandardCharsets.UTF_8));
+        this.entryBytes = new CountingOutputStream(
+                new FileOutputStream(csvPathStr + INDEX_SUFFIX));
+        this.entryWriter = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(entryBytes, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Adds one CSV row to the index. The rows of a block must be contiguous in the CSV.
+     *
+     * @param key       the "method path" key of the row
+     * @param startTime the request start timestamp
+     * @param latency   the request latency
+     */
+    void record(String key, long startTime, long latency) {
+        if (blockRows == 0) {
+            blockMinStart = startTime;
+            blockMaxStart = startTime;
+        }
+        blockRows++;
+        blockMinStart = Math.min(blockMinStart, startTime);
+        blockMaxStart = Math.max(blockMaxStart, startTime);
+        runMinStart = Math.min(runMinStart, startTime);
+
+        long bucket = bucketOf(startTime);
+        blockBuckets.add(bucket);
+        String entryKey = bucket + SEP + key;
+        LatencyHistogram histogram = blockHistograms.get(entryKey);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            blockHistograms.put(entryKey, histogram);
+        }
+        histogram.record(latency);
+    }
+
+    /**
+     * Checks whether the current block has all its rows, and should be flushed.
+     *
+     * @return true if the block is full
+     */
+    boolean isBlockFull() {
+        return blockRows >= BLOCK_ROWS;
+    }
+
+    /**
+     * Writes any partial block, the bucket list and the run start, and closes the index files.
+     *
+     * @param csvOffset byte offset in the CSV just past its last row
+     * @throws IOException if the bucket list or run start cannot be written
+     */
+    void close(long csvOffset) throws IOException {
+        if (blockRows > 0) {
+            flushBlock(csvOffset);
+        }
+        blockWriter.close();
+        entryWriter.close();
+        try (PrintWriter bucketWriter = new PrintWriter(Files.newBufferedWriter(
+                Paths.get(csvPathStr + BUCKETS_SUFFIX), StandardCharsets.UTF_8))) {
+            for (Map.Entry<Long, List<Integer>> entry : bucketBlocks.entrySet()) {
+                StringBuilder line = new StringBuilder().append(entry.getKey());
+                for (int block : entry.getValue()) {
+                    line.append(SEP).append(block);
+                }
+                bucketWriter.println(line);
+            }
+        }
+        if (runMinStart != Long.MAX_VALUE) {
+            try (PrintWriter startWriter = new PrintWriter(Files.newBufferedWriter(
+                    Paths.get(csvPathStr + START_SUFFIX), StandardCharsets.UTF_8))) {
+                startWriter.println(runMinStart);
+            }
+        }
+    }
+
+    /**
+     * Gives the start of the time bucket a timestamp belongs to.
+     *
+     * @param timestamp a unix timestamp in milliseconds
+     * @return the bucket start
+     */
+    static long bucketOf(long timestamp) {
+        return Math.floorDiv(timestamp, BUCKET_MS) * BUCKET_MS;
+    }
+
+    /**
+     * Writes the current block's entries and its line in the blocks file, then starts a new block
+     * where this one ends.
+     *
+     * @param csvOffset byte offset in the CSV just past the block's last row
+     */
+    void flushBlock(long csvOffset) {
+        entryWriter.flush();
+        long entryOffset = entryBytes.getCount();
+        for (Map.Entry<String, LatencyHistogram> entry : blockHistograms.entrySet()) {
+            entryWriter.println(entry.getKey() + SEP + entry.getValue().toCompactString());
+        }
+        entryWriter.flush();
+
+        long[] data = new long[]{
+                blockOffset,
+                csvOffset - blockOffset,
+                blockRows,
+                blockMinStart,
+                blockMaxStart,
+                entryOffset,
+                entryBytes.getCount() - entryOffset
+        };
+        StringBuilder line = new StringBuilder(BLOCK_LINE_BYTES);
+        for (long value : data) {
+            if (line.length() > 0) {
+                line.append(SEP);
+            }
+            String digits = String.valueOf(value);
+            for (int i = digits.length(); i < BLOCK_COL_WIDTH; i++) {
+                line.append('0');
+            }
+            line.append(digits);
+        }
+        // Not println, whose line separator could make lines longer
+        blockWriter.print(line.append('\n'));
+        blockWriter.flush();
+        for (long bucket : blockBuckets) {
+            bucketBlocks.computeIfAbsent(bucket, b -> new ArrayList<>()).add(numBlocks);
+        }
+        numBlocks++;
+
+        blockHistograms.clear();
+        blockBuckets.clear();
+        blockOffset = csvOffset;
+        blockRows = 0;
+    }
+}
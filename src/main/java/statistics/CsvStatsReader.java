@@ -2,11 +2,16 @@ package statistics;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Provides methods to calculate statistics from the CSV request file created during client
@@ -14,18 +19,78 @@ import java.util.Map;
  */
 public class CsvStatsReader {
 
+    // Phase recorded for CSVs written before requests were tagged with a phase
+    public static final int UNKNOWN_PHASE = 0;
+    // Used as the excluded phase when every phase should be read
+    public static final int NO_EXCLUDED_PHASE = -1;
+    private static final String PHASE_KEY_SEP = "|";
+    private static final String PARTITION_KEY_SEP = "|";
+
     // For CSV splitting in calculation methods
     private final int csvColIndexMethod = 0;
     private final int csvColIndexPath = 1;
     private final int csvColIndexTimestamp = 2;
     private final int csvColIndexLatency = 3;
     private final int csvColIndexCode = 4;
+    private final int csvColIndexPhase = 5;
+    private final int csvColIndexSkier = 6;
+    private final int csvColIndexLift = 7;
+    private final int csvColIndexResort = 9;
+    private final int csvColIndexDay = 10;
     private final String SEP = ",";
 
     private Path filePath;
+    private boolean keyByPhase;
+    private int excludedPhase;
 
     public CsvStatsReader(String csvPathStr) {
+        this(csvPathStr, false, NO_EXCLUDED_PHASE);
+    }
+
+    /**
+     * Creates a reader that can group results by phase and/or ignore one phase entirely.
+     *
+     * @param csvPathStr    path to the CSV file
+     * @param keyByPhase    if true, result keys are built with phaseKey so each phase is separate
+     * @param excludedPhase a phase whose requests are skipped, or NO_EXCLUDED_PHASE
+     */
+    public CsvStatsReader(String csvPathStr, boolean keyByPhase, int excludedPhase) {
         this.filePath = Paths.get(csvPathStr);
+        this.keyByPhase = keyByPhase;
+        this.excludedPhase = excludedPhase;
+    }
+
+    /**
+     * Builds the key used for a "method path" key when results are grouped by phase.
+     *
+     * @param phase the phase number
+     * @param key   a "method path" key
+     * @return the phase specific key
+     */
+    public static String phaseKey(int phase, String key) {
+        return phase + PHASE_KEY_SEP + key;
+    }
+
+    /**
+     * Builds the key used for a resort and day partition.
+     *
+     * @param resort the resort, or SingleRequestStatistics.NO_RESORT
+     * @param day    the day, or SingleRequestStatistics.NO_KEY
+     * @return the partition key
+     */
+    public static String partitionKey(String resort, int day) {
+        return resort + PARTITION_KEY_SEP + day;
+    }
+
+    /**
+     * Splits a partition key into its resort and day.
+     *
+     * @param key a key built with partitionKey
+     * @return [resort, day]
+     */
+    public static String[] splitPartitionKey(String key) {
+        int split = key.lastIndexOf(PARTITION_KEY_SEP);
+        return new String[]{key.substring(0, split), key.substring(split + 1)};
     }
 
     /**
@@ -42,6 +107,10 @@ public class CsvStatsReader {
         while (line != null) {
             // Get vals from line
             String[] cols = line.split(SEP);
+            if (isExcluded(cols)) {
+                line = reader.readLine();
+                continue;
+            }
             String key = makeKey(cols);
             long nextLatency = Long.parseLong(getLatency(cols));
 
@@ -86,6 +155,10 @@ public class CsvStatsReader {
         while (line != null) {
             // Parse data
             String[] cols = line.split(SEP);
+            if (isExcluded(cols)) {
+                line = reader.readLine();
+                continue;
+            }
             String key = makeKey(cols);
             int latency = Integer.parseInt(getLatency(cols));
 
@@ -139,6 +212,375 @@ public class CsvStatsReader {
         return pathsToP99;
     }
 
+    /**
+     * Builds a mergeable histogram summary of every request path from a CSV. Works on CSVs from
+     * older runs as well, so they can be compared against new ones.
+     */
+    public RunSummary calculateRunSummary() throws IOException, NumberFormatException {
+        RunSummary summary = new RunSummary();
+
+        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+            String line = reader.readLine(); // Ignore column headers
+            line = reader.readLine();
+            while (line != null) {
+                // Parse data
+                String[] cols = line.split(SEP);
+                if (isExcluded(cols)) {
+                    line = reader.readLine();
+                    continue;
+                }
+                String key = makeKey(cols);
+                long start = Long.parseLong(cols[csvColIndexTimestamp]);
+                long latency = Long.parseLong(getLatency(cols));
+
+                summary.record(key, start, latency);
+                line = reader.readLine();
+            }
+        }
+
+        return summary;
+    }
+
+    /**
+     * Builds a histogram summary of every resort and day partition from a CSV, keyed with
+     * partitionKey. Rows without a resort or day, including all rows of older CSVs, are skipped.
+     */
+    public RunSummary calculatePartitionSummary() throws IOException, NumberFormatException {
+        RunSummary summary = new RunSummary();
+
+        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+            String line = reader.readLine(); // Ignore column headers
+            line = reader.readLine();
+            while (line != null) {
+                // Parse data
+                String[] cols = line.split(SEP);
+                if (isExcluded(cols) || cols.length <= csvColIndexDay) {
+                    line = reader.readLine();
+                    continue;
+                }
+                String resort = cols[csvColIndexResort];
+                int day = Integer.parseInt(cols[csvColIndexDay]);
+                if (!resort.equals(SingleRequestStatistics.NO_RESORT)
+                        || day != SingleRequestStatistics.NO_KEY) {
+                    long start = Long.parseLong(cols[csvColIndexTimestamp]);
+                    long latency = Long.parseLong(getLatency(cols));
+                    summary.record(partitionKey(resort, day), start, latency);
+                }
+                line = reader.readLine();
+            }
+        }
+
+        return summary;
+    }
+
+    /**
+     * Ranks the skier and lift IDs whose requests most often land in the latency tail, and builds a
+     * latency heatmap by skier ID range. Rows from CSVs without request keys are skipped.
+     *
+     * @param tailThresholdByPath "method path" -> latency at which a request counts as a tail request
+     * @param startTimestamp      start of the run, for the heatmap minutes
+     */
+    public HotKeyAnalysis calculateHotKeys(Map<String, Integer> tailThresholdByPath,
+                                           long startTimestamp)
+            throws IOException, NumberFormatException {
+        HotKeyAnalysis analysis = new HotKeyAnalysis(startTimestamp);
+
+        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+            String line = reader.readLine(); // Ignore column headers
+            line = reader.readLine();
+            while (line != null) {
+                // Parse data
+                String[] cols = line.split(SEP);
+                if (isExcluded(cols) || cols.length <= csvColIndexLift) {
+                    line = reader.readLine();
+                    continue;
+                }
+                String key = makeKey(cols);
+                long latency = Long.parseLong(getLatency(cols));
+                Integer threshold = tailThresholdByPath.get(key);
+                boolean isTail = threshold != null && latency >= threshold;
+
+                analysis.record(
+                        Integer.parseInt(cols[csvColIndexSkier]),
+                        Integer.parseInt(cols[csvColIndexLift]),
+                        Long.parseLong(cols[csvColIndexTimestamp]),
+                        latency,
+                        isTail);
+                line = reader.readLine();
+            }
+        }
+
+        return analysis;
+    }
+
+    /**
+     * Calculates latency histograms for the requests that started within a time window, using the
+     * time index written next to the CSV. Only blocks with rows in the window's time buckets are
+     * touched: their pre-aggregated histograms cover whole time buckets, and CSV rows are only
+     * re-read for the buckets cut by the window edges. Blocks are found by binary searching the
+     * index's bucket list, or, for a run still being written or that crashed, from the blocks'
+     * start timestamp ranges.
+     *
+     * @param fromTimestamp window start (inclusive), unix time in milliseconds
+     * @param toTimestamp   window end (exclusive), unix time in milliseconds
+     * @param pathKey       a "method path" key to restrict the query to, or null for every path
+     * @return "method path" -> histogram of the requests started in the window
+     */
+    public Map<String, LatencyHistogram> queryTimeWindow(
+            long fromTimestamp, long toTimestamp, String pathKey)
+            throws IOException, NumberFormatException {
+        Map<String, LatencyHistogram> result = new TreeMap<>();
+        String csvPathStr = filePath.toString();
+
+        try (RandomAccessFile blocks = new RandomAccessFile(
+                csvPathStr + CsvIndexWriter.BLOCKS_SUFFIX, "r");
+             RandomAccessFile entries = new RandomAccessFile(
+                     csvPathStr + CsvIndexWriter.INDEX_SUFFIX, "r");
+             RandomAccessFile csv = new RandomAccessFile(csvPathStr, "r")) {
+            Path bucketsPath = Paths.get(csvPathStr + CsvIndexWriter.BUCKETS_SUFFIX);
+            Set<Integer> found = Files.exists(bucketsPath)
+                    ? findBlocks(bucketsPath, fromTimestamp, toTimestamp)
+                    : findBlocksByRange(blocks, fromTimestamp, toTimestamp);
+            for (int block : found) {
+                long[] cols = readBlock(blocks, block);
+                String[] entryLines = readLines(entries,
+                        cols[CsvIndexWriter.BLOCK_COL_IDX_OFFSET],
+                        cols[CsvIndexWriter.BLOCK_COL_IDX_LENGTH]);
+                boolean edgeBucketFound = mergeIndexEntries(
+                        entryLines, fromTimestamp, toTimestamp, pathKey, result);
+
+                // Only buckets cut by the window edges need the raw rows
+                if (edgeBucketFound) {
+                    String[] rows = readLines(csv,
+                            cols[CsvIndexWriter.BLOCK_COL_CSV_OFFSET],
+                            cols[CsvIndexWriter.BLOCK_COL_CSV_LENGTH]);
+                    mergeEdgeRows(rows, fromTimestamp, toTimestamp, pathKey, result);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the blocks with rows in a time window's buckets, from the index's bucket list. Its
+     * lines are "bucket,block,block...", sorted by bucket, so the first bucket ending after the
+     * window start is binary searched for, and lines are read from there to the window end.
+     *
+     * @return the block numbers, in file order
+     */
+    private Set<Integer> findBlocks(Path bucketsPath, long fromTimestamp, long toTimestamp)
+            throws IOException, NumberFormatException {
+        Set<Integer> blocks = new TreeSet<>();
+        try (RandomAccessFile buckets = new RandomAccessFile(bucketsPath.toFile(), "r")) {
+            // Smallest position whose next line starts at a bucket ending after the window start
+            long low = 0;
+            long high = buckets.length();
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                String line = readLineFrom(buckets, mid);
+                if (line == null || bucketOf(line) + CsvIndexWriter.BUCKET_MS > fromTimestamp) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+
+            String line = readLineFrom(buckets, low);
+            while (line != null) {
+                String[] cols = line.split(SEP);
+                if (Long.parseLong(cols[0]) >= toTimestamp) {
+                    break;
+                }
+                for (int i = 1; i < cols.length; i++) {
+                    blocks.add(Integer.parseInt(cols[i]));
+                }
+                line = buckets.readLine();
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Reads the first whole line starting at or after a position of a file.
+     *
+     * @return the line, or null if none starts there
+     */
+    private String readLineFrom(RandomAccessFile file, long position) throws IOException {
+        if (position == 0) {
+            file.seek(0);
+        } else {
+            // Skip the rest of the line the position is in, unless it is at a line start
+            file.seek(position - 1);
+            if (file.read() != '\n') {
+                file.readLine();
+            }
+        }
+        return file.readLine();
+    }
+
+    private long bucketOf(String bucketLine) {
+        int end = bucketLine.indexOf(SEP);
+        return Long.parseLong(end < 0 ? bucketLine : bucketLine.substring(0, end));
+    }
+
+    /**
+     * Finds the blocks whose start timestamp range overlaps a time window, for an index without a
+     * bucket list yet. Ranges can be wide, so more blocks than needed may be read, but none with
+     * rows in the window is missed.
+     *
+     * @return the block numbers, in file order
+     */
+    private Set<Integer> findBlocksByRange(RandomAccessFile blocks, long fromTimestamp,
+                                           long toTimestamp) throws IOException {
+        Set<Integer> found = new TreeSet<>();
+        int numBlocks = countBlocks(blocks);
+        for (int block = 0; block < numBlocks; block++) {
+            long[] cols = readBlock(blocks, block);
+            if (cols[CsvIndexWriter.BLOCK_COL_MIN_START] < toTimestamp
+                    && cols[CsvIndexWriter.BLOCK_COL_MAX_START] >= fromTimestamp) {
+                found.add(block);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Counts the blocks with a whole line in the blocks file. A run that crashed may have left a
+     * part of a line at the end.
+     */
+    private int countBlocks(RandomAccessFile blocks) throws IOException {
+        return (int) (blocks.length() / CsvIndexWriter.BLOCK_LINE_BYTES);
+    }
+
+    /**
+     * Reads a block's line of the blocks file, whose lines all have the same length.
+     *
+     * @return the block's columns
+     */
+    private long[] readBlock(RandomAccessFile blocks, int block) throws IOException {
+        byte[] bytes = new byte[CsvIndexWriter.BLOCK_LINE_BYTES - 1];
+        blocks.seek((long) block * CsvIndexWriter.BLOCK_LINE_BYTES);
+        blocks.readFully(bytes);
+        String[] fields = new String(bytes, StandardCharsets.UTF_8).split(SEP);
+        long[] cols = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            cols[i] = Long.parseLong(fields[i]);
+        }
+        return cols;
+    }
+
+    /**
+     * Finds the run's first request start timestamp. It is read from the index's run start file,
+     * or, for a run still being written or that crashed, from every block's start timestamp range.
+     *
+     * @return the first start timestamp, or Long.MAX_VALUE if nothing has been indexed
+     */
+    public long getIndexedRunStart() throws IOException, NumberFormatException {
+        Path startPath = Paths.get(filePath.toString() + CsvIndexWriter.START_SUFFIX);
+        if (Files.exists(startPath)) {
+            return Long.parseLong(new String(Files.readAllBytes(startPath),
+                    StandardCharsets.UTF_8).trim());
+        }
+        return getIndexedTimeRange()[0];
+    }
+
+    /**
+     * Finds the first and last request start timestamps covered by the time index, by reading
+     * every block's line.
+     *
+     * @return [first start, last start]
+     */
+    private long[] getIndexedTimeRange() throws IOException, NumberFormatException {
+        long[] range = new long[]{Long.MAX_VALUE, Long.MIN_VALUE};
+        try (RandomAccessFile blocks = new RandomAccessFile(
+                filePath.toString() + CsvIndexWriter.BLOCKS_SUFFIX, "r")) {
+            int numBlocks = countBlocks(blocks);
+            for (int block = 0; block < numBlocks; block++) {
+                long[] cols = readBlock(blocks, block);
+                range[0] = Math.min(range[0], cols[CsvIndexWriter.BLOCK_COL_MIN_START]);
+                range[1] = Math.max(range[1], cols[CsvIndexWriter.BLOCK_COL_MAX_START]);
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Merges the index entries of one block whose buckets lie entirely inside the window.
+     *
+     * @return true if an entry for the requested path was cut by the window edges
+     */
+    private boolean mergeIndexEntries(String[] entryLines, long fromTimestamp, long toTimestamp,
+                                      String pathKey, Map<String, LatencyHistogram> result) {
+        boolean edgeBucketFound = false;
+        for (String entry : entryLines) {
+            // Entries are "bucket,method path,histogram", sorted by bucket
+            int bucketEnd = entry.indexOf(SEP);
+            long bucket = Long.parseLong(entry.substring(0, bucketEnd));
+            if (bucket >= toTimestamp) {
+                break;
+            }
+            if (bucket + CsvIndexWriter.BUCKET_MS <= fromTimestamp) {
+                continue;
+            }
+            int keyEnd = entry.indexOf(SEP, bucketEnd + 1);
+            String key = entry.substring(bucketEnd + 1, keyEnd);
+            if (pathKey != null && !pathKey.equals(key)) {
+                continue;
+            }
+            if (!isBucketInside(bucket, fromTimestamp, toTimestamp)) {
+                edgeBucketFound = true;
+                continue;
+            }
+            getOrCreate(result, key).merge(LatencyHistogram.fromCompactString(entry.substring(keyEnd + 1)));
+        }
+        return edgeBucketFound;
+    }
+
+    /**
+     * Adds the raw rows of a block that fall inside the window but in a bucket cut by its edges.
+     */
+    private void mergeEdgeRows(String[] rows, long fromTimestamp, long toTimestamp, String pathKey,
+                               Map<String, LatencyHistogram> result) {
+        for (String row : rows) {
+            String[] cols = row.split(SEP);
+            String key = cols[csvColIndexMethod] + " " + cols[csvColIndexPath];
+            long start = Long.parseLong(cols[csvColIndexTimestamp]);
+            boolean inWindow = start >= fromTimestamp && start < toTimestamp;
+            if (!inWindow || (pathKey != null && !pathKey.equals(key))) {
+                continue;
+            }
+            // Whole buckets were already counted from the index
+            if (isBucketInside(CsvIndexWriter.bucketOf(start), fromTimestamp, toTimestamp)) {
+                continue;
+            }
+            getOrCreate(result, key).record(Long.parseLong(getLatency(cols)));
+        }
+    }
+
+    private boolean isBucketInside(long bucket, long fromTimestamp, long toTimestamp) {
+        return bucket >= fromTimestamp && bucket + CsvIndexWriter.BUCKET_MS <= toTimestamp;
+    }
+
+    private LatencyHistogram getOrCreate(Map<String, LatencyHistogram> histograms, String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms.put(key, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Reads a byte range of a file and splits it into lines.
+     */
+    private String[] readLines(RandomAccessFile file, long offset, long length) throws IOException {
+        byte[] bytes = new byte[(int) length];
+        file.seek(offset);
+        file.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8).split("\\r?\\n");
+    }
+
     /**
      * Calculates the number of requests started during each second of program operation.
      */
@@ -196,6 +638,10 @@ public class CsvStatsReader {
         while (line != null) {
             // Parse data
             String[] cols = line.split(SEP);
+            if (isExcluded(cols)) {
+                line = reader.readLine();
+                continue;
+            }
             String key = makeKey(cols);
             int latency = Integer.parseInt(getLatency(cols));
 
@@ -220,7 +666,28 @@ public class CsvStatsReader {
      * @return the String key
      */
     private String makeKey(String[] cols) {
-        return cols[csvColIndexMethod] + " " + cols[csvColIndexPath];
+        String key = cols[csvColIndexMethod] + " " + cols[csvColIndexPath];
+        if (keyByPhase) {
+            return phaseKey(getPhase(cols), key);
+        }
+        return key;
+    }
+
+    /**
+     * Convenience method for getting the phase column. Older CSVs have no phase column.
+     */
+    private int getPhase(String[] cols) {
+        if (cols.length <= csvColIndexPhase) {
+            return UNKNOWN_PHASE;
+        }
+        return Integer.parseInt(cols[csvColIndexPhase]);
+    }
+
+    /**
+     * Checks whether a line of CSV data belongs to the excluded phase.
+     */
+    private boolean isExcluded(String[] cols) {
+        return excludedPhase != NO_EXCLUDED_PHASE && getPhase(cols) == excludedPhase;
     }
 
     /**
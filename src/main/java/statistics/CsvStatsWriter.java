@@ -1,9 +1,13 @@
 package statistics;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,7 +22,15 @@ public class CsvStatsWriter {
 
     private String filePath;
     private PrintWriter pw;
+    private CsvIndexWriter indexWriter;
+    // Under the CSV's writer, so a flush gives the byte offset reached
+    private CountingOutputStream csvBytes;
     private BlockingQueue<SingleRequestStatistics[]> writeQueue;
+    private StreamingSummary streamingSummary;
+    private ClientMonitor clientMonitor;
+    private ByteCounts byteCounts;
+    private double csvSampleRate = 1;
+    private Random sampler = new Random();
 
     public CsvStatsWriter(String csvPathStr,
                           BlockingQueue<SingleRequestStatistics[]> writeQueue) {
@@ -26,6 +38,37 @@ public class CsvStatsWriter {
         this.writeQueue = writeQueue;
     }
 
+    /**
+     * Feeds every request to a streaming summary and writes only a sample of them to the CSV, for
+     * soak runs that cannot keep every request. Must be called before the write loop starts.
+     *
+     * @param summary       the summary to feed
+     * @param csvSampleRate fraction of requests written to the CSV, 0 for none
+     */
+    public void setStreamingSummary(StreamingSummary summary, double csvSampleRate) {
+        this.streamingSummary = summary;
+        this.csvSampleRate = csvSampleRate;
+    }
+
+    /**
+     * Feeds every request to a monitor of the client's JVM, to line its samples up with latencies.
+     * Must be called before the write loop starts.
+     *
+     * @param monitor the monitor to feed
+     */
+    public void setClientMonitor(ClientMonitor monitor) {
+        this.clientMonitor = monitor;
+    }
+
+    /**
+     * Feeds every request's body sizes to byte counts. Must be called before the write loop starts.
+     *
+     * @param counts the counts to feed
+     */
+    public void setByteCounts(ByteCounts counts) {
+        this.byteCounts = counts;
+    }
+
     /**
      * Starts a loop that writes data to a csv file in a new thread and returns the thread handle.
      * Exits the program if there is a problem with the thread.
@@ -55,16 +98,41 @@ public class CsvStatsWriter {
 
         // Empty array will signal that there is not more data
         while (threadData.length != 0) {
-            // Print each record to the csv
+            if (streamingSummary != null) {
+                streamingSummary.recordAll(threadData);
+            }
+            if (clientMonitor != null) {
+                clientMonitor.recordAll(threadData);
+            }
+            if (byteCounts != null) {
+                byteCounts.recordAll(threadData);
+            }
+
+            // Print each record to the csv and index it. Only block ends need their byte offset,
+            // so the writer is flushed once per block rather than measured per line
             for (SingleRequestStatistics stats : threadData) {
-                String line = buildCsvLine(stats);
-                pw.println(line);
+                if (csvSampleRate < 1 && sampler.nextDouble() >= csvSampleRate) {
+                    continue;
+                }
+                pw.println(buildCsvLine(stats));
+                String key = stats.getRequestType() + " " + stats.getPath();
+                indexWriter.record(key, stats.getStartTime(), stats.getLatency());
+                if (indexWriter.isBlockFull()) {
+                    pw.flush();
+                    indexWriter.flushBlock(csvBytes.getCount());
+                }
             }
 
             // Get next thread's data
             threadData = writeQueue.take();
         }
 
+        pw.flush();
+        try {
+            indexWriter.close(csvBytes.getCount());
+        } catch (IOException e) {
+            logger.error("Problem writing the CSV's time index: " + e.getMessage());
+        }
         pw.close();
     }
 
@@ -88,15 +156,20 @@ public class CsvStatsWriter {
         }
 
         try {
-            pw = new PrintWriter(csvFile);
-        } catch (FileNotFoundException e) {
+            // Explicit charset so byte offsets in the time index are exact
+            csvBytes = new CountingOutputStream(new FileOutputStream(csvFile));
+            pw = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(csvBytes, StandardCharsets.UTF_8)));
+
+            // Print headers but keep writer open to receive more data
+            String headers = "RequestType,Path,StartTimestamp(ms),Latency(ms),ResponseCode,Phase,SkierID,LiftID,SkiTime,Resort,Day";
+            pw.println(headers);
+            pw.flush();
+            indexWriter = new CsvIndexWriter(filePath, csvBytes.getCount());
+        } catch (IOException e) {
             String msg = "Problem creating new file";
             fatal(msg);
         }
-
-        // Print headers but keep writer open to receive more data
-        String headers = "RequestType,Path,StartTimestamp(ms),Latency(ms),ResponseCode";
-        pw.println(headers);
     }
 
     /**
@@ -146,14 +219,21 @@ public class CsvStatsWriter {
      * @param singleStats the stats to make a string
      * @return A string with the stats in CSV format
      */
-    private String buildCsvLine(SingleRequestStatistics singleStats) {
+    String buildCsvLine(SingleRequestStatistics singleStats) {
         String type = singleStats.getRequestType();
         String path = singleStats.getPath();
         String start = String.valueOf(singleStats.getStartTime());
         String latency = String.valueOf(singleStats.getLatency());
         String code = String.valueOf(singleStats.getResponseCode());
-
-        String[] data = new String[]{type, path, start, latency, code};
+        String phase = String.valueOf(singleStats.getPhase());
+        String skier = String.valueOf(singleStats.getSkierId());
+        String lift = String.valueOf(singleStats.getLiftId());
+        String time = String.valueOf(singleStats.getSkiTime());
+        String resort = singleStats.getResort();
+        String day = String.valueOf(singleStats.getDay());
+
+        String[] data = new String[]{
+                type, path, start, latency, code, phase, skier, lift, time, resort, day};
         return String.join(",", data);
     }
 
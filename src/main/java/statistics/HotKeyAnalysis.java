@@ -0,0 +1,173 @@
+package statistics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the skiers and lifts whose requests land in the latency tail most often, and builds a latency
+ * heatmap by skier ID range and minute of the run so that partition hotspots on the server show up.
+ * <p>
+ * Keys are ranked with Space-Saving sketches, so memory stays bounded with any number of skiers.
+ */
+public class HotKeyAnalysis {
+
+    public static final int SKIERS_PER_RANGE = 1000;
+    private static final int SKETCH_CAPACITY = 100;
+    private static final int NUM_REPORTED = 10;
+    private static final long MILLISECS_PER_MIN = 60 * BulkRequestStatistics.MILLISECS_PER_SEC;
+
+    // Heatmap cell columns
+    private static final int CELL_COUNT = 0;
+    private static final int CELL_LATENCY_SUM = 1;
+    private static final int CELL_TAIL_COUNT = 2;
+
+    private SpaceSavingSketch tailSkiers = new SpaceSavingSketch(SKETCH_CAPACITY);
+    private SpaceSavingSketch tailLifts = new SpaceSavingSketch(SKETCH_CAPACITY);
+    private long totalTailRequests;
+    private long startTimestamp;
+
+    // Stores skier range -> minute -> [count, latency sum, tail count]
+    private Map<Integer, Map<Integer, long[]>> heatmap = new TreeMap<>();
+
+    /**
+     * Constructor for a HotKeyAnalysis.
+     *
+     * @param startTimestamp start of the run, heatmap minutes are counted from here
+     */
+    public HotKeyAnalysis(long startTimestamp) {
+        this.startTimestamp = startTimestamp;
+    }
+
+    /**
+     * Adds one request to the analysis. Requests without a skier, such as batches, count towards
+     * the tail total only, so they show up neither as a skier nor in the heatmap.
+     *
+     * @param skierId   the skier the request targeted, or SingleRequestStatistics.NO_KEY
+     * @param liftId    the lift the request targeted, or SingleRequestStatistics.NO_KEY
+     * @param startTime the unix time at the start of the request
+     * @param latency   the latency of the request
+     * @param isTail    whether the latency is in the tail of its path
+     */
+    public void record(int skierId, int liftId, long startTime, long latency, boolean isTail) {
+        if (isTail) {
+            totalTailRequests++;
+            if (skierId != SingleRequestStatistics.NO_KEY) {
+                tailSkiers.record(skierId, latency);
+            }
+            if (liftId != SingleRequestStatistics.NO_KEY) {
+                tailLifts.record(liftId, latency);
+            }
+        }
+        if (skierId == SingleRequestStatistics.NO_KEY) {
+            return;
+        }
+
+        // Update heatmap cell
+        int range = (skierId - 1) / SKIERS_PER_RANGE;
+        int minute = (int) Math.max((startTime - startTimestamp) / MILLISECS_PER_MIN, 0);
+        Map<Integer, long[]> row = heatmap.get(range);
+        if (row == null) {
+            row = new TreeMap<>();
+            heatmap.put(range, row);
+        }
+        long[] cell = row.get(minute);
+        if (cell == null) {
+            cell = new long[3];
+            row.put(minute, cell);
+        }
+        cell[CELL_COUNT]++;
+        cell[CELL_LATENCY_SUM] += latency;
+        if (isTail) {
+            cell[CELL_TAIL_COUNT]++;
+        }
+    }
+
+    /**
+     * Writes the heatmap as a CSV with one row per skier range and minute, overwriting any old file.
+     *
+     * @param outFilePath the output file path
+     * @throws IOException if the file cannot be written
+     */
+    public void writeHeatmap(String outFilePath) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(outFilePath)))) {
+            writer.println("SkierIdLow,SkierIdHigh,Minute,Requests,MeanLatency(ms),TailFraction");
+            for (Map.Entry<Integer, Map<Integer, long[]>> row : heatmap.entrySet()) {
+                int low = row.getKey() * SKIERS_PER_RANGE + 1;
+                int high = low + SKIERS_PER_RANGE - 1;
+                for (Map.Entry<Integer, long[]> cell : row.getValue().entrySet()) {
+                    long[] data = cell.getValue();
+                    writer.println(String.format("%d,%d,%d,%d,%.2f,%.4f",
+                            low,
+                            high,
+                            cell.getKey(),
+                            data[CELL_COUNT],
+                            (double) data[CELL_LATENCY_SUM] / data[CELL_COUNT],
+                            (double) data[CELL_TAIL_COUNT] / data[CELL_COUNT]));
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "\nHot Keys (requests at or above their path's 99th percentile)\n"
+                + "------------------------------------------------------------\n"
+                + "Tail Requests: " + totalTailRequests + "\n"
+                + topKeysToString("Skier", tailSkiers)
+                + topKeysToString("Lift", tailLifts);
+    }
+
+    /**
+     * Provides the numbers of toString() as a map, for the JSON summary.
+     *
+     * @return the summary
+     */
+    Map<String, Object> toSummaryMap() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("tailRequests", totalTailRequests);
+        summary.put("topSkiers", topKeysToList(tailSkiers));
+        summary.put("topLifts", topKeysToList(tailLifts));
+        return summary;
+    }
+
+    private List<Map<String, Object>> topKeysToList(SpaceSavingSketch sketch) {
+        List<Map<String, Object>> keys = new ArrayList<>();
+        for (SpaceSavingSketch.Counter counter : sketch.getTop(NUM_REPORTED)) {
+            Map<String, Object> key = new LinkedHashMap<>();
+            key.put("id", counter.getKey());
+            key.put("tailRequests", counter.getCount());
+            key.put("error", counter.getError());
+            key.put("maxMs", counter.getMaxLatency());
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    /**
+     * Provides the top keys of a sketch as a string.
+     *
+     * @param name   the key name
+     * @param sketch the sketch
+     * @return a string with one line per key
+     */
+    private String topKeysToString(String name, SpaceSavingSketch sketch) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Top ").append(name).append(" IDs:\n");
+        for (SpaceSavingSketch.Counter counter : sketch.getTop(NUM_REPORTED)) {
+            builder.append(String.format("\t%s %d: %d tail requests (error up to %d), max %d ms\n",
+                    name,
+                    counter.getKey(),
+                    counter.getCount(),
+                    counter.getError(),
+                    counter.getMaxLatency()));
+        }
+        return builder.toString();
+    }
+}
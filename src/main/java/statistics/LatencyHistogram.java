@@ -0,0 +1,318 @@
+package statistics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A mergeable latency histogram. Values below 1024 are counted exactly, like the counting arrays in
+ * CsvStatsReader; larger values share buckets that are at most 0.2% wide, so a histogram stays
+ * small no matter how many requests are recorded. The bucket array only grows as large as the
+ * largest value seen.
+ */
+public class LatencyHistogram {
+
+    private static final int EXACT_LIMIT = 1024;
+    private static final int EXACT_BITS = 10;  // log2(EXACT_LIMIT)
+    private static final int SUB_BUCKETS = EXACT_LIMIT / 2;
+    private static final String FIELD_SEP = ";";
+    private static final String BUCKET_SEP = " ";
+    private static final String COUNT_SEP = ":";
+    // Below this mean, Poisson counts are drawn by multiplying uniforms; above, by rejection
+    private static final double POISSON_DIRECT_LIMIT = 10;
+
+    private long[] counts = new long[64];
+    private long count;
+    private long sum;
+    private double sumSquares;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Records a single value.
+     *
+     * @param value the value, negative values are counted as 0
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records the same value a number of times.
+     *
+     * @param value      the value, negative values are counted as 0
+     * @param valueCount how many times to record it
+     */
+    public void record(long value, long valueCount) {
+        if (valueCount <= 0) {
+            return;
+        }
+        value = Math.max(value, 0);
+        int index = indexOf(value);
+        ensureCapacity(index);
+        counts[index] += valueCount;
+        count += valueCount;
+        sum += value * valueCount;
+        sumSquares += (double) value * value * valueCount;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds every value recorded by another histogram to this one.
+     *
+     * @param other the histogram to merge in
+     */
+    public void merge(LatencyHistogram other) {
+        if (other.count == 0) {
+            return;
+        }
+        ensureCapacity(other.counts.length - 1);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        sumSquares += other.sumSquares;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Finds the value at a percentile using the nearest rank method.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the lowest value of the bucket holding the percentile, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        double clamped = Math.min(Math.max(percentile, 0), 100);
+        long rank = Math.max(1, (long) Math.ceil(clamped / 100 * count));
+        long currTotal = 0;
+        for (int i = 0; i < counts.length; i++) {
+            currTotal += counts[i];
+            if (currTotal >= rank) {
+                // Exact values for the extremes are known
+                return Math.min(Math.max(valueOf(i), min), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public double getStdDev() {
+        if (count == 0) {
+            return 0;
+        }
+        double mean = getMean();
+        return Math.sqrt(Math.max(sumSquares / count - mean * mean, 0));
+    }
+
+    /**
+     * Draws a Poisson bootstrap replicate of the recorded values: each value is redrawn a
+     * Poisson(1) number of times, so each bucket's count is drawn from a Poisson distribution with
+     * the bucket's count as its mean, and the total count varies as a resampled run's would. This
+     * costs one draw per bucket rather than one per value. Values above EXACT_LIMIT come back as
+     * their bucket's lowest value, and the sum is scaled to make up for it, so the mean is not
+     * biased by the bucket widths.
+     *
+     * @param rand the random numbers to draw from
+     * @return the replicate
+     */
+    LatencyHistogram resample(Random rand) {
+        LatencyHistogram replicate = new LatencyHistogram();
+        long bucketedSum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                bucketedSum += valueOf(i) * counts[i];
+                replicate.record(valueOf(i), drawPoisson(rand, counts[i]));
+            }
+        }
+        if (bucketedSum > 0) {
+            replicate.sum = Math.round(replicate.sum * ((double) sum / bucketedSum));
+        }
+        return replicate;
+    }
+
+    /**
+     * Draws from a Poisson distribution, with Knuth's multiplication method for small means and
+     * Hormann's transformed rejection (PTRS) for the rest.
+     */
+    private static long drawPoisson(Random rand, double mean) {
+        if (mean < POISSON_DIRECT_LIMIT) {
+            double limit = Math.exp(-mean);
+            double product = rand.nextDouble();
+            long k = 0;
+            while (product > limit) {
+                product *= rand.nextDouble();
+                k++;
+            }
+            return k;
+        }
+        double logMean = Math.log(mean);
+        double b = 0.931 + 2.53 * Math.sqrt(mean);
+        double a = -0.059 + 0.02483 * b;
+        double invAlpha = 1.1239 + 1.1328 / (b - 3.4);
+        double vr = 0.9277 - 3.6224 / (b - 2);
+        while (true) {
+            double u = rand.nextDouble() - 0.5;
+            double v = rand.nextDouble();
+            double us = 0.5 - Math.abs(u);
+            long k = (long) Math.floor((2 * a / us + b) * u + mean + 0.43);
+            if (us >= 0.07 && v <= vr) {
+                return k;
+            }
+            if (k < 0 || (us < 0.013 && v > us)) {
+                continue;
+            }
+            if (Math.log(v * invAlpha / (a / (us * us) + b))
+                    <= -mean + k * logMean - logFactorial(k)) {
+                return k;
+            }
+        }
+    }
+
+    /**
+     * Gives ln(k!), summed for small k and from Stirling's series otherwise.
+     */
+    private static double logFactorial(long k) {
+        if (k < POISSON_DIRECT_LIMIT) {
+            double result = 0;
+            for (long i = 2; i <= k; i++) {
+                result += Math.log(i);
+            }
+            return result;
+        }
+        double x = k;
+        return (x + 0.5) * Math.log(x) - x + 0.5 * Math.log(2 * Math.PI)
+                + 1 / (12 * x) - 1 / (360 * x * x * x);
+    }
+
+    /**
+     * Provides the count and the main percentiles as a map, for the JSON summary. Values are taken
+     * to be in milliseconds.
+     *
+     * @return the statistics
+     */
+    Map<String, Object> toSummaryMap() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", count);
+        summary.put("meanMs", getMean());
+        summary.put("medianMs", getValueAtPercentile(50));
+        summary.put("p99Ms", getValueAtPercentile(99));
+        summary.put("maxMs", max);
+        return summary;
+    }
+
+    /**
+     * Writes the histogram as a single line containing no commas, so it can be stored as a CSV
+     * column. Only non-empty buckets are written.
+     *
+     * @return the compact representation
+     */
+    public String toCompactString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(getMin()).append(FIELD_SEP)
+                .append(max).append(FIELD_SEP)
+                .append(sum).append(FIELD_SEP)
+                .append(sumSquares).append(FIELD_SEP);
+        boolean first = true;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                builder.append(BUCKET_SEP);
+            }
+            builder.append(i).append(COUNT_SEP).append(counts[i]);
+            first = false;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads a histogram written by toCompactString.
+     *
+     * @param compact the compact representation
+     * @return the histogram
+     * @throws NumberFormatException if the string is malformed
+     */
+    public static LatencyHistogram fromCompactString(String compact) throws NumberFormatException {
+        String[] fields = compact.split(FIELD_SEP, -1);
+        if (fields.length != 5) {
+            throw new NumberFormatException("malformed histogram: " + compact);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (!fields[4].isEmpty()) {
+            for (String bucket : fields[4].split(BUCKET_SEP)) {
+                int sep = bucket.indexOf(COUNT_SEP);
+                int index = Integer.parseInt(bucket.substring(0, sep));
+                long bucketCount = Long.parseLong(bucket.substring(sep + 1));
+                histogram.ensureCapacity(index);
+                histogram.counts[index] = bucketCount;
+                histogram.count += bucketCount;
+            }
+        }
+        if (histogram.count > 0) {
+            histogram.min = Long.parseLong(fields[0]);
+        }
+        histogram.max = Long.parseLong(fields[1]);
+        histogram.sum = Long.parseLong(fields[2]);
+        histogram.sumSquares = Double.parseDouble(fields[3]);
+        return histogram;
+    }
+
+    /**
+     * Maps a value to its bucket index.
+     */
+    static int indexOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - (EXACT_BITS - 1);
+        return EXACT_LIMIT + (magnitude - EXACT_BITS) * SUB_BUCKETS
+                + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Maps a bucket index back to the lowest value it holds.
+     */
+    static long valueOf(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int magnitude = (index - EXACT_LIMIT) / SUB_BUCKETS + EXACT_BITS;
+        int subBucket = (index - EXACT_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = magnitude - (EXACT_BITS - 1);
+        return (long) subBucket << shift;
+    }
+
+    private void ensureCapacity(int index) {
+        if (index >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(index + 1, counts.length * 2));
+        }
+    }
+}
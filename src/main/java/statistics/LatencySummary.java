@@ -0,0 +1,14 @@
+package statistics;
+
+import java.util.Map;
+
+/**
+ * Holds the latency statistics calculated for each "method path" key by a single CSV reader.
+ */
+class LatencySummary {
+
+    Map<String, Double> avgLatencyByPath;
+    Map<String, Integer> maxLatencyByPath;
+    Map<String, Integer> medianLatencyByPath;
+    Map<String, Integer> p99LatencyByPath;
+}
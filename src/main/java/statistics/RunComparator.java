@@ -0,0 +1,228 @@
+package statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares two run summaries path by path and decides whether the candidate run regressed against
+ * the baseline run. A path of the baseline run that the candidate run never requested is a
+ * regression too, as whatever served it is gone.
+ * <p>
+ * Confidence intervals come from a Poisson bootstrap of each run's histograms: each replicate
+ * redraws both runs' requests, see LatencyHistogram.resample, and every metric is read from the
+ * redrawn histograms. Redrawing a bucket at a time rather than a request at a time keeps
+ * comparisons of very large runs fast.
+ */
+public class RunComparator {
+
+    public static final String THROUGHPUT = "throughput";
+    public static final String MEAN = "mean";
+    public static final List<String> METRICS = Collections.unmodifiableList(Arrays.asList(
+            THROUGHPUT, MEAN, "p50", "p90", "p95", "p99", "p99.9"));
+    private static final int NUM_RESAMPLES = 1000;
+    private static final double CONFIDENCE = 0.95;
+
+    private RunSummary baseline;
+    private RunSummary candidate;
+    private Map<String, Double> budgetPctByMetric;
+    private Random rand;
+    private List<MetricDelta> deltas = new ArrayList<>();
+    private List<String> unmatchedKeys = new ArrayList<>();
+    // Baseline paths missing from the candidate run, each a regression
+    private List<String> missingKeys = new ArrayList<>();
+
+    /**
+     * Constructor for a RunComparator.
+     *
+     * @param baseline          the reference run
+     * @param candidate         the run being checked
+     * @param budgetPctByMetric maximum allowed regression in percent for each metric in METRICS.
+     *                          Metrics without a budget are reported but never fail the comparison.
+     * @param seed              seed for resampling, so the same inputs give the same intervals
+     */
+    public RunComparator(RunSummary baseline, RunSummary candidate,
+                         Map<String, Double> budgetPctByMetric, long seed) {
+        this.baseline = baseline;
+        this.candidate = candidate;
+        this.budgetPctByMetric = budgetPctByMetric;
+        this.rand = new Random(seed);
+    }
+
+    /**
+     * Calculates the deltas and confidence intervals for every path found in both runs, and notes
+     * the paths found in only one.
+     */
+    public void compare() {
+        Set<String> keys = new TreeSet<>(baseline.getKeys());
+        keys.addAll(candidate.getKeys());
+        for (String key : keys) {
+            if (baseline.getHistogram(key) == null || candidate.getHistogram(key) == null) {
+                unmatchedKeys.add(key);
+                if (candidate.getHistogram(key) == null) {
+                    missingKeys.add(key);
+                }
+                continue;
+            }
+            compareKey(key);
+        }
+    }
+
+    /**
+     * Checks whether any metric regressed beyond its budget, or any baseline path is missing from
+     * the candidate run.
+     *
+     * @return true if the candidate run failed the comparison
+     */
+    public boolean hasRegression() {
+        if (!missingKeys.isEmpty()) {
+            return true;
+        }
+        for (MetricDelta delta : deltas) {
+            if (delta.regression) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the deltas for every metric of one path, bootstrapping them from the same
+     * replicates.
+     */
+    private void compareKey(String key) {
+        LatencyHistogram baseHistogram = baseline.getHistogram(key);
+        LatencyHistogram candHistogram = candidate.getHistogram(key);
+        double baseSecs = baseline.getDurationSecs(key);
+        double candSecs = candidate.getDurationSecs(key);
+
+        // Bootstrap the deltas, one row of replicates per metric
+        double[][] replicates = new double[METRICS.size()][NUM_RESAMPLES];
+        int[] numReplicates = new int[METRICS.size()];
+        for (int i = 0; i < NUM_RESAMPLES; i++) {
+            LatencyHistogram base = baseHistogram.resample(rand);
+            LatencyHistogram cand = candHistogram.resample(rand);
+            for (int m = 0; m < METRICS.size(); m++) {
+                String metric = METRICS.get(m);
+                double change = percentChange(estimate(base, baseSecs, metric),
+                        estimate(cand, candSecs, metric));
+                if (!Double.isNaN(change)) {
+                    replicates[m][numReplicates[m]] = change;
+                    numReplicates[m]++;
+                }
+            }
+        }
+        for (int m = 0; m < METRICS.size(); m++) {
+            String metric = METRICS.get(m);
+            deltas.add(toDelta(key, metric, estimate(baseHistogram, baseSecs, metric),
+                    estimate(candHistogram, candSecs, metric), replicates[m], numReplicates[m]));
+        }
+    }
+
+    /**
+     * Builds the delta for one metric of one path from its point estimates and replicates.
+     */
+    private MetricDelta toDelta(String key, String metric, double baseValue,
+                                double candidateValue, double[] replicates, int numReplicates) {
+        MetricDelta delta = new MetricDelta();
+        delta.key = key;
+        delta.metric = metric;
+        delta.baseValue = baseValue;
+        delta.candidateValue = candidateValue;
+        delta.deltaPct = percentChange(baseValue, candidateValue);
+
+        Arrays.sort(replicates, 0, numReplicates);
+        double tail = (1 - CONFIDENCE) / 2;
+        delta.ciLowPct = numReplicates == 0 ? Double.NaN
+                : replicates[(int) Math.floor(tail * (numReplicates - 1))];
+        delta.ciHighPct = numReplicates == 0 ? Double.NaN
+                : replicates[(int) Math.ceil((1 - tail) * (numReplicates - 1))];
+
+        // Throughput regresses when it drops, latencies when they rise
+        boolean higherIsWorse = !metric.equals(THROUGHPUT);
+        double worsePct = higherIsWorse ? delta.deltaPct : -delta.deltaPct;
+        boolean significant = higherIsWorse ? delta.ciLowPct > 0 : delta.ciHighPct < 0;
+        Double budget = budgetPctByMetric.get(metric);
+        delta.budgetPct = budget;
+        delta.regression = budget != null && significant && worsePct > budget;
+        return delta;
+    }
+
+    /**
+     * Reads a metric from one path's histogram, recorded or resampled.
+     */
+    private static double estimate(LatencyHistogram histogram, double durationSecs,
+                                   String metric) {
+        if (metric.equals(THROUGHPUT)) {
+            return histogram.getCount() / durationSecs;
+        }
+        if (metric.equals(MEAN)) {
+            return histogram.getMean();
+        }
+        return histogram.getValueAtPercentile(Double.parseDouble(metric.substring(1)));
+    }
+
+    private static double percentChange(double base, double candidate) {
+        if (base == 0) {
+            return candidate == 0 ? 0 : Double.NaN;
+        }
+        return (candidate - base) / base * 100;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("Run Comparison (baseline -> candidate, %.0f%% confidence)\n",
+                CONFIDENCE * 100));
+        builder.append("--------------------------------------------------------\n");
+        String currentKey = null;
+        for (MetricDelta delta : deltas) {
+            if (!delta.key.equals(currentKey)) {
+                currentKey = delta.key;
+                builder.append(currentKey).append(":\n");
+            }
+            builder.append(delta).append('\n');
+        }
+        for (String key : unmatchedKeys) {
+            if (missingKeys.contains(key)) {
+                builder.append(key).append(": only present in baseline run REGRESSION\n");
+            } else {
+                builder.append(key).append(": only present in candidate run\n");
+            }
+        }
+        builder.append(hasRegression() ? "Result: REGRESSION\n" : "Result: OK\n");
+        return builder.toString();
+    }
+
+    /**
+     * The comparison of one metric for one path.
+     */
+    private static class MetricDelta {
+
+        private String key;
+        private String metric;
+        private double baseValue;
+        private double candidateValue;
+        private double deltaPct;
+        private double ciLowPct;
+        private double ciHighPct;
+        private Double budgetPct;
+        private boolean regression;
+
+        @Override
+        public String toString() {
+            String unit = metric.equals(THROUGHPUT) ? " requests/second" : " ms";
+            String line = String.format("\t%s: %.2f -> %.2f%s (%+.2f%%, CI %+.2f%% to %+.2f%%)",
+                    metric, baseValue, candidateValue, unit, deltaPct, ciLowPct, ciHighPct);
+            if (regression) {
+                line += String.format(" REGRESSION (budget %.2f%%)", budgetPct);
+            }
+            return line;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package statistics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A compact, mergeable summary of a client run: one latency histogram per "method path" key along
+ * with the time window its requests covered. Summaries can be saved next to the request CSV and
+ * compared later without the CSV itself.
+ */
+public class RunSummary {
+
+    private static final String HEADERS = "Key,FirstStartTimestamp(ms),LastEndTimestamp(ms),Histogram";
+    private static final String SEP = ",";
+
+    private Map<String, LatencyHistogram> histograms = new TreeMap<>();
+    // Stores key -> [first start, last end]
+    private Map<String, long[]> windows = new TreeMap<>();
+
+    /**
+     * Adds one request to the summary.
+     *
+     * @param key       the "method path" key
+     * @param startTime the unix time at the start of the request
+     * @param latency   the latency of the request
+     */
+    public void record(String key, long startTime, long latency) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            histograms.put(key, histogram);
+            windows.put(key, new long[]{startTime, startTime + latency});
+        }
+        histogram.record(latency);
+        long[] window = windows.get(key);
+        window[0] = Math.min(window[0], startTime);
+        window[1] = Math.max(window[1], startTime + latency);
+    }
+
+    /**
+     * Adds everything in another summary to this one.
+     *
+     * @param other the summary to merge in
+     */
+    public void merge(RunSummary other) {
+        for (String key : other.getKeys()) {
+            long[] otherWindow = other.windows.get(key);
+            LatencyHistogram histogram = histograms.get(key);
+            if (histogram == null) {
+                histograms.put(key, new LatencyHistogram());
+                windows.put(key, new long[]{otherWindow[0], otherWindow[1]});
+                histogram = histograms.get(key);
+            }
+            histogram.merge(other.histograms.get(key));
+            long[] window = windows.get(key);
+            window[0] = Math.min(window[0], otherWindow[0]);
+            window[1] = Math.max(window[1], otherWindow[1]);
+        }
+    }
+
+    public Set<String> getKeys() {
+        return histograms.keySet();
+    }
+
+    public LatencyHistogram getHistogram(String key) {
+        return histograms.get(key);
+    }
+
+    /**
+     * Gives the time covered by a key's requests, from the first start to the last response.
+     *
+     * @param key the "method path" key
+     * @return the duration in seconds
+     */
+    public double getDurationSecs(String key) {
+        long[] window = windows.get(key);
+        return (double) (window[1] - window[0]) / BulkRequestStatistics.MILLISECS_PER_SEC;
+    }
+
+    /**
+     * Gives the throughput of a key over the time its requests covered.
+     *
+     * @param key the "method path" key
+     * @return requests per second
+     */
+    public double getThroughputPerSec(String key) {
+        return histograms.get(key).getCount() / getDurationSecs(key);
+    }
+
+    /**
+     * Writes the summary as a small CSV file, overwriting any old file.
+     *
+     * @param outFilePath the output file path
+     * @throws IOException if the file cannot be written
+     */
+    public void writeToFile(String outFilePath) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(outFilePath)))) {
+            writer.println(HEADERS);
+            for (String key : getKeys()) {
+                long[] window = windows.get(key);
+                writer.println(key + SEP + window[0] + SEP + window[1] + SEP
+                        + histograms.get(key).toCompactString());
+            }
+        }
+    }
+
+    /**
+     * Reads a summary written by writeToFile.
+     *
+     * @param filePath the summary file path
+     * @return the summary
+     * @throws IOException           if the file cannot be read
+     * @throws NumberFormatException if the file is malformed
+     */
+    public static RunSummary readFromFile(String filePath) throws IOException, NumberFormatException {
+        RunSummary summary = new RunSummary();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath))) {
+            String line = reader.readLine(); // Ignore column headers
+            line = reader.readLine();
+            while (line != null) {
+                String[] cols = line.split(SEP);
+                String key = cols[0];
+                summary.histograms.put(key, LatencyHistogram.fromCompactString(cols[3]));
+                summary.windows.put(key, new long[]{Long.parseLong(cols[1]), Long.parseLong(cols[2])});
+                line = reader.readLine();
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Checks whether a file looks like a summary written by writeToFile rather than a request CSV.
+     *
+     * @param filePath the file path
+     * @return true if the file is a run summary
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSummaryFile(String filePath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath))) {
+            return HEADERS.equals(reader.readLine());
+        }
+    }
+}
@@ -5,27 +5,59 @@ package statistics;
  */
 public class SingleRequestStatistics {
 
+    // Used for request keys that a path does not have (e.g. the lift of a GET request)
+    public static final int NO_KEY = 0;
+    // Used for the resort of a request to a path without one
+    public static final String NO_RESORT = "";
+
     private String requestType;
     private String path;
     private long startTime;
     private long latency;
     private int responseCode;
+    private int phase;
+    private int skierId;
+    private int liftId;
+    private int skiTime;
+    private String resort;
+    private int day;
+    private long requestBytes;
+    private long responseBytes;
 
     /**
      * Constructor for statistics.SingleRequestStatistics.
      *
-     * @param requestType  The request type (i.e. "GET" or "POST")
-     * @param startTime    The unix time at the start of the request
-     * @param latency      The latency of the request (e.g. the round trip time)
-     * @param responseCode The response code returned from the server
+     * @param requestType   The request type (i.e. "GET" or "POST")
+     * @param path          The API path requested
+     * @param startTime     The unix time at the start of the request
+     * @param latency       The latency of the request (e.g. the round trip time)
+     * @param responseCode  The response code returned from the server
+     * @param phase         The client phase the request was sent from (1-indexed)
+     * @param skierId       The skier the request targeted
+     * @param liftId        The lift the request targeted, or NO_KEY
+     * @param skiTime       The ski day minute the request targeted, or NO_KEY
+     * @param resort        The resort the request targeted, or NO_RESORT
+     * @param day           The day the request targeted, or NO_KEY
+     * @param requestBytes  The request body bytes sent, by the attempt that answered
+     * @param responseBytes The response body bytes received, by the attempt that answered
      */
     public SingleRequestStatistics(String requestType, String path, long startTime, long latency,
-                                   int responseCode) {
+                                   int responseCode, int phase, int skierId, int liftId,
+                                   int skiTime, String resort, int day, long requestBytes,
+                                   long responseBytes) {
         this.requestType = requestType;
         this.path = path;
         this.startTime = startTime;
         this.latency = latency;
         this.responseCode = responseCode;
+        this.phase = phase;
+        this.skierId = skierId;
+        this.liftId = liftId;
+        this.skiTime = skiTime;
+        this.resort = resort;
+        this.day = day;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
     }
 
     public String getRequestType() {
@@ -48,4 +80,36 @@ public class SingleRequestStatistics {
         return responseCode;
     }
 
+    public int getPhase() {
+        return phase;
+    }
+
+    public int getSkierId() {
+        return skierId;
+    }
+
+    public int getLiftId() {
+        return liftId;
+    }
+
+    public int getSkiTime() {
+        return skiTime;
+    }
+
+    public String getResort() {
+        return resort;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
 }
@@ -0,0 +1,281 @@
+package statistics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks a run's summary against service level objectives read from a file, so a pipeline can fail
+ * a build that made the server slower without parsing the report.
+ * <p>
+ * Each line of the file is one objective, "[scope] metric operator limit", e.g.:
+ *   - errorRatePct < 0.1
+ *   - throughputPerSec > 4000
+ *   - POST p99Ms < 120
+ *   - Peak GET /skiers/{skierID}/vertical p99Ms <= 250ms
+ * The metric is a key of the JSON summary, see BulkRequestStatistics.toSummaryMap. Run metrics
+ * (RUN_METRICS) are read from the headline numbers, or from a phase's if the scope is a phase name.
+ * Path metrics (PATH_METRICS) must hold for every path whose "method path" key starts with the rest
+ * of the scope, of the headline paths or the named phase's; an empty scope means every path. The
+ * operator is one of <, <=, > or >=, and the limit may end in ms, % or /s. Blank lines and lines
+ * starting with # are skipped.
+ * <p>
+ * An objective that matches no paths, or whose value could not be measured, is missed.
+ */
+public class SloCheck {
+
+    public static final List<String> RUN_METRICS = Collections.unmodifiableList(Arrays.asList(
+            "totalRequests", "badRequests", "timedOutRequests", "abandonedRequests",
+            "errorRatePct", "wallTimeSecs", "throughputPerSec", "successThroughputPerSec",
+            "bytesSent", "bytesReceived", "mbPerSecSent", "mbPerSecReceived"));
+    public static final List<String> PATH_METRICS = Collections.unmodifiableList(Arrays.asList(
+            "meanMs", "medianMs", "p99Ms", "maxMs", "bytesSent", "bytesReceived", "mbPerSecSent",
+            "mbPerSecReceived"));
+    private static final List<String> OPERATORS = Arrays.asList("<", "<=", ">", ">=");
+    private static final String[] UNITS = {"ms", "%", "/s"};
+
+    private String source;
+    private List<Objective> objectives = new ArrayList<>();
+
+    /**
+     * Reads objectives from a file.
+     *
+     * @param filePath the file
+     * @return the check, not yet run
+     * @throws IOException              if the file cannot be read
+     * @throws IllegalArgumentException if any objective is malformed
+     */
+    public static SloCheck fromFile(String filePath) throws IOException, IllegalArgumentException {
+        return new SloCheck(Files.readAllLines(Paths.get(filePath)), filePath);
+    }
+
+    /**
+     * Constructor for an SloCheck.
+     *
+     * @param lines  the objectives, one per line
+     * @param source where the objectives came from, for messages
+     * @throws IllegalArgumentException if any objective is malformed
+     */
+    public SloCheck(List<String> lines, String source) throws IllegalArgumentException {
+        this.source = source;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                objectives.add(parse(line));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        source + " line " + (i + 1) + ": " + e.getMessage());
+            }
+        }
+        if (objectives.isEmpty()) {
+            throw new IllegalArgumentException(source + " has no objectives");
+        }
+    }
+
+    private static Objective parse(String line) throws IllegalArgumentException {
+        String[] tokens = line.split("\\s+");
+        if (tokens.length < 3) {
+            throw new IllegalArgumentException("expected [scope] metric operator limit");
+        }
+        Objective objective = new Objective();
+        objective.text = line;
+        objective.metric = tokens[tokens.length - 3];
+        objective.operator = tokens[tokens.length - 2];
+        if (!OPERATORS.contains(objective.operator)) {
+            throw new IllegalArgumentException("operator must be one of " + OPERATORS);
+        }
+        String limit = tokens[tokens.length - 1];
+        for (String unit : UNITS) {
+            if (limit.endsWith(unit)) {
+                limit = limit.substring(0, limit.length() - unit.length());
+                break;
+            }
+        }
+        try {
+            objective.limit = Double.parseDouble(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed limit " + tokens[tokens.length - 1]);
+        }
+
+        int scopeStart = 0;
+        if (tokens.length > 3 && isPhaseName(tokens[0])) {
+            objective.phase = tokens[0];
+            scopeStart = 1;
+        }
+        objective.pathPrefix = String.join(" ",
+                Arrays.copyOfRange(tokens, scopeStart, tokens.length - 3));
+        objective.perPath = !objective.pathPrefix.isEmpty()
+                || !RUN_METRICS.contains(objective.metric);
+        if (objective.perPath && !PATH_METRICS.contains(objective.metric)) {
+            throw new IllegalArgumentException("unknown metric " + objective.metric
+                    + ", expected one of " + RUN_METRICS + " or, for paths, " + PATH_METRICS);
+        }
+        return objective;
+    }
+
+    private static boolean isPhaseName(String name) {
+        for (int phase = 1; phase <= BulkRequestStatistics.NUM_PHASES; phase++) {
+            if (BulkRequestStatistics.getPhaseName(phase).equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks every objective against a run.
+     *
+     * @param summary the run's summary, from BulkRequestStatistics.toSummaryMap
+     * @return true if every objective was met
+     */
+    @SuppressWarnings("unchecked")
+    public boolean check(Map<String, Object> summary) {
+        for (Objective objective : objectives) {
+            Map<String, Object> scope = summary;
+            if (objective.phase != null) {
+                scope = (Map<String, Object>) ((Map<String, Object>) summary.get("phases"))
+                        .get(objective.phase);
+            }
+            objective.checked = true;
+            objective.met = true;
+            objective.worstValue = null;
+            objective.worstPath = null;
+            if (!objective.perPath) {
+                objective.judge(scope.get(objective.metric), null);
+                continue;
+            }
+            Map<String, Object> paths = (Map<String, Object>) scope.get("paths");
+            for (Map.Entry<String, Object> path : paths.entrySet()) {
+                if (path.getKey().startsWith(objective.pathPrefix)) {
+                    objective.judge(((Map<String, Object>) path.getValue()).get(objective.metric),
+                            path.getKey());
+                }
+            }
+            if (objective.worstPath == null && objective.met) {
+                // Nothing to judge, e.g. a misspelled path
+                objective.met = false;
+            }
+        }
+        return isMet();
+    }
+
+    /**
+     * Whether every objective was met in the last check.
+     *
+     * @return true if every objective was met
+     */
+    public boolean isMet() {
+        for (Objective objective : objectives) {
+            if (!objective.checked || !objective.met) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Provides the results of the last check as maps, for the JSON summary.
+     *
+     * @return one map per objective
+     */
+    public List<Object> toSummaryList() {
+        List<Object> results = new ArrayList<>();
+        for (Objective objective : objectives) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("objective", objective.text);
+            result.put("met", objective.met);
+            result.put("value", objective.worstValue);
+            if (objective.worstPath != null) {
+                result.put("path", objective.worstPath);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Provides each objective's result and the worst value it was judged on as a string.
+     *
+     * @return the results
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Service Level Objectives (" + source + ")\n");
+        builder.append("------------------------\n");
+        int missed = 0;
+        for (Objective objective : objectives) {
+            builder.append(objective).append('\n');
+            if (!objective.met) {
+                missed++;
+            }
+        }
+        builder.append(missed == 0 ? "Result: OK\n"
+                : "Result: MISSED " + missed + " of " + objectives.size() + "\n");
+        return builder.toString();
+    }
+
+    /**
+     * One objective, and its result once checked.
+     */
+    private static class Objective {
+
+        private String text;
+        private String phase;
+        private String pathPrefix;
+        private String metric;
+        private String operator;
+        private double limit;
+        private boolean perPath;
+        private boolean checked;
+        private boolean met;
+        private Double worstValue;
+        private String worstPath;
+
+        /**
+         * Judges one value, keeping the one furthest from the limit. A missing or non-finite value
+         * misses the objective.
+         */
+        private void judge(Object raw, String path) {
+            Double value = raw instanceof Number ? ((Number) raw).doubleValue() : null;
+            if (value == null || !Double.isFinite(value)) {
+                met = false;
+                return;
+            }
+            boolean upper = operator.startsWith("<");
+            if (worstValue == null || (upper ? value > worstValue : value < worstValue)) {
+                worstValue = value;
+                worstPath = path;
+            }
+            switch (operator) {
+                case "<":
+                    met &= value < limit;
+                    break;
+                case "<=":
+                    met &= value <= limit;
+                    break;
+                case ">":
+                    met &= value > limit;
+                    break;
+                default:
+                    met &= value >= limit;
+            }
+        }
+
+        @Override
+        public String toString() {
+            String value = worstValue == null ? "not measured" : String.format("%.2f", worstValue);
+            return String.format("%s %s: %s%s", met ? "MET   " : "MISSED", text, value,
+                    worstPath == null ? "" : " (" + worstPath + ")");
+        }
+    }
+}
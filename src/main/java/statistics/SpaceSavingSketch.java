@@ -0,0 +1,104 @@
+package statistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy hitters sketch. Tracks the most frequent integer keys of a stream using a fixed
+ * number of counters, so memory stays bounded however many distinct keys there are. A key's estimated
+ * count is never lower than its true count and overestimates it by at most its error.
+ */
+public class SpaceSavingSketch {
+
+    private int capacity;
+    private Map<Integer, Counter> counters = new HashMap<>();
+
+    /**
+     * Constructor for a SpaceSavingSketch.
+     *
+     * @param capacity the number of counters, i.e. the most keys tracked at once
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public SpaceSavingSketch(int capacity) throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Counts one occurrence of a key.
+     *
+     * @param key     the key
+     * @param latency the latency of the request, kept alongside the count
+     */
+    public void record(int key, long latency) {
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() < capacity) {
+                counter = new Counter(key, 0);
+            } else {
+                // Replace the smallest counter, inheriting its count as the error bound
+                Counter smallest = Collections.min(counters.values());
+                counters.remove(smallest.key);
+                counter = new Counter(key, smallest.count);
+            }
+            counters.put(key, counter);
+        }
+        counter.count++;
+        counter.maxLatency = Math.max(counter.maxLatency, latency);
+    }
+
+    /**
+     * Gives the tracked keys, most frequent first.
+     *
+     * @param limit the maximum number of keys to return
+     * @return the top counters
+     */
+    public List<Counter> getTop(int limit) {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        Collections.sort(sorted, Collections.reverseOrder());
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * A key's estimated count and the error bound on it.
+     */
+    public static class Counter implements Comparable<Counter> {
+
+        private int key;
+        private long count;
+        private long error;
+        private long maxLatency;
+
+        private Counter(int key, long error) {
+            this.key = key;
+            this.count = error;
+            this.error = error;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        @Override
+        public int compareTo(Counter other) {
+            return Long.compare(count, other.count);
+        }
+    }
+}
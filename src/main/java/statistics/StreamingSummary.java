@@ -0,0 +1,371 @@
+package statistics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Memory-bounded statistics for long soak runs. Keeps mergeable latency histograms per path and per
+ * phase, request counters, requests started per second and a rolling window of the last
+ * ROLLING_MINUTES minutes, instead of every request. Can be checkpointed to disk and merged with
+ * summaries from other runs or processes.
+ * <p>
+ * Methods are synchronized because requests are recorded by the CSV writer thread while checkpoints
+ * are taken from another thread.
+ */
+public class StreamingSummary {
+
+    public static final int ROLLING_MINUTES = 60;
+    private static final long MILLISECS_PER_MIN = 60 * BulkRequestStatistics.MILLISECS_PER_SEC;
+    private static final String SEP = ",";
+
+    private RunSummary headline = new RunSummary();
+    private RunSummary byPhase = new RunSummary();
+    private RunSummary byPartition = new RunSummary();
+    private long numRequests;
+    private long numBadRequests;
+    private long[] requestsBySecond = new long[60];
+    private long firstStartSecond = -1;
+    private boolean excludeWarmup;
+
+    // Ring of minute windows: minute, count, bad count, body bytes sent and received, and
+    // latencies of every path together
+    private long[] windowMinute = new long[ROLLING_MINUTES];
+    private long[] windowCount = new long[ROLLING_MINUTES];
+    private long[] windowBadCount = new long[ROLLING_MINUTES];
+    private long[] windowBytesSent = new long[ROLLING_MINUTES];
+    private long[] windowBytesReceived = new long[ROLLING_MINUTES];
+    private LatencyHistogram[] windowLatencies = new LatencyHistogram[ROLLING_MINUTES];
+
+    /**
+     * Constructor for a StreamingSummary.
+     *
+     * @param excludeWarmup if true, warmup requests are left out of the headline histograms
+     */
+    public StreamingSummary(boolean excludeWarmup) {
+        this.excludeWarmup = excludeWarmup;
+        Arrays.fill(windowMinute, -1);
+    }
+
+    /**
+     * Adds a chunk of requests to the summary.
+     *
+     * @param chunk the requests' statistics
+     */
+    public synchronized void recordAll(SingleRequestStatistics[] chunk) {
+        for (SingleRequestStatistics stats : chunk) {
+            record(stats);
+        }
+    }
+
+    /**
+     * Adds one request to the summary.
+     *
+     * @param stats the request's statistics
+     */
+    public synchronized void record(SingleRequestStatistics stats) {
+        String key = stats.getRequestType() + " " + stats.getPath();
+        long start = stats.getStartTime();
+        long latency = stats.getLatency();
+        boolean bad = isBadResponse(stats.getResponseCode());
+
+        if (!excludeWarmup || stats.getPhase() != BulkRequestStatistics.WARMUP_PHASE) {
+            headline.record(key, start, latency);
+        }
+        byPhase.record(CsvStatsReader.phaseKey(stats.getPhase(), key), start, latency);
+        if ((!excludeWarmup || stats.getPhase() != BulkRequestStatistics.WARMUP_PHASE)
+                && (!stats.getResort().equals(SingleRequestStatistics.NO_RESORT)
+                        || stats.getDay() != SingleRequestStatistics.NO_KEY)) {
+            byPartition.record(
+                    CsvStatsReader.partitionKey(stats.getResort(), stats.getDay()), start, latency);
+        }
+        numRequests++;
+        if (bad) {
+            numBadRequests++;
+        }
+        countStartSecond(start);
+
+        // Roll the minute window over if this slot holds an older minute
+        long minute = start / MILLISECS_PER_MIN;
+        int slot = (int) (minute % ROLLING_MINUTES);
+        if (windowMinute[slot] != minute) {
+            if (windowMinute[slot] > minute) {
+                return;  // Older than the rolling window, already counted everywhere else
+            }
+            windowMinute[slot] = minute;
+            windowCount[slot] = 0;
+            windowBadCount[slot] = 0;
+            windowBytesSent[slot] = 0;
+            windowBytesReceived[slot] = 0;
+            windowLatencies[slot] = new LatencyHistogram();
+        }
+        windowCount[slot]++;
+        if (bad) {
+            windowBadCount[slot]++;
+        }
+        windowBytesSent[slot] += stats.getRequestBytes();
+        windowBytesReceived[slot] += stats.getResponseBytes();
+        windowLatencies[slot].record(latency);
+    }
+
+    /**
+     * Adds everything in another summary to this one, for example from another client process.
+     *
+     * @param other the summary to merge in
+     */
+    public synchronized void merge(StreamingSummary other) {
+        synchronized (other) {
+            headline.merge(other.headline);
+            byPhase.merge(other.byPhase);
+            byPartition.merge(other.byPartition);
+            numRequests += other.numRequests;
+            numBadRequests += other.numBadRequests;
+            for (int i = 0; i < other.requestsBySecond.length; i++) {
+                if (other.requestsBySecond[i] > 0) {
+                    addStartSecond(other.firstStartSecond + i, other.requestsBySecond[i]);
+                }
+            }
+            for (int slot = 0; slot < ROLLING_MINUTES; slot++) {
+                if (other.windowMinute[slot] < 0 || other.windowMinute[slot] < windowMinute[slot]) {
+                    continue;
+                }
+                if (other.windowMinute[slot] > windowMinute[slot]) {
+                    windowMinute[slot] = other.windowMinute[slot];
+                    windowCount[slot] = 0;
+                    windowBadCount[slot] = 0;
+                    windowBytesSent[slot] = 0;
+                    windowBytesReceived[slot] = 0;
+                    windowLatencies[slot] = new LatencyHistogram();
+                }
+                windowCount[slot] += other.windowCount[slot];
+                windowBadCount[slot] += other.windowBadCount[slot];
+                windowBytesSent[slot] += other.windowBytesSent[slot];
+                windowBytesReceived[slot] += other.windowBytesReceived[slot];
+                windowLatencies[slot].merge(other.windowLatencies[slot]);
+            }
+        }
+    }
+
+    /**
+     * Fills a latency summary from the headline or per-phase histograms.
+     *
+     * @param summary    the summary to fill
+     * @param phaseKeyed if true, use the per-phase histograms (keys built with phaseKey)
+     */
+    synchronized void fillLatencySummary(LatencySummary summary, boolean phaseKeyed) {
+        RunSummary source = phaseKeyed ? byPhase : headline;
+        summary.avgLatencyByPath = new HashMap<>();
+        summary.maxLatencyByPath = new HashMap<>();
+        summary.medianLatencyByPath = new HashMap<>();
+        summary.p99LatencyByPath = new HashMap<>();
+        for (String key : source.getKeys()) {
+            LatencyHistogram histogram = source.getHistogram(key);
+            summary.avgLatencyByPath.put(key, histogram.getMean());
+            summary.maxLatencyByPath.put(key, (int) histogram.getMax());
+            summary.medianLatencyByPath.put(key, (int) histogram.getValueAtPercentile(50));
+            summary.p99LatencyByPath.put(key, (int) histogram.getValueAtPercentile(99));
+        }
+    }
+
+    /**
+     * Gives the number of requests started in each second since the first request, up to a time.
+     *
+     * @param startTimestamp the run start, the first bucket of the result
+     * @param endTimestamp   the run end
+     * @return counts indexed by second since startTimestamp
+     */
+    public synchronized long[] getRequestsBySecond(long startTimestamp, long endTimestamp) {
+        int length = (int) Math.ceil((double) (endTimestamp - startTimestamp)
+                / BulkRequestStatistics.MILLISECS_PER_SEC);
+        long[] result = new long[Math.max(length, 0)];
+        long startSecond = startTimestamp / BulkRequestStatistics.MILLISECS_PER_SEC;
+        for (int i = 0; i < requestsBySecond.length; i++) {
+            long index = firstStartSecond + i - startSecond;
+            if (index >= 0 && index < result.length) {
+                result[(int) index] += requestsBySecond[i];
+            }
+        }
+        return result;
+    }
+
+    public synchronized RunSummary getHeadline() {
+        return headline;
+    }
+
+    public synchronized RunSummary getByPartition() {
+        return byPartition;
+    }
+
+    public synchronized long getNumRequests() {
+        return numRequests;
+    }
+
+    public synchronized long getNumBadRequests() {
+        return numBadRequests;
+    }
+
+    /**
+     * Provides a one line summary of the most recent complete minute, for live progress output.
+     *
+     * @param now the current unix time in milliseconds
+     * @return the summary line
+     */
+    public synchronized String lastMinuteToString(long now) {
+        long lastMinute = now / MILLISECS_PER_MIN - 1;
+        int slot = (int) (lastMinute % ROLLING_MINUTES);
+        if (windowMinute[slot] != lastMinute) {
+            return "Last minute: no requests";
+        }
+        LatencyHistogram latencies = windowLatencies[slot];
+        return String.format("Last minute: %d requests (%.2f/second), %d bad, "
+                        + "median %d ms, p99 %d ms, max %d ms, "
+                        + "%.3f MB/s sent, %.3f MB/s received",
+                windowCount[slot],
+                (double) windowCount[slot] / 60,
+                windowBadCount[slot],
+                latencies.getValueAtPercentile(50),
+                latencies.getValueAtPercentile(99),
+                latencies.getMax(),
+                windowBytesSent[slot] / ByteCounts.BYTES_PER_MB / 60,
+                windowBytesReceived[slot] / ByteCounts.BYTES_PER_MB / 60);
+    }
+
+    /**
+     * Writes the summary to a file, with the headline, per-phase and per-partition histograms in
+     * three more files in the RunSummary format, so the headline file can be given to the compare
+     * mode. Each file is written next to its destination and then moved into place, so a crash
+     * during a checkpoint leaves the previous checkpoint readable.
+     *
+     * @param outFilePath the checkpoint file path
+     * @throws IOException if the checkpoint cannot be written
+     */
+    public synchronized void writeCheckpoint(String outFilePath) throws IOException {
+        headline.writeToFile(outFilePath + ".headline.tmp");
+        byPhase.writeToFile(outFilePath + ".phases.tmp");
+        byPartition.writeToFile(outFilePath + ".partitions.tmp");
+        moveIntoPlace(outFilePath + ".headline");
+        moveIntoPlace(outFilePath + ".phases");
+        moveIntoPlace(outFilePath + ".partitions");
+
+        Path temp = Paths.get(outFilePath + ".tmp");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temp))) {
+            writer.println("counters" + SEP + numRequests + SEP + numBadRequests + SEP
+                    + excludeWarmup);
+            writer.println("seconds" + SEP + firstStartSecond + SEP + joinCounts(requestsBySecond));
+            for (int slot = 0; slot < ROLLING_MINUTES; slot++) {
+                if (windowMinute[slot] >= 0) {
+                    writer.println("window" + SEP + windowMinute[slot] + SEP + windowCount[slot] + SEP
+                            + windowBadCount[slot] + SEP + windowLatencies[slot].toCompactString()
+                            + SEP + windowBytesSent[slot] + SEP + windowBytesReceived[slot]);
+                }
+            }
+        }
+        moveIntoPlace(outFilePath);
+    }
+
+    /**
+     * Atomically replaces a file with its ".tmp" sibling.
+     */
+    private static void moveIntoPlace(String filePath) throws IOException {
+        Files.move(Paths.get(filePath + ".tmp"), Paths.get(filePath),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a summary written by writeCheckpoint.
+     *
+     * @param filePath the checkpoint file path
+     * @return the summary
+     * @throws IOException           if the checkpoint cannot be read
+     * @throws NumberFormatException if the checkpoint is malformed
+     */
+    public static StreamingSummary readCheckpoint(String filePath)
+            throws IOException, NumberFormatException {
+        StreamingSummary summary = null;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(filePath))) {
+            String[] counters = reader.readLine().split(SEP);
+            summary = new StreamingSummary(Boolean.parseBoolean(counters[3]));
+            summary.numRequests = Long.parseLong(counters[1]);
+            summary.numBadRequests = Long.parseLong(counters[2]);
+
+            String[] seconds = reader.readLine().split(SEP);
+            summary.firstStartSecond = Long.parseLong(seconds[1]);
+            summary.requestsBySecond = new long[Math.max(seconds.length - 2, 1)];
+            for (int i = 2; i < seconds.length; i++) {
+                summary.requestsBySecond[i - 2] = Long.parseLong(seconds[i]);
+            }
+
+            String line = reader.readLine();
+            while (line != null) {
+                String[] cols = line.split(SEP);
+                long minute = Long.parseLong(cols[1]);
+                int slot = (int) (minute % ROLLING_MINUTES);
+                summary.windowMinute[slot] = minute;
+                summary.windowCount[slot] = Long.parseLong(cols[2]);
+                summary.windowBadCount[slot] = Long.parseLong(cols[3]);
+                summary.windowLatencies[slot] = LatencyHistogram.fromCompactString(cols[4]);
+                // Checkpoints written before bytes were counted have no byte columns
+                if (cols.length > 6) {
+                    summary.windowBytesSent[slot] = Long.parseLong(cols[5]);
+                    summary.windowBytesReceived[slot] = Long.parseLong(cols[6]);
+                }
+                line = reader.readLine();
+            }
+        }
+        summary.headline = RunSummary.readFromFile(filePath + ".headline");
+        summary.byPhase = RunSummary.readFromFile(filePath + ".phases");
+        // Checkpoints written before partitions were tracked have no partitions file
+        if (Files.exists(Paths.get(filePath + ".partitions"))) {
+            summary.byPartition = RunSummary.readFromFile(filePath + ".partitions");
+        }
+        return summary;
+    }
+
+    /**
+     * Responses outside the 2XX range count as bad, like the ApiExceptions caught by the runners.
+     */
+    private static boolean isBadResponse(int responseCode) {
+        return responseCode < 200 || responseCode >= 300;
+    }
+
+    private void countStartSecond(long startTimestamp) {
+        addStartSecond(startTimestamp / BulkRequestStatistics.MILLISECS_PER_SEC, 1);
+    }
+
+    private void addStartSecond(long second, long count) {
+        if (firstStartSecond < 0) {
+            firstStartSecond = second;
+        }
+        if (second < firstStartSecond) {
+            // Shift existing counts so the earlier second becomes the first bucket
+            int shift = (int) (firstStartSecond - second);
+            long[] shifted = new long[requestsBySecond.length + shift];
+            System.arraycopy(requestsBySecond, 0, shifted, shift, requestsBySecond.length);
+            requestsBySecond = shifted;
+            firstStartSecond = second;
+        }
+        int index = (int) (second - firstStartSecond);
+        if (index >= requestsBySecond.length) {
+            requestsBySecond = Arrays.copyOf(requestsBySecond,
+                    Math.max(index + 1, requestsBySecond.length * 2));
+        }
+        requestsBySecond[index] += count;
+    }
+
+    private static String joinCounts(long[] counts) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                builder.append(SEP);
+            }
+            builder.append(counts[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package statistics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a run summary, built from nested maps, lists, numbers, strings and booleans, as JSON for
+ * tools that gate on a run's results. Numbers that are not finite, e.g. a throughput over no time,
+ * are written as null.
+ */
+public class SummaryJson {
+
+    private static final String INDENT = "  ";
+
+    private SummaryJson() {
+    }
+
+    /**
+     * Writes a summary to a file, overwriting any old file.
+     *
+     * @param summary     the summary
+     * @param outFilePath the output file path
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeToFile(Map<String, Object> summary, String outFilePath)
+            throws IOException {
+        try (PrintWriter writer = new PrintWriter(new File(outFilePath), "UTF-8")) {
+            writer.println(toJson(summary));
+        }
+    }
+
+    /**
+     * Provides a summary as indented JSON.
+     *
+     * @param summary the summary
+     * @return the JSON
+     */
+    public static String toJson(Map<String, Object> summary) {
+        StringBuilder builder = new StringBuilder();
+        append(builder, summary, 0);
+        return builder.toString();
+    }
+
+    private static void append(StringBuilder builder, Object value, int depth) {
+        if (value instanceof Map) {
+            Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+            builder.append('{');
+            while (entries.hasNext()) {
+                Map.Entry<?, ?> entry = entries.next();
+                newline(builder, depth + 1);
+                appendString(builder, String.valueOf(entry.getKey()));
+                builder.append(": ");
+                append(builder, entry.getValue(), depth + 1);
+                if (entries.hasNext()) {
+                    builder.append(',');
+                }
+            }
+            if (!((Map<?, ?>) value).isEmpty()) {
+                newline(builder, depth);
+            }
+            builder.append('}');
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            builder.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                newline(builder, depth + 1);
+                append(builder, list.get(i), depth + 1);
+                if (i < list.size() - 1) {
+                    builder.append(',');
+                }
+            }
+            if (!list.isEmpty()) {
+                newline(builder, depth);
+            }
+            builder.append(']');
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            builder.append(Double.isFinite(number) ? String.valueOf(number) : "null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value);
+        } else if (value == null) {
+            builder.append("null");
+        } else {
+            appendString(builder, value.toString());
+        }
+    }
+
+    private static void newline(StringBuilder builder, int depth) {
+        builder.append('\n');
+        for (int i = 0; i < depth; i++) {
+            builder.append(INDENT);
+        }
+    }
+
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+}
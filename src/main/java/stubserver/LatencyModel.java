@@ -0,0 +1,170 @@
+package stubserver;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The response latency of the stub server, drawn from a known distribution so that the client's
+ * reported percentiles can be checked against the expected ones. Once created, an instance is
+ * immutable.
+ * <p>
+ * Available types:
+ *   - fixed: every response takes latencyMs
+ *   - normal: normally distributed with mean latencyMs and standard deviation latencyStdDevMs,
+ *     cut off at 0
+ *   - longtail: log-normally distributed with median latencyMs and shape latencySigma, so a few
+ *     responses take many times longer than the median
+ */
+public class LatencyModel {
+
+    public enum Type { FIXED, NORMAL, LONGTAIL }
+
+    private static final double MICROS_PER_MILLI = 1000;
+
+    private final Type type;
+    private final double latencyMs;
+    private final double stdDevMs;
+    private final double sigma;
+
+    private LatencyModel(Type type, double latencyMs, double stdDevMs, double sigma) {
+        this.type = type;
+        this.latencyMs = latencyMs;
+        this.stdDevMs = stdDevMs;
+        this.sigma = sigma;
+    }
+
+    /**
+     * Reads a latency model from properties.
+     * Available properties:
+     *   - latency (default: fixed): fixed, normal or longtail
+     *   - latencyMs (default: 10, min: 0): the fixed latency, mean or median
+     *   - latencyStdDevMs (default: 2, min: 0): standard deviation of normal latencies
+     *   - latencySigma (default: 1.0, min: greater than 0): shape of long tail latencies, larger
+     *     gives a longer tail
+     *
+     * @param props the properties
+     * @return the model
+     * @throws IllegalArgumentException if any properties are invalid
+     */
+    public static LatencyModel fromProperties(Properties props) throws IllegalArgumentException {
+        Type type;
+        try {
+            type = Type.valueOf(props.getProperty("latency", "fixed").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("latency must be one of fixed, normal or longtail");
+        }
+
+        double latencyMs, stdDevMs, sigma;
+        try {
+            latencyMs = Double.parseDouble(props.getProperty("latencyMs", "10"));
+            stdDevMs = Double.parseDouble(props.getProperty("latencyStdDevMs", "2"));
+            sigma = Double.parseDouble(props.getProperty("latencySigma", "1.0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "could not parse latency model - malformed numerical data");
+        }
+        if (latencyMs < 0 || stdDevMs < 0) {
+            throw new IllegalArgumentException("latencyMs and latencyStdDevMs cannot be negative");
+        }
+        if (sigma <= 0) {
+            throw new IllegalArgumentException("latencySigma must be greater than 0");
+        }
+        return new LatencyModel(type, latencyMs, stdDevMs, sigma);
+    }
+
+    /**
+     * Draws the latency of one response.
+     *
+     * @return the latency in microseconds
+     */
+    public long nextMicros() {
+        double millis;
+        switch (type) {
+            case NORMAL:
+                millis = latencyMs + stdDevMs * ThreadLocalRandom.current().nextGaussian();
+                break;
+            case LONGTAIL:
+                millis = latencyMs * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+                break;
+            default:
+                millis = latencyMs;
+        }
+        return Math.max(0, Math.round(millis * MICROS_PER_MILLI));
+    }
+
+    /**
+     * Gives the latency at a percentile of the distribution, what the client should measure apart
+     * from its own and the network's overhead.
+     *
+     * @param percentile the percentile, between 0 and 100 exclusive
+     * @return the latency in milliseconds
+     */
+    public double getExpectedPercentileMs(double percentile) {
+        double z = inverseNormal(percentile / 100);
+        switch (type) {
+            case NORMAL:
+                return Math.max(0, latencyMs + stdDevMs * z);
+            case LONGTAIL:
+                return latencyMs * Math.exp(sigma * z);
+            default:
+                return latencyMs;
+        }
+    }
+
+    /**
+     * Gives the mean of the distribution.
+     *
+     * @return the mean latency in milliseconds
+     */
+    public double getExpectedMeanMs() {
+        // The normal cut off at 0 is ignored, it only matters when the deviation is close to the mean
+        return type == Type.LONGTAIL ? latencyMs * Math.exp(sigma * sigma / 2) : latencyMs;
+    }
+
+    /**
+     * Inverse of the standard normal distribution function, by Acklam's rational approximation,
+     * which has a relative error below 1.15e-9.
+     *
+     * @param p the probability, between 0 and 1 exclusive
+     * @return z such that P(Z <= z) = p
+     */
+    static double inverseNormal(double p) {
+        final double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+                1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+        final double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+                6.680131188771972e+01, -1.328068155288572e+01};
+        final double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+                -2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+        final double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+                3.754408661907416e+00};
+        final double low = 0.02425;
+
+        if (p < low) {
+            double q = Math.sqrt(-2 * Math.log(p));
+            return (((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        if (p > 1 - low) {
+            double q = Math.sqrt(-2 * Math.log(1 - p));
+            return -(((((c[0] * q + c[1]) * q + c[2]) * q + c[3]) * q + c[4]) * q + c[5])
+                    / ((((d[0] * q + d[1]) * q + d[2]) * q + d[3]) * q + 1);
+        }
+        double q = p - 0.5;
+        double r = q * q;
+        return (((((a[0] * r + a[1]) * r + a[2]) * r + a[3]) * r + a[4]) * r + a[5]) * q
+                / (((((b[0] * r + b[1]) * r + b[2]) * r + b[3]) * r + b[4]) * r + 1);
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case NORMAL:
+                return String.format("normal, mean %.2f ms, standard deviation %.2f ms",
+                        latencyMs, stdDevMs);
+            case LONGTAIL:
+                return String.format("long tail, median %.2f ms, sigma %.2f", latencyMs, sigma);
+            default:
+                return String.format("fixed %.2f ms", latencyMs);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package stubserver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A stand-in for the skiers API server, to benchmark the client itself or to test it without the
+ * real server. It answers the paths PhaseRunner calls, under any base path, after a latency drawn
+ * from a LatencyModel, and prints the percentiles the client should measure.
+ * <p>
+ * Responses are delayed on a scheduler rather than by sleeping, so the request threads are free
+ * while responses wait and the server stays fast at high request rates.
+ * <p>
+ * Usage: stub [propertiesFile]
+ * <p>
+ * Available properties, besides the latency model's:
+ *   - port (default: 8081)
+ *   - threads (default: 64, min: 1): threads handling requests, and as many sending responses
+ *   - errorRate (default: 0, min: 0, max: 1): fraction of requests answered with a 500
+ *   - payloadBytes (default: 0, min: 0): GET responses are padded to at least this size
+ */
+public class StubServer {
+
+    public static final int EXIT_ERROR = 1;
+    private static final Logger logger = LogManager.getLogger(StubServer.class);
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 95, 99, 99.9};
+    private static final Pattern LIFT_RIDES = Pattern.compile(".*/skiers/liftrides/?");
+    // The default batchPath of a client that batches lift rides
+    private static final Pattern LIFT_RIDE_BATCH = Pattern.compile(".*/skiers/liftrides/batch/?");
+    private static final Pattern DAY_VERTICAL =
+            Pattern.compile(".*/skiers/[^/]+/days/[^/]+/skiers/[^/]+/?");
+    private static final Pattern RESORT_VERTICAL = Pattern.compile(".*/skiers/[^/]+/vertical/?");
+    private static final byte[] ERROR_BODY =
+            "{\"message\":\"stub server error\"}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_BODY =
+            "{\"message\":\"not found\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final int port;
+    private final int numThreads;
+    private final LatencyModel latency;
+    private final double errorRate;
+    private final byte[] verticalBody;
+    private final AtomicLong numRequests = new AtomicLong();
+    private final AtomicLong numErrors = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService requestExecutor;
+    private ScheduledExecutorService responseScheduler;
+
+    /**
+     * Constructor for a StubServer.
+     *
+     * @param props the server properties
+     * @throws IllegalArgumentException if any properties are invalid
+     */
+    public StubServer(Properties props) throws IllegalArgumentException {
+        int payloadBytes;
+        try {
+            this.port = Integer.parseInt(props.getProperty("port", "8081").trim());
+            this.numThreads = Integer.parseInt(props.getProperty("threads", "64").trim());
+            this.errorRate = Double.parseDouble(props.getProperty("errorRate", "0"));
+            payloadBytes = Integer.parseInt(props.getProperty("payloadBytes", "0").trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "could not parse stub properties - malformed numerical data");
+        }
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("errorRate must be between 0 and 1, inclusive");
+        }
+        if (payloadBytes < 0) {
+            throw new IllegalArgumentException("payloadBytes cannot be negative");
+        }
+        this.latency = LatencyModel.fromProperties(props);
+        this.verticalBody = verticalBody(payloadBytes);
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.out.println("Usage: stub [propertiesFile]");
+            System.exit(EXIT_ERROR);
+        }
+
+        StubServer stub = null;
+        try {
+            Properties props = new Properties();
+            if (args.length == 1) {
+                try (FileInputStream fis = new FileInputStream(args[0])) {
+                    props.load(fis);
+                }
+            }
+            stub = new StubServer(props);
+            stub.start();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not start stub server: " + e.getMessage());
+            System.exit(EXIT_ERROR);
+        }
+        System.out.println(stub.describe());
+
+        // Serve until the process is stopped
+        final StubServer running = stub;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            running.stop();
+            System.out.println(running.getNumRequests() + " requests served, "
+                    + running.getNumErrors() + " errors");
+        }));
+    }
+
+    /**
+     * Starts serving in the background.
+     *
+     * @throws IOException if the port cannot be bound
+     */
+    public void start() throws IOException {
+        // Headers and body are written separately, which Nagle's algorithm would hold back for the
+        // client's delayed ACK, adding tens of milliseconds to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        requestExecutor = Executors.newFixedThreadPool(numThreads);
+        responseScheduler = Executors.newScheduledThreadPool(numThreads);
+        server.setExecutor(requestExecutor);
+        server.createContext("/", this::handle);
+        server.start();
+        logger.info("Stub server listening on port " + getPort());
+    }
+
+    /**
+     * Stops serving, dropping responses still waiting to be sent.
+     */
+    public void stop() {
+        server.stop(0);
+        responseScheduler.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * Gives the port the server listens on, useful when it was started on port 0.
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return server == null ? port : server.getAddress().getPort();
+    }
+
+    public long getNumRequests() {
+        return numRequests.get();
+    }
+
+    public long getNumErrors() {
+        return numErrors.get();
+    }
+
+    public LatencyModel getLatencyModel() {
+        return latency;
+    }
+
+    /**
+     * Describes the server and the latencies a client should expect from it.
+     *
+     * @return the description
+     */
+    public String describe() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Stub server listening on port ").append(getPort()).append("\n");
+        builder.append("Latency: ").append(latency).append("\n");
+        builder.append(String.format("Error Rate: %.4f\n", errorRate));
+        builder.append("GET Payload: ").append(verticalBody.length).append(" bytes\n");
+        builder.append("Expected latencies (ms), before client and network overhead:\n");
+        builder.append(String.format("\tMean: %.2f\n", latency.getExpectedMeanMs()));
+        for (double percentile : REPORTED_PERCENTILES) {
+            builder.append(String.format("\t%sth Percentile: %.2f\n",
+                    percentile == Math.rint(percentile)
+                            ? String.valueOf((int) percentile) : String.valueOf(percentile),
+                    latency.getExpectedPercentileMs(percentile)));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads a request, picks its response, and sends it once its latency has passed.
+     *
+     * @param exchange the request and response
+     */
+    private void handle(HttpExchange exchange) {
+        try {
+            drain(exchange.getRequestBody());
+        } catch (IOException e) {
+            exchange.close();
+            return;
+        }
+        numRequests.incrementAndGet();
+
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        int status;
+        byte[] body;
+        if (method.equals("POST") && (LIFT_RIDES.matcher(path).matches()
+                || LIFT_RIDE_BATCH.matcher(path).matches())) {
+            status = 201;
+            body = new byte[0];
+        } else if (method.equals("GET") && (DAY_VERTICAL.matcher(path).matches()
+                || RESORT_VERTICAL.matcher(path).matches())) {
+            status = 200;
+            body = verticalBody;
+        } else {
+            status = 404;
+            body = NOT_FOUND_BODY;
+        }
+        if (status != 404 && errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            numErrors.incrementAndGet();
+            status = 500;
+            body = ERROR_BODY;
+        }
+
+        long delay = latency.nextMicros();
+        final int responseStatus = status;
+        final byte[] responseBody = body;
+        if (delay == 0) {
+            respond(exchange, responseStatus, responseBody);
+        } else {
+            responseScheduler.schedule(() -> respond(exchange, responseStatus, responseBody),
+                    delay, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            // -1 tells the server there is no body
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        } catch (IOException e) {
+            // The client went away, e.g. a cancelled or hedged request
+            logger.debug("Could not send response: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // Discard
+        }
+        in.close();
+    }
+
+    /**
+     * Builds the response to both GET vertical paths: a skier's vertical for one season, padded
+     * with a field the client ignores.
+     *
+     * @param payloadBytes the least size of the response
+     * @return the response body
+     */
+    private static byte[] verticalBody(int payloadBytes) {
+        String body = "{\"resorts\":[{\"seasonID\":\"2020\",\"totalVert\":12345}]}";
+        int padding = payloadBytes - body.length() - ",\"padding\":\"\"".length();
+        if (padding > 0) {
+            char[] filler = new char[padding];
+            Arrays.fill(filler, 'x');
+            body = body.substring(0, body.length() - 1)
+                    + ",\"padding\":\"" + new String(filler) + "\"}";
+        }
+        return body.getBytes(StandardCharsets.UTF_8);
+    }
+}
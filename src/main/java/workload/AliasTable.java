@@ -0,0 +1,87 @@
+package workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples indices from a fixed discrete distribution in constant time, using Vose's alias method.
+ * Building the table is linear in the number of weights; sampling takes one random int and one
+ * random double, whatever the distribution.
+ */
+public class AliasTable {
+
+    private double[] prob;
+    private int[] alias;
+
+    /**
+     * Builds an alias table for the given weights.
+     *
+     * @param weights relative weight of each index, need not sum to 1
+     * @throws IllegalArgumentException if there are no weights, or any are negative, or all are zero
+     */
+    public AliasTable(double[] weights) throws IllegalArgumentException {
+        int n = weights.length;
+        double sum = 0;
+        for (double weight : weights) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("weights cannot be negative");
+            }
+            sum += weight;
+        }
+        if (n == 0 || sum <= 0) {
+            throw new IllegalArgumentException("weights must have a positive sum");
+        }
+
+        // Scale so the average weight is 1, then pair each small weight with a large one
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int numSmall = 0;
+        int numLarge = 0;
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / sum;
+            if (scaled[i] < 1) {
+                small[numSmall++] = i;
+            } else {
+                large[numLarge++] = i;
+            }
+        }
+
+        this.prob = new double[n];
+        this.alias = new int[n];
+        while (numSmall > 0 && numLarge > 0) {
+            int less = small[--numSmall];
+            int more = large[--numLarge];
+            prob[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            if (scaled[more] < 1) {
+                small[numSmall++] = more;
+            } else {
+                large[numLarge++] = more;
+            }
+        }
+
+        // Whatever is left is 1 up to rounding error
+        while (numLarge > 0) {
+            prob[large[--numLarge]] = 1;
+        }
+        while (numSmall > 0) {
+            prob[small[--numSmall]] = 1;
+        }
+    }
+
+    /**
+     * Draws an index.
+     *
+     * @param rand the random number generator to draw with
+     * @return an index between 0 (inclusive) and the number of weights (exclusive)
+     */
+    public int sample(SplittableRandom rand) {
+        int column = rand.nextInt(prob.length);
+        return rand.nextDouble() < prob[column] ? column : alias[column];
+    }
+
+    public int size() {
+        return prob.length;
+    }
+}
@@ -0,0 +1,179 @@
+package workload;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Describes how request keys are chosen from a range, and creates a KeyDistribution for any range.
+ * Once created, an instance is immutable.
+ * <p>
+ * Available types:
+ *   - uniform: every key is equally likely
+ *   - zipf: the key at rank k (the lowest key has rank 1) has weight 1/k^exponent
+ *   - hotspot: a fraction of the keys at the low end of the range gets a fraction of the traffic
+ *   - sequential: keys are used in order, wrapping around at the end of the range
+ */
+public class DistributionSpec {
+
+    public enum Type { UNIFORM, ZIPF, HOTSPOT, SEQUENTIAL }
+
+    // Zipf tables depend only on size and exponent, so runners with same sized ranges share one
+    private static final Map<String, AliasTable> zipfTables = new ConcurrentHashMap<>();
+
+    private final Type type;
+    private final double zipfExponent;
+    private final double hotKeyFraction;
+    private final double hotTrafficFraction;
+
+    private DistributionSpec(Type type, double zipfExponent, double hotKeyFraction,
+                             double hotTrafficFraction) {
+        this.type = type;
+        this.zipfExponent = zipfExponent;
+        this.hotKeyFraction = hotKeyFraction;
+        this.hotTrafficFraction = hotTrafficFraction;
+    }
+
+    /**
+     * Reads a distribution from properties, where every property name starts with a prefix.
+     * Available properties:
+     *   - (prefix)Distribution (default: uniform): uniform, zipf, hotspot or sequential
+     *   - (prefix)ZipfExponent (default: 1.0, min: greater than 0)
+     *   - (prefix)HotKeyFraction (default: 0.1, min: greater than 0, max: 1)
+     *   - (prefix)HotTrafficFraction (default: 0.9, min: 0, max: 1)
+     *
+     * @param props  the properties
+     * @param prefix the property name prefix, e.g. "skier"
+     * @return the distribution
+     * @throws IllegalArgumentException if any properties are invalid
+     */
+    public static DistributionSpec fromProperties(Properties props, String prefix)
+            throws IllegalArgumentException {
+        String typeName = prefix + "Distribution";
+        String exponentName = prefix + "ZipfExponent";
+        String hotKeysName = prefix + "HotKeyFraction";
+        String hotTrafficName = prefix + "HotTrafficFraction";
+
+        Type type;
+        try {
+            type = Type.valueOf(props.getProperty(typeName, "uniform").trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(
+                    typeName + " must be one of uniform, zipf, hotspot or sequential");
+        }
+
+        double zipfExponent, hotKeyFraction, hotTrafficFraction;
+        try {
+            zipfExponent = Double.parseDouble(props.getProperty(exponentName, "1.0"));
+            hotKeyFraction = Double.parseDouble(props.getProperty(hotKeysName, "0.1"));
+            hotTrafficFraction = Double.parseDouble(props.getProperty(hotTrafficName, "0.9"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "could not parse " + prefix + " distribution - malformed numerical data");
+        }
+
+        if (zipfExponent <= 0) {
+            throw new IllegalArgumentException(exponentName + " must be greater than 0");
+        }
+        if (hotKeyFraction <= 0 || hotKeyFraction > 1) {
+            throw new IllegalArgumentException(hotKeysName + " must be greater than 0 and at most 1");
+        }
+        if (hotTrafficFraction < 0 || hotTrafficFraction > 1) {
+            throw new IllegalArgumentException(hotTrafficName + " must be between 0 and 1, inclusive");
+        }
+        return new DistributionSpec(type, zipfExponent, hotKeyFraction, hotTrafficFraction);
+    }
+
+    /**
+     * Creates a distribution over an inclusive range. Sampling from the result is constant time.
+     *
+     * @param low  low bound
+     * @param high high bound
+     * @return a new distribution, which should not be shared between runners
+     * @throws IllegalArgumentException if low is greater than high
+     */
+    public KeyDistribution create(int low, int high) throws IllegalArgumentException {
+        if (low > high) {
+            throw new IllegalArgumentException("low bound cannot be greater than high bound");
+        }
+        int size = high - low + 1;
+        switch (type) {
+            case ZIPF:
+                AliasTable table = zipfTable(size);
+                return rand -> low + table.sample(rand);
+            case HOTSPOT:
+                return createHotspot(low, size);
+            case SEQUENTIAL:
+                return new SequentialDistribution(low, size);
+            default:
+                return rand -> low + rand.nextInt(size);
+        }
+    }
+
+    /**
+     * Creates a hotspot distribution: the hot keys are drawn with the hot traffic fraction and the
+     * rest of the range with the remaining traffic, each uniformly.
+     */
+    private KeyDistribution createHotspot(int low, int size) {
+        int numHot = (int) Math.max(1, Math.min(size, Math.round(hotKeyFraction * size)));
+        if (numHot == size) {
+            return rand -> low + rand.nextInt(size);
+        }
+        return rand -> rand.nextDouble() < hotTrafficFraction
+                ? low + rand.nextInt(numHot)
+                : low + numHot + rand.nextInt(size - numHot);
+    }
+
+    /**
+     * Gets or builds the alias table for a Zipf distribution over a number of keys.
+     */
+    private AliasTable zipfTable(int size) {
+        String key = size + ":" + zipfExponent;
+        return zipfTables.computeIfAbsent(key, k -> {
+            double[] weights = new double[size];
+            for (int rank = 1; rank <= size; rank++) {
+                weights[rank - 1] = 1 / Math.pow(rank, zipfExponent);
+            }
+            return new AliasTable(weights);
+        });
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case ZIPF:
+                return "zipf(exponent=" + zipfExponent + ")";
+            case HOTSPOT:
+                return "hotspot(keys=" + hotKeyFraction + ", traffic=" + hotTrafficFraction + ")";
+            default:
+                return type.name().toLowerCase();
+        }
+    }
+
+    /**
+     * Walks through the range in order, starting over at the end.
+     */
+    private static class SequentialDistribution implements KeyDistribution {
+
+        private final int low;
+        private final int size;
+        private int offset;
+
+        private SequentialDistribution(int low, int size) {
+            this.low = low;
+            this.size = size;
+        }
+
+        @Override
+        public int next(SplittableRandom rand) {
+            int key = low + offset;
+            offset = (offset + 1 == size) ? 0 : offset + 1;
+            return key;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package workload;
+
+import io.swagger.client.ApiException;
+import io.swagger.client.ApiResponse;
+import io.swagger.client.api.ResortsApi;
+import io.swagger.client.api.SkiersApi;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An API endpoint that requests can be sent to. Once created, an instance is immutable.
+ * <p>
+ * The built in endpoints are called directly by the runners. Further endpoints can be configured
+ * from properties, naming a ...WithHttpInfo method of the generated SkiersApi or ResortsApi client
+ * and the arguments to call it with, and are called through reflection.
+ */
+public class Endpoint {
+
+    public static final String POST_LIFT_RIDE = "postLiftRide";
+    public static final String GET_DAY_VERTICAL = "getDayVertical";
+    public static final String GET_RESORT_VERTICAL = "getResortVertical";
+
+    // Argument template values, replaced with the request's parameters
+    private static final String RESORT_PARAM = "{resort}";
+    private static final String DAY_PARAM = "{day}";
+    private static final String SKIER_PARAM = "{skier}";
+    private static final String LIFT_PARAM = "{lift}";
+    private static final String TIME_PARAM = "{time}";
+
+    private final String name;
+    private final String httpMethod;
+    private final String path;
+    private final boolean usesResort;
+    private final boolean usesDay;
+    private final boolean usesSkier;
+    private final boolean usesLift;
+    private final boolean usesTime;
+    private final String api;
+    private final Method call;
+    private final List<String> argTemplates;
+
+    private Endpoint(String name, String httpMethod, String path, boolean usesResort,
+                     boolean usesDay, boolean usesSkier, boolean usesLift, boolean usesTime,
+                     String api, Method call, List<String> argTemplates) {
+        this.name = name;
+        this.httpMethod = httpMethod;
+        this.path = path;
+        this.usesResort = usesResort;
+        this.usesDay = usesDay;
+        this.usesSkier = usesSkier;
+        this.usesLift = usesLift;
+        this.usesTime = usesTime;
+        this.api = api;
+        this.call = call;
+        this.argTemplates = argTemplates;
+    }
+
+    /**
+     * Reads the built in endpoints and any configured ones from properties.
+     * Available properties:
+     *   - endpoints: comma separated names of further endpoints, each configured with
+     *   - endpoint.(name).api (default: skiers): skiers or resorts
+     *   - endpoint.(name).call: name of a ...WithHttpInfo method of that API
+     *   - endpoint.(name).args: comma separated arguments. {resort}, {day}, {skier}, {lift} and
+     *     {time} are replaced with the request's parameters, anything else is passed as is. List
+     *     parameters get a one element list, the argument may be wrapped in [] to show this.
+     *   - endpoint.(name).method (default: GET): HTTP method, for reporting
+     *   - endpoint.(name).path (default: /(name)): path, for reporting
+     *
+     * @param props the properties
+     * @return endpoints by name, built in ones first
+     * @throws IllegalArgumentException if any endpoint properties are invalid
+     */
+    public static Map<String, Endpoint> fromProperties(Properties props)
+            throws IllegalArgumentException {
+        Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+        endpoints.put(POST_LIFT_RIDE, new Endpoint(POST_LIFT_RIDE, "POST", "/skiers/liftrides",
+                true, true, true, true, true, null, null, null));
+        endpoints.put(GET_DAY_VERTICAL, new Endpoint(GET_DAY_VERTICAL, "GET",
+                "/skiers/{resortID}/days/{dayID}/skiers/{skierID}",
+                true, true, true, false, false, null, null, null));
+        endpoints.put(GET_RESORT_VERTICAL, new Endpoint(GET_RESORT_VERTICAL, "GET",
+                "/skiers/{skierID}/vertical", true, false, true, false, false, null, null, null));
+
+        String names = props.getProperty("endpoints", "").trim();
+        if (names.isEmpty()) {
+            return endpoints;
+        }
+        for (String rawName : names.split(",")) {
+            String name = rawName.trim();
+            if (endpoints.containsKey(name)) {
+                throw new IllegalArgumentException("endpoint " + name + " is defined twice");
+            }
+            endpoints.put(name, configured(props, name));
+        }
+        return endpoints;
+    }
+
+    /**
+     * Reads one configured endpoint and finds the API method it calls.
+     */
+    private static Endpoint configured(Properties props, String name) throws IllegalArgumentException {
+        String prefix = "endpoint." + name + ".";
+        String api = props.getProperty(prefix + "api", "skiers").trim();
+        String callName = props.getProperty(prefix + "call");
+        String rawArgs = props.getProperty(prefix + "args", "").trim();
+        String httpMethod = props.getProperty(prefix + "method", "GET").trim().toUpperCase();
+        String path = props.getProperty(prefix + "path", "/" + name).trim();
+        if (callName == null) {
+            throw new IllegalArgumentException(prefix + "call is required");
+        }
+
+        Class<?> apiClass;
+        if (api.equals("skiers")) {
+            apiClass = SkiersApi.class;
+        } else if (api.equals("resorts")) {
+            apiClass = ResortsApi.class;
+        } else {
+            throw new IllegalArgumentException(prefix + "api must be skiers or resorts");
+        }
+
+        List<String> argTemplates = rawArgs.isEmpty()
+                ? Collections.<String>emptyList()
+                : Arrays.asList(rawArgs.split("\\s*,\\s*"));
+        Method call = null;
+        for (Method method : apiClass.getMethods()) {
+            if (method.getName().equals(callName.trim())
+                    && method.getParameterCount() == argTemplates.size()) {
+                call = method;
+                break;
+            }
+        }
+        if (call == null) {
+            throw new IllegalArgumentException(prefix + "call " + callName + " with "
+                    + argTemplates.size() + " arguments not found in the " + api + " API");
+        }
+        if (!ApiResponse.class.isAssignableFrom(call.getReturnType())) {
+            throw new IllegalArgumentException(prefix + "call must be a ...WithHttpInfo method");
+        }
+        Class<?>[] types = call.getParameterTypes();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Integer.class || types[i] == int.class) {
+                String template = argTemplates.get(i);
+                if (!template.matches("-?\\d+") && !template.equals(DAY_PARAM)
+                        && !template.equals(SKIER_PARAM) && !template.equals(LIFT_PARAM)
+                        && !template.equals(TIME_PARAM)) {
+                    throw new IllegalArgumentException(prefix + "args " + template
+                            + " is passed as an integer and must be one");
+                }
+            } else if (types[i] != String.class && types[i] != List.class) {
+                throw new IllegalArgumentException(prefix + "call takes a " + types[i].getSimpleName()
+                        + " argument, only strings, integers and lists are supported");
+            }
+        }
+
+        String joined = String.join(",", argTemplates);
+        return new Endpoint(name, httpMethod, path, joined.contains(RESORT_PARAM),
+                joined.contains(DAY_PARAM), joined.contains(SKIER_PARAM), joined.contains(LIFT_PARAM),
+                joined.contains(TIME_PARAM), api, call, argTemplates);
+    }
+
+    /**
+     * Calls a configured endpoint for one request.
+     *
+     * @param skiersApi  the runner's SkiersApi
+     * @param resortsApi the runner's ResortsApi
+     * @param request    the request
+     * @return the response status code
+     * @throws ApiException if the call fails or the response is not successful
+     * @throws IllegalStateException if this is a built in endpoint
+     */
+    public int invoke(SkiersApi skiersApi, ResortsApi resortsApi, RequestDescriptor request)
+            throws ApiException {
+        if (call == null) {
+            throw new IllegalStateException(name + " is a built in endpoint");
+        }
+        Class<?>[] types = call.getParameterTypes();
+        Object[] args = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            args[i] = argument(argTemplates.get(i), types[i], request);
+        }
+
+        try {
+            ApiResponse<?> resp = (ApiResponse<?>) call.invoke(
+                    api.equals("resorts") ? resortsApi : skiersApi, args);
+            return resp.getStatusCode();
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof ApiException) {
+                throw (ApiException) e.getCause();
+            }
+            throw new ApiException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new ApiException(e);
+        }
+    }
+
+    /**
+     * Fills in one argument template and converts it to the parameter's type.
+     */
+    private static Object argument(String template, Class<?> type, RequestDescriptor request) {
+        boolean isList = template.startsWith("[") && template.endsWith("]");
+        String value = isList ? template.substring(1, template.length() - 1) : template;
+        value = value.replace(RESORT_PARAM, request.getResort())
+                .replace(DAY_PARAM, String.valueOf(request.getDay()))
+                .replace(SKIER_PARAM, String.valueOf(request.getSkierId()))
+                .replace(LIFT_PARAM, String.valueOf(request.getLiftId()))
+                .replace(TIME_PARAM, String.valueOf(request.getTime()));
+
+        if (type == List.class) {
+            return Collections.singletonList(value);
+        }
+        if (type == Integer.class || type == int.class) {
+            return Integer.valueOf(value);
+        }
+        return value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHttpMethod() {
+        return httpMethod;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Gives the key requests to this endpoint are reported under, e.g. "GET /skiers/{skierID}/vertical".
+     *
+     * @return the method and path
+     */
+    public String getKey() {
+        return httpMethod + " " + path;
+    }
+
+    public boolean usesResort() {
+        return usesResort;
+    }
+
+    public boolean usesDay() {
+        return usesDay;
+    }
+
+    public boolean usesSkier() {
+        return usesSkier;
+    }
+
+    public boolean usesLift() {
+        return usesLift;
+    }
+
+    public boolean usesTime() {
+        return usesTime;
+    }
+
+    public boolean isBuiltIn() {
+        return call == null;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,222 @@
+package workload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads requests over several server hosts, shared by all runners. A host that fails a number of
+ * requests in a row is ejected for a while; if every host is ejected, they are all used anyway.
+ * <p>
+ * Balancing policies:
+ *   - roundRobin: each host in turn
+ *   - leastOutstanding: the host with the fewest requests in flight
+ *   - powerOfTwo: the faster, by recent latency, of two hosts picked at random
+ */
+public class HostBalancer {
+
+    public enum Policy {
+        ROUND_ROBIN("roundRobin"),
+        LEAST_OUTSTANDING("leastOutstanding"),
+        POWER_OF_TWO("powerOfTwo");
+
+        private final String propertyName;
+
+        Policy(String propertyName) {
+            this.propertyName = propertyName;
+        }
+
+        /**
+         * Parses a policy from its property name.
+         *
+         * @param raw the property value
+         * @return the policy
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        public static Policy parse(String raw) throws IllegalArgumentException {
+            for (Policy policy : values()) {
+                if (policy.propertyName.equalsIgnoreCase(raw.trim())) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException(
+                    "loadBalancing must be roundRobin, leastOutstanding or powerOfTwo");
+        }
+
+        @Override
+        public String toString() {
+            return propertyName;
+        }
+    }
+
+    // Weight of the newest latency in a host's moving average
+    private static final double LATENCY_ALPHA = 0.1;
+
+    private final Policy policy;
+    private final int ejectAfterFailures;
+    private final long ejectMillis;
+    private final AtomicInteger nextRoundRobin = new AtomicInteger();
+    private final List<Host> hosts = new ArrayList<>();
+
+    /**
+     * Constructor for a HostBalancer.
+     *
+     * @param addresses          the host addresses, at least one
+     * @param policy             how hosts are picked
+     * @param ejectAfterFailures consecutive failures before a host is ejected, 0 to never eject
+     * @param ejectSecs          how long an ejected host is left out
+     * @throws IllegalArgumentException if there are no hosts
+     */
+    public HostBalancer(List<String> addresses, Policy policy, int ejectAfterFailures, int ejectSecs)
+            throws IllegalArgumentException {
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("there must be at least one host");
+        }
+        for (String address : addresses) {
+            hosts.add(new Host(address));
+        }
+        this.policy = policy;
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.ejectMillis = ejectSecs * 1000L;
+    }
+
+    /**
+     * Picks a host for a request and counts the request as outstanding on it. Every call must be
+     * followed by a call to release().
+     *
+     * @return the host index
+     */
+    public int acquire() {
+        long now = System.currentTimeMillis();
+        int index;
+        switch (policy) {
+            case LEAST_OUTSTANDING:
+                index = leastOutstanding(now);
+                break;
+            case POWER_OF_TWO:
+                index = powerOfTwo(now);
+                break;
+            default:
+                index = roundRobin(now);
+        }
+        hosts.get(index).outstanding.incrementAndGet();
+        return index;
+    }
+
+    /**
+     * Ends a request picked by acquire().
+     *
+     * @param index     the host index
+     * @param latency   the request latency in milliseconds
+     * @param hostError true if the host failed the request, e.g. a 5XX response or a lost
+     *                  connection, as opposed to a client error
+     */
+    public void release(int index, long latency, boolean hostError) {
+        Host host = hosts.get(index);
+        host.outstanding.decrementAndGet();
+        // Racy, but a lost update only skews the moving average slightly
+        host.avgLatency += LATENCY_ALPHA * (latency - host.avgLatency);
+        if (!hostError) {
+            host.consecutiveFailures.set(0);
+            return;
+        }
+        if (ejectAfterFailures > 0
+                && host.consecutiveFailures.incrementAndGet() >= ejectAfterFailures) {
+            host.consecutiveFailures.set(0);
+            host.ejectedUntil = System.currentTimeMillis() + ejectMillis;
+            host.numEjections.incrementAndGet();
+        }
+    }
+
+    public String getAddress(int index) {
+        return hosts.get(index).address;
+    }
+
+    public int getNumHosts() {
+        return hosts.size();
+    }
+
+    public int getNumEjections(int index) {
+        return hosts.get(index).numEjections.get();
+    }
+
+    private int roundRobin(long now) {
+        int start = Math.floorMod(nextRoundRobin.getAndIncrement(), hosts.size());
+        for (int i = 0; i < hosts.size(); i++) {
+            int index = (start + i) % hosts.size();
+            if (hosts.get(index).isAvailable(now)) {
+                return index;
+            }
+        }
+        return start;
+    }
+
+    private int leastOutstanding(long now) {
+        // Start the scan at a random host so that ties do not all go to the first one
+        int start = ThreadLocalRandom.current().nextInt(hosts.size());
+        int best = -1;
+        for (int i = 0; i < hosts.size(); i++) {
+            int index = (start + i) % hosts.size();
+            Host host = hosts.get(index);
+            if (host.isAvailable(now) && (best < 0
+                    || host.outstanding.get() < hosts.get(best).outstanding.get())) {
+                best = index;
+            }
+        }
+        return best >= 0 ? best : start;
+    }
+
+    private int powerOfTwo(long now) {
+        List<Integer> available = new ArrayList<>(hosts.size());
+        for (int i = 0; i < hosts.size(); i++) {
+            if (hosts.get(i).isAvailable(now)) {
+                available.add(i);
+            }
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        if (available.isEmpty()) {
+            return rand.nextInt(hosts.size());
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+        int first = rand.nextInt(available.size());
+        int second = rand.nextInt(available.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Host a = hosts.get(available.get(first));
+        Host b = hosts.get(available.get(second));
+        return available.get(a.avgLatency <= b.avgLatency ? first : second);
+    }
+
+    @Override
+    public String toString() {
+        List<String> addresses = new ArrayList<>();
+        for (Host host : hosts) {
+            addresses.add(host.address);
+        }
+        return policy + " over " + addresses;
+    }
+
+    /**
+     * A host's address and live state.
+     */
+    private static class Host {
+        private final String address;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicInteger numEjections = new AtomicInteger();
+        private volatile double avgLatency;
+        private volatile long ejectedUntil;
+
+        private Host(String address) {
+            this.address = address;
+        }
+
+        private boolean isAvailable(long now) {
+            return now >= ejectedUntil;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package workload;
+
+import java.util.SplittableRandom;
+
+/**
+ * Chooses request keys (skier IDs, lift IDs or times) from an inclusive range. Instances may keep
+ * state, so each runner needs its own.
+ */
+public interface KeyDistribution {
+
+    /**
+     * Draws the next key.
+     *
+     * @param rand the runner's random number generator
+     * @return a key within the distribution's range
+     */
+    int next(SplittableRandom rand);
+}
@@ -0,0 +1,86 @@
+package workload;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A lock-free rate limiter using the generic cell rate algorithm (GCRA), the virtual scheduling
+ * form of a token bucket. The only state is the theoretical arrival time of the next permit, which
+ * threads advance with a compare-and-set, so acquiring never blocks on a lock, only on the wait the
+ * rate itself requires.
+ */
+public class RateLimiter {
+
+    // Longest a waiter parks before checking whether it has been stopped
+    private static final long PARK_SLICE_NANOS = 10_000_000;
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextFree;
+
+    /**
+     * Constructor for a RateLimiter.
+     *
+     * @param permitsPerSec the sustained rate
+     * @param burst         how many permits can be taken at once after an idle period, at least 1
+     * @throws IllegalArgumentException if the rate is not positive or the burst is less than 1
+     */
+    public RateLimiter(double permitsPerSec, int burst) throws IllegalArgumentException {
+        if (!(permitsPerSec > 0) || burst < 1) {
+            throw new IllegalArgumentException("rate must be positive and burst at least 1");
+        }
+        this.intervalNanos = Math.max(1, (long) (1e9 / permitsPerSec));
+        this.burstNanos = (burst - 1) * intervalNanos;
+        this.nextFree = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Reserves the next permit and waits until it is due, unless it would only be due after a
+     * deadline, in which case none is reserved. The wait is parked in slices, so a caller that is
+     * stopped while waiting returns within one slice; its permit is then wasted.
+     *
+     * @param deadlineMillis the unix time in milliseconds the permit must be due by, or 0 for none
+     * @param stopped        checked between slices, true to stop waiting
+     * @return how long the caller waited, in nanoseconds, or -1 if it got no permit or was stopped
+     */
+    public long acquire(long deadlineMillis, BooleanSupplier stopped) {
+        long now = System.nanoTime();
+        long latestDue = deadlineMillis == 0 ? Long.MAX_VALUE
+                : now + (deadlineMillis - System.currentTimeMillis()) * 1_000_000;
+        long due;
+        while (true) {
+            long current = nextFree.get();
+            // Idle time earns at most a burst worth of permits
+            due = Math.max(current, now - burstNanos);
+            if (due > latestDue) {
+                return -1;
+            }
+            if (nextFree.compareAndSet(current, due + intervalNanos)) {
+                break;
+            }
+        }
+
+        long remaining = due - now;
+        if (remaining <= 0) {
+            return 0;
+        }
+        while (remaining > 0) {
+            if (stopped.getAsBoolean()) {
+                return -1;
+            }
+            LockSupport.parkNanos(Math.min(remaining, PARK_SLICE_NANOS));
+            remaining = due - System.nanoTime();
+        }
+        return System.nanoTime() - now;
+    }
+
+    /**
+     * Gives the sustained rate.
+     *
+     * @return permits per second
+     */
+    public double getPermitsPerSec() {
+        return 1e9 / intervalNanos;
+    }
+}
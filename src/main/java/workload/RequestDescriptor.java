@@ -0,0 +1,153 @@
+package workload;
+
+/**
+ * Describes one request independently of how it is sent: which endpoint it targets, its parameters,
+ * and which runner sends it and when. Generated and replayed requests are both sent from these, and
+ * they are what the trace recorder writes. Once created, an instance is immutable.
+ * <p>
+ * A runner end descriptor carries no request. It marks that a runner has sent all of its requests.
+ */
+public class RequestDescriptor {
+
+    // Used for parameters that an endpoint does not have (e.g. the lift of a GET request)
+    public static final int NO_KEY = 0;
+    // Used as the resort of requests to endpoints without one
+    public static final String NO_RESORT = "";
+
+    private final String method;
+    private final String path;
+    private final int phase;
+    private final int runnerIndex;
+    private final long sendOffset;
+    private final String resort;
+    private final int day;
+    private final int skierId;
+    private final int liftId;
+    private final int time;
+    private final boolean runnerEnd;
+
+    /**
+     * Constructor for a RequestDescriptor.
+     *
+     * @param method      the HTTP method, e.g. "GET"
+     * @param path        the API path template, e.g. "/skiers/{skierID}/vertical"
+     * @param phase       the phase the request belongs to
+     * @param runnerIndex the index of the sending runner within its phase
+     * @param sendOffset  when the request is meant to be sent, in milliseconds since the run started
+     * @param resort      the resort parameter, or NO_RESORT
+     * @param day         the day parameter, or NO_KEY
+     * @param skierId     the skier parameter
+     * @param liftId      the lift parameter, or NO_KEY
+     * @param time        the ski day minute parameter, or NO_KEY
+     */
+    public RequestDescriptor(String method, String path, int phase, int runnerIndex, long sendOffset,
+                             String resort, int day, int skierId, int liftId, int time) {
+        this.method = method;
+        this.path = path;
+        this.phase = phase;
+        this.runnerIndex = runnerIndex;
+        this.sendOffset = sendOffset;
+        this.resort = resort;
+        this.day = day;
+        this.skierId = skierId;
+        this.liftId = liftId;
+        this.time = time;
+        this.runnerEnd = false;
+    }
+
+    private RequestDescriptor(int phase, int runnerIndex, long sendOffset) {
+        this.method = null;
+        this.path = null;
+        this.phase = phase;
+        this.runnerIndex = runnerIndex;
+        this.sendOffset = sendOffset;
+        this.resort = NO_RESORT;
+        this.day = NO_KEY;
+        this.skierId = NO_KEY;
+        this.liftId = NO_KEY;
+        this.time = NO_KEY;
+        this.runnerEnd = true;
+    }
+
+    /**
+     * Creates a runner end descriptor.
+     *
+     * @param phase       the runner's phase
+     * @param runnerIndex the runner's index within its phase
+     * @param sendOffset  when the runner finished, in milliseconds since the run started
+     * @return the descriptor
+     */
+    public static RequestDescriptor runnerEnd(int phase, int runnerIndex, long sendOffset) {
+        return new RequestDescriptor(phase, runnerIndex, sendOffset);
+    }
+
+    /**
+     * Gives the key a request is reported under, e.g. "GET /skiers/{skierID}/vertical".
+     *
+     * @return the method and path
+     */
+    public String getEndpointKey() {
+        return method + " " + path;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getPhase() {
+        return phase;
+    }
+
+    public int getRunnerIndex() {
+        return runnerIndex;
+    }
+
+    public long getSendOffset() {
+        return sendOffset;
+    }
+
+    public String getResort() {
+        return resort;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public int getSkierId() {
+        return skierId;
+    }
+
+    public int getLiftId() {
+        return liftId;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    public boolean isRunnerEnd() {
+        return runnerEnd;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestDescriptor{" +
+                "method='" + method + '\'' +
+                ", path='" + path + '\'' +
+                ", phase=" + phase +
+                ", runnerIndex=" + runnerIndex +
+                ", sendOffset=" + sendOffset +
+                ", resort='" + resort + '\'' +
+                ", day=" + day +
+                ", skierId=" + skierId +
+                ", liftId=" + liftId +
+                ", time=" + time +
+                ", runnerEnd=" + runnerEnd +
+                '}';
+    }
+}
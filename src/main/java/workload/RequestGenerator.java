@@ -0,0 +1,83 @@
+package workload;
+
+import io.swagger.client.model.LiftRide;
+import java.util.SplittableRandom;
+
+/**
+ * Generates a runner's requests: draws the keys each endpoint uses from the runner's distributions
+ * and builds the request's descriptor. Like the runner's random number generator, an instance is
+ * only ever used by its runner's thread.
+ */
+public class RequestGenerator {
+
+    private SplittableRandom rand;
+    private int phase;
+    private int runnerIndex;
+    private KeyDistribution skierIds;
+    private KeyDistribution times;
+    private KeyDistribution lifts;
+    private WeightedChoice<String> resorts;
+    private WeightedChoice<Integer> days;
+
+    /**
+     * Constructor for a RequestGenerator. The skier and time distributions are set separately, as
+     * they depend on the runner's share of the phase.
+     *
+     * @param rand        the runner's random number generator
+     * @param phase       the runner's phase
+     * @param runnerIndex the runner's index within its phase
+     * @param lifts       the lift ID distribution
+     * @param resorts     the resorts to pick from
+     * @param days        the days to pick from
+     */
+    public RequestGenerator(SplittableRandom rand, int phase, int runnerIndex,
+                            KeyDistribution lifts, WeightedChoice<String> resorts,
+                            WeightedChoice<Integer> days) {
+        this.rand = rand;
+        this.phase = phase;
+        this.runnerIndex = runnerIndex;
+        this.lifts = lifts;
+        this.resorts = resorts;
+        this.days = days;
+    }
+
+    public void setSkierIds(KeyDistribution skierIds) {
+        this.skierIds = skierIds;
+    }
+
+    public void setTimes(KeyDistribution times) {
+        this.times = times;
+    }
+
+    /**
+     * Generates a request to an endpoint. Only the keys the endpoint uses are drawn, always in the
+     * same order, so a seeded runner sends the same requests every run.
+     *
+     * @param endpoint   the endpoint to call
+     * @param sendOffset milliseconds from the start of the run to when the request is sent
+     * @return the request
+     */
+    public RequestDescriptor next(Endpoint endpoint, long sendOffset) {
+        int skierId = endpoint.usesSkier() ? skierIds.next(rand) : RequestDescriptor.NO_KEY;
+        int time = endpoint.usesTime() ? times.next(rand) : RequestDescriptor.NO_KEY;
+        int liftId = endpoint.usesLift() ? lifts.next(rand) : RequestDescriptor.NO_KEY;
+        String resort = endpoint.usesResort() ? resorts.next(rand) : RequestDescriptor.NO_RESORT;
+        int day = endpoint.usesDay() ? days.next(rand) : RequestDescriptor.NO_KEY;
+        return new RequestDescriptor(endpoint.getHttpMethod(), endpoint.getPath(), phase,
+                runnerIndex, sendOffset, resort, day, skierId, liftId, time);
+    }
+
+    /**
+     * Fills in the body of a lift ride POST from its request.
+     *
+     * @param ride    the body, which may be reused between requests
+     * @param request the lift ride request
+     */
+    public static void fillLiftRide(LiftRide ride, RequestDescriptor request) {
+        ride.setResortID(request.getResort());
+        ride.setDayID(String.valueOf(request.getDay()));
+        ride.setSkierID(String.valueOf(request.getSkierId()));
+        ride.setTime(String.valueOf(request.getTime()));
+        ride.setLiftID(String.valueOf(request.getLiftId()));
+    }
+}
@@ -0,0 +1,93 @@
+package workload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A weighted mix of endpoints. Each request picks its endpoint independently from the mix, so reads
+ * and writes are interleaved instead of sent in separate bursts. Once created, an instance is
+ * immutable and can be shared between runners.
+ */
+public class RequestMix {
+
+    private Endpoint[] endpoints;
+    private double[] weights;
+    private AliasTable table;
+
+    private RequestMix(Endpoint[] endpoints, double[] weights) {
+        this.endpoints = endpoints;
+        this.weights = weights;
+        this.table = new AliasTable(weights);
+    }
+
+    /**
+     * Parses a mix such as "postLiftRide:70,getDayVertical:20,getResortVertical:10". Weights are
+     * relative and need not sum to 100.
+     *
+     * @param raw       the raw mix
+     * @param name      the property name, for error messages
+     * @param available the endpoints that can be used, by name
+     * @return the mix
+     * @throws IllegalArgumentException if the mix is malformed or names an unknown endpoint
+     */
+    public static RequestMix parse(String raw, String name, Map<String, Endpoint> available)
+            throws IllegalArgumentException {
+        List<Endpoint> endpoints = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (String entry : raw.split(",")) {
+            String[] parts = entry.trim().split("\\s*:\\s*");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(name + " entries must be endpoint:weight");
+            }
+            Endpoint endpoint = available.get(parts[0]);
+            if (endpoint == null) {
+                throw new IllegalArgumentException(name + " names unknown endpoint " + parts[0]);
+            }
+            double weight;
+            try {
+                weight = Double.parseDouble(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " has a malformed weight for " + parts[0]);
+            }
+            if (weight < 0) {
+                throw new IllegalArgumentException(name + " weights cannot be negative");
+            }
+            endpoints.add(endpoint);
+            weights.add(weight);
+        }
+
+        double[] weightArray = new double[weights.size()];
+        for (int i = 0; i < weightArray.length; i++) {
+            weightArray[i] = weights.get(i);
+        }
+        try {
+            return new RequestMix(endpoints.toArray(new Endpoint[0]), weightArray);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + " weights must have a positive sum");
+        }
+    }
+
+    /**
+     * Picks the endpoint of the next request.
+     *
+     * @param rand the runner's random number generator
+     * @return the endpoint
+     */
+    public Endpoint next(SplittableRandom rand) {
+        return endpoints[table.sample(rand)];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < endpoints.length; i++) {
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append(endpoints[i].getName()).append(":").append(weights[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,234 @@
+package workload;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Describes how a runner retries, times out and hedges its requests. Once created, an instance's
+ * settings are immutable. It holds the one retry budget every runner draws from, so that retries
+ * are limited for the client as a whole rather than per thread.
+ * <p>
+ * Policies:
+ *   - retries: a failed request is sent again after a jittered exponential backoff, as long as the
+ *     client's retry budget allows it
+ *   - deadline: a request, including all its retries and hedges, fails once it has taken this long
+ *   - hedging: a GET that has not been answered after a delay is sent a second time, and the first
+ *     response wins
+ */
+public class RequestPolicy {
+
+    // Retry tokens the client starts with, so early failures can be retried, and saves up at most
+    private static final double MIN_RETRY_TOKENS = 10;
+    private static final double MAX_RETRY_TOKENS = 100;
+
+    private final int maxRetries;
+    private final long retryBaseDelayMs;
+    private final long retryMaxDelayMs;
+    private final double retryBudget;
+    private final boolean retryPosts;
+    private final long deadlineMs;
+    private final boolean hedgeGets;
+    private final long hedgeDelayMs;
+    private final double hedgePercentile;
+    private final RetryBudget sharedRetryBudget;
+
+    private RequestPolicy(int maxRetries, long retryBaseDelayMs, long retryMaxDelayMs,
+                          double retryBudget, boolean retryPosts, long deadlineMs,
+                          boolean hedgeGets, long hedgeDelayMs, double hedgePercentile) {
+        this.maxRetries = maxRetries;
+        this.retryBaseDelayMs = retryBaseDelayMs;
+        this.retryMaxDelayMs = retryMaxDelayMs;
+        this.retryBudget = retryBudget;
+        this.retryPosts = retryPosts;
+        this.deadlineMs = deadlineMs;
+        this.hedgeGets = hedgeGets;
+        this.hedgeDelayMs = hedgeDelayMs;
+        this.hedgePercentile = hedgePercentile;
+        this.sharedRetryBudget = new RetryBudget(retryBudget);
+    }
+
+    /**
+     * Reads a request policy from properties.
+     * Available properties:
+     *   - maxRetries (default: 0, min: 0): retries after a request fails with a 5XX or 429
+     *     response, or without a response
+     *   - retryBaseDelayMs (default: 50, min: 1), retryMaxDelayMs (default: 1000): the backoff
+     *     before retry n is random, up to the base delay doubled n times, capped at the max delay
+     *   - retryBudget (default: 0.1, min: 0): retries allowed per request sent, on top of a small
+     *     reserve, so that retries cannot multiply the load on a failing server
+     *   - retryPosts (default: false): retry POSTs too, which the server must then de-duplicate
+     *   - requestDeadlineMs (default: 0, none): time allowed for a request and all its retries and
+     *     hedges, also used as each attempt's connect and read timeout
+     *   - hedgeGets (default: false): send a second copy of a GET that is slow to be answered
+     *   - hedgeDelayMs (default: 0, adaptive): how long to wait before hedging. When 0, the
+     *     runner's own hedgePercentile (default: 95) first attempt latency for the path is used,
+     *     once there are enough samples
+     *
+     * @param props the properties
+     * @return the policy, or null if no policy is enabled
+     * @throws IllegalArgumentException if any properties are invalid
+     */
+    public static RequestPolicy fromProperties(Properties props) throws IllegalArgumentException {
+        int maxRetries;
+        long retryBaseDelayMs, retryMaxDelayMs, deadlineMs, hedgeDelayMs;
+        double retryBudget, hedgePercentile;
+        try {
+            maxRetries = Integer.parseInt(props.getProperty("maxRetries", "0").trim());
+            retryBaseDelayMs = Long.parseLong(props.getProperty("retryBaseDelayMs", "50").trim());
+            retryMaxDelayMs = Long.parseLong(props.getProperty("retryMaxDelayMs", "1000").trim());
+            retryBudget = Double.parseDouble(props.getProperty("retryBudget", "0.1"));
+            deadlineMs = Long.parseLong(props.getProperty("requestDeadlineMs", "0").trim());
+            hedgeDelayMs = Long.parseLong(props.getProperty("hedgeDelayMs", "0").trim());
+            hedgePercentile = Double.parseDouble(props.getProperty("hedgePercentile", "95"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                    "could not parse request policy - malformed numerical data");
+        }
+        boolean retryPosts = parseFlag(props, "retryPosts");
+        boolean hedgeGets = parseFlag(props, "hedgeGets");
+
+        if (maxRetries < 0 || retryBudget < 0) {
+            throw new IllegalArgumentException("maxRetries and retryBudget cannot be negative");
+        }
+        if (retryBaseDelayMs < 1 || retryMaxDelayMs < retryBaseDelayMs) {
+            throw new IllegalArgumentException(
+                    "retryBaseDelayMs must be at least 1 and at most retryMaxDelayMs");
+        }
+        if (deadlineMs < 0 || deadlineMs > Integer.MAX_VALUE || hedgeDelayMs < 0) {
+            throw new IllegalArgumentException(
+                    "requestDeadlineMs and hedgeDelayMs cannot be negative");
+        }
+        if (hedgePercentile <= 0 || hedgePercentile >= 100) {
+            throw new IllegalArgumentException("hedgePercentile must be between 0 and 100");
+        }
+
+        if (maxRetries == 0 && deadlineMs == 0 && !hedgeGets) {
+            return null;
+        }
+        return new RequestPolicy(maxRetries, retryBaseDelayMs, retryMaxDelayMs, retryBudget,
+                retryPosts, deadlineMs, hedgeGets, hedgeDelayMs, hedgePercentile);
+    }
+
+    private static boolean parseFlag(Properties props, String name)
+            throws IllegalArgumentException {
+        String value = props.getProperty(name, "false").trim();
+        if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException(name + " must be true or false");
+        }
+        return value.equalsIgnoreCase("true");
+    }
+
+    /**
+     * Checks whether a failed request can be retried.
+     *
+     * @param method       the request's HTTP method
+     * @param responseCode the response code, 0 if there was no response
+     * @return true if a retry may succeed and is safe to send
+     */
+    public boolean isRetryable(String method, int responseCode) {
+        if (method.equals("POST") && !retryPosts) {
+            return false;
+        }
+        return responseCode == 0 || responseCode == 429 || responseCode >= 500;
+    }
+
+    /**
+     * Gives a random backoff before a retry, using "full jitter" so that runners failing together
+     * do not retry together.
+     *
+     * @param retry the retry number, 0 for the first retry
+     * @return the backoff in milliseconds
+     */
+    public long backoffMillis(int retry) {
+        long ceiling = retryBaseDelayMs << Math.min(retry, 30);
+        ceiling = Math.min(ceiling, retryMaxDelayMs);
+        return 1 + ThreadLocalRandom.current().nextLong(ceiling);
+    }
+
+    /**
+     * Gives the retry budget shared by every runner using this policy.
+     *
+     * @return the budget
+     */
+    public RetryBudget getRetryBudget() {
+        return sharedRetryBudget;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+
+    public boolean isHedgeGets() {
+        return hedgeGets;
+    }
+
+    public long getHedgeDelayMs() {
+        return hedgeDelayMs;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(maxRetries).append(" retries, budget ").append(retryBudget);
+        builder.append(deadlineMs == 0 ? ", no deadline" : ", deadline " + deadlineMs + " ms");
+        if (hedgeGets) {
+            builder.append(hedgeDelayMs == 0
+                    ? ", GETs hedged at p" + hedgePercentile
+                    : ", GETs hedged after " + hedgeDelayMs + " ms");
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Limits retries to a share of the requests sent. Every request deposits a fraction of a
+     * token, every retry withdraws a whole one. Safe to use from every runner's thread; tokens are
+     * kept in thousandths, so that updates are a single compare-and-set.
+     */
+    public static class RetryBudget {
+
+        private static final long MILLITOKENS_PER_TOKEN = 1000;
+        private static final long MAX_MILLITOKENS =
+                (long) (MAX_RETRY_TOKENS * MILLITOKENS_PER_TOKEN);
+
+        private final long depositPerRequest;
+        private final AtomicLong milliTokens =
+                new AtomicLong((long) (MIN_RETRY_TOKENS * MILLITOKENS_PER_TOKEN));
+
+        private RetryBudget(double depositPerRequest) {
+            this.depositPerRequest = Math.round(depositPerRequest * MILLITOKENS_PER_TOKEN);
+        }
+
+        /**
+         * Deposits the share of one request.
+         */
+        public void deposit() {
+            milliTokens.updateAndGet(
+                    tokens -> Math.min(tokens + depositPerRequest, MAX_MILLITOKENS));
+        }
+
+        /**
+         * Withdraws a token for a retry.
+         *
+         * @return true if there was a token, false if the retry must not be sent
+         */
+        public boolean tryWithdraw() {
+            long tokens = milliTokens.get();
+            while (tokens >= MILLITOKENS_PER_TOKEN) {
+                if (milliTokens.compareAndSet(tokens, tokens - MILLITOKENS_PER_TOKEN)) {
+                    return true;
+                }
+                tokens = milliTokens.get();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package workload;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Caps the rate of requests across every runner: a global limit, plus optional limits for single
+ * endpoints. Shared by all runners; holds no locks.
+ */
+public class RequestThrottle {
+
+    private RateLimiter global;
+    private Map<String, RateLimiter> byEndpointKey = new HashMap<>();
+
+    /**
+     * Constructor for a RequestThrottle.
+     *
+     * @param maxRequestsPerSec          the global limit, or 0 for none
+     * @param maxRequestsPerSecByKey     "method path" -> limit for that endpoint
+     * @param burst                      permits each limiter can hand out at once after idling
+     */
+    public RequestThrottle(double maxRequestsPerSec, Map<String, Double> maxRequestsPerSecByKey,
+                           int burst) {
+        if (maxRequestsPerSec > 0) {
+            this.global = new RateLimiter(maxRequestsPerSec, burst);
+        }
+        for (Map.Entry<String, Double> entry : maxRequestsPerSecByKey.entrySet()) {
+            byEndpointKey.put(entry.getKey(), new RateLimiter(entry.getValue(), burst));
+        }
+    }
+
+    /**
+     * Waits for a permit for one request: first from its endpoint's limiter, if any, then from the
+     * global one, so that the global rate holds when the request is actually sent.
+     *
+     * No permit is given if it would only be due after the deadline, or if the caller is stopped
+     * while waiting, so a runner is not held past the end of its phase; an endpoint permit taken
+     * before the global one is refused is wasted.
+     *
+     * @param endpointKey    the "method path" key of the request
+     * @param deadlineMillis the unix time in milliseconds the permit must be due by, or 0 for none
+     * @param stopped        checked while waiting, true to stop waiting
+     * @return how long the caller waited, in nanoseconds, or -1 if it got no permit
+     */
+    public long acquire(String endpointKey, long deadlineMillis, BooleanSupplier stopped) {
+        long waited = 0;
+        RateLimiter endpointLimiter = byEndpointKey.get(endpointKey);
+        if (endpointLimiter != null) {
+            long wait = endpointLimiter.acquire(deadlineMillis, stopped);
+            if (wait < 0) {
+                return -1;
+            }
+            waited += wait;
+        }
+        if (global != null) {
+            long wait = global.acquire(deadlineMillis, stopped);
+            if (wait < 0) {
+                return -1;
+            }
+            waited += wait;
+        }
+        return waited;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(global == null
+                ? "no global limit"
+                : String.format("%.1f requests/second", global.getPermitsPerSec()));
+        for (Map.Entry<String, RateLimiter> entry : byEndpointKey.entrySet()) {
+            builder.append(String.format(", %s %.1f requests/second",
+                    entry.getKey(), entry.getValue().getPermitsPerSec()));
+        }
+        return builder.toString();
+    }
+}
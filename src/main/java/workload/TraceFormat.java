@@ -0,0 +1,88 @@
+package workload;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Constants and variable length integer encoding shared by the trace recorder and reader.
+ * <p>
+ * A trace starts with MAGIC, VERSION and the run start timestamp as a long, followed by records.
+ * Each record starts with a tag byte:
+ *   - RECORD_STRING: string ID, string. Defines a dictionary entry used by later records.
+ *   - RECORD_REQUEST: endpoint string ID, phase, runner index, send offset change from the previous
+ *     record, resort string ID, day, skier ID, lift ID, time
+ *   - RECORD_RUNNER_END: phase, runner index, send offset change from the previous record
+ * All numbers after the header are variable length. Offset changes are zigzag encoded because
+ * records from different runners are not written in time order.
+ */
+final class TraceFormat {
+
+    static final int MAGIC = 0x42545243; // "BTRC"
+    static final int VERSION = 1;
+
+    static final int RECORD_STRING = 0;
+    static final int RECORD_REQUEST = 1;
+    static final int RECORD_RUNNER_END = 2;
+
+    private TraceFormat() {
+    }
+
+    /**
+     * Writes a long in 7 bit groups, low bits first, so small values take one byte.
+     *
+     * @param out   the output
+     * @param value the value, treated as unsigned
+     * @throws IOException if the value cannot be written
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a long written by writeVarLong.
+     *
+     * @param in the input
+     * @return the value
+     * @throws IOException if the value cannot be read or is malformed
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed trace - variable length number too long");
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a record tag, telling a clean end of the trace apart from a truncated record.
+     *
+     * @param in the input
+     * @return the tag, or -1 at the end of the trace
+     * @throws IOException if the tag cannot be read
+     */
+    static int readTag(DataInput in) throws IOException {
+        try {
+            return in.readUnsignedByte();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+}
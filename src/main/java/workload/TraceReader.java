@@ -0,0 +1,119 @@
+package workload;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a trace written by TraceRecorder one record at a time, so traces of any size can be replayed
+ * without loading them into memory. Only the string dictionary is kept.
+ */
+public class TraceReader implements Closeable {
+
+    private DataInputStream in;
+    private long runStart;
+    private List<String> strings = new ArrayList<>();
+    private long lastOffset;
+
+    /**
+     * Opens a trace and reads its header.
+     *
+     * @param filePath path of the trace
+     * @throws IOException if the trace cannot be opened or is not a trace
+     */
+    public TraceReader(String filePath) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath)));
+        try {
+            if (in.readInt() != TraceFormat.MAGIC) {
+                throw new IOException(filePath + " is not a trace file");
+            }
+            int version = in.readUnsignedByte();
+            if (version != TraceFormat.VERSION) {
+                throw new IOException("unsupported trace version " + version);
+            }
+            this.runStart = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next request or runner end.
+     *
+     * @return the next descriptor, or null at the end of the trace
+     * @throws IOException if the trace cannot be read or is malformed
+     */
+    public RequestDescriptor next() throws IOException {
+        try {
+            int tag = TraceFormat.readTag(in);
+            while (tag == TraceFormat.RECORD_STRING) {
+                int id = (int) TraceFormat.readVarLong(in);
+                if (id != strings.size()) {
+                    throw new IOException("malformed trace - dictionary entry out of order");
+                }
+                strings.add(in.readUTF());
+                tag = TraceFormat.readTag(in);
+            }
+
+            switch (tag) {
+                case -1:
+                    return null;
+                case TraceFormat.RECORD_RUNNER_END:
+                    int endPhase = (int) TraceFormat.readVarLong(in);
+                    int endRunner = (int) TraceFormat.readVarLong(in);
+                    return RequestDescriptor.runnerEnd(endPhase, endRunner, nextOffset());
+                case TraceFormat.RECORD_REQUEST:
+                    String endpoint = string(TraceFormat.readVarLong(in));
+                    int phase = (int) TraceFormat.readVarLong(in);
+                    int runnerIndex = (int) TraceFormat.readVarLong(in);
+                    long sendOffset = nextOffset();
+                    String resort = string(TraceFormat.readVarLong(in));
+                    int day = (int) TraceFormat.readVarLong(in);
+                    int skierId = (int) TraceFormat.readVarLong(in);
+                    int liftId = (int) TraceFormat.readVarLong(in);
+                    int time = (int) TraceFormat.readVarLong(in);
+
+                    int split = endpoint.indexOf(' ');
+                    return new RequestDescriptor(endpoint.substring(0, split),
+                            endpoint.substring(split + 1), phase, runnerIndex, sendOffset, resort, day,
+                            skierId, liftId, time);
+                default:
+                    throw new IOException("malformed trace - unknown record type " + tag);
+            }
+        } catch (EOFException e) {
+            throw new IOException("trace is truncated", e);
+        }
+    }
+
+    /**
+     * Gives the unix time the recorded run started.
+     *
+     * @return the run start timestamp
+     */
+    public long getRunStart() {
+        return runStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private long nextOffset() throws IOException {
+        lastOffset += TraceFormat.unzigzag(TraceFormat.readVarLong(in));
+        return lastOffset;
+    }
+
+    private String string(long id) throws IOException {
+        if (id < 0 || id >= strings.size()) {
+            throw new IOException("malformed trace - unknown string " + id);
+        }
+        return strings.get((int) id);
+    }
+}
@@ -0,0 +1,179 @@
+package workload;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Records every request of a run to a compact binary trace, so that the run can be replayed later.
+ * Runners hand over chunks of requests, which are written by a separate thread so that recording
+ * costs the runners no I/O. See TraceFormat for the file layout.
+ */
+public class TraceRecorder {
+
+    private static final Logger logger = LogManager.getLogger(TraceRecorder.class);
+
+    private String filePath;
+    private BlockingQueue<RequestDescriptor[]> writeQueue = new LinkedBlockingQueue<>();
+    private DataOutputStream out;
+    private Thread writeLoop;
+
+    // String dictionary, so endpoints and resorts are written once
+    private Map<String, Integer> stringIds = new HashMap<>();
+    private long lastOffset;
+    private long numRequests;
+    private boolean failed;
+
+    public TraceRecorder(String filePath) {
+        this.filePath = filePath;
+    }
+
+    /**
+     * Creates the trace file, overwriting any old one, and starts the thread writing to it.
+     *
+     * @param runStart the unix time the run started, which send offsets are relative to
+     * @throws IOException if the file cannot be created
+     */
+    public void start(long runStart) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)));
+        out.writeInt(TraceFormat.MAGIC);
+        out.writeByte(TraceFormat.VERSION);
+        out.writeLong(runStart);
+
+        writeLoop = new Thread(() -> {
+            try {
+                writeLoop();
+            } catch (InterruptedException e) {
+                handleError("trace writing thread was interrupted", e);
+            }
+        });
+        writeLoop.start();
+    }
+
+    /**
+     * Hands a chunk of requests to the writing thread.
+     *
+     * @param requests the requests, which must not be empty
+     */
+    public void push(RequestDescriptor[] requests) {
+        writeQueue.add(requests);
+    }
+
+    /**
+     * Waits for every chunk handed over so far to be written, then closes the trace.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void finish() throws InterruptedException {
+        writeQueue.add(new RequestDescriptor[]{});  // empty signals stop
+        writeLoop.join();
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public long getNumRequests() {
+        return numRequests;
+    }
+
+    /**
+     * The actual loop writing work. A write error stops the recording but not the run.
+     *
+     * @throws InterruptedException if there is a problem with the blocking queue
+     */
+    private void writeLoop() throws InterruptedException {
+        RequestDescriptor[] chunk = writeQueue.take();
+
+        // Empty array will signal that there is not more data
+        while (chunk.length != 0) {
+            if (!failed) {
+                try {
+                    for (RequestDescriptor request : chunk) {
+                        writeRecord(request);
+                    }
+                } catch (IOException e) {
+                    failed = true;
+                    handleError("Problem writing trace, recording stopped", e);
+                }
+            }
+            chunk = writeQueue.take();
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            handleError("Problem closing trace", e);
+        }
+    }
+
+    /**
+     * Writes one request or runner end record, and any dictionary entries it needs first.
+     *
+     * @param request the request
+     * @throws IOException if the record cannot be written
+     */
+    private void writeRecord(RequestDescriptor request) throws IOException {
+        long offsetChange = TraceFormat.zigzag(request.getSendOffset() - lastOffset);
+        lastOffset = request.getSendOffset();
+
+        if (request.isRunnerEnd()) {
+            out.writeByte(TraceFormat.RECORD_RUNNER_END);
+            TraceFormat.writeVarLong(out, request.getPhase());
+            TraceFormat.writeVarLong(out, request.getRunnerIndex());
+            TraceFormat.writeVarLong(out, offsetChange);
+            return;
+        }
+
+        int endpointId = stringId(request.getEndpointKey());
+        int resortId = stringId(request.getResort());
+        out.writeByte(TraceFormat.RECORD_REQUEST);
+        TraceFormat.writeVarLong(out, endpointId);
+        TraceFormat.writeVarLong(out, request.getPhase());
+        TraceFormat.writeVarLong(out, request.getRunnerIndex());
+        TraceFormat.writeVarLong(out, offsetChange);
+        TraceFormat.writeVarLong(out, resortId);
+        TraceFormat.writeVarLong(out, request.getDay());
+        TraceFormat.writeVarLong(out, request.getSkierId());
+        TraceFormat.writeVarLong(out, request.getLiftId());
+        TraceFormat.writeVarLong(out, request.getTime());
+        numRequests++;
+    }
+
+    /**
+     * Gives the dictionary ID of a string, writing a dictionary entry the first time it is seen.
+     *
+     * @param value the string
+     * @return its ID
+     * @throws IOException if the dictionary entry cannot be written
+     */
+    private int stringId(String value) throws IOException {
+        Integer id = stringIds.get(value);
+        if (id == null) {
+            id = stringIds.size();
+            stringIds.put(value, id);
+            out.writeByte(TraceFormat.RECORD_STRING);
+            TraceFormat.writeVarLong(out, id);
+            out.writeUTF(value);
+        }
+        return id;
+    }
+
+    /**
+     * Logs an error and prints it to stderr.
+     *
+     * @param msg the error message
+     * @param e   the exception that occurred
+     */
+    private void handleError(String msg, Exception e) {
+        logger.error(msg + " - " + e.getMessage());
+        System.err.println(msg + " - " + e.getMessage());
+    }
+}
@@ -0,0 +1,94 @@
+package workload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Picks values from a fixed list with given weights, e.g. the resort or day of each request. Once
+ * created, an instance is immutable and can be shared between runners.
+ *
+ * @param <T> the value type
+ */
+public class WeightedChoice<T> {
+
+    private List<T> values;
+    private double[] weights;
+    private AliasTable table;
+
+    /**
+     * Constructor for a WeightedChoice.
+     *
+     * @param values  the values to choose from
+     * @param weights the relative weight of each value, or null for equal weights
+     * @throws IllegalArgumentException if there are no values, the number of weights does not match
+     *                                  or the weights are invalid
+     */
+    public WeightedChoice(List<T> values, double[] weights) throws IllegalArgumentException {
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("there must be at least one value");
+        }
+        if (weights == null) {
+            weights = new double[values.size()];
+            Arrays.fill(weights, 1);
+        }
+        if (weights.length != values.size()) {
+            throw new IllegalArgumentException("there must be one weight per value");
+        }
+        this.values = new ArrayList<>(values);
+        this.weights = weights;
+        this.table = new AliasTable(weights);
+    }
+
+    /**
+     * Parses comma separated weights.
+     *
+     * @param raw  the raw weights
+     * @param name the property name, for error messages
+     * @return the weights
+     * @throws IllegalArgumentException if any weight is malformed
+     */
+    public static double[] parseWeights(String raw, String name) throws IllegalArgumentException {
+        String[] parts = raw.split(",");
+        double[] weights = new double[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                weights[i] = Double.parseDouble(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " has a malformed weight");
+        }
+        return weights;
+    }
+
+    /**
+     * Picks the next value. A single value is returned without drawing, so adding a choice with one
+     * value does not change the random sequence of a seeded run.
+     *
+     * @param rand the runner's random number generator
+     * @return the value
+     */
+    public T next(SplittableRandom rand) {
+        if (values.size() == 1) {
+            return values.get(0);
+        }
+        return values.get(table.sample(rand));
+    }
+
+    public List<T> getValues() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                builder.append(",");
+            }
+            builder.append(values.get(i)).append(":").append(weights[i]);
+        }
+        return builder.toString();
+    }
+}
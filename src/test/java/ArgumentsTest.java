@@ -0,0 +1,119 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArgumentsTest {
+
+    private Properties props;
+
+    @Before
+    public void setRequiredProperties() {
+        props = new Properties();
+        props.setProperty("maxThreads", "32");
+        props.setProperty("resort", "SilverMt");
+        props.setProperty("hostAddress", "http://localhost:8080/");
+    }
+
+    @Test
+    public void skiDaysAcceptRangesAndSingleDays() {
+        props.setProperty("skiDay", "1-3, 10 ,20 - 21");
+        assertEquals(Arrays.asList(1, 2, 3, 10, 20, 21),
+                Arguments.fromProperties(props).getSkiDays());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reversedSkiDayRangeIsRejected() {
+        props.setProperty("skiDay", "5-1");
+        Arguments.fromProperties(props);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void skiDayRangeWithThreeBoundsIsRejected() {
+        props.setProperty("skiDay", "1-3-5");
+        Arguments.fromProperties(props);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void skiDayOutOfYearIsRejected() {
+        props.setProperty("skiDay", "360-367");
+        Arguments.fromProperties(props);
+    }
+
+    @Test
+    public void resortsAreSplitAndTrimmed() {
+        props.setProperty("resort", "SilverMt, Crystal,,");
+        assertEquals(Arrays.asList("SilverMt", "Crystal"),
+                Arguments.fromProperties(props).getResorts());
+    }
+
+    @Test
+    public void phaseWeightsOverrideSharedWeights() {
+        props.setProperty("resort", "SilverMt,Crystal");
+        props.setProperty("resortWeights", "1,0");
+        props.setProperty("phase2.resortWeights", "0,1");
+        Arguments arguments = Arguments.fromProperties(props);
+        SplittableRandom rand = new SplittableRandom(1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("SilverMt", arguments.getResortChoice(1).next(rand));
+            assertEquals("Crystal", arguments.getResortChoice(2).next(rand));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongNumberOfWeightsIsRejected() {
+        props.setProperty("skiDay", "1-3");
+        props.setProperty("dayWeights", "1,2");
+        Arguments.fromProperties(props);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedWeightIsRejected() {
+        props.setProperty("resortWeights", "heavy");
+        Arguments.fromProperties(props);
+    }
+
+    @Test
+    public void phasesAreCountBoundByDefault() {
+        Arguments arguments = Arguments.fromProperties(props);
+        for (int phase = 1; phase <= 3; phase++) {
+            assertEquals(0, arguments.getPhaseDurationSecs(phase));
+            assertEquals(0, arguments.getPhaseTimeoutSecs(phase));
+        }
+    }
+
+    @Test
+    public void phaseBoundsOverrideSharedBounds() {
+        props.setProperty("phaseTimeoutSecs", "600");
+        props.setProperty("phase2.timeoutSecs", "0");
+        props.setProperty("phase2.durationSecs", " 120 ");
+        Arguments arguments = Arguments.fromProperties(props);
+        assertEquals(600, arguments.getPhaseTimeoutSecs(1));
+        assertEquals(0, arguments.getPhaseTimeoutSecs(2));
+        assertEquals(120, arguments.getPhaseDurationSecs(2));
+        assertEquals(0, arguments.getPhaseDurationSecs(3));
+        assertEquals(600, arguments.getPhaseTimeoutSecs(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void phaseWithDurationAndTimeoutIsRejected() {
+        props.setProperty("phase1.durationSecs", "60");
+        props.setProperty("phase1.timeoutSecs", "90");
+        Arguments.fromProperties(props);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePhaseDurationIsRejected() {
+        props.setProperty("phaseDurationSecs", "-1");
+        Arguments.fromProperties(props);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedPhaseTimeoutIsRejected() {
+        props.setProperty("phase3.timeoutSecs", "soon");
+        Arguments.fromProperties(props);
+    }
+}
@@ -0,0 +1,145 @@
+package statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CsvIndexTest {
+
+    private static final String HEADERS = "RequestType,Path,StartTimestamp(ms),Latency(ms),"
+            + "ResponseCode,Phase,SkierID,LiftID,SkiTime,Resort,Day";
+    private static final String POST = "POST /skiers/liftrides";
+    private static final String GET = "GET /skiers/1/vertical";
+    private static final long RUN_START = 1600000000500L;
+    private static final int NUM_ROWS = 3000;
+    private static final int ROWS_PER_BLOCK = 100;
+
+    private File dir;
+    private String csvPathStr;
+    private long[] starts = new long[NUM_ROWS];
+    private long[] latencies = new long[NUM_ROWS];
+    private String[] keys = new String[NUM_ROWS];
+
+    /**
+     * Writes a CSV and its index the way CsvStatsWriter does, with small blocks so a window spans
+     * many of them. Rows are written out of start order, as requests finish.
+     */
+    @Before
+    public void writeIndexedCsv() throws IOException {
+        dir = Files.createTempDirectory("csvindex").toFile();
+        csvPathStr = new File(dir, "run.csv").getPath();
+
+        Random random = new Random(1);
+        StringBuilder csv = new StringBuilder(HEADERS).append('\n');
+        CsvIndexWriter index = new CsvIndexWriter(csvPathStr, csv.length());
+        for (int i = 0; i < NUM_ROWS; i++) {
+            starts[i] = RUN_START + i * 10L - random.nextInt(2000);
+            latencies[i] = 1 + random.nextInt(3000);
+            keys[i] = i % 3 == 0 ? GET : POST;
+            String[] methodPath = keys[i].split(" ");
+            csv.append(methodPath[0]).append(',').append(methodPath[1]).append(',')
+                    .append(starts[i]).append(',').append(latencies[i])
+                    .append(",201,2,1,1,1,1,1\n");
+            index.record(keys[i], starts[i], latencies[i]);
+            if ((i + 1) % ROWS_PER_BLOCK == 0) {
+                index.flushBlock(csv.length());
+            }
+        }
+        index.close(csv.length());
+        Files.write(Paths.get(csvPathStr), csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void deleteDir() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Builds the expected histogram of a path's requests in a window by scanning every row.
+     */
+    private LatencyHistogram scan(long fromTimestamp, long toTimestamp, String pathKey) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            if (starts[i] >= fromTimestamp && starts[i] < toTimestamp && keys[i].equals(pathKey)) {
+                histogram.record(latencies[i]);
+            }
+        }
+        return histogram;
+    }
+
+    private static void assertSameHistogram(LatencyHistogram expected, LatencyHistogram actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getSum(), actual.getSum());
+        assertEquals(expected.getMax(), actual.getMax());
+        assertEquals(expected.getValueAtPercentile(50), actual.getValueAtPercentile(50));
+    }
+
+    private void assertWindowMatchesScan(long fromTimestamp, long toTimestamp) throws IOException {
+        Map<String, LatencyHistogram> result = new CsvStatsReader(csvPathStr)
+                .queryTimeWindow(fromTimestamp, toTimestamp, null);
+        assertSameHistogram(scan(fromTimestamp, toTimestamp, POST), result.get(POST));
+        assertSameHistogram(scan(fromTimestamp, toTimestamp, GET), result.get(GET));
+    }
+
+    @Test
+    public void windowOnBucketEdgesMatchesScan() throws IOException {
+        long from = CsvIndexWriter.bucketOf(RUN_START) + 5 * CsvIndexWriter.BUCKET_MS;
+        assertWindowMatchesScan(from, from + 10 * CsvIndexWriter.BUCKET_MS);
+    }
+
+    @Test
+    public void windowCuttingBucketsMatchesScan() throws IOException {
+        assertWindowMatchesScan(RUN_START + 1234, RUN_START + 17077);
+    }
+
+    @Test
+    public void windowWithinOneBucketMatchesScan() throws IOException {
+        assertWindowMatchesScan(RUN_START + 3100, RUN_START + 3400);
+    }
+
+    @Test
+    public void windowWithoutBucketListMatchesScan() throws IOException {
+        Files.delete(Paths.get(csvPathStr + CsvIndexWriter.BUCKETS_SUFFIX));
+        assertWindowMatchesScan(RUN_START + 1234, RUN_START + 17077);
+    }
+
+    @Test
+    public void queryCanBeRestrictedToOnePath() throws IOException {
+        Map<String, LatencyHistogram> result = new CsvStatsReader(csvPathStr)
+                .queryTimeWindow(RUN_START, RUN_START + 5000, GET);
+        assertSameHistogram(scan(RUN_START, RUN_START + 5000, GET), result.get(GET));
+        assertNull(result.get(POST));
+    }
+
+    @Test
+    public void windowOutsideRunIsEmpty() throws IOException {
+        assertTrue(new CsvStatsReader(csvPathStr)
+                .queryTimeWindow(RUN_START + 100000, RUN_START + 200000, null).isEmpty());
+    }
+
+    @Test
+    public void runStartIsReadWithAndWithoutStartFile() throws IOException {
+        long first = Long.MAX_VALUE;
+        for (long start : starts) {
+            first = Math.min(first, start);
+        }
+        CsvStatsReader reader = new CsvStatsReader(csvPathStr);
+        assertEquals(first, reader.getIndexedRunStart());
+        Files.delete(Paths.get(csvPathStr + CsvIndexWriter.START_SUFFIX));
+        assertEquals(first, reader.getIndexedRunStart());
+    }
+}
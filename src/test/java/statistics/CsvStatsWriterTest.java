@@ -0,0 +1,16 @@
+package statistics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CsvStatsWriterTest {
+
+    @Test
+    public void csvLineFollowsHeaderOrder() {
+        SingleRequestStatistics stats = new SingleRequestStatistics("POST", "/skiers/liftrides",
+                1600000000000L, 42, 201, 2, 1234, 17, 200, "SilverMt", 3, 80, 0);
+        String line = new CsvStatsWriter("unused.csv", null).buildCsvLine(stats);
+        assertEquals("POST,/skiers/liftrides,1600000000000,42,201,2,1234,17,200,SilverMt,3", line);
+    }
+}
@@ -0,0 +1,102 @@
+package statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesOfSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(50.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void emptyHistogramGivesZeros() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void negativeValuesAreCountedAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void bucketsOfLargeValuesAreNarrow() {
+        for (long value = 1024; value < 1L << 40; value = value * 3 / 2 + 7) {
+            long low = LatencyHistogram.valueOf(LatencyHistogram.indexOf(value));
+            assertTrue("bucket start above " + value, low <= value);
+            assertTrue("bucket of " + value + " too wide", (value - low) / (double) value < 0.002);
+        }
+    }
+
+    @Test
+    public void percentilesOfLargeValuesAreWithinBucketWidth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 10000; value <= 20000; value++) {
+            histogram.record(value);
+        }
+        long median = histogram.getValueAtPercentile(50);
+        assertEquals(15000, median, 15000 * 0.002);
+        assertEquals(10000, histogram.getValueAtPercentile(0));
+        assertEquals(20000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void mergeMatchesRecordingEverythingInOne() {
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (long value = 0; value < 5000; value += 3) {
+            all.record(value);
+            (value % 2 == 0 ? first : second).record(value);
+        }
+        first.merge(second);
+        first.merge(new LatencyHistogram());
+
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getSum(), first.getSum());
+        assertEquals(all.getMin(), first.getMin());
+        assertEquals(all.getMax(), first.getMax());
+        assertEquals(all.getStdDev(), first.getStdDev(), 1e-9);
+        for (double percentile : new double[]{1, 25, 50, 90, 99, 99.9}) {
+            assertEquals(all.getValueAtPercentile(percentile),
+                    first.getValueAtPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void compactStringRoundTrips() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3, 4);
+        histogram.record(70000);
+        LatencyHistogram read = LatencyHistogram.fromCompactString(histogram.toCompactString());
+
+        assertEquals(histogram.getCount(), read.getCount());
+        assertEquals(histogram.getSum(), read.getSum());
+        assertEquals(histogram.getMin(), read.getMin());
+        assertEquals(histogram.getMax(), read.getMax());
+        assertEquals(histogram.getValueAtPercentile(90), read.getValueAtPercentile(90));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void malformedCompactStringIsRejected() {
+        LatencyHistogram.fromCompactString("1;2;3");
+    }
+}
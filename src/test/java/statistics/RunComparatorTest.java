@@ -0,0 +1,106 @@
+package statistics;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class RunComparatorTest {
+
+    private static final String POST = "POST /skiers/liftrides";
+    private static final String GET = "GET /skiers/1/days/1/skiers/1";
+    private static final long SEED = 1;
+
+    /**
+     * Records a path's requests, one every 10 ms, with latencies around a base.
+     */
+    private static void recordPath(RunSummary summary, String key, long baseLatency) {
+        for (int i = 0; i < 2000; i++) {
+            summary.record(key, i * 10L, baseLatency + i % 10);
+        }
+    }
+
+    private static Map<String, Double> budget(String metric, double pct) {
+        Map<String, Double> budget = new HashMap<>();
+        budget.put(metric, pct);
+        return budget;
+    }
+
+    @Test
+    public void identicalRunsPass() {
+        RunSummary baseline = new RunSummary();
+        RunSummary candidate = new RunSummary();
+        recordPath(baseline, POST, 20);
+        recordPath(candidate, POST, 20);
+        RunComparator comparator = new RunComparator(baseline, candidate,
+                budget(RunComparator.MEAN, 5), SEED);
+        comparator.compare();
+        assertFalse(comparator.hasRegression());
+    }
+
+    @Test
+    public void slowerRunBeyondBudgetRegresses() {
+        RunSummary baseline = new RunSummary();
+        RunSummary candidate = new RunSummary();
+        recordPath(baseline, POST, 20);
+        recordPath(candidate, POST, 40);
+        RunComparator comparator = new RunComparator(baseline, candidate,
+                budget(RunComparator.MEAN, 5), SEED);
+        comparator.compare();
+        assertTrue(comparator.hasRegression());
+    }
+
+    @Test
+    public void slowerRunWithinBudgetPasses() {
+        RunSummary baseline = new RunSummary();
+        RunSummary candidate = new RunSummary();
+        recordPath(baseline, POST, 20);
+        recordPath(candidate, POST, 21);
+        RunComparator comparator = new RunComparator(baseline, candidate,
+                budget(RunComparator.MEAN, 50), SEED);
+        comparator.compare();
+        assertFalse(comparator.hasRegression());
+    }
+
+    @Test
+    public void metricWithoutBudgetNeverRegresses() {
+        RunSummary baseline = new RunSummary();
+        RunSummary candidate = new RunSummary();
+        recordPath(baseline, POST, 20);
+        recordPath(candidate, POST, 40);
+        RunComparator comparator = new RunComparator(baseline, candidate,
+                Collections.<String, Double>emptyMap(), SEED);
+        comparator.compare();
+        assertFalse(comparator.hasRegression());
+    }
+
+    @Test
+    public void pathMissingFromCandidateRegresses() {
+        RunSummary baseline = new RunSummary();
+        RunSummary candidate = new RunSummary();
+        recordPath(baseline, POST, 20);
+        recordPath(baseline, GET, 20);
+        recordPath(candidate, POST, 20);
+        RunComparator comparator = new RunComparator(baseline, candidate,
+                Collections.<String, Double>emptyMap(), SEED);
+        comparator.compare();
+        assertTrue(comparator.hasRegression());
+        assertTrue(comparator.toString().contains(GET + ": only present in baseline run"));
+    }
+
+    @Test
+    public void pathOnlyInCandidatePasses() {
+        RunSummary baseline = new RunSummary();
+        RunSummary candidate = new RunSummary();
+        recordPath(baseline, POST, 20);
+        recordPath(candidate, POST, 20);
+        recordPath(candidate, GET, 20);
+        RunComparator comparator = new RunComparator(baseline, candidate,
+                budget(RunComparator.MEAN, 5), SEED);
+        comparator.compare();
+        assertFalse(comparator.hasRegression());
+    }
+}
@@ -0,0 +1,110 @@
+package statistics;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class SloCheckTest {
+
+    private static final String POST = "POST /skiers/liftrides";
+    private static final String GET = "GET /skiers/{skierID}/vertical";
+    private static final String PEAK = BulkRequestStatistics.getPhaseName(2);
+
+    private static Map<String, Object> path(double p99Ms) {
+        Map<String, Object> path = new LinkedHashMap<>();
+        path.put("meanMs", p99Ms / 4);
+        path.put("p99Ms", p99Ms);
+        return path;
+    }
+
+    /**
+     * Builds a summary shaped like BulkRequestStatistics.toSummaryMap, with a peak phase whose GETs
+     * are slower than the headline ones.
+     */
+    private static Map<String, Object> summary() {
+        Map<String, Object> paths = new LinkedHashMap<>();
+        paths.put(POST, path(100));
+        paths.put(GET, path(200));
+        Map<String, Object> peakPaths = new LinkedHashMap<>();
+        peakPaths.put(POST, path(110));
+        peakPaths.put(GET, path(300));
+
+        Map<String, Object> peak = new LinkedHashMap<>();
+        peak.put("throughputPerSec", 5000.0);
+        peak.put("paths", peakPaths);
+        Map<String, Object> phases = new LinkedHashMap<>();
+        phases.put(PEAK, peak);
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("errorRatePct", 0.05);
+        summary.put("throughputPerSec", 4500.0);
+        summary.put("wallTimeSecs", Double.NaN);
+        summary.put("paths", paths);
+        summary.put("phases", phases);
+        return summary;
+    }
+
+    private static boolean check(String... lines) {
+        return new SloCheck(Arrays.asList(lines), "test").check(summary());
+    }
+
+    @Test
+    public void runMetricsAreChecked() {
+        assertTrue(check("errorRatePct < 0.1%", "throughputPerSec >= 4500/s"));
+        assertFalse(check("throughputPerSec > 4500"));
+    }
+
+    @Test
+    public void commentsAndBlankLinesAreSkipped() {
+        assertTrue(check("# objectives", "", "errorRatePct <= 0.05"));
+    }
+
+    @Test
+    public void pathMetricsHoldForEveryMatchingPath() {
+        assertTrue(check("POST p99Ms < 120ms"));
+        assertFalse(check("p99Ms < 120ms"));
+        assertTrue(check("p99Ms <= 200ms"));
+    }
+
+    @Test
+    public void phaseScopeReadsThePhase() {
+        assertTrue(check(PEAK + " throughputPerSec > 4800"));
+        assertFalse(check(PEAK + " GET p99Ms <= 250ms"));
+        assertTrue(check(PEAK + " POST /skiers p99Ms <= 110"));
+    }
+
+    @Test
+    public void unmatchedOrUnmeasuredObjectiveIsMissed() {
+        assertFalse(check("DELETE p99Ms < 1000"));
+        assertFalse(check("wallTimeSecs > 0"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOperatorIsRejected() {
+        new SloCheck(Arrays.asList("p99Ms == 100"), "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMetricIsRejected() {
+        new SloCheck(Arrays.asList("POST p42Ms < 100"), "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedLimitIsRejected() {
+        new SloCheck(Arrays.asList("errorRatePct < low"), "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingLimitIsRejected() {
+        new SloCheck(Arrays.asList("errorRatePct <"), "test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fileWithoutObjectivesIsRejected() {
+        new SloCheck(Arrays.asList("# nothing yet"), "test");
+    }
+}
@@ -0,0 +1,69 @@
+package statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class SpaceSavingSketchTest {
+
+    @Test
+    public void countsAreExactBelowCapacity() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(10);
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= i; j++) {
+                sketch.record(i, 10 * j);
+            }
+        }
+        List<SpaceSavingSketch.Counter> top = sketch.getTop(3);
+        assertEquals(3, top.size());
+        assertEquals(4, top.get(0).getKey());
+        assertEquals(5, top.get(0).getCount());
+        assertEquals(0, top.get(0).getError());
+        assertEquals(40, top.get(0).getMaxLatency());
+        assertEquals(3, top.get(1).getKey());
+        assertEquals(2, top.get(2).getKey());
+    }
+
+    @Test
+    public void estimatesBoundTrueCounts() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(20);
+        Map<Integer, Long> trueCounts = new HashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            // A few hot keys among many cold ones
+            int key = random.nextInt(4) == 0 ? random.nextInt(5) : 100 + random.nextInt(1000);
+            sketch.record(key, 1);
+            Long count = trueCounts.get(key);
+            trueCounts.put(key, count == null ? 1 : count + 1);
+        }
+
+        List<SpaceSavingSketch.Counter> top = sketch.getTop(20);
+        for (SpaceSavingSketch.Counter counter : top) {
+            long trueCount = trueCounts.get(counter.getKey());
+            assertTrue(counter.getCount() >= trueCount);
+            assertTrue(counter.getCount() - counter.getError() <= trueCount);
+        }
+        // Every hot key is tracked, and they lead
+        for (int i = 0; i < 5; i++) {
+            assertTrue("hot key " + i + " missing", top.get(i).getKey() < 5);
+        }
+    }
+
+    @Test
+    public void topIsLimitedToTrackedKeys() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(4);
+        sketch.record(1, 1);
+        sketch.record(2, 1);
+        assertEquals(2, sketch.getTop(10).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveCapacityIsRejected() {
+        new SpaceSavingSketch(0);
+    }
+}
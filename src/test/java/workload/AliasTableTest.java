@@ -0,0 +1,57 @@
+package workload;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+public class AliasTableTest {
+
+    private static final int NUM_DRAWS = 200000;
+
+    private static int[] draw(AliasTable table) {
+        SplittableRandom rand = new SplittableRandom(1);
+        int[] counts = new int[table.size()];
+        for (int i = 0; i < NUM_DRAWS; i++) {
+            counts[table.sample(rand)]++;
+        }
+        return counts;
+    }
+
+    @Test
+    public void samplesFollowWeights() {
+        double[] weights = new double[]{1, 2, 3, 4};
+        int[] counts = draw(new AliasTable(weights));
+        for (int i = 0; i < weights.length; i++) {
+            assertEquals(weights[i] / 10, counts[i] / (double) NUM_DRAWS, 0.01);
+        }
+    }
+
+    @Test
+    public void zeroWeightIsNeverDrawn() {
+        int[] counts = draw(new AliasTable(new double[]{0, 5, 0, 5}));
+        assertEquals(0, counts[0]);
+        assertEquals(0, counts[2]);
+    }
+
+    @Test
+    public void singleWeightAlwaysDrawsIt() {
+        int[] counts = draw(new AliasTable(new double[]{0.3}));
+        assertEquals(NUM_DRAWS, counts[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeWeightIsRejected() {
+        new AliasTable(new double[]{1, -1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroSumIsRejected() {
+        new AliasTable(new double[]{0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noWeightsAreRejected() {
+        new AliasTable(new double[]{});
+    }
+}
@@ -0,0 +1,87 @@
+package workload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+public class DistributionSpecTest {
+
+    private static DistributionSpec spec(String... nameValues) {
+        Properties props = new Properties();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            props.setProperty(nameValues[i], nameValues[i + 1]);
+        }
+        return DistributionSpec.fromProperties(props, "skier");
+    }
+
+    private static int[] draw(KeyDistribution distribution, int low, int high, int numDraws) {
+        SplittableRandom rand = new SplittableRandom(1);
+        int[] counts = new int[high - low + 1];
+        for (int i = 0; i < numDraws; i++) {
+            int key = distribution.next(rand);
+            assertTrue("key " + key + " out of range", key >= low && key <= high);
+            counts[key - low]++;
+        }
+        return counts;
+    }
+
+    @Test
+    public void defaultIsUniform() {
+        assertEquals(DistributionSpec.Type.UNIFORM, spec().getType());
+    }
+
+    @Test
+    public void sequentialWrapsAround() {
+        KeyDistribution distribution = spec("skierDistribution", "sequential").create(5, 7);
+        SplittableRandom rand = new SplittableRandom(1);
+        int[] expected = new int[]{5, 6, 7, 5, 6};
+        for (int key : expected) {
+            assertEquals(key, distribution.next(rand));
+        }
+    }
+
+    @Test
+    public void zipfFavoursLowKeys() {
+        KeyDistribution distribution = spec("skierDistribution", "Zipf",
+                "skierZipfExponent", "1").create(1, 100);
+        int[] counts = draw(distribution, 1, 100, 100000);
+        // Rank 1 has twice the weight of rank 2
+        assertEquals(2.0, counts[0] / (double) counts[1], 0.15);
+        assertTrue(counts[0] > counts[99] * 50);
+    }
+
+    @Test
+    public void hotspotSendsTrafficToHotKeys() {
+        KeyDistribution distribution = spec("skierDistribution", "hotspot",
+                "skierHotKeyFraction", "0.1", "skierHotTrafficFraction", "0.9").create(1, 100);
+        int[] counts = draw(distribution, 1, 100, 100000);
+        int hot = 0;
+        for (int i = 0; i < 10; i++) {
+            hot += counts[i];
+        }
+        assertEquals(0.9, hot / 100000.0, 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTypeIsRejected() {
+        spec("skierDistribution", "gaussian");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveExponentIsRejected() {
+        spec("skierDistribution", "zipf", "skierZipfExponent", "0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hotTrafficAboveOneIsRejected() {
+        spec("skierHotTrafficFraction", "1.5");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reversedRangeIsRejected() {
+        spec().create(10, 1);
+    }
+}
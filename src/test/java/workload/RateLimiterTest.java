@@ -0,0 +1,74 @@
+package workload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    // 20 permits per second, one every 50 ms
+    private static final double RATE = 20;
+    private static final long INTERVAL_NANOS = 50_000_000;
+
+    private static long acquire(RateLimiter limiter) {
+        return limiter.acquire(0, () -> false);
+    }
+
+    @Test
+    public void burstIsAvailableAtOnceThenPaced() {
+        RateLimiter limiter = new RateLimiter(RATE, 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, acquire(limiter));
+        }
+        long waited = acquire(limiter);
+        assertTrue("waited " + waited, waited > INTERVAL_NANOS / 2);
+        waited = acquire(limiter);
+        assertTrue("waited " + waited, waited > INTERVAL_NANOS / 2);
+    }
+
+    @Test
+    public void sustainedRateIsKept() {
+        RateLimiter limiter = new RateLimiter(RATE, 1);
+        long start = System.nanoTime();
+        for (int i = 0; i < 6; i++) {
+            acquire(limiter);
+        }
+        // The first permit is free, the other five are each an interval apart
+        assertTrue(System.nanoTime() - start >= 5 * INTERVAL_NANOS - 1_000_000);
+    }
+
+    @Test
+    public void permitDueAfterDeadlineIsNotReserved() {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        assertEquals(0, acquire(limiter));
+        assertEquals(-1, limiter.acquire(System.currentTimeMillis() + 100, () -> false));
+        // The refused permit was not taken, so the next one is still due within a second
+        long waited = acquire(limiter);
+        assertTrue("waited " + waited, waited > 0 && waited <= 1_000_000_000L);
+    }
+
+    @Test
+    public void stoppedWaiterGivesUp() {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        acquire(limiter);
+        long start = System.nanoTime();
+        assertEquals(-1, limiter.acquire(0, () -> true));
+        assertTrue(System.nanoTime() - start < 500_000_000L);
+    }
+
+    @Test
+    public void rateIsReported() {
+        assertEquals(RATE, new RateLimiter(RATE, 1).getPermitsPerSec(), 1e-6);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonPositiveRateIsRejected() {
+        new RateLimiter(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void burstBelowOneIsRejected() {
+        new RateLimiter(RATE, 0);
+    }
+}
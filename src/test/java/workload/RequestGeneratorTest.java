@@ -0,0 +1,65 @@
+package workload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+public class RequestGeneratorTest {
+
+    private static final Map<String, Endpoint> ENDPOINTS = Endpoint.fromProperties(new Properties());
+
+    private static RequestGenerator newGenerator(long seed) {
+        DistributionSpec uniform = DistributionSpec.fromProperties(new Properties(), "skier");
+        RequestGenerator generator = new RequestGenerator(new SplittableRandom(seed), 2, 7,
+                uniform.create(1, 40),
+                new WeightedChoice<>(Arrays.asList("SilverMt", "Crystal"), null),
+                new WeightedChoice<>(Arrays.asList(1, 2, 3), null));
+        generator.setSkierIds(uniform.create(101, 200));
+        generator.setTimes(uniform.create(91, 360));
+        return generator;
+    }
+
+    @Test
+    public void seededGeneratorsGenerateTheSameRequests() {
+        RequestGenerator first = newGenerator(42);
+        RequestGenerator second = newGenerator(42);
+        for (int i = 0; i < 1000; i++) {
+            for (Endpoint endpoint : ENDPOINTS.values()) {
+                assertEquals(first.next(endpoint, i).toString(),
+                        second.next(endpoint, i).toString());
+            }
+        }
+    }
+
+    @Test
+    public void keysAreDrawnFromTheirRanges() {
+        RequestGenerator generator = newGenerator(1);
+        Endpoint post = ENDPOINTS.get(Endpoint.POST_LIFT_RIDE);
+        for (int i = 0; i < 1000; i++) {
+            RequestDescriptor request = generator.next(post, 5);
+            assertEquals(2, request.getPhase());
+            assertEquals(7, request.getRunnerIndex());
+            assertEquals(5, request.getSendOffset());
+            assertTrue(request.getSkierId() >= 101 && request.getSkierId() <= 200);
+            assertTrue(request.getTime() >= 91 && request.getTime() <= 360);
+            assertTrue(request.getLiftId() >= 1 && request.getLiftId() <= 40);
+            assertTrue(request.getDay() >= 1 && request.getDay() <= 3);
+        }
+    }
+
+    @Test
+    public void unusedKeysAreNotDrawn() {
+        // The resort vertical GET only uses a skier and a resort
+        RequestDescriptor request = newGenerator(1).next(
+                ENDPOINTS.get(Endpoint.GET_RESORT_VERTICAL), 0);
+        assertTrue(request.getSkierId() >= 101 && request.getSkierId() <= 200);
+        assertEquals(RequestDescriptor.NO_KEY, request.getDay());
+        assertEquals(RequestDescriptor.NO_KEY, request.getLiftId());
+        assertEquals(RequestDescriptor.NO_KEY, request.getTime());
+    }
+}
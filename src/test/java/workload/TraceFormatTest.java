@@ -0,0 +1,67 @@
+package workload;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class TraceFormatTest {
+
+    private static final long[] VALUES = new long[]{
+            0, 1, 63, 64, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, 1L << 40,
+            Long.MAX_VALUE, -1, -64, -65, Integer.MIN_VALUE, Long.MIN_VALUE
+    };
+
+    private static byte[] write(long... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (long value : values) {
+            TraceFormat.writeVarLong(out, value);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void varLongsRoundTrip() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(VALUES)));
+        for (long value : VALUES) {
+            assertEquals(value, TraceFormat.readVarLong(in));
+        }
+        assertEquals(-1, TraceFormat.readTag(in));
+    }
+
+    @Test
+    public void smallValuesTakeOneByte() throws IOException {
+        assertEquals(1, write(0).length);
+        assertEquals(1, write(127).length);
+        assertEquals(2, write(128).length);
+        assertEquals(10, write(-1).length);
+    }
+
+    @Test
+    public void zigzagRoundTrips() {
+        for (long value : VALUES) {
+            assertEquals(value, TraceFormat.unzigzag(TraceFormat.zigzag(value)));
+        }
+    }
+
+    @Test
+    public void zigzagKeepsSmallNegativesSmall() {
+        assertEquals(0, TraceFormat.zigzag(0));
+        assertEquals(1, TraceFormat.zigzag(-1));
+        assertEquals(2, TraceFormat.zigzag(1));
+        assertEquals(127, TraceFormat.zigzag(-64));
+    }
+
+    @Test(expected = IOException.class)
+    public void overlongVarLongIsRejected() throws IOException {
+        byte[] bytes = new byte[11];
+        Arrays.fill(bytes, (byte) 0x80);
+        TraceFormat.readVarLong(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+}
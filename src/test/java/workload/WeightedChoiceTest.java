@@ -0,0 +1,52 @@
+package workload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SplittableRandom;
+import org.junit.Test;
+
+public class WeightedChoiceTest {
+
+    @Test
+    public void singleValueDoesNotDraw() {
+        WeightedChoice<String> choice = new WeightedChoice<>(
+                Collections.singletonList("SilverMt"), null);
+        SplittableRandom used = new SplittableRandom(1);
+        SplittableRandom unused = new SplittableRandom(1);
+        assertEquals("SilverMt", choice.next(used));
+        assertEquals(unused.nextLong(), used.nextLong());
+    }
+
+    @Test
+    public void choicesFollowWeights() {
+        WeightedChoice<Integer> choice = new WeightedChoice<>(Arrays.asList(1, 2),
+                WeightedChoice.parseWeights(" 3, 1", "dayWeights"));
+        SplittableRandom rand = new SplittableRandom(1);
+        int ones = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (choice.next(rand) == 1) {
+                ones++;
+            }
+        }
+        assertEquals(0.75, ones / 100000.0, 0.01);
+    }
+
+    @Test
+    public void weightsAreParsed() {
+        assertArrayEquals(new double[]{1, 0.5, 2}, WeightedChoice.parseWeights("1,0.5, 2", "w"),
+                0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void weightCountMustMatchValues() {
+        new WeightedChoice<>(Arrays.asList(1, 2), new double[]{1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noValuesAreRejected() {
+        new WeightedChoice<>(Collections.<Integer>emptyList(), null);
+    }
+}